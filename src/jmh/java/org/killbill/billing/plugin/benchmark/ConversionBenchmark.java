@@ -0,0 +1,103 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.benchmark;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloUtils;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Conversion of synthetic amberflo catalogs into the Kill Bill model, without any HTTP call:
+ * the prices are served by StubAmberfloHttpClient. Run with -prof gc for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ConversionBenchmark {
+
+  @Param({"10", "1000", "50000"})
+  public int plans;
+
+  @Param({"1", "5", "20"})
+  public int maxTiers;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private List<ProductPlans> productPlans;
+  private List<ProductItem> productItems;
+  private AmberfloUtils utils;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder()
+            .withSeed(42)
+            .withPlans(plans)
+            .withProductItems(Math.max(1, plans / 10))
+            .build();
+    productItems = catalog.getProductItems();
+    productPlans = catalog.getPlans();
+
+    StubAmberfloHttpClient client =
+        new StubAmberfloHttpClient(CatalogInterner.SHARED, parallelism, maxTiers);
+    utils = new AmberfloUtils(client, CatalogInterner.SHARED, parallelism, false);
+  }
+
+  @Benchmark
+  public List<Plan> convertToKillBillPlanModel() throws Exception {
+    return utils.convertToKillBillPlanModel(productPlans, productItems);
+  }
+
+  @Benchmark
+  public Set<Unit> getUnits() {
+    return utils.getUnits(productItems);
+  }
+
+  @Benchmark
+  public PriceList getPriceList() throws Exception {
+    return utils.getPriceList(productPlans, productItems);
+  }
+
+  @Benchmark
+  public PlanRules buildRules() {
+    return utils.buildRules();
+  }
+}
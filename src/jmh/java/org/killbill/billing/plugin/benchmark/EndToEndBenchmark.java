@@ -0,0 +1,171 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.benchmark;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.AmberfloFixtures;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * getVersionedPluginCatalog against an in-process WireMock stub of amberflo serving the TestBase
+ * fixtures, with a configurable latency and jitter on every response:
+ *
+ *   cold             every call follows a catalog refresh and waits for a rebuild
+ *   warm             every call is served by the cached catalog
+ *   warmConcurrent   cached catalog, 8 callers
+ *   refreshUnderLoad 1 caller refreshing the catalog while 7 others keep reading it
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Stub {
+
+    @Param({"0", "50"})
+    public int latencyMillis;
+
+    @Param({"0", "20"})
+    public int jitterMillis;
+
+    // 0 makes the callers wait for the rebuild instead of being served the previous catalog
+    @Param({"0", "20"})
+    public int deadlineMillis;
+
+    WireMockServer server;
+    CatalogPluginApiImpl api;
+    TenantContext context;
+
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    @Setup(Level.Trial)
+    public void start() {
+      server = new WireMockServer(wireMockConfig().dynamicPort());
+      server.start();
+      AmberfloFixtures.register(
+          server,
+          response ->
+              latencyMillis == 0 && jitterMillis == 0
+                  ? response
+                  : response.withUniformRandomDelay(
+                      Math.max(0, latencyMillis - jitterMillis), latencyMillis + jitterMillis));
+
+      Properties properties = new Properties();
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.url", "http://localhost:" + server.port());
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.getPlans", AmberfloFixtures.PLANS_URL);
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.getPrices", AmberfloFixtures.PRICES_URL);
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.getProducts",
+          AmberfloFixtures.PRODUCTS_URL);
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.catalogDeadlineMillis",
+          Integer.toString(deadlineMillis));
+
+      api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+
+      context = new PluginTenantContext(null, UUID.randomUUID());
+
+      // The first catalog is built here, so the warm benchmarks only measure cached reads
+      get();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+      api.close();
+      server.stop();
+    }
+
+    void refresh() {
+      api.getAtomic().set(new DateTime(version.incrementAndGet()));
+    }
+
+    VersionedPluginCatalog get() {
+      return api.getVersionedPluginCatalog(null, context);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cold {
+
+    @Setup(Level.Invocation)
+    public void refresh(Stub stub) {
+      stub.refresh();
+    }
+  }
+
+  @Benchmark
+  public VersionedPluginCatalog cold(Stub stub, Cold cold) {
+    return stub.get();
+  }
+
+  @Benchmark
+  public VersionedPluginCatalog warm(Stub stub) {
+    return stub.get();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public VersionedPluginCatalog warmConcurrent(Stub stub) {
+    return stub.get();
+  }
+
+  @Benchmark
+  @Group("refreshUnderLoad")
+  @GroupThreads(1)
+  public VersionedPluginCatalog refresher(Stub stub) {
+    stub.refresh();
+    return stub.get();
+  }
+
+  @Benchmark
+  @Group("refreshUnderLoad")
+  @GroupThreads(7)
+  public VersionedPluginCatalog reader(Stub stub) {
+    return stub.get();
+  }
+}
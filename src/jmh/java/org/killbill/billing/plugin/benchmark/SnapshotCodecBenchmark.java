@@ -0,0 +1,89 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotCodec;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Encoding and decoding of the binary catalog snapshots, for synthetic catalogs of growing size
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class SnapshotCodecBenchmark {
+
+  @Param({"1000", "15000", "50000"})
+  public int plans;
+
+  private CatalogSnapshot snapshot;
+  private byte[] encoded;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder()
+            .withSeed(42)
+            .withPlans(plans)
+            .withProductItems(Math.max(1, plans / 10))
+            .build();
+    StandalonePluginCatalog standalone =
+        new StubAmberfloHttpClient(CatalogInterner.SHARED, 4, 5)
+            .buildCatalog(catalog.getPlans(), catalog.getProductItems());
+
+    snapshot =
+        new CatalogSnapshot(
+            new VersionedPluginCatalogImp(
+                new VersionedPluginCatalogImp.Builder<>()
+                    .withCatalogName("Amberflo Catalog")
+                    .withStandalonePluginCatalogs(Collections.singletonList(standalone))
+                    .build()),
+            DateTime.now(),
+            System.currentTimeMillis(),
+            0);
+    encoded = CatalogSnapshotCodec.encode(snapshot);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return CatalogSnapshotCodec.encode(snapshot);
+  }
+
+  @Benchmark
+  public CatalogSnapshot decode() throws Exception {
+    return CatalogSnapshotCodec.decode(encoded);
+  }
+}
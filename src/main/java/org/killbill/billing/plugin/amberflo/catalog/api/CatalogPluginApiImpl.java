@@ -14,8 +14,33 @@
  */
 package org.killbill.billing.plugin.amberflo.catalog.api;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.Getter;
 import org.joda.time.DateTime;
@@ -24,48 +49,642 @@ import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
 import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloClientRegistry;
 import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
 import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationHandler;
 import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.jfr.CatalogFlightRecorder;
+import org.killbill.billing.plugin.amberflo.catalog.journal.PayloadJournal;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotStore;
 import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.commons.metrics.api.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CatalogPluginApiImpl implements CatalogPluginApi {
 
+  private static final Logger logger = LoggerFactory.getLogger(CatalogPluginApiImpl.class);
+
+  public static final String METRIC_STALE_SERVES = "catalog.staleServes";
+  public static final String METRIC_DEADLINE_MISSES = "catalog.deadlineMisses";
+
   @Getter private final AtomicReference<DateTime> atomic;
 
+  // Version of each tenant whose configuration changed since the latest refresh
+  private final ConcurrentMap<UUID, DateTime> tenantVersions = new ConcurrentHashMap<>();
+
   private final CatalogConfigurationHandler configHandler;
 
+  // Last catalog built for each tenant, served when a rebuild misses its deadline
+  private final ConcurrentMap<UUID, CatalogSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  // Builds currently running, so concurrent callers for a tenant share a single rebuild
+  private final ConcurrentMap<UUID, CompletableFuture<CatalogSnapshot>> builds =
+      new ConcurrentHashMap<>();
+
+  // Time of the last catalog request of each tenant
+  private final ConcurrentMap<UUID, Long> lastReads = new ConcurrentHashMap<>();
+
+  // Failed builds in a row for each tenant, cleared by the next successful build
+  private final ConcurrentMap<UUID, Integer> consecutiveFailures = new ConcurrentHashMap<>();
+
+  // Traces of the last builds of each tenant, oldest first
+  private final ConcurrentMap<UUID, Deque<CatalogBuildTrace>> traces = new ConcurrentHashMap<>();
+
+  // Last catalog versions built for each tenant, oldest first, kept to diff them
+  private final ConcurrentMap<UUID, Deque<CatalogSnapshot>> versions = new ConcurrentHashMap<>();
+
+  private final ExecutorService buildExecutor;
+
+  // Workers converting the plans of every tenant, sized by the default conversion parallelism
+  private final ForkJoinPool conversionPool;
+
+  // Rebuilds after a configuration change, by the time they are due once uploads settle
+  private final ConcurrentMap<UUID, Long> pendingRebuilds = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService rebuildScheduler;
+
+  // Journal of the amberflo payloads of each tenant, by directory, open until the plugin stops
+  private final ConcurrentMap<Path, PayloadJournal> journals = new ConcurrentHashMap<>();
+
+  private final CatalogMetrics metrics;
+
+  // Objects shared by the catalogs of every tenant, held while a catalog still uses them
+  private final CatalogInterner interner = new CatalogInterner(true);
+
+  // Amberflo client of each tenant, replaced when the configuration of the tenant changes
+  private final AmberfloClientRegistry clients;
+
+  private final AtomicLong staleServes = new AtomicLong();
+  private final AtomicLong deadlineMisses = new AtomicLong();
+
   public CatalogPluginApiImpl(final CatalogConfigurationHandler configHandler) {
+    this(configHandler, CatalogMetrics.noop());
+  }
+
+  public CatalogPluginApiImpl(
+      final CatalogConfigurationHandler configHandler, final CatalogMetrics metrics) {
     this.configHandler = configHandler;
+    this.metrics = metrics;
     this.atomic = new AtomicReference<>(DateTime.now());
+    this.buildExecutor =
+        Executors.newCachedThreadPool(new BuildThreadFactory("amberflo-catalog-build-"));
+    this.rebuildScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new BuildThreadFactory("amberflo-catalog-rebuild-"));
+    this.conversionPool =
+        new ForkJoinPool(
+            getConversionParallelism(configHandler.getConfigurable(null)),
+            new ConversionThreadFactory("amberflo-catalog-convert-"),
+            null,
+            false);
+    this.clients =
+        new AmberfloClientRegistry(
+            (tenantId, config) ->
+                new AmberfloHttpClientImpl(
+                        config, interner, metrics, new CatalogBuildTrace(tenantId))
+                    .withJournal(getJournal(tenantId, config))
+                    .withConversionPool(conversionPool));
+    configHandler.addConfigurationListener(this::configurationChanged);
+
+    metrics.gauge(METRIC_STALE_SERVES, (Gauge<Long>) staleServes::get);
+    metrics.gauge(METRIC_DEADLINE_MISSES, (Gauge<Long>) deadlineMisses::get);
+    metrics.gauge("cache.size", (Gauge<Integer>) snapshots::size);
   }
 
   @Override
   public DateTime getLatestCatalogVersion(
       final Iterable<PluginProperty> properties, final TenantContext context) {
-    return atomic.get();
+    return getLatestVersion(context.getTenantId());
   }
 
+  // Returns the latest catalog version of the tenant, later than the refreshed one once the
+  // configuration of the tenant changed
+  public DateTime getLatestVersion(final UUID tenantId) {
+    final DateTime version = atomic.get();
+    final DateTime tenantVersion = tenantId != null ? tenantVersions.get(tenantId) : null;
+    if (tenantVersion == null) {
+      return version;
+    }
+    if (!tenantVersion.isAfter(version)) {
+      // A refresh since the change moved every tenant past it
+      tenantVersions.remove(tenantId, tenantVersion);
+      return version;
+    }
+    return tenantVersion;
+  }
+
+  /*
+   * Returns the tenant catalog for the latest version. A rebuild runs in the background and the
+   * caller waits for it at most the configured deadline; past the deadline the previous snapshot
+   * is served while the rebuild keeps going. Without a previous snapshot there is nothing to
+   * serve, so the caller waits for the rebuild, up to the wait limit: past it the request fails
+   * and the rebuild keeps going for the next caller.
+   */
   public VersionedPluginCatalog getVersionedPluginCatalog(
       final Iterable<PluginProperty> properties, final TenantContext tenantContext) {
 
-    final CatalogConfigurationProperties config =
-        configHandler.getConfigurable(tenantContext.getTenantId());
+    final UUID tenantId = tenantContext.getTenantId();
+    final CatalogConfigurationProperties config = configHandler.getConfigurable(tenantId);
+    final DateTime version = getLatestVersion(tenantId);
+
+    CatalogSnapshot previous = null;
+    if (tenantId != null) {
+      lastReads.put(tenantId, System.currentTimeMillis());
+      previous = snapshots.get(tenantId);
+      if (previous == null) {
+        previous = loadStoredSnapshot(tenantId, config);
+      }
+    }
+    if (previous != null && previous.isCurrent(version)) {
+      metrics.cacheHit();
+      return previous.getCatalog();
+    }
+    metrics.cacheMiss();
+
+    final CompletableFuture<CatalogSnapshot> build = startBuild(tenantId, config, version);
+    final long deadlineMillis = config.getCatalogDeadlineMillis();
+    final long waitMillis =
+        previous == null || deadlineMillis <= 0
+            ? config.getCatalogWaitLimitMillis()
+            : deadlineMillis;
 
-    AmberfloHttpClientImpl client = new AmberfloHttpClientImpl(config);
+    try {
+      if (waitMillis <= 0) {
+        return build.get().getCatalog();
+      }
+      return build.get(waitMillis, TimeUnit.MILLISECONDS).getCatalog();
+    } catch (TimeoutException e) {
+      deadlineMisses.incrementAndGet();
+      if (previous == null) {
+        logger.error(
+            "Catalog build for tenant {} exceeded {} ms and there is no catalog to serve",
+            tenantId,
+            waitMillis);
+        return null;
+      }
+      staleServes.incrementAndGet();
+      logger.warn(
+          "Catalog rebuild for tenant {} exceeded {} ms, serving the snapshot built at {}",
+          tenantId,
+          waitMillis,
+          new DateTime(previous.getBuiltAtMillis()));
+      return previous.getCatalog();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return previous != null ? previous.getCatalog() : null;
+    } catch (ExecutionException e) {
+      logger.error("Unable to build the amberflo catalog for tenant {}", tenantId, e.getCause());
+      if (previous != null) {
+        staleServes.incrementAndGet();
+        return previous.getCatalog();
+      }
+      return null;
+    }
+  }
 
-    StandalonePluginCatalog standaloneCatalog = null;
-    VersionedPluginCatalog versionedCatalog = null;
+  /*
+   * Builds the catalog of a tenant for its latest version and publishes it, like a catalog
+   * request would. When the build fails, the catalog stored for the tenant by a previous run is
+   * published instead. Returns false when the tenant is left without a catalog.
+   */
+  public boolean warmUp(final UUID tenantId) throws InterruptedException {
+    final CatalogConfigurationProperties config = configHandler.getConfigurable(tenantId);
     try {
-      standaloneCatalog = client.buildCatalog();
+      startBuild(tenantId, config, getLatestVersion(tenantId)).get();
+      return true;
+    } catch (ExecutionException e) {
+      logger.warn("Unable to warm up the amberflo catalog of tenant {}", tenantId, e.getCause());
+      return snapshots.containsKey(tenantId) || loadStoredSnapshot(tenantId, config) != null;
+    }
+  }
+
+  /*
+   * Builds the catalog of the tenant for a new version ahead of Kill Bill, and moves the tenant
+   * to that version once the catalog is published, so the next catalog request is a cache hit.
+   * A build already running for the tenant is joined instead, and the version is left as is. A
+   * degraded catalog, built from the journal, does not move the tenant either.
+   */
+  public CompletableFuture<CatalogSnapshot> refresh(final UUID tenantId) {
+    final DateTime version = nextVersion(tenantId);
+    return startBuild(tenantId, configHandler.getConfigurable(tenantId), version)
+        .thenApply(
+            snapshot -> {
+              if (snapshot.isVersion(version) && !snapshot.isDegraded()) {
+                tenantVersions.merge(
+                    tenantId, version, (current, next) -> current.isAfter(next) ? current : next);
+              }
+              return snapshot;
+            });
+  }
+
+  // Returns the time of the last catalog request of the tenant, or 0 if it was never read
+  public long getLastReadMillis(final UUID tenantId) {
+    return lastReads.getOrDefault(tenantId, 0L);
+  }
+
+  // Returns the tenants with a catalog in memory, stored, or with payloads journaled
+  public Set<UUID> getKnownTenants() {
+    final CatalogConfigurationProperties config = configHandler.getConfigurable(null);
+    final Set<UUID> tenants = new LinkedHashSet<>(snapshots.keySet());
+    final String snapshotDirectory = config.getSnapshotDirectory();
+    if (!snapshotDirectory.isEmpty()) {
+      try {
+        tenants.addAll(new CatalogSnapshotStore(Paths.get(snapshotDirectory)).getTenants());
+      } catch (IOException e) {
+        logger.warn("Unable to list the stored catalogs", e);
+      }
+    }
+    final String journalDirectory = config.getJournalDirectory();
+    if (!journalDirectory.isEmpty() && Files.isDirectory(Paths.get(journalDirectory))) {
+      try (DirectoryStream<Path> directories =
+          Files.newDirectoryStream(Paths.get(journalDirectory))) {
+        for (final Path directory : directories) {
+          try {
+            tenants.add(UUID.fromString(directory.getFileName().toString()));
+          } catch (IllegalArgumentException e) {
+            // Not the journal of a tenant
+          }
+        }
+      } catch (IOException e) {
+        logger.warn("Unable to list the journaled tenants", e);
+      }
+    }
+    return tenants;
+  }
+
+  // Returns the last catalog built for the tenant, or null if none was built yet
+  public CatalogSnapshot getSnapshot(final UUID tenantId) {
+    return snapshots.get(tenantId);
+  }
+
+  // Returns the catalog versions kept for the tenant, oldest first, the current one last
+  public List<CatalogSnapshot> getRetainedSnapshots(final UUID tenantId) {
+    final Deque<CatalogSnapshot> tenantVersions = versions.get(tenantId);
+    if (tenantVersions == null) {
+      return new ArrayList<>();
+    }
+    synchronized (tenantVersions) {
+      return new ArrayList<>(tenantVersions);
+    }
+  }
+
+  // Returns the kept catalog of the tenant built for the version, or null if it is not kept
+  public CatalogSnapshot getRetainedSnapshot(final UUID tenantId, final DateTime version) {
+    for (final CatalogSnapshot snapshot : getRetainedSnapshots(tenantId)) {
+      if (snapshot.isVersion(version)) {
+        return snapshot;
+      }
+    }
+    return null;
+  }
+
+  public int getConsecutiveFailures(final UUID tenantId) {
+    return consecutiveFailures.getOrDefault(tenantId, 0);
+  }
+
+  // Returns the traces of the last builds of the tenant, oldest first
+  public List<CatalogBuildTrace> getTraces(final UUID tenantId) {
+    final Deque<CatalogBuildTrace> tenantTraces = traces.get(tenantId);
+    if (tenantTraces == null) {
+      return new ArrayList<>();
+    }
+    synchronized (tenantTraces) {
+      return new ArrayList<>(tenantTraces);
+    }
+  }
+
+  public long getStaleServeCount() {
+    return staleServes.get();
+  }
+
+  public long getDeadlineMissCount() {
+    return deadlineMisses.get();
+  }
+
+  // Number of objects shared between the catalogs of the tenants
+  public int getInternedObjects() {
+    return interner.size();
+  }
+
+  // Stops the background builds and drops the shared objects, called when the plugin is stopped
+  public void close() {
+    rebuildScheduler.shutdownNow();
+    buildExecutor.shutdownNow();
+    conversionPool.shutdownNow();
+    clients.invalidateAll();
+    interner.clear();
+    for (final PayloadJournal journal : journals.values()) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        logger.warn("Unable to close the journal {}", journal.getDirectory(), e);
+      }
+    }
+    journals.clear();
+  }
+
+  private CompletableFuture<CatalogSnapshot> startBuild(
+      final UUID tenantId, final CatalogConfigurationProperties config, final DateTime version) {
+    if (tenantId == null) {
+      return CompletableFuture.supplyAsync(
+          () -> buildSnapshot(tenantId, config, version), buildExecutor);
+    }
+
+    final CompletableFuture<CatalogSnapshot> created = new CompletableFuture<>();
+    final CompletableFuture<CatalogSnapshot> running = builds.putIfAbsent(tenantId, created);
+    if (running != null) {
+      return running;
+    }
+
+    try {
+      CompletableFuture.supplyAsync(() -> buildSnapshot(tenantId, config, version), buildExecutor)
+          .whenComplete(
+              (snapshot, error) -> {
+                // A build dropped by a configuration change is not published
+                if (builds.get(tenantId) != created) {
+                  completeBuild(created, snapshot, error);
+                  return;
+                }
+                if (snapshot != null) {
+                  final CatalogSnapshot replaced = snapshots.put(tenantId, snapshot);
+                  if (replaced != null) {
+                    metrics.cacheEviction();
+                  }
+                  CatalogFlightRecorder.swap(tenantId, replaced, snapshot);
+                  retainVersion(tenantId, snapshot, config.getRetainedVersions());
+                }
+                // A catalog built from the journal is served, but amberflo still failed
+                final boolean succeeded = error == null && !snapshot.isDegraded();
+                if (succeeded) {
+                  consecutiveFailures.remove(tenantId);
+                } else {
+                  consecutiveFailures.merge(tenantId, 1, Integer::sum);
+                }
+                builds.remove(tenantId, created);
+                completeBuild(created, snapshot, error);
+                if (succeeded) {
+                  storeSnapshot(tenantId, config, snapshot);
+                }
+              });
+    } catch (RuntimeException e) {
+      builds.remove(tenantId, created);
+      created.completeExceptionally(e);
+    }
+    return created;
+  }
+
+  private static void completeBuild(
+      final CompletableFuture<CatalogSnapshot> build,
+      final CatalogSnapshot snapshot,
+      final Throwable error) {
+    if (error != null) {
+      build.completeExceptionally(error);
+    } else {
+      build.complete(snapshot);
+    }
+  }
+
+  private CatalogSnapshot buildSnapshot(
+      final UUID tenantId, final CatalogConfigurationProperties config, final DateTime version) {
+    final long start = System.currentTimeMillis();
 
-      versionedCatalog = standaloneToVersionedCatalog(standaloneCatalog);
+    final CatalogBuildTrace trace = new CatalogBuildTrace(tenantId);
+    final AmberfloHttpClientImpl client = getClient(tenantId, config).beginBuild(trace);
+    final Object event = CatalogFlightRecorder.beginBuild();
+    final StandalonePluginCatalog standaloneCatalog;
+    Exception failure = null;
+    try {
+      standaloneCatalog = client.buildCatalog();
     } catch (Exception e) {
+      failure = e;
+      trace.recordError(e.toString());
+      throw new IllegalStateException(e);
+    } finally {
+      trace.finish();
+      CatalogFlightRecorder.endBuild(event, version, trace, interner.size(), failure);
+      addTrace(tenantId, trace, config.getDiagnosticsTraces());
+    }
+
+    final long end = System.currentTimeMillis();
+    if (trace.getJournalPayloads() > 0) {
+      // As old as the oldest recorded payload it was built from, so staleness is still reported
+      return new CatalogSnapshot(
+          standaloneToVersionedCatalog(standaloneCatalog),
+          version,
+          Math.min(end, trace.getOldestJournalPayloadMillis()),
+          end - start,
+          true);
+    }
+    return new CatalogSnapshot(
+        standaloneToVersionedCatalog(standaloneCatalog), version, end, end - start);
+  }
+
+  private static int getConversionParallelism(final CatalogConfigurationProperties config) {
+    return config != null ? Math.max(1, config.getConversionParallelism()) : 1;
+  }
+
+  // Returns the client of the tenant; builds without a tenant get a client of their own
+  private AmberfloHttpClientImpl getClient(
+      final UUID tenantId, final CatalogConfigurationProperties config) {
+    if (tenantId == null) {
+      return new AmberfloHttpClientImpl(config, interner, metrics)
+          .withConversionPool(conversionPool);
+    }
+    return clients.get(tenantId, config);
+  }
+
+  /*
+   * Called once the configuration of a tenant changed: the client, the catalogs and the build in
+   * progress of the tenant are dropped, and the tenant moves to a new catalog version so Kill Bill
+   * reloads its catalog. Other tenants are left alone. The catalog is rebuilt in the background
+   * when no other upload came within the debounce window. A change of the default configuration
+   * only drops the clients, the catalogs of the tenants are rebuilt at the next refresh.
+   */
+  private void configurationChanged(final UUID tenantId) {
+    if (tenantId == null) {
+      clients.invalidateAll();
+      return;
+    }
+    final CatalogConfigurationProperties config = configHandler.getConfigurable(tenantId);
+
+    clients.invalidate(tenantId);
+    builds.remove(tenantId);
+    final CatalogSnapshot dropped = snapshots.remove(tenantId);
+    if (dropped != null) {
+      metrics.cacheEviction();
+    }
+    versions.remove(tenantId);
+    consecutiveFailures.remove(tenantId);
+    deleteStoredSnapshot(tenantId, config);
+
+    tenantVersions.put(tenantId, nextVersion(tenantId));
+
+    scheduleRebuild(tenantId, config.getConfigRebuildDebounceMillis());
+  }
+
+  // Returns a version of the tenant later than its latest one
+  private DateTime nextVersion(final UUID tenantId) {
+    final DateTime latest = getLatestVersion(tenantId);
+    final DateTime now = DateTime.now();
+    return now.isAfter(latest) ? now : latest.plusMillis(1);
+  }
+
+  // Each upload pushes the rebuild of the tenant back; a single task waits for it
+  private void scheduleRebuild(final UUID tenantId, final long debounceMillis) {
+    if (debounceMillis < 0) {
+      return;
+    }
+    final long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    if (pendingRebuilds.put(tenantId, due) == null) {
+      scheduleRebuildCheck(tenantId, debounceMillis);
+    }
+  }
+
+  private void scheduleRebuildCheck(final UUID tenantId, final long delayMillis) {
+    try {
+      rebuildScheduler.schedule(
+          () -> rebuildWhenDue(tenantId), delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      pendingRebuilds.remove(tenantId);
+    }
+  }
+
+  private void rebuildWhenDue(final UUID tenantId) {
+    final Long due = pendingRebuilds.get(tenantId);
+    if (due == null) {
+      return;
+    }
+    final long remainingNanos = due - System.nanoTime();
+    if (remainingNanos > 0 || !pendingRebuilds.remove(tenantId, due)) {
+      scheduleRebuildCheck(tenantId, Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+      return;
+    }
+    // A catalog request may have rebuilt the catalog in the meantime
+    final DateTime version = getLatestVersion(tenantId);
+    final CatalogSnapshot current = snapshots.get(tenantId);
+    if (current != null && current.isCurrent(version)) {
+      return;
+    }
+    startBuild(tenantId, configHandler.getConfigurable(tenantId), version)
+        .whenComplete(
+            (snapshot, error) -> {
+              if (error != null) {
+                logger.warn(
+                    "Unable to rebuild the amberflo catalog of tenant {} after a configuration"
+                        + " change",
+                    tenantId,
+                    error);
+              }
+            });
+  }
 
-      e.printStackTrace();
+  // Returns the journal of the tenant, or null when journaling is disabled
+  private PayloadJournal getJournal(
+      final UUID tenantId, final CatalogConfigurationProperties config) {
+    final String directory = config.getJournalDirectory();
+    if (tenantId == null || directory.isEmpty()) {
+      return null;
+    }
+    return journals.computeIfAbsent(
+        Paths.get(directory).resolve(tenantId.toString()),
+        path ->
+            new PayloadJournal(path, config.getJournalSegmentBytes(), config.getJournalSegments()));
+  }
+
+  /*
+   * Returns the snapshot stored by a previous run, or by another instance of the host, for a
+   * tenant without a catalog in memory. It is served like any previous snapshot while the
+   * catalog is rebuilt, and is read in place from its file.
+   */
+  private CatalogSnapshot loadStoredSnapshot(
+      final UUID tenantId, final CatalogConfigurationProperties config) {
+    final String directory = config.getSnapshotDirectory();
+    if (directory.isEmpty()) {
+      return null;
+    }
+    try {
+      final CatalogSnapshot stored = new CatalogSnapshotStore(Paths.get(directory)).load(tenantId);
+      if (stored == null) {
+        return null;
+      }
+      final CatalogSnapshot current = snapshots.putIfAbsent(tenantId, stored);
+      if (current != null) {
+        return current;
+      }
+      retainVersion(tenantId, stored, config.getRetainedVersions());
+      return stored;
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to load the stored catalog of tenant {}", tenantId, e);
+      return null;
     }
+  }
 
-    return versionedCatalog;
+  // Lazily loaded usages are not stored, storing them would fetch the pricing of every plan
+  private void storeSnapshot(
+      final UUID tenantId,
+      final CatalogConfigurationProperties config,
+      final CatalogSnapshot snapshot) {
+    final String directory = config.getSnapshotDirectory();
+    if (directory.isEmpty() || config.isLazyUsages()) {
+      return;
+    }
+    try {
+      new CatalogSnapshotStore(Paths.get(directory)).save(tenantId, snapshot);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to store the catalog of tenant {}", tenantId, e);
+    }
+  }
+
+  private void deleteStoredSnapshot(
+      final UUID tenantId, final CatalogConfigurationProperties config) {
+    final String directory = config.getSnapshotDirectory();
+    if (directory.isEmpty()) {
+      return;
+    }
+    try {
+      new CatalogSnapshotStore(Paths.get(directory)).delete(tenantId);
+    } catch (IOException e) {
+      logger.warn("Unable to delete the stored catalog of tenant {}", tenantId, e);
+    }
+  }
+
+  private void addTrace(final UUID tenantId, final CatalogBuildTrace trace, final int capacity) {
+    if (tenantId == null || capacity <= 0) {
+      return;
+    }
+    final Deque<CatalogBuildTrace> tenantTraces =
+        traces.computeIfAbsent(tenantId, id -> new ArrayDeque<>());
+    synchronized (tenantTraces) {
+      while (tenantTraces.size() >= capacity) {
+        tenantTraces.removeFirst();
+      }
+      tenantTraces.addLast(trace);
+    }
+  }
+
+  // A rebuild of the version already kept last replaces it, so each kept version is distinct
+  private void retainVersion(
+      final UUID tenantId, final CatalogSnapshot snapshot, final int capacity) {
+    if (capacity <= 0) {
+      versions.remove(tenantId);
+      return;
+    }
+    final Deque<CatalogSnapshot> tenantVersions =
+        versions.computeIfAbsent(tenantId, id -> new ArrayDeque<>());
+    synchronized (tenantVersions) {
+      final CatalogSnapshot last = tenantVersions.peekLast();
+      if (last != null && last.isVersion(snapshot.getVersion())) {
+        tenantVersions.removeLast();
+      }
+      while (tenantVersions.size() >= capacity) {
+        tenantVersions.removeFirst();
+      }
+      tenantVersions.addLast(snapshot);
+    }
   }
 
   // Receives a StandalonePluginCatalog and converts it to a VersionedPluginCatalog.
@@ -83,4 +702,42 @@ public class CatalogPluginApiImpl implements CatalogPluginApi {
 
     return new VersionedPluginCatalogImp(b.build());
   }
+
+  private static class BuildThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    BuildThreadFactory(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread =
+          new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private static class ConversionThreadFactory
+      implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    ConversionThreadFactory(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+      final ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName(prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
 }
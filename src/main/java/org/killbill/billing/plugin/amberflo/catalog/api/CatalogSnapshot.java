@@ -0,0 +1,62 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.api;
+
+import lombok.Getter;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+
+// A catalog built for a tenant, together with the catalog version it was built for
+@Getter
+public class CatalogSnapshot {
+
+  private final VersionedPluginCatalog catalog;
+  private final DateTime version;
+  private final long builtAtMillis;
+  private final long buildDurationMillis;
+  // Built from payloads recorded in the journal because amberflo failed; built at their time
+  private final boolean degraded;
+
+  public CatalogSnapshot(
+      VersionedPluginCatalog catalog,
+      DateTime version,
+      long builtAtMillis,
+      long buildDurationMillis) {
+    this(catalog, version, builtAtMillis, buildDurationMillis, false);
+  }
+
+  public CatalogSnapshot(
+      VersionedPluginCatalog catalog,
+      DateTime version,
+      long builtAtMillis,
+      long buildDurationMillis,
+      boolean degraded) {
+    this.catalog = catalog;
+    this.version = version;
+    this.builtAtMillis = builtAtMillis;
+    this.buildDurationMillis = buildDurationMillis;
+    this.degraded = degraded;
+  }
+
+  public boolean isVersion(DateTime latestVersion) {
+    return version != null && latestVersion != null && version.isEqual(latestVersion);
+  }
+
+  // A catalog built ahead for a later version is current as well, a degraded catalog never is
+  public boolean isCurrent(DateTime latestVersion) {
+    return !degraded
+        && version != null && latestVersion != null && !version.isBefore(latestVersion);
+  }
+}
@@ -0,0 +1,314 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.api;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.CatalogEntity;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+
+/*
+ * Immutable StandalonePluginCatalog backed by arrays, with hash indexes by name for plans,
+ * products, units and price lists. Kill Bill reads the catalog through the iterables only; the
+ * indexes serve the lookups of the plugin itself, such as the plans compared by /catalog/diff.
+ * The hash code is computed once, on first use, so equality checks never walk the whole catalog
+ * graph more than once, and catalogs that are never hashed (e.g. decoded snapshots) never pay
+ * for it.
+ */
+public final class ImmutableStandalonePluginCatalog
+    implements StandalonePluginCatalog, Serializable {
+
+  private static final long serialVersionUID = 0x2F1D6A3C94B0E571L;
+
+  private final DateTime effectiveDate;
+  private final List<Currency> currencies;
+  private final PriceList defaultPriceList;
+  private final List<PriceList> childrenPriceList;
+  private final PlanRules planRules;
+  private final List<Plan> plans;
+  private final List<Product> products;
+  private final List<Unit> units;
+
+  private final Map<String, Plan> plansByName;
+  private final Map<String, Product> productsByName;
+  private final Map<String, Unit> unitsByName;
+  private final Map<String, PriceList> priceListsByName;
+
+  // 0 until computed, like String.hashCode
+  private transient int hashCode;
+
+  private ImmutableStandalonePluginCatalog(final Builder builder) {
+    this.effectiveDate = builder.effectiveDate;
+    this.currencies = toList(builder.currencies, Currency.class);
+    this.defaultPriceList = builder.defaultPriceList;
+    this.childrenPriceList = toList(builder.childrenPriceList, PriceList.class);
+    this.planRules = builder.planRules;
+    this.plans = toList(builder.plans, Plan.class);
+    this.products = toList(builder.products, Product.class);
+    this.units = toList(builder.units, Unit.class);
+
+    this.plansByName = index(plans);
+    this.productsByName = index(products);
+    this.unitsByName = index(units);
+
+    final List<PriceList> priceLists = new ArrayList<>(childrenPriceList.size() + 1);
+    if (defaultPriceList != null) {
+      priceLists.add(defaultPriceList);
+    }
+    priceLists.addAll(childrenPriceList);
+    this.priceListsByName = index(priceLists);
+  }
+
+  @Override
+  public DateTime getEffectiveDate() {
+    return effectiveDate;
+  }
+
+  @Override
+  public Iterable<Currency> getCurrencies() {
+    return currencies;
+  }
+
+  @Override
+  public PriceList getDefaultPriceList() {
+    return defaultPriceList;
+  }
+
+  @Override
+  public Iterable<PriceList> getChildrenPriceList() {
+    return childrenPriceList;
+  }
+
+  @Override
+  public PlanRules getPlanRules() {
+    return planRules;
+  }
+
+  @Override
+  public Iterable<Plan> getPlans() {
+    return plans;
+  }
+
+  @Override
+  public Iterable<Product> getProducts() {
+    return products;
+  }
+
+  @Override
+  public Iterable<Unit> getUnits() {
+    return units;
+  }
+
+  // Returns the plan with the given name, or null if the catalog does not define it
+  public Plan findPlan(final String name) {
+    return plansByName.get(name);
+  }
+
+  public Product findProduct(final String name) {
+    return productsByName.get(name);
+  }
+
+  public Unit findUnit(final String name) {
+    return unitsByName.get(name);
+  }
+
+  // Looks up the default price list as well as the children price lists
+  public PriceList findPriceList(final String name) {
+    return priceListsByName.get(name);
+  }
+
+  public int getPlanCount() {
+    return plans.size();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if ((o == null) || (this.getClass() != o.getClass())) {
+      return false;
+    }
+    final ImmutableStandalonePluginCatalog that = (ImmutableStandalonePluginCatalog) o;
+    if (this.hashCode() != that.hashCode()) {
+      return false;
+    }
+    if ((this.effectiveDate != null)
+        ? (that.effectiveDate == null || 0 != this.effectiveDate.compareTo(that.effectiveDate))
+        : (that.effectiveDate != null)) {
+      return false;
+    }
+    return Objects.equals(this.currencies, that.currencies)
+        && Objects.equals(this.defaultPriceList, that.defaultPriceList)
+        && Objects.equals(this.childrenPriceList, that.childrenPriceList)
+        && Objects.equals(this.planRules, that.planRules)
+        && Objects.equals(this.plans, that.plans)
+        && Objects.equals(this.products, that.products)
+        && Objects.equals(this.units, that.units);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = hashCode;
+    if (result == 0) {
+      result = computeHashCode();
+      hashCode = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(this.getClass().getSimpleName());
+    sb.append("{");
+    sb.append("effectiveDate=").append(effectiveDate);
+    sb.append(", ");
+    sb.append("currencies=").append(currencies);
+    sb.append(", ");
+    sb.append("plans=").append(plans.size());
+    sb.append(", ");
+    sb.append("products=").append(products.size());
+    sb.append(", ");
+    sb.append("units=").append(units.size());
+    sb.append(", ");
+    sb.append("priceLists=").append(priceListsByName.keySet());
+    sb.append("}");
+    return sb.toString();
+  }
+
+  private int computeHashCode() {
+    int result = 1;
+    // DateTime.hashCode depends on the chronology, equals() only compares the instant
+    result = (31 * result) + (effectiveDate == null ? 0 : Long.hashCode(effectiveDate.getMillis()));
+    result = (31 * result) + currencies.hashCode();
+    result = (31 * result) + Objects.hashCode(defaultPriceList);
+    result = (31 * result) + childrenPriceList.hashCode();
+    result = (31 * result) + Objects.hashCode(planRules);
+    result = (31 * result) + plans.hashCode();
+    result = (31 * result) + products.hashCode();
+    result = (31 * result) + units.hashCode();
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> toList(final Iterable<? extends T> source, final Class<T> type) {
+    if (source == null) {
+      return Collections.emptyList();
+    }
+
+    final List<T> copy = new ArrayList<>();
+    for (final T element : source) {
+      copy.add(element);
+    }
+    final T[] array = copy.toArray((T[]) Array.newInstance(type, copy.size()));
+    return Collections.unmodifiableList(Arrays.asList(array));
+  }
+
+  private static <T extends CatalogEntity> Map<String, T> index(final List<T> entities) {
+    final Map<String, T> result = new HashMap<>(Math.max(16, (entities.size() * 4) / 3 + 1));
+    for (final T entity : entities) {
+      final String name = entity.getName();
+      if (name != null) {
+        // Kill Bill names are unique, keep the first definition if the source repeats one
+        result.putIfAbsent(name, entity);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  public static class Builder {
+
+    protected DateTime effectiveDate;
+    protected Iterable<Currency> currencies;
+    protected PriceList defaultPriceList;
+    protected Iterable<PriceList> childrenPriceList;
+    protected PlanRules planRules;
+    protected Iterable<Plan> plans;
+    protected Iterable<Product> products;
+    protected Iterable<Unit> units;
+
+    public Builder() {}
+
+    public Builder withEffectiveDate(final DateTime effectiveDate) {
+      this.effectiveDate = effectiveDate;
+      return this;
+    }
+
+    public Builder withCurrencies(final Iterable<Currency> currencies) {
+      this.currencies = currencies;
+      return this;
+    }
+
+    public Builder withDefaultPriceList(final PriceList defaultPriceList) {
+      this.defaultPriceList = defaultPriceList;
+      return this;
+    }
+
+    public Builder withChildrenPriceList(final Iterable<PriceList> childrenPriceList) {
+      this.childrenPriceList = childrenPriceList;
+      return this;
+    }
+
+    public Builder withPlanRules(final PlanRules planRules) {
+      this.planRules = planRules;
+      return this;
+    }
+
+    public Builder withPlans(final Iterable<Plan> plans) {
+      this.plans = plans;
+      return this;
+    }
+
+    public Builder withProducts(final Iterable<Product> products) {
+      this.products = products;
+      return this;
+    }
+
+    public Builder withUnits(final Iterable<Unit> units) {
+      this.units = units;
+      return this;
+    }
+
+    public Builder source(final StandalonePluginCatalog that) {
+      this.effectiveDate = that.getEffectiveDate();
+      this.currencies = that.getCurrencies();
+      this.defaultPriceList = that.getDefaultPriceList();
+      this.childrenPriceList = that.getChildrenPriceList();
+      this.planRules = that.getPlanRules();
+      this.plans = that.getPlans();
+      this.products = that.getProducts();
+      this.units = that.getUnits();
+      return this;
+    }
+
+    public ImmutableStandalonePluginCatalog build() {
+      return new ImmutableStandalonePluginCatalog(this);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.client;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+
+/*
+ * Long-lived amberflo client of each tenant, created on the first build of the tenant and reused
+ * by the next ones. A client is bound to the configuration it was created for: it is replaced
+ * once the tenant is invalidated, or is served a new configuration.
+ */
+public class AmberfloClientRegistry {
+
+  private final ClientFactory factory;
+  private final ConcurrentMap<UUID, Entry> clients = new ConcurrentHashMap<>();
+
+  public AmberfloClientRegistry(final ClientFactory factory) {
+    this.factory = factory;
+  }
+
+  public AmberfloHttpClientImpl get(
+      final UUID tenantId, final CatalogConfigurationProperties config) {
+    final Entry entry = clients.get(tenantId);
+    if (entry != null && entry.config == config) {
+      return entry.client;
+    }
+    return clients.compute(
+            tenantId,
+            (id, current) ->
+                current != null && current.config == config
+                    ? current
+                    : new Entry(config, factory.create(id, config)))
+        .client;
+  }
+
+  public void invalidate(final UUID tenantId) {
+    clients.remove(tenantId);
+  }
+
+  public void invalidateAll() {
+    clients.clear();
+  }
+
+  public int size() {
+    return clients.size();
+  }
+
+  public interface ClientFactory {
+    AmberfloHttpClientImpl create(UUID tenantId, CatalogConfigurationProperties config);
+  }
+
+  private static class Entry {
+
+    private final CatalogConfigurationProperties config;
+    private final AmberfloHttpClientImpl client;
+
+    Entry(final CatalogConfigurationProperties config, final AmberfloHttpClientImpl client) {
+      this.config = config;
+      this.client = client;
+    }
+  }
+}
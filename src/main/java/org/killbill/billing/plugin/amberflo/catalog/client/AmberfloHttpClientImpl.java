@@ -20,89 +20,354 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
-import org.apache.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.rules.PlanRules;
 import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
-import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.StandalonePluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageResponse;
 import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.jfr.CatalogFlightRecorder;
+import org.killbill.billing.plugin.amberflo.catalog.journal.JournalEntry;
+import org.killbill.billing.plugin.amberflo.catalog.journal.PayloadJournal;
+import org.killbill.billing.plugin.amberflo.catalog.journal.RecordedPayloads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class AmberfloHttpClientImpl {
+  private static final Logger logger = LoggerFactory.getLogger(AmberfloHttpClientImpl.class);
   private static final ObjectMapper mapper = new ObjectMapper();
-  private static final CloseableHttpClient httpclient = HttpClients.createDefault();
+  // Parallel plan conversion fetches prices concurrently, the default pool allows 2 per route
+  private static final int MAX_CONNECTIONS = 32;
+  private static final CloseableHttpClient httpclient =
+      HttpClients.custom()
+          .setMaxConnPerRoute(MAX_CONNECTIONS)
+          .setMaxConnTotal(MAX_CONNECTIONS)
+          .build();
 
   CatalogConfigurationProperties config;
-  AmberfloUtils utils = new AmberfloUtils(this);
+  AmberfloUtils utils;
+  CatalogMetrics metrics = CatalogMetrics.noop();
+  volatile CatalogBuildTrace trace = new CatalogBuildTrace(null);
+  PayloadJournal journal;
+  RecordedPayloads recorded;
+  boolean offline;
 
-  public AmberfloHttpClientImpl() {}
+  public AmberfloHttpClientImpl() {
+    this.utils = new AmberfloUtils(this);
+  }
 
   public AmberfloHttpClientImpl(CatalogConfigurationProperties config) {
+    this(config, CatalogInterner.SHARED);
+  }
+
+  public AmberfloHttpClientImpl(CatalogConfigurationProperties config, CatalogInterner interner) {
+    this(config, interner, CatalogMetrics.noop());
+  }
+
+  public AmberfloHttpClientImpl(
+      CatalogConfigurationProperties config, CatalogInterner interner, CatalogMetrics metrics) {
+    this(config, interner, metrics, new CatalogBuildTrace(null));
+  }
+
+  public AmberfloHttpClientImpl(
+      CatalogConfigurationProperties config,
+      CatalogInterner interner,
+      CatalogMetrics metrics,
+      CatalogBuildTrace trace) {
     this.config = config;
+    this.metrics = metrics;
+    this.trace = trace;
+    this.utils =
+        config != null
+            ? new AmberfloUtils(
+                this, interner, config.getConversionParallelism(), config.isLazyUsages())
+            : new AmberfloUtils(this, interner);
+  }
+
+  /*
+   * Client rebuilding catalogs from recorded payloads only, without network: a request that was
+   * not recorded fails. Usages are always built with the catalog.
+   */
+  public AmberfloHttpClientImpl(
+      RecordedPayloads recorded, CatalogInterner interner, int conversionParallelism) {
+    this.recorded = recorded;
+    this.offline = true;
+    this.utils = new AmberfloUtils(this, interner, conversionParallelism, false);
+  }
+
+  /*
+   * Records the payloads returned by amberflo in the journal. When amberflo cannot be reached, or
+   * returns an error, the payload last recorded in the journal for the request is used instead.
+   */
+  public AmberfloHttpClientImpl withJournal(PayloadJournal journal) {
+    this.journal = journal;
+    return this;
+  }
+
+  // Converts the plans on the given pool, shared by the clients of every tenant
+  public AmberfloHttpClientImpl withConversionPool(ForkJoinPool conversionPool) {
+    utils.withConversionPool(conversionPool);
+    return this;
+  }
+
+  /*
+   * Starts a build of a long-lived client: its requests are recorded in the given trace, and the
+   * journal is read again the next time a recorded payload is needed. Builds of a client must not
+   * overlap; usages fetched later by the lazy phases of an earlier build go to the newest trace.
+   */
+  public AmberfloHttpClientImpl beginBuild(CatalogBuildTrace trace) {
+    synchronized (this) {
+      this.trace = trace;
+      if (!offline) {
+        recorded = null;
+      }
+    }
+    return this;
+  }
+
+  public CatalogMetrics getMetrics() {
+    return metrics;
+  }
+
+  public CatalogBuildTrace getTrace() {
+    return trace;
   }
 
   public StandalonePluginCatalog buildCatalog() throws Exception {
+    long start = System.nanoTime();
 
-    return new StandalonePluginCatalogImp.Builder<>()
-        .withEffectiveDate(new DateTime(utils.getEffectiveDate(this.getListAllProductPlans())))
-        .withUnits(utils.getUnits(this.getAllProductItems()))
-        .withCurrencies(utils.buildCurrencyList())
-        .withPlans(
-            utils.convertToKillBillPlanModel(
-                this.getListAllProductPlans(), this.getAllProductItems()))
-        .withProducts(utils.getProducts())
-        .withPlanRules(utils.buildRules())
-        .withDefaultPriceList(
-            utils.getPriceList(this.getListAllProductPlans(), this.getAllProductItems()))
-        .build();
+    List<ProductPlans> plans =
+        timeStage(CatalogMetrics.STAGE_FETCH_PLANS, this::getListAllProductPlans);
+    List<ProductItem> productItems =
+        timeStage(CatalogMetrics.STAGE_FETCH_PRODUCTS, this::getAllProductItems);
+    StandalonePluginCatalog catalog = buildCatalog(plans, productItems);
+
+    recordStage(CatalogMetrics.STAGE_BUILD, System.nanoTime() - start);
+    return catalog;
+  }
+
+  // Builds the catalog from plans and product items that were already retrieved from amberflo
+  public StandalonePluginCatalog buildCatalog(
+      List<ProductPlans> plans, List<ProductItem> productItems) throws Exception {
+
+    List<Plan> killBillPlans =
+        timeStage(
+            CatalogMetrics.STAGE_CONVERT_PLANS,
+            () -> utils.convertToKillBillPlanModel(plans, productItems));
+    trace.recordPlans(killBillPlans.size());
+    Set<Unit> units = timeStage(CatalogMetrics.STAGE_UNITS, () -> utils.getUnits(productItems));
+    Set<Product> products =
+        timeStage(CatalogMetrics.STAGE_PRODUCTS, () -> utils.collectProducts(killBillPlans));
+    PlanRules rules = timeStage(CatalogMetrics.STAGE_RULES, utils::buildRules);
+    PriceList priceList =
+        timeStage(
+            CatalogMetrics.STAGE_PRICE_LIST, () -> utils.getDefaultPriceList(killBillPlans));
+
+    return timeStage(
+        CatalogMetrics.STAGE_ASSEMBLE,
+        () ->
+            new ImmutableStandalonePluginCatalog.Builder()
+                .withEffectiveDate(new DateTime(utils.getEffectiveDate(plans)))
+                .withUnits(units)
+                .withCurrencies(utils.buildCurrencyList())
+                .withPlans(killBillPlans)
+                .withProducts(products)
+                .withPlanRules(rules)
+                .withDefaultPriceList(priceList)
+                .build());
   }
-  // Retrieves the list of plans from amberflo
-  private List<ProductPlans> getListAllProductPlans() throws IOException {
 
-    HttpResponse httpresponse = httpclient.execute(buildHttpGet(config.getPlans()));
+  // Retrieves the list of plans from amberflo
+  private List<ProductPlans> getListAllProductPlans() throws URISyntaxException, IOException {
 
     List<ProductPlans> plans =
-        mapper.readValue(
-            httpresponse.getEntity().getContent(), new TypeReference<List<ProductPlans>>() {});
+        fetch(
+            CatalogMetrics.ENDPOINT_PLANS,
+            "",
+            () -> buildHttpGet(config.getPlans()),
+            body -> mapper.readValue(body, new TypeReference<List<ProductPlans>>() {}));
 
     return utils.validatePlans(plans);
   }
 
   // Retrieves the list of products from amberflo
-  private List<ProductItem> getAllProductItems() throws IOException {
-
-    HttpResponse httpresponse = httpclient.execute(buildHttpGet(config.getProducts()));
+  private List<ProductItem> getAllProductItems() throws URISyntaxException, IOException {
 
-    return mapper.readValue(
-        httpresponse.getEntity().getContent(), new TypeReference<List<ProductItem>>() {});
+    return fetch(
+        CatalogMetrics.ENDPOINT_PRODUCTS,
+        "",
+        () -> buildHttpGet(config.getProducts()),
+        body -> mapper.readValue(body, new TypeReference<List<ProductItem>>() {}));
   }
 
   // Receives the a value from a ProductItemPriceIdsMap and retrieves its pricing data from amberflo
   public UsageResponse requestListAllPaymentPricing(String id)
       throws URISyntaxException, UnsupportedOperationException, IOException {
 
-    HttpGet httpget = buildHttpGet(config.getPrices());
-    URI uri = new URIBuilder(httpget.getURI()).addParameter("id", id).build();
-    httpget.setURI(uri);
-
-    HttpResponse httpresponse = httpclient.execute(httpget);
-
-    return mapper.readValue(
-        httpresponse.getEntity().getContent(), new TypeReference<UsageResponse>() {});
+    return fetch(
+        CatalogMetrics.ENDPOINT_PRICES,
+        id,
+        () -> {
+          HttpGet httpget = buildHttpGet(config.getPrices());
+          URI uri = new URIBuilder(httpget.getURI()).addParameter("id", id).build();
+          httpget.setURI(uri);
+          return httpget;
+        },
+        body -> mapper.readValue(body, new TypeReference<UsageResponse>() {}));
   }
 
   public HttpGet buildHttpGet(String endpoint) {
 
     HttpGet httpget = new HttpGet(config.getUrl() + endpoint);
 
+    int timeout = config.getRequestTimeoutMillis();
+    httpget.setConfig(
+        RequestConfig.custom()
+            .setConnectTimeout(timeout)
+            .setConnectionRequestTimeout(timeout)
+            .setSocketTimeout(timeout)
+            .build());
+
     httpget.setHeader("accept", "application/json");
     httpget.setHeader("X-API-KEY", config.getApiKey());
 
     return httpget;
   }
+
+  /*
+   * Returns the parsed body of a request, from amberflo or from the payloads recorded in the
+   * journal. A body is recorded once it parsed, so a truncated or malformed response is never
+   * journaled; it falls back to the journal like a failed request.
+   */
+  private <T> T fetch(String endpoint, String key, Request request, Parser<T> parser)
+      throws URISyntaxException, IOException {
+    if (offline) {
+      return parser.parse(recordedEntry(endpoint, key).getBody());
+    }
+
+    byte[] body = null;
+    T value;
+    try {
+      body = execute(endpoint, request.build());
+      value = parser.parse(body);
+    } catch (IOException e) {
+      if (body != null) {
+        trace.recordError(endpoint + ": invalid response, " + e.getMessage());
+      }
+      if (journal == null) {
+        throw e;
+      }
+      JournalEntry recordedEntry;
+      T recordedValue;
+      try {
+        recordedEntry = recordedEntry(endpoint, key);
+        recordedValue = parser.parse(recordedEntry.getBody());
+      } catch (IOException missing) {
+        e.addSuppressed(missing);
+        throw e;
+      }
+      trace.recordError(endpoint + ": served from the journal");
+      trace.recordJournalPayload(recordedEntry.getTimestampMillis());
+      logger.warn("Amberflo request to {} failed, using the recorded payload", endpoint, e);
+      return recordedValue;
+    }
+
+    if (journal != null) {
+      try {
+        journal.append(endpoint, key, body);
+      } catch (IOException e) {
+        logger.warn("Unable to record the {} payload in the journal", endpoint, e);
+      }
+    }
+    return value;
+  }
+
+  // The journal is only read once a request failed, and at most once per build
+  private synchronized JournalEntry recordedEntry(String endpoint, String key)
+      throws IOException {
+    if (recorded == null) {
+      recorded = RecordedPayloads.read(journal.getDirectory());
+    }
+    JournalEntry entry = recorded.getEntry(endpoint, key);
+    if (entry == null) {
+      throw new IOException("No " + endpoint + " payload recorded for '" + key + "'");
+    }
+    return entry;
+  }
+
+  // Executes the request and returns the response body, recording its latency, status and size
+  private byte[] execute(String endpoint, HttpGet httpget) throws IOException {
+    long start = System.nanoTime();
+    Object event = CatalogFlightRecorder.beginRequest();
+
+    int status;
+    byte[] body;
+    try (CloseableHttpResponse httpresponse = httpclient.execute(httpget)) {
+      status = httpresponse.getStatusLine().getStatusCode();
+      body =
+          httpresponse.getEntity() != null
+              ? EntityUtils.toByteArray(httpresponse.getEntity())
+              : new byte[0];
+    } catch (IOException e) {
+      metrics.recordRequestError(endpoint, System.nanoTime() - start);
+      trace.recordError(endpoint + ": " + e);
+      CatalogFlightRecorder.endRequest(event, endpoint, trace.getTenantId(), 0, 0, e);
+      throw e;
+    }
+
+    metrics.recordRequest(endpoint, status, body.length, System.nanoTime() - start);
+    CatalogFlightRecorder.endRequest(
+        event, endpoint, trace.getTenantId(), status, body.length, null);
+    trace.recordRequest(body.length);
+
+    if (status < 200 || status >= 300) {
+      trace.recordError(endpoint + ": status " + status);
+      throw new IOException(
+          "Amberflo returned status " + status + " for " + httpget.getURI().getPath());
+    }
+    return body;
+  }
+
+  // Records the duration of a build stage in the metrics and in the trace of this build
+  void recordStage(String stage, long nanos) {
+    metrics.recordStage(stage, nanos);
+    trace.recordStage(stage, nanos);
+  }
+
+  private <T> T timeStage(String stage, Stage<T> call) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return call.run();
+    } finally {
+      recordStage(stage, System.nanoTime() - start);
+    }
+  }
+
+  private interface Stage<T> {
+    T run() throws Exception;
+  }
+
+  private interface Request {
+    HttpGet build() throws URISyntaxException;
+  }
+
+  private interface Parser<T> {
+    T parse(byte[] body) throws IOException;
+  }
 }
@@ -14,15 +14,24 @@
  */
 package org.killbill.billing.plugin.amberflo.catalog.client;
 
+import static java.util.stream.Collectors.toList;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import org.killbill.billing.catalog.api.BillingActionPolicy;
 import org.killbill.billing.catalog.api.BillingAlignment;
 import org.killbill.billing.catalog.api.BillingMode;
@@ -35,27 +44,18 @@ import org.killbill.billing.catalog.api.Plan;
 import org.killbill.billing.catalog.api.PlanAlignmentChange;
 import org.killbill.billing.catalog.api.PlanAlignmentCreate;
 import org.killbill.billing.catalog.api.PlanPhase;
-import org.killbill.billing.catalog.api.Price;
 import org.killbill.billing.catalog.api.PriceList;
 import org.killbill.billing.catalog.api.Product;
 import org.killbill.billing.catalog.api.ProductCategory;
 import org.killbill.billing.catalog.api.Tier;
-import org.killbill.billing.catalog.api.TieredBlock;
 import org.killbill.billing.catalog.api.TimeUnit;
 import org.killbill.billing.catalog.api.Unit;
 import org.killbill.billing.catalog.api.Usage;
 import org.killbill.billing.catalog.api.UsageType;
-import org.killbill.billing.catalog.api.boilerplate.DurationImp;
-import org.killbill.billing.catalog.api.boilerplate.InternationalPriceImp;
 import org.killbill.billing.catalog.api.boilerplate.PlanImp;
 import org.killbill.billing.catalog.api.boilerplate.PlanPhaseImp;
-import org.killbill.billing.catalog.api.boilerplate.PriceImp;
 import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
-import org.killbill.billing.catalog.api.boilerplate.ProductImp;
 import org.killbill.billing.catalog.api.boilerplate.RecurringImp;
-import org.killbill.billing.catalog.api.boilerplate.TierImp;
-import org.killbill.billing.catalog.api.boilerplate.TieredBlockImp;
-import org.killbill.billing.catalog.api.boilerplate.UnitImp;
 import org.killbill.billing.catalog.api.boilerplate.UsageImp;
 import org.killbill.billing.catalog.api.rules.CaseBillingAlignment;
 import org.killbill.billing.catalog.api.rules.CaseCancelPolicy;
@@ -74,6 +74,7 @@ import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageResponse;
 import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageTier;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
 
 public class AmberfloUtils {
 
@@ -81,153 +82,193 @@ public class AmberfloUtils {
 
   private final AmberfloHttpClientImpl amberfloHttpClientImpl;
 
-  // This set will contain a global list of all the products
-  private Set<Product> products = new HashSet<>();
+  private final CatalogInterner interner;
 
-  public Set<Product> getProducts() {
-    return products;
-  }
+  // Number of fork-join workers used by convertToKillBillPlanModel, 1 converts sequentially
+  private final int parallelism;
+
+  // When set, usages are fetched from amberflo the first time a plan phase is asked for them
+  private final boolean lazyUsages;
+
+  // Pool shared by the conversions of every tenant, owned by the plugin; when unset, each
+  // parallel conversion runs on a pool of its own
+  private ForkJoinPool conversionPool;
 
   public AmberfloUtils(AmberfloHttpClientImpl amberfloHttpClientImpl) {
+    this(amberfloHttpClientImpl, CatalogInterner.SHARED, 1);
+  }
+
+  public AmberfloUtils(AmberfloHttpClientImpl amberfloHttpClientImpl, CatalogInterner interner) {
+    this(amberfloHttpClientImpl, interner, 1);
+  }
+
+  public AmberfloUtils(
+      AmberfloHttpClientImpl amberfloHttpClientImpl, CatalogInterner interner, int parallelism) {
+    this(amberfloHttpClientImpl, interner, parallelism, false);
+  }
+
+  public AmberfloUtils(
+      AmberfloHttpClientImpl amberfloHttpClientImpl,
+      CatalogInterner interner,
+      int parallelism,
+      boolean lazyUsages) {
     super();
     this.amberfloHttpClientImpl = amberfloHttpClientImpl;
+    this.interner = interner;
+    this.parallelism = Math.max(1, parallelism);
+    this.lazyUsages = lazyUsages;
+  }
+
+  /*
+   * Runs the parallel conversions on the given pool instead of creating one per conversion. The
+   * pool is not shut down here, its owner does it.
+   */
+  public AmberfloUtils withConversionPool(ForkJoinPool conversionPool) {
+    this.conversionPool = conversionPool;
+    return this;
   }
 
   /*
    * Receives the list of amberflo plans and converts it to the Kill Bill format.
    * Plans are obtained from the feeMap and ProductItemPricesIdsMap and
    * are processed differently depending on the map they are obtained from.
+   *
+   * Every fee and price id entry is an independent conversion task. Tasks are listed in the
+   * sequential order first and then run on a fork-join pool, and the results are collected in
+   * task order, so the output does not depend on the parallelism.
    */
   public List<Plan> convertToKillBillPlanModel(
       List<ProductPlans> amberfloPlans, List<ProductItem> productItems)
       throws URISyntaxException, IOException {
 
-    List<Plan> killBillPlans = new ArrayList<>();
+    List<PlanTask> tasks = listPlanTasks(amberfloPlans, productItems);
+
+    if (parallelism <= 1 || tasks.size() < 2) {
+      List<Plan> killBillPlans = new ArrayList<>(tasks.size());
+      for (PlanTask task : tasks) {
+        killBillPlans.add(task.convert());
+      }
+      return killBillPlans;
+    }
+
+    ForkJoinPool pool = conversionPool != null ? conversionPool : new ForkJoinPool(parallelism);
+    try {
+      return pool.submit(
+              () ->
+                  tasks.parallelStream().map(AmberfloUtils::convertUnchecked).collect(toList()))
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while converting plans");
+    } catch (ExecutionException e) {
+      throw rethrow(e.getCause());
+    } finally {
+      if (pool != conversionPool) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  private List<PlanTask> listPlanTasks(
+      List<ProductPlans> amberfloPlans, List<ProductItem> productItems) {
+
+    // Product items grouped by id, keeping their order in the amberflo response
+    Map<String, List<ProductItem>> productItemsById = new HashMap<>();
+    for (ProductItem productItem : productItems) {
+      productItemsById
+          .computeIfAbsent(productItem.getId(), id -> new ArrayList<>(1))
+          .add(productItem);
+    }
 
+    List<PlanTask> tasks = new ArrayList<>();
     for (ProductPlans plan : amberfloPlans) {
       if (plan.getFeeMap() != null && !plan.getFeeMap().isEmpty()) {
-        killBillPlans.addAll(getPlansFromFeeMap(plan));
+        for (Map.Entry<String, Fee> entry : plan.getFeeMap().entrySet()) {
+          tasks.add(() -> getPlanFromFee(plan, entry.getValue()));
+        }
       }
       if (plan.getProductItemPriceIdsMap() != null && !plan.getProductItemPriceIdsMap().isEmpty()) {
-        killBillPlans.addAll(getPlansFromPriceIdsMap(plan, productItems));
+        for (Map.Entry<String, String> entry : plan.getProductItemPriceIdsMap().entrySet()) {
+          for (ProductItem productItem :
+              productItemsById.getOrDefault(entry.getKey(), Collections.emptyList())) {
+            tasks.add(() -> getPlanFromPriceId(plan, entry.getValue(), productItem));
+          }
+        }
       }
     }
-
-    return killBillPlans;
+    return tasks;
   }
 
-  private List<Plan> getPlansFromPriceIdsMap(
-      ProductPlans amberfloPlan, List<ProductItem> productItems)
+  private Plan getPlanFromPriceId(
+      ProductPlans amberfloPlan, String productItemPriceId, ProductItem productItem)
       throws URISyntaxException, IOException {
 
-    List<Plan> killBillPlans = new ArrayList<>();
-    String planName = "";
-    String planPrettyName = "";
-
-    for (Map.Entry<String, String> entry : amberfloPlan.getProductItemPriceIdsMap().entrySet()) {
-      for (ProductItem productItem : productItems) {
-        if (entry.getKey().equals(productItem.getId())) {
-          planName = entry.getValue();
-          planPrettyName =
-              productItem.getProductItemName() + getPlanNameSuffix(amberfloPlan, false);
-
-          killBillPlans.add(
-              new PlanImp.Builder<>()
-                  .withName(planName)
-                  .withPriceList(
-                      new PriceListImp.Builder<>()
-                          .withName(DEFAULT_NAME)
-                          .withPrettyName(DEFAULT_NAME)
-                          .build())
-                  .withPrettyName(planPrettyName)
-                  .withProduct(
-                      new ProductImp.Builder<>()
-                          .withName(productItem.getId())
-                          .withPrettyName(productItem.getProductItemName())
-                          .withCategory(ProductCategory.BASE)
-                          .withAvailable(new ArrayList<>())
-                          .withIncluded(new ArrayList<>())
-                          .build())
-                  .withInitialPhases(new PlanPhase[0])
-                  .withFinalPhase(
-                      new PlanPhaseImp.Builder<>()
-                          .withPhaseType(PhaseType.EVERGREEN)
-                          .withDuration(
-                              new DurationImp.Builder<>().withUnit(TimeUnit.UNLIMITED).build())
-                          .withUsages(
-                              findUsages(
-                                  amberfloPlan, entry.getValue(), productItem, planPrettyName))
-                          .build())
-                  .build());
-
-          products.add(
-              new ProductImp.Builder<>()
-                  .withName(productItem.getId())
-                  .withPrettyName(productItem.getProductItemName())
-                  .withCategory(ProductCategory.BASE)
-                  .withAvailable(new ArrayList<>())
-                  .withIncluded(new ArrayList<>())
-                  .build());
-        }
-      }
+    String planName = productItemPriceId;
+    String planPrettyName =
+        productItem.getProductItemName() + getPlanNameSuffix(amberfloPlan, false);
+
+    PlanPhaseImp.Builder<?> finalPhase =
+        new PlanPhaseImp.Builder<>()
+            .withPhaseType(PhaseType.EVERGREEN)
+            .withDuration(interner.duration(TimeUnit.UNLIMITED, null));
+
+    PlanPhase phase;
+    if (lazyUsages) {
+      phase =
+          new LazyUsagePlanPhase(
+              finalPhase.build(),
+              productItemPriceId,
+              () -> findUsages(amberfloPlan, productItemPriceId, productItem, planPrettyName));
+    } else {
+      phase =
+          finalPhase
+              .withUsages(
+                  findUsages(amberfloPlan, productItemPriceId, productItem, planPrettyName))
+              .build();
     }
-    return killBillPlans;
-  }
-
-  private List<Plan> getPlansFromFeeMap(ProductPlans amberfloPlan) {
-    Map<String, Fee> feeMap = amberfloPlan.getFeeMap();
-    List<Plan> killBillPlans = new ArrayList<>();
-    boolean isOneTimeFee = false;
-    String planName = "";
-    String planPrettyName = "";
-
-    for (Map.Entry<String, Fee> entry : feeMap.entrySet()) {
-      isOneTimeFee = Boolean.parseBoolean(entry.getValue().getIsOneTimeFee().toLowerCase());
-      planName = entry.getValue().getId() + "_" + entry.getValue().getName();
-      planPrettyName = entry.getValue().getName() + getPlanNameSuffix(amberfloPlan, isOneTimeFee);
-
-      killBillPlans.add(
-          new PlanImp.Builder<>()
-              .withName(planName)
-              .withPrettyName(planPrettyName)
-              .withPriceList(
-                  new PriceListImp.Builder<>()
-                      .withName(DEFAULT_NAME)
-                      .withPrettyName(DEFAULT_NAME)
-                      .build())
-              .withProduct(
-                  new ProductImp.Builder<>()
-                      .withName(entry.getValue().getId())
-                      .withPrettyName(entry.getValue().getName())
-                      .withCategory(ProductCategory.BASE)
-                      .withAvailable(new ArrayList<>())
-                      .withIncluded(new ArrayList<>())
-                      .build())
-              .withInitialPhases(new PlanPhase[0])
-              .withFinalPhase(
-                  new PlanPhaseImp.Builder<>()
-                      .withPhaseType(getPhaseType(isOneTimeFee))
-                      .withDuration(findDuration(isOneTimeFee))
-                      .withRecurring(
-                          new RecurringImp.Builder<>()
-                              .withBillingPeriod(findBillingPeriod(amberfloPlan, isOneTimeFee))
-                              .withRecurringPrice(
-                                  findInternationalPrice(entry.getValue().getCost()))
-                              .build())
-                      .build())
-              .withRecurringBillingPeriod(findBillingPeriod(amberfloPlan, isOneTimeFee))
-              .build());
-
-      products.add(
-          new ProductImp.Builder<>()
-              .withName(entry.getValue().getId())
-              .withPrettyName(entry.getValue().getName())
-              .withCategory(ProductCategory.BASE)
-              .withAvailable(new ArrayList<>())
-              .withIncluded(new ArrayList<>())
-              .build());
+
+    return new PlanImp.Builder<>()
+        .withName(planName)
+        .withPriceList(interner.defaultPriceList())
+        .withPrettyName(planPrettyName)
+        .withProduct(interner.product(productItem.getId(), productItem.getProductItemName()))
+        .withInitialPhases(new PlanPhase[0])
+        .withFinalPhase(phase)
+        .build();
+  }
+
+  private Plan getPlanFromFee(ProductPlans amberfloPlan, Fee fee) {
+    boolean isOneTimeFee = Boolean.parseBoolean(fee.getIsOneTimeFee().toLowerCase());
+    String planName = fee.getId() + "_" + fee.getName();
+    String planPrettyName = fee.getName() + getPlanNameSuffix(amberfloPlan, isOneTimeFee);
+
+    return new PlanImp.Builder<>()
+        .withName(planName)
+        .withPrettyName(planPrettyName)
+        .withPriceList(interner.defaultPriceList())
+        .withProduct(interner.product(fee.getId(), fee.getName()))
+        .withInitialPhases(new PlanPhase[0])
+        .withFinalPhase(
+            new PlanPhaseImp.Builder<>()
+                .withPhaseType(getPhaseType(isOneTimeFee))
+                .withDuration(findDuration(isOneTimeFee))
+                .withRecurring(
+                    new RecurringImp.Builder<>()
+                        .withBillingPeriod(findBillingPeriod(amberfloPlan, isOneTimeFee))
+                        .withRecurringPrice(findInternationalPrice(fee.getCost()))
+                        .build())
+                .build())
+        .withRecurringBillingPeriod(findBillingPeriod(amberfloPlan, isOneTimeFee))
+        .build();
+  }
+
+  // Returns the products referenced by the converted plans, in plan order
+  public Set<Product> collectProducts(List<Plan> killBillPlans) {
+    Set<Product> products = new LinkedHashSet<>();
+    for (Plan plan : killBillPlans) {
+      products.add(plan.getProduct());
     }
-    return killBillPlans;
+    return products;
   }
 
   private Usage[] findUsages(
@@ -236,6 +277,7 @@ public class AmberfloUtils {
       ProductItem productItem,
       String planPrettyName)
       throws URISyntaxException, IOException {
+    long start = System.nanoTime();
 
     UsageResponse usageResponse =
         amberfloHttpClientImpl.requestListAllPaymentPricing(productItemPriceId);
@@ -252,6 +294,8 @@ public class AmberfloUtils {
             .withTiers(findTiers(usageResponse, productItem))
             .build();
 
+    amberfloHttpClientImpl.recordStage(CatalogMetrics.STAGE_USAGES, System.nanoTime() - start);
+    amberfloHttpClientImpl.getTrace().recordUsage(usages[0].getTiers().length);
     return usages;
   }
 
@@ -261,33 +305,18 @@ public class AmberfloUtils {
 
     for (int i = 0; i < amberfloTiers.length; i++) {
       BigDecimal size = calculateTieredBlockSize(amberfloTiers, i);
+      // Each tier holds a single tiered block; identical tiers are shared through the interner
       killBillTiers[i] =
-          new TierImp.Builder<>()
-              .withTieredBlocks(findTieredBlocks(amberfloTiers[i], size, productItem))
-              .build();
+          interner.singleBlockTier(
+              amberfloTiers[i].getBatchSize(),
+              amberfloTiers[i].getPricePerBatch(),
+              size,
+              productItem.getMeterApiName(),
+              productItem.getProductItemName());
     }
     return killBillTiers;
   }
 
-  private TieredBlock[] findTieredBlocks(
-      UsageTier amberfloTier, BigDecimal size, ProductItem productItem) {
-    TieredBlock[] tieredBlocks = new TieredBlock[1];
-
-    tieredBlocks[0] =
-        new TieredBlockImp.Builder<>()
-            .withMax(BigDecimal.valueOf(amberfloTier.getBatchSize()))
-            .withPrice(findInternationalPrice(amberfloTier.getPricePerBatch()))
-            .withSize(size)
-            .withUnit(
-                new UnitImp.Builder<>()
-                    .withName(productItem.getMeterApiName())
-                    .withPrettyName(productItem.getProductItemName())
-                    .build())
-            .build();
-
-    return tieredBlocks;
-  }
-
   /*
    * Calculates the size of a tiered block by doing a math operation using the
    * startAfterUnit of the current tier and the tier that follows
@@ -315,23 +344,15 @@ public class AmberfloUtils {
     int number = 1;
 
     if (isOneTimeFee) {
-      return new DurationImp.Builder<>().withUnit(timeUnit).withNumber(number).build();
+      return interner.duration(timeUnit, number);
     }
 
-    return new DurationImp.Builder<>().withUnit(TimeUnit.UNLIMITED).build();
+    return interner.duration(TimeUnit.UNLIMITED, null);
   }
 
   // Converts the cost to InternationalPrice format
   private InternationalPrice findInternationalPrice(double cost) {
-    Price[] prices = new Price[1];
-
-    prices[0] =
-        new PriceImp.Builder<>()
-            .withCurrency(Currency.USD)
-            .withValue(BigDecimal.valueOf(cost))
-            .build();
-
-    return new InternationalPriceImp.Builder<>().withPrices(prices).withIsZero(false).build();
+    return interner.usdPrice(cost);
   }
 
   // Returns the billing period for the feeMap case
@@ -377,17 +398,10 @@ public class AmberfloUtils {
 
   public Set<Product> getProducts(List<ProductItem> productItems) {
 
-    Set<Product> productList = new HashSet<>();
+    Set<Product> productList = new LinkedHashSet<>();
 
     for (ProductItem item : productItems) {
-      productList.add(
-          new ProductImp.Builder<>()
-              .withName(item.getId())
-              .withPrettyName(item.getProductItemName())
-              .withCategory(ProductCategory.BASE)
-              .withAvailable(new ArrayList<>())
-              .withIncluded(new ArrayList<>())
-              .build());
+      productList.add(interner.product(item.getId(), item.getProductItemName()));
     }
 
     return productList;
@@ -395,14 +409,10 @@ public class AmberfloUtils {
 
   public Set<Unit> getUnits(List<ProductItem> productItems) {
 
-    Set<Unit> unitList = new HashSet<>();
+    Set<Unit> unitList = new LinkedHashSet<>();
 
     for (ProductItem item : productItems) {
-      unitList.add(
-          new UnitImp.Builder<>()
-              .withName(item.getMeterApiName())
-              .withPrettyName(item.getProductItemName())
-              .build());
+      unitList.add(interner.unit(item.getMeterApiName(), item.getProductItemName()));
     }
 
     return unitList;
@@ -410,10 +420,15 @@ public class AmberfloUtils {
 
   public PriceList getPriceList(List<ProductPlans> plansList, List<ProductItem> productItems)
       throws URISyntaxException, IOException {
+    return getDefaultPriceList(convertToKillBillPlanModel(plansList, productItems));
+  }
+
+  // Builds the "Default" price list for plans that were already converted
+  public PriceList getDefaultPriceList(List<Plan> killBillPlans) {
     return new PriceListImp.Builder<>()
         .withName(DEFAULT_NAME)
         .withPrettyName(DEFAULT_NAME)
-        .withPlans(convertToKillBillPlanModel(plansList, productItems))
+        .withPlans(killBillPlans)
         .build();
   }
 
@@ -429,10 +444,7 @@ public class AmberfloUtils {
   }
 
   public List<Currency> buildCurrencyList() {
-
-    List<Currency> dList = new ArrayList<>();
-    dList.add(Currency.USD);
-    return dList;
+    return interner.currencies();
   }
 
   private List<CaseBillingAlignment> buildCaseBillingAlignmentList() {
@@ -532,4 +544,42 @@ public class AmberfloUtils {
         .withCaseChangePlanAlignment(buildCaseChangePlanAlignmentList())
         .build();
   }
+
+  private static Plan convertUnchecked(PlanTask task) {
+    try {
+      return task.convert();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (URISyntaxException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  // Unwraps the failure of a parallel conversion into the exceptions of the sequential path
+  private static IOException rethrow(Throwable cause) throws URISyntaxException {
+    if (cause instanceof UncheckedIOException) {
+      return ((UncheckedIOException) cause).getCause();
+    }
+    if (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof URISyntaxException) {
+      throw (URISyntaxException) cause;
+    }
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause);
+  }
+
+  // Converts a single fee or price id entry into a Kill Bill plan
+  private interface PlanTask {
+    Plan convert() throws URISyntaxException, IOException;
+  }
 }
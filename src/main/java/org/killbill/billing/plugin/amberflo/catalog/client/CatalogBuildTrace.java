@@ -0,0 +1,159 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.joda.time.DateTime;
+
+/*
+ * Structured record of a single catalog build: the time spent in each stage, the amberflo
+ * requests made, and what was produced. Stages that run concurrently, such as the usages of
+ * a parallel conversion, add up their durations. Usages loaded lazily after the build are
+ * recorded on the trace of the newest build of the client that created them, which is a later
+ * build than theirs once the tenant was rebuilt.
+ */
+public class CatalogBuildTrace {
+
+  private static final int MAX_ERRORS = 20;
+
+  private final UUID tenantId;
+  private final long startedAtMillis;
+  private final long startNanos;
+
+  private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+  private final List<String> errors = new ArrayList<>();
+  private int httpCalls;
+  private long bytesRead;
+  private int plans;
+  private int usages;
+  private int tiers;
+  private int journalPayloads;
+  private long oldestJournalPayloadMillis = -1;
+  private long durationNanos = -1;
+
+  public CatalogBuildTrace(UUID tenantId) {
+    this.tenantId = tenantId;
+    this.startedAtMillis = System.currentTimeMillis();
+    this.startNanos = System.nanoTime();
+  }
+
+  public synchronized void recordStage(String stage, long nanos) {
+    stageNanos.merge(stage, nanos, Long::sum);
+  }
+
+  public synchronized void recordRequest(long responseBytes) {
+    httpCalls++;
+    bytesRead += responseBytes;
+  }
+
+  public synchronized void recordPlans(int count) {
+    plans += count;
+  }
+
+  public synchronized void recordUsage(int tierCount) {
+    usages++;
+    tiers += tierCount;
+  }
+
+  // A payload served from the journal instead of amberflo, recorded at the given time
+  public synchronized void recordJournalPayload(long recordedAtMillis) {
+    journalPayloads++;
+    if (oldestJournalPayloadMillis < 0 || recordedAtMillis < oldestJournalPayloadMillis) {
+      oldestJournalPayloadMillis = recordedAtMillis;
+    }
+  }
+
+  public synchronized void recordError(String error) {
+    if (errors.size() < MAX_ERRORS) {
+      errors.add(error);
+    }
+  }
+
+  // Marks the end of the build, usages loaded lazily afterwards are still counted until the next
+  // build of the client
+  public synchronized void finish() {
+    if (durationNanos < 0) {
+      durationNanos = System.nanoTime() - startNanos;
+    }
+  }
+
+  public UUID getTenantId() {
+    return tenantId;
+  }
+
+  public long getStartedAtMillis() {
+    return startedAtMillis;
+  }
+
+  public synchronized boolean isSuccessful() {
+    return errors.isEmpty();
+  }
+
+  public synchronized int getHttpCalls() {
+    return httpCalls;
+  }
+
+  public synchronized long getBytesRead() {
+    return bytesRead;
+  }
+
+  public synchronized int getPlans() {
+    return plans;
+  }
+
+  public synchronized int getUsages() {
+    return usages;
+  }
+
+  public synchronized int getTiers() {
+    return tiers;
+  }
+
+  public synchronized int getJournalPayloads() {
+    return journalPayloads;
+  }
+
+  // Time the oldest payload served from the journal was recorded, -1 when there was none
+  public synchronized long getOldestJournalPayloadMillis() {
+    return oldestJournalPayloadMillis;
+  }
+
+  // Returns the trace as a map suitable for a JSON rendering, durations in milliseconds
+  public synchronized Map<String, Object> toMap() {
+    Map<String, Object> stages = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> entry : stageNanos.entrySet()) {
+      stages.put(entry.getKey(), entry.getValue() / 1000000.0);
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("tenantId", tenantId != null ? tenantId.toString() : null);
+    result.put("startedAt", new DateTime(startedAtMillis).toString());
+    result.put("durationMillis", durationNanos >= 0 ? durationNanos / 1000000.0 : null);
+    result.put("successful", errors.isEmpty());
+    result.put("stagesMillis", stages);
+    result.put("httpCalls", httpCalls);
+    result.put("bytesRead", bytesRead);
+    result.put("plans", plans);
+    result.put("usages", usages);
+    result.put("tiers", tiers);
+    result.put("journalPayloads", journalPayloads);
+    result.put("errors", new ArrayList<>(errors));
+    return result;
+  }
+}
@@ -0,0 +1,252 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.client;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.InternationalPrice;
+import org.killbill.billing.catalog.api.Price;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.ProductCategory;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.TieredBlock;
+import org.killbill.billing.catalog.api.TimeUnit;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.boilerplate.DurationImp;
+import org.killbill.billing.catalog.api.boilerplate.InternationalPriceImp;
+import org.killbill.billing.catalog.api.boilerplate.PriceImp;
+import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
+import org.killbill.billing.catalog.api.boilerplate.ProductImp;
+import org.killbill.billing.catalog.api.boilerplate.TierImp;
+import org.killbill.billing.catalog.api.boilerplate.TieredBlockImp;
+import org.killbill.billing.catalog.api.boilerplate.UnitImp;
+
+/*
+ * Flyweight cache for the catalog objects that AmberfloUtils creates during conversion.
+ * Every object handed out is treated as immutable, so identical products, units, prices,
+ * durations and tiers are shared between plans, catalog versions and tenants.
+ *
+ * Values are held weakly: once no catalog references a value anymore, e.g. after the catalogs
+ * of a tenant were replaced, it is collected and its entry is dropped on a later intern.
+ */
+public class CatalogInterner {
+
+  private static final String DEFAULT_NAME = "Default";
+
+  // Interner of tools and tests; the plugin owns one of its own, cleared when the plugin stops
+  public static final CatalogInterner SHARED = new CatalogInterner(true);
+
+  public static final CatalogInterner DISABLED = new CatalogInterner(false);
+
+  private final boolean enabled;
+
+  private final ConcurrentMap<List<Object>, ValueReference<Product>> products =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, ValueReference<Unit>> units =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, ValueReference<Duration>> durations =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, ValueReference<InternationalPrice>> prices =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<Object>, ValueReference<Tier>> tiers =
+      new ConcurrentHashMap<>();
+
+  // Collected values, whose entries are dropped from their table
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+  private final PriceList defaultPriceList;
+  private final List<Currency> currencies;
+
+  public CatalogInterner(boolean enabled) {
+    this.enabled = enabled;
+    this.defaultPriceList = buildDefaultPriceList();
+    this.currencies = Collections.singletonList(Currency.USD);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public Product product(String name, String prettyName) {
+    return intern(
+        products,
+        Arrays.asList(name, prettyName),
+        () ->
+            new ProductImp.Builder<>()
+                .withName(name)
+                .withPrettyName(prettyName)
+                .withCategory(ProductCategory.BASE)
+                .withAvailable(emptyProducts())
+                .withIncluded(emptyProducts())
+                .build());
+  }
+
+  public Unit unit(String name, String prettyName) {
+    return intern(
+        units,
+        Arrays.asList(name, prettyName),
+        () -> new UnitImp.Builder<>().withName(name).withPrettyName(prettyName).build());
+  }
+
+  // Returns the "Default" price list referenced by every plan (the plans themselves are not set)
+  public PriceList defaultPriceList() {
+    return enabled ? defaultPriceList : buildDefaultPriceList();
+  }
+
+  public List<Currency> currencies() {
+    return enabled ? currencies : new ArrayList<>(currencies);
+  }
+
+  public Duration duration(TimeUnit timeUnit, Integer number) {
+    return intern(
+        durations,
+        Arrays.asList(timeUnit, number),
+        () -> {
+          DurationImp.Builder<?> builder = new DurationImp.Builder<>().withUnit(timeUnit);
+          if (number != null) {
+            builder.withNumber(number);
+          }
+          return builder.build();
+        });
+  }
+
+  // Converts the cost to a USD InternationalPrice
+  public InternationalPrice usdPrice(double cost) {
+    return intern(
+        prices,
+        Collections.singletonList(cost),
+        () -> {
+          Price[] usd = new Price[1];
+          usd[0] =
+              new PriceImp.Builder<>()
+                  .withCurrency(Currency.USD)
+                  .withValue(BigDecimal.valueOf(cost))
+                  .build();
+          return new InternationalPriceImp.Builder<>().withPrices(usd).withIsZero(false).build();
+        });
+  }
+
+  // Returns a tier holding a single tiered block, shared between identical price structures
+  public Tier singleBlockTier(
+      double max, double cost, BigDecimal size, String unitName, String unitPrettyName) {
+    return intern(
+        tiers,
+        Arrays.asList(max, cost, size, unitName, unitPrettyName),
+        () -> {
+          TieredBlock[] tieredBlocks = new TieredBlock[1];
+          tieredBlocks[0] =
+              new TieredBlockImp.Builder<>()
+                  .withMax(BigDecimal.valueOf(max))
+                  .withPrice(usdPrice(cost))
+                  .withSize(size)
+                  .withUnit(unit(unitName, unitPrettyName))
+                  .build();
+          return new TierImp.Builder<>().withTieredBlocks(tieredBlocks).build();
+        });
+  }
+
+  // Number of values currently retained across all tables
+  public int size() {
+    purge();
+    return products.size() + units.size() + durations.size() + prices.size() + tiers.size();
+  }
+
+  // Drops every retained value, e.g. when the plugin is stopped
+  public void clear() {
+    products.clear();
+    units.clear();
+    durations.clear();
+    prices.clear();
+    tiers.clear();
+    purge();
+  }
+
+  private <T> T intern(
+      ConcurrentMap<List<Object>, ValueReference<T>> table,
+      List<Object> key,
+      Supplier<T> factory) {
+    if (!enabled) {
+      return factory.get();
+    }
+    purge();
+
+    T value = null;
+    while (true) {
+      ValueReference<T> reference = table.get(key);
+      T previous = reference != null ? reference.get() : null;
+      if (previous != null) {
+        return previous;
+      }
+      if (value == null) {
+        value = factory.get();
+      }
+      // An entry whose value was collected is replaced, it is dropped from the queue later
+      ValueReference<T> created = new ValueReference<>(table, key, value, collected);
+      if (reference == null
+          ? table.putIfAbsent(key, created) == null
+          : table.replace(key, reference, created)) {
+        return value;
+      }
+    }
+  }
+
+  // Removes the entries whose value was collected, unless they were replaced in the meantime
+  private void purge() {
+    Reference<?> reference;
+    while ((reference = collected.poll()) != null) {
+      ((ValueReference<?>) reference).remove();
+    }
+  }
+
+  private List<Product> emptyProducts() {
+    return enabled ? Collections.emptyList() : new ArrayList<>();
+  }
+
+  private static PriceList buildDefaultPriceList() {
+    return new PriceListImp.Builder<>().withName(DEFAULT_NAME).withPrettyName(DEFAULT_NAME).build();
+  }
+
+  private static class ValueReference<T> extends WeakReference<T> {
+
+    private final ConcurrentMap<List<Object>, ValueReference<T>> table;
+    private final List<Object> key;
+
+    ValueReference(
+        ConcurrentMap<List<Object>, ValueReference<T>> table,
+        List<Object> key,
+        T value,
+        ReferenceQueue<Object> queue) {
+      super(value, queue);
+      this.table = table;
+      this.key = key;
+    }
+
+    void remove() {
+      table.remove(key, this);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Objects;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.Fixed;
+import org.killbill.billing.catalog.api.PhaseType;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Recurring;
+import org.killbill.billing.catalog.api.StaticCatalog;
+import org.killbill.billing.catalog.api.Usage;
+
+/*
+ * PlanPhase whose usages are fetched from amberflo and built the first time they are read.
+ * Every other property is served by the wrapped phase. The usages are memoized once they
+ * have been built; a failed fetch is not memoized, so the next access tries again.
+ *
+ * The fetch runs on the thread reading the usages, usually a Kill Bill thread, after the catalog
+ * was served: it is not bounded by the build deadline, and a failure is not served from the
+ * previous snapshot but thrown to the reader as an UncheckedIOException. The loader, and the
+ * client it fetches through, is released once the usages are built.
+ */
+public class LazyUsagePlanPhase implements PlanPhase {
+
+  private final PlanPhase delegate;
+  private final String productItemPriceId;
+  private volatile UsageLoader loader;
+
+  private volatile Usage[] usages;
+
+  public LazyUsagePlanPhase(PlanPhase delegate, String productItemPriceId, UsageLoader loader) {
+    this.delegate = delegate;
+    this.productItemPriceId = productItemPriceId;
+    this.loader = loader;
+  }
+
+  @Override
+  public Usage[] getUsages() {
+    Usage[] result = usages;
+    if (result == null) {
+      synchronized (this) {
+        result = usages;
+        if (result == null) {
+          try {
+            result = loader.load();
+          } catch (IOException e) {
+            throw new UncheckedIOException(
+                "Unable to retrieve the pricing of " + productItemPriceId, e);
+          } catch (URISyntaxException e) {
+            throw new IllegalStateException(
+                "Unable to retrieve the pricing of " + productItemPriceId, e);
+          }
+          usages = result;
+          loader = null;
+        }
+      }
+    }
+    return result;
+  }
+
+  // Returns true once the usages were fetched and built
+  public boolean isMaterialized() {
+    return usages != null;
+  }
+
+  public String getProductItemPriceId() {
+    return productItemPriceId;
+  }
+
+  // Returns true when both phases are equal but for their usages, and fetch them from one price id
+  public boolean hasSameSource(LazyUsagePlanPhase that) {
+    return Objects.equals(delegate, that.delegate)
+        && Objects.equals(productItemPriceId, that.productItemPriceId);
+  }
+
+  @Override
+  public String getName() {
+    return delegate.getName();
+  }
+
+  @Override
+  public String getPrettyName() {
+    return delegate.getPrettyName();
+  }
+
+  @Override
+  public StaticCatalog getCatalog() {
+    return delegate.getCatalog();
+  }
+
+  @Override
+  public Fixed getFixed() {
+    return delegate.getFixed();
+  }
+
+  @Override
+  public Recurring getRecurring() {
+    return delegate.getRecurring();
+  }
+
+  @Override
+  public Duration getDuration() {
+    return delegate.getDuration();
+  }
+
+  @Override
+  public PhaseType getPhaseType() {
+    return delegate.getPhaseType();
+  }
+
+  @Override
+  public boolean compliesWithLimits(String unit, BigDecimal value) {
+    return delegate.compliesWithLimits(unit, value);
+  }
+
+  // Comparing phases fetches their usages, so that a change of the tiers of a price id is seen
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if ((o == null) || (this.getClass() != o.getClass())) {
+      return false;
+    }
+    LazyUsagePlanPhase that = (LazyUsagePlanPhase) o;
+    return hasSameSource(that) && Arrays.equals(getUsages(), that.getUsages());
+  }
+
+  // Equal phases have the same source of usages, hashing does not need to fetch them
+  @Override
+  public int hashCode() {
+    return (31 * Objects.hashCode(delegate)) + Objects.hashCode(productItemPriceId);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(this.getClass().getSimpleName());
+    sb.append("{");
+    sb.append("delegate=").append(delegate);
+    sb.append(", ");
+    sb.append("productItemPriceId='").append(productItemPriceId).append("'");
+    sb.append(", ");
+    sb.append("materialized=").append(isMaterialized());
+    sb.append("}");
+    return sb.toString();
+  }
+
+  // Fetches the pricing of a price id and builds its usages
+  public interface UsageLoader {
+    Usage[] load() throws URISyntaxException, IOException;
+  }
+}
@@ -25,6 +25,11 @@ import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
 import org.killbill.billing.plugin.amberflo.catalog.core.resources.AmberfloRefreshService;
 import org.killbill.billing.plugin.amberflo.catalog.core.resources.AmberfloRefreshServlet;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogDiagnosticsService;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogDiagnosticsServlet;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogExportService;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogExportServlet;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogMetricsServlet;
 import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogTestHealthcheckServlet;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
 import org.killbill.billing.plugin.core.config.PluginEnvironmentConfig;
@@ -38,29 +43,66 @@ public class CatalogActivator extends KillbillActivatorBase {
 
   private CatalogConfigurationHandler configurationHandler;
 
+  private CatalogPluginApiImpl catalogPluginApi;
+
+  private CatalogWarmUp warmUp;
+
+  private CatalogRefreshScheduler refreshScheduler;
+
   @Override
   public void start(final BundleContext context) throws Exception {
     super.start(context);
 
     final String region = PluginEnvironmentConfig.getRegion(configProperties.getProperties());
     configurationHandler = new CatalogConfigurationHandler(region, PLUGIN_NAME, killbillAPI);
+    final CatalogConfigurationProperties globalConfiguration =
+        configurationHandler.createConfigurable(configProperties.getProperties());
+    configurationHandler.setDefaultConfigurable(globalConfiguration);
+
+    final CatalogMetrics catalogMetrics = new CatalogMetrics(metricRegistry.getMetricRegistry());
 
-    final CatalogPluginApiImpl catalogPluginApi = new CatalogPluginApiImpl(configurationHandler);
+    catalogPluginApi = new CatalogPluginApiImpl(configurationHandler, catalogMetrics);
     registerCatalogPluginApi(context, catalogPluginApi);
 
+    // Build the catalogs of the tenants known from a previous run before taking traffic
+    warmUp = new CatalogWarmUp(catalogPluginApi);
+    warmUp.start(
+        catalogPluginApi.getKnownTenants(),
+        globalConfiguration.getWarmUpConcurrency(),
+        globalConfiguration.getWarmUpTimeoutMillis());
+
+    // Refresh the catalogs in the background, each tenant at its own time in the interval
+    refreshScheduler =
+        new CatalogRefreshScheduler(
+            catalogPluginApi,
+            catalogMetrics,
+            globalConfiguration.getRefreshIntervalMillis(),
+            globalConfiguration.getRefreshConcurrency());
+    refreshScheduler.start();
+
     // Expose a healthcheck (optional), so other plugins can check on the plugin status
-    final Healthcheck healthcheck = new CatalogTestHealthcheck();
+    final Healthcheck healthcheck =
+        new CatalogTestHealthcheck(catalogPluginApi, configurationHandler, catalogMetrics, warmUp);
     registerHealthcheck(context, healthcheck);
 
     final AmberfloRefreshService refreshService = new AmberfloRefreshService(catalogPluginApi);
+    final CatalogDiagnosticsService diagnosticsService =
+        new CatalogDiagnosticsService(catalogPluginApi);
+    final CatalogExportService exportService = new CatalogExportService(catalogPluginApi);
 
     // Register a servlet (optional)
     final PluginApp pluginApp =
         new PluginAppBuilder(PLUGIN_NAME, killbillAPI, dataSource, super.clock, configProperties)
             .withRouteClass(CatalogTestHealthcheckServlet.class)
             .withRouteClass(AmberfloRefreshServlet.class)
+            .withRouteClass(CatalogMetricsServlet.class)
+            .withRouteClass(CatalogDiagnosticsServlet.class)
+            .withRouteClass(CatalogExportServlet.class)
             .withService(healthcheck)
             .withService(refreshService)
+            .withService(catalogMetrics)
+            .withService(diagnosticsService)
+            .withService(exportService)
             .build();
 
     final HttpServlet httpServlet = PluginApp.createServlet(pluginApp);
@@ -69,6 +111,20 @@ public class CatalogActivator extends KillbillActivatorBase {
     registerEventHandlers();
   }
 
+  @Override
+  public void stop(final BundleContext context) throws Exception {
+    if (refreshScheduler != null) {
+      refreshScheduler.close();
+    }
+    if (warmUp != null) {
+      warmUp.close();
+    }
+    if (catalogPluginApi != null) {
+      catalogPluginApi.close();
+    }
+    super.stop(context);
+  }
+
   private void registerEventHandlers() {
     final PluginConfigurationEventHandler configHandler =
         new PluginConfigurationEventHandler(configurationHandler);
@@ -15,22 +15,59 @@
 
 package org.killbill.billing.plugin.amberflo.catalog.core;
 
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConfigurationHandler;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 
 public class CatalogConfigurationHandler
     extends PluginTenantConfigurableConfigurationHandler<CatalogConfigurationProperties> {
 
   private final String region;
+  // Key of the configuration of this plugin in the tenant KV store, as the superclass matches it
+  private final String configKeyName;
+
+  private final List<ConfigurationListener> listeners = new CopyOnWriteArrayList<>();
 
   public CatalogConfigurationHandler(
       final String region, final String pluginName, final OSGIKillbillAPI osgiKillbillAPI) {
     super(pluginName, osgiKillbillAPI);
     this.region = region;
+    this.configKeyName = TenantKey.PLUGIN_CONFIG_.toString() + pluginName;
   }
 
   protected CatalogConfigurationProperties createConfigurable(final Properties properties) {
     return new CatalogConfigurationProperties(properties, region);
   }
+
+  public void addConfigurationListener(final ConfigurationListener listener) {
+    listeners.add(listener);
+  }
+
+  /*
+   * Called by PluginConfigurationEventHandler once a configuration was uploaded. The first
+   * getConfigurable of a tenant loads its configuration through configure(UUID) as well, which is
+   * not a change, so only the uploads of the configuration of this plugin are notified.
+   */
+  @Override
+  protected void configure(final String configKey, final UUID kbTenantId) {
+    super.configure(configKey, kbTenantId);
+    if (configKeyName.equals(configKey)) {
+      notifyConfigurationChanged(kbTenantId);
+    }
+  }
+
+  protected void notifyConfigurationChanged(final UUID kbTenantId) {
+    for (final ConfigurationListener listener : listeners) {
+      listener.configurationChanged(kbTenantId);
+    }
+  }
+
+  // Notified after the configuration of a tenant changed, and was resolved again
+  public interface ConfigurationListener {
+    void configurationChanged(UUID tenantId);
+  }
 }
@@ -32,6 +32,36 @@ public class CatalogConfigurationProperties {
       "AMBERFLO_KB_INGESTION_FREQUENCY_SECONDS";
   public static final String AMBERFLO_KB_INGESTION_BATCH_SIZE = "AMBERFLO_KB_INGESTION_BATCH_SIZE";
   public static final String AMBERFLO_KB_IS_DEBUG = "AMBERFLO_KB_IS_DEBUG";
+  public static final String AMBERFLO_KB_CONVERSION_PARALLELISM =
+      "AMBERFLO_KB_CONVERSION_PARALLELISM";
+  public static final String AMBERFLO_KB_LAZY_USAGES = "AMBERFLO_KB_LAZY_USAGES";
+  public static final String AMBERFLO_KB_CATALOG_DEADLINE_MILLIS =
+      "AMBERFLO_KB_CATALOG_DEADLINE_MILLIS";
+  public static final String AMBERFLO_KB_CATALOG_WAIT_LIMIT_MILLIS =
+      "AMBERFLO_KB_CATALOG_WAIT_LIMIT_MILLIS";
+  public static final String AMBERFLO_KB_REQUEST_TIMEOUT_MILLIS =
+      "AMBERFLO_KB_REQUEST_TIMEOUT_MILLIS";
+  public static final String AMBERFLO_KB_HEALTH_MAX_SNAPSHOT_AGE_MILLIS =
+      "AMBERFLO_KB_HEALTH_MAX_SNAPSHOT_AGE_MILLIS";
+  public static final String AMBERFLO_KB_HEALTH_MAX_CONSECUTIVE_FAILURES =
+      "AMBERFLO_KB_HEALTH_MAX_CONSECUTIVE_FAILURES";
+  public static final String AMBERFLO_KB_HEALTH_MAX_LATENCY_MILLIS =
+      "AMBERFLO_KB_HEALTH_MAX_LATENCY_MILLIS";
+  public static final String AMBERFLO_KB_DIAGNOSTICS_TRACES = "AMBERFLO_KB_DIAGNOSTICS_TRACES";
+  public static final String AMBERFLO_KB_SNAPSHOT_DIRECTORY = "AMBERFLO_KB_SNAPSHOT_DIRECTORY";
+  public static final String AMBERFLO_KB_RETAINED_VERSIONS = "AMBERFLO_KB_RETAINED_VERSIONS";
+  public static final String AMBERFLO_KB_JOURNAL_DIRECTORY = "AMBERFLO_KB_JOURNAL_DIRECTORY";
+  public static final String AMBERFLO_KB_JOURNAL_SEGMENT_BYTES =
+      "AMBERFLO_KB_JOURNAL_SEGMENT_BYTES";
+  public static final String AMBERFLO_KB_JOURNAL_SEGMENTS = "AMBERFLO_KB_JOURNAL_SEGMENTS";
+  public static final String AMBERFLO_KB_CONFIG_REBUILD_DEBOUNCE_MILLIS =
+      "AMBERFLO_KB_CONFIG_REBUILD_DEBOUNCE_MILLIS";
+  public static final String AMBERFLO_KB_WARM_UP_CONCURRENCY = "AMBERFLO_KB_WARM_UP_CONCURRENCY";
+  public static final String AMBERFLO_KB_WARM_UP_TIMEOUT_MILLIS =
+      "AMBERFLO_KB_WARM_UP_TIMEOUT_MILLIS";
+  public static final String AMBERFLO_KB_REFRESH_INTERVAL_MILLIS =
+      "AMBERFLO_KB_REFRESH_INTERVAL_MILLIS";
+  public static final String AMBERFLO_KB_REFRESH_CONCURRENCY = "AMBERFLO_KB_REFRESH_CONCURRENCY";
 
   public static final String DEFAULT_APIKEY = "";
   public static final String DEFAULT_URL =
@@ -39,73 +69,294 @@ public class CatalogConfigurationProperties {
   public static final String DEFAULT_GET_PLANS = "/product-plans/list";
   public static final String DEFAULT_GET_PRICES = "/product-item-price";
   public static final String DEFAULT_GET_PRODUCTS = "/product-items/list";
+  public static final int DEFAULT_CONVERSION_PARALLELISM = 4;
+  public static final boolean DEFAULT_LAZY_USAGES = false;
+  public static final int DEFAULT_CATALOG_DEADLINE_MILLIS = 5000;
+  public static final int DEFAULT_CATALOG_WAIT_LIMIT_MILLIS = 60000;
+  public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 30000;
+  public static final int DEFAULT_HEALTH_MAX_SNAPSHOT_AGE_MILLIS = 3600000;
+  public static final int DEFAULT_HEALTH_MAX_CONSECUTIVE_FAILURES = 3;
+  public static final int DEFAULT_HEALTH_MAX_LATENCY_MILLIS = 10000;
+  public static final int DEFAULT_DIAGNOSTICS_TRACES = 20;
+  public static final String DEFAULT_SNAPSHOT_DIRECTORY = "";
+  public static final int DEFAULT_RETAINED_VERSIONS = 2;
+  public static final String DEFAULT_JOURNAL_DIRECTORY = "";
+  public static final int DEFAULT_JOURNAL_SEGMENT_BYTES = 16 * 1024 * 1024;
+  public static final int DEFAULT_JOURNAL_SEGMENTS = 8;
+  public static final int DEFAULT_CONFIG_REBUILD_DEBOUNCE_MILLIS = 2000;
+  public static final int DEFAULT_WARM_UP_CONCURRENCY = 4;
+  public static final int DEFAULT_WARM_UP_TIMEOUT_MILLIS = 120000;
+  public static final int DEFAULT_REFRESH_INTERVAL_MILLIS = 0;
+  public static final int DEFAULT_REFRESH_CONCURRENCY = 2;
 
-  private String apiKey;
-  private String url;
-  private String getPlans;
-  private String getPrices;
-  private String getProducts;
-  private String killBillRegion;
+  // Every property is resolved once, when the configuration of the tenant is loaded
+  private final String apiKey;
+  private final String url;
+  private final String getPlans;
+  private final String getPrices;
+  private final String getProducts;
+  private final int conversionParallelism;
+  private final boolean lazyUsages;
+  private final int catalogDeadlineMillis;
+  private final int catalogWaitLimitMillis;
+  private final int requestTimeoutMillis;
+  private final int healthMaxSnapshotAgeMillis;
+  private final int healthMaxConsecutiveFailures;
+  private final int healthMaxLatencyMillis;
+  private final int diagnosticsTraces;
+  private final String snapshotDirectory;
+  private final int retainedVersions;
+  private final String journalDirectory;
+  private final int journalSegmentBytes;
+  private final int journalSegments;
+  private final int configRebuildDebounceMillis;
+  private final int warmUpConcurrency;
+  private final int warmUpTimeoutMillis;
+  private final int refreshIntervalMillis;
+  private final int refreshConcurrency;
+  private final String killBillRegion;
 
   public CatalogConfigurationProperties(final Properties properties, final String killBillRegion) {
+    this(properties, killBillRegion, System.getenv());
+  }
 
-    this.apiKey = properties.getProperty(PROPERTY_PREFIX + "apiKey");
-    this.url = properties.getProperty(PROPERTY_PREFIX + "url");
-    this.getPlans = properties.getProperty(PROPERTY_PREFIX + "getPlans");
-    this.getPrices = properties.getProperty(PROPERTY_PREFIX + "getPrices");
-    this.getProducts = properties.getProperty(PROPERTY_PREFIX + "getProducts");
+  // A property missing from the properties is read from its environment variable, or defaulted
+  CatalogConfigurationProperties(
+      final Properties properties, final String killBillRegion, final Map<String, String> env) {
+    final Resolver resolver = new Resolver(properties, env);
+    this.apiKey = resolver.getString("apiKey", AMBERFLO_KB_APIKEY, DEFAULT_APIKEY);
+    this.url = resolver.getString("url", null, DEFAULT_URL);
+    this.getPlans = resolver.getString("getPlans", AMBERFLO_KB_GET_PLANS, DEFAULT_GET_PLANS);
+    this.getPrices = resolver.getString("getPrices", AMBERFLO_KB_GET_PRICES, DEFAULT_GET_PRICES);
+    this.getProducts =
+        resolver.getString("getProducts", AMBERFLO_KB_GET_PRODUCTS, DEFAULT_GET_PRODUCTS);
+    this.conversionParallelism =
+        resolver.getInt(
+            "conversionParallelism",
+            AMBERFLO_KB_CONVERSION_PARALLELISM,
+            DEFAULT_CONVERSION_PARALLELISM);
+    this.lazyUsages =
+        resolver.getBoolean("lazyUsages", AMBERFLO_KB_LAZY_USAGES, DEFAULT_LAZY_USAGES);
+    this.catalogDeadlineMillis =
+        resolver.getInt(
+            "catalogDeadlineMillis",
+            AMBERFLO_KB_CATALOG_DEADLINE_MILLIS,
+            DEFAULT_CATALOG_DEADLINE_MILLIS);
+    this.catalogWaitLimitMillis =
+        resolver.getInt(
+            "catalogWaitLimitMillis",
+            AMBERFLO_KB_CATALOG_WAIT_LIMIT_MILLIS,
+            DEFAULT_CATALOG_WAIT_LIMIT_MILLIS);
+    this.requestTimeoutMillis =
+        resolver.getInt(
+            "requestTimeoutMillis",
+            AMBERFLO_KB_REQUEST_TIMEOUT_MILLIS,
+            DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    this.healthMaxSnapshotAgeMillis =
+        resolver.getInt(
+            "healthMaxSnapshotAgeMillis",
+            AMBERFLO_KB_HEALTH_MAX_SNAPSHOT_AGE_MILLIS,
+            DEFAULT_HEALTH_MAX_SNAPSHOT_AGE_MILLIS);
+    this.healthMaxConsecutiveFailures =
+        resolver.getInt(
+            "healthMaxConsecutiveFailures",
+            AMBERFLO_KB_HEALTH_MAX_CONSECUTIVE_FAILURES,
+            DEFAULT_HEALTH_MAX_CONSECUTIVE_FAILURES);
+    this.healthMaxLatencyMillis =
+        resolver.getInt(
+            "healthMaxLatencyMillis",
+            AMBERFLO_KB_HEALTH_MAX_LATENCY_MILLIS,
+            DEFAULT_HEALTH_MAX_LATENCY_MILLIS);
+    this.diagnosticsTraces =
+        resolver.getInt(
+            "diagnosticsTraces", AMBERFLO_KB_DIAGNOSTICS_TRACES, DEFAULT_DIAGNOSTICS_TRACES);
+    this.snapshotDirectory =
+        resolver.getString(
+            "snapshotDirectory", AMBERFLO_KB_SNAPSHOT_DIRECTORY, DEFAULT_SNAPSHOT_DIRECTORY);
+    this.retainedVersions =
+        resolver.getInt(
+            "retainedVersions", AMBERFLO_KB_RETAINED_VERSIONS, DEFAULT_RETAINED_VERSIONS);
+    this.journalDirectory =
+        resolver.getString(
+            "journalDirectory", AMBERFLO_KB_JOURNAL_DIRECTORY, DEFAULT_JOURNAL_DIRECTORY);
+    this.journalSegmentBytes =
+        resolver.getInt(
+            "journalSegmentBytes",
+            AMBERFLO_KB_JOURNAL_SEGMENT_BYTES,
+            DEFAULT_JOURNAL_SEGMENT_BYTES);
+    this.journalSegments =
+        resolver.getInt(
+            "journalSegments", AMBERFLO_KB_JOURNAL_SEGMENTS, DEFAULT_JOURNAL_SEGMENTS);
+    this.configRebuildDebounceMillis =
+        resolver.getInt(
+            "configRebuildDebounceMillis",
+            AMBERFLO_KB_CONFIG_REBUILD_DEBOUNCE_MILLIS,
+            DEFAULT_CONFIG_REBUILD_DEBOUNCE_MILLIS);
+    this.warmUpConcurrency =
+        resolver.getInt(
+            "warmUpConcurrency", AMBERFLO_KB_WARM_UP_CONCURRENCY, DEFAULT_WARM_UP_CONCURRENCY);
+    this.warmUpTimeoutMillis =
+        resolver.getInt(
+            "warmUpTimeoutMillis",
+            AMBERFLO_KB_WARM_UP_TIMEOUT_MILLIS,
+            DEFAULT_WARM_UP_TIMEOUT_MILLIS);
+    this.refreshIntervalMillis =
+        resolver.getInt(
+            "refreshIntervalMillis",
+            AMBERFLO_KB_REFRESH_INTERVAL_MILLIS,
+            DEFAULT_REFRESH_INTERVAL_MILLIS);
+    this.refreshConcurrency =
+        resolver.getInt(
+            "refreshConcurrency", AMBERFLO_KB_REFRESH_CONCURRENCY, DEFAULT_REFRESH_CONCURRENCY);
     this.killBillRegion = killBillRegion;
   }
 
   public String getApiKey() {
-    if (apiKey == null || apiKey.isEmpty()) {
-      return getEnvironmentVariables(AMBERFLO_KB_APIKEY, DEFAULT_APIKEY);
-    }
     return apiKey;
   }
 
   public String getPlans() {
-    if (getPlans == null || getPlans.isEmpty()) {
-      return getEnvironmentVariables(AMBERFLO_KB_GET_PLANS, DEFAULT_GET_PLANS);
-    }
     return getPlans;
   }
 
   public String getPrices() {
-    if (getPrices == null || getPrices.isEmpty()) {
-      return getEnvironmentVariables(AMBERFLO_KB_GET_PRICES, DEFAULT_GET_PRICES);
-    }
     return getPrices;
   }
 
   public String getProducts() {
-    if (getProducts == null || getProducts.isEmpty()) {
-      return getEnvironmentVariables(AMBERFLO_KB_GET_PRODUCTS, DEFAULT_GET_PRODUCTS);
-    }
     return getProducts;
   }
 
   public String getUrl() {
-    if (url == null || url.isEmpty()) {
-      return getEnvironmentVariables("", DEFAULT_URL);
-    }
     return url;
   }
 
+  // Number of workers used to convert amberflo plans, 1 disables parallel conversion
+  public int getConversionParallelism() {
+    return conversionParallelism;
+  }
+
+  // When enabled, usage pricing is only fetched from amberflo when a plan phase is first read, on
+  // the reading thread and outside of the build deadline and of the stale snapshot fallback
+  public boolean isLazyUsages() {
+    return lazyUsages;
+  }
+
+  // Time a caller waits for a catalog rebuild before the previous snapshot is served, 0 waits
+  public int getCatalogDeadlineMillis() {
+    return catalogDeadlineMillis;
+  }
+
+  // Longest time a caller waits for a rebuild that no snapshot can replace, or with no deadline,
+  // 0 waits until the rebuild ends
+  public int getCatalogWaitLimitMillis() {
+    return catalogWaitLimitMillis;
+  }
+
+  // Connect and read timeout of each amberflo request
+  public int getRequestTimeoutMillis() {
+    return requestTimeoutMillis;
+  }
+
+  // Age past which a catalog behind the latest version makes the plugin unhealthy, 0 disables
+  public int getHealthMaxSnapshotAgeMillis() {
+    return healthMaxSnapshotAgeMillis;
+  }
+
+  // Failed catalog builds in a row that make the plugin unhealthy, 0 disables
+  public int getHealthMaxConsecutiveFailures() {
+    return healthMaxConsecutiveFailures;
+  }
+
+  // p99 latency of the amberflo requests of all tenants that makes the plugin unhealthy, 0 disables
+  public int getHealthMaxLatencyMillis() {
+    return healthMaxLatencyMillis;
+  }
+
+  // Number of catalog build traces kept for each tenant
+  public int getDiagnosticsTraces() {
+    return diagnosticsTraces;
+  }
+
+  // Directory where the catalog of each tenant is stored and mapped from, empty disables it
+  public String getSnapshotDirectory() {
+    return snapshotDirectory;
+  }
+
+  // Number of catalog versions kept for each tenant to diff, the current one included
+  public int getRetainedVersions() {
+    return retainedVersions;
+  }
+
+  // Directory where the amberflo payloads of each tenant are journaled, empty disables it
+  public String getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  // Size past which a journal segment is closed and a new one started
+  public int getJournalSegmentBytes() {
+    return journalSegmentBytes;
+  }
+
+  // Number of journal segments kept for each tenant, the oldest are deleted
+  public int getJournalSegments() {
+    return journalSegments;
+  }
+
+  public int getConfigRebuildDebounceMillis() {
+    return configRebuildDebounceMillis;
+  }
+
+  public int getWarmUpConcurrency() {
+    return warmUpConcurrency;
+  }
+
+  public int getWarmUpTimeoutMillis() {
+    return warmUpTimeoutMillis;
+  }
+
+  public int getRefreshIntervalMillis() {
+    return refreshIntervalMillis;
+  }
+
+  public int getRefreshConcurrency() {
+    return refreshConcurrency;
+  }
+
   public String getKillbillRegion() {
 
     return killBillRegion;
   }
 
-  private String getEnvironmentVariables(String envKey, String defaultValue) {
-    Map<String, String> env = System.getenv();
+  private static class Resolver {
+
+    private final Properties properties;
+    private final Map<String, String> env;
+
+    Resolver(final Properties properties, final Map<String, String> env) {
+      this.properties = properties;
+      this.env = env;
+    }
 
-    String value = env.get(envKey);
+    String getString(final String name, final String envKey, final String defaultValue) {
+      final String value = properties.getProperty(PROPERTY_PREFIX + name);
+      if (value != null && !value.isEmpty()) {
+        return value;
+      }
+      final String envValue = envKey != null ? env.get(envKey) : null;
+      return envValue == null || envValue.isEmpty() ? defaultValue : envValue;
+    }
 
-    if (value == null || value.isEmpty()) {
-      return defaultValue;
+    int getInt(final String name, final String envKey, final int defaultValue) {
+      try {
+        return Integer.parseInt(getString(name, envKey, Integer.toString(defaultValue)).trim());
+      } catch (NumberFormatException e) {
+        return defaultValue;
+      }
     }
 
-    return value;
+    boolean getBoolean(final String name, final String envKey, final boolean defaultValue) {
+      return Boolean.parseBoolean(getString(name, envKey, Boolean.toString(defaultValue)).trim());
+    }
   }
 }
@@ -0,0 +1,173 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.killbill.commons.metrics.api.Counter;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.Histogram;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.api.Snapshot;
+import org.killbill.commons.metrics.api.Timer;
+import org.killbill.commons.metrics.impl.NoOpMetricRegistry;
+
+/*
+ * Metrics of the plugin, published through the Kill Bill metric registry. The registry has no
+ * tags, so dimensions such as the endpoint or the response status are part of the metric name:
+ *
+ *   amberflo.http.<endpoint>                    timer of every amberflo request
+ *   amberflo.http.<endpoint>.status.<code>      timer per response status
+ *   amberflo.http.<endpoint>.errors             requests that failed without a response
+ *   amberflo.http.<endpoint>.responseBytes      histogram of response sizes
+ *   amberflo.build.<stage>                      timer of each catalog build stage
+ *   amberflo.cache.hits|misses|evictions        catalog snapshot cache
+ */
+public class CatalogMetrics {
+
+  public static final String PREFIX = "amberflo.";
+
+  public static final String ENDPOINT_PLANS = "plans";
+  public static final String ENDPOINT_PRODUCTS = "products";
+  public static final String ENDPOINT_PRICES = "prices";
+
+  public static final String STAGE_BUILD = "total";
+  public static final String STAGE_FETCH_PLANS = "fetchPlans";
+  public static final String STAGE_FETCH_PRODUCTS = "fetchProducts";
+  public static final String STAGE_CONVERT_PLANS = "convertPlans";
+  public static final String STAGE_USAGES = "usages";
+  public static final String STAGE_UNITS = "units";
+  public static final String STAGE_PRODUCTS = "products";
+  public static final String STAGE_RULES = "rules";
+  public static final String STAGE_PRICE_LIST = "priceList";
+  public static final String STAGE_ASSEMBLE = "assemble";
+
+  private static final String[] ENDPOINTS = {ENDPOINT_PLANS, ENDPOINT_PRODUCTS, ENDPOINT_PRICES};
+
+  private static final CatalogMetrics NOOP = new CatalogMetrics(new NoOpMetricRegistry());
+
+  private final MetricRegistry registry;
+
+  private final Counter cacheHits;
+  private final Counter cacheMisses;
+  private final Counter cacheEvictions;
+
+  public CatalogMetrics(final MetricRegistry registry) {
+    this.registry = registry;
+    this.cacheHits = registry.counter(PREFIX + "cache.hits");
+    this.cacheMisses = registry.counter(PREFIX + "cache.misses");
+    this.cacheEvictions = registry.counter(PREFIX + "cache.evictions");
+  }
+
+  public static CatalogMetrics noop() {
+    return NOOP;
+  }
+
+  public MetricRegistry getRegistry() {
+    return registry;
+  }
+
+  public void recordRequest(
+      final String endpoint, final int status, final long responseBytes, final long nanos) {
+    registry.timer(PREFIX + "http." + endpoint).update(nanos, TimeUnit.NANOSECONDS);
+    registry
+        .timer(PREFIX + "http." + endpoint + ".status." + status)
+        .update(nanos, TimeUnit.NANOSECONDS);
+    registry.histogram(PREFIX + "http." + endpoint + ".responseBytes").update(responseBytes);
+  }
+
+  public void recordRequestError(final String endpoint, final long nanos) {
+    registry.timer(PREFIX + "http." + endpoint).update(nanos, TimeUnit.NANOSECONDS);
+    registry.counter(PREFIX + "http." + endpoint + ".errors").inc(1);
+  }
+
+  public void recordStage(final String stage, final long nanos) {
+    registry.timer(PREFIX + "build." + stage).update(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void cacheHit() {
+    cacheHits.inc(1);
+  }
+
+  public void cacheMiss() {
+    cacheMisses.inc(1);
+  }
+
+  public void cacheEviction() {
+    cacheEvictions.inc(1);
+  }
+
+  public <T> void gauge(final String name, final Gauge<T> gauge) {
+    registry.gauge(PREFIX + name, gauge);
+  }
+
+  // Returns the p99 latency in milliseconds of the requests of all tenants to amberflo
+  public double getRequestLatencyP99Millis() {
+    double p99 = 0;
+    for (final String endpoint : ENDPOINTS) {
+      final Timer timer = registry.getTimers().get(PREFIX + "http." + endpoint);
+      if (timer != null && timer.getCount() > 0) {
+        p99 = Math.max(p99, timer.getSnapshot().get99thPercentile() / 1000000.0);
+      }
+    }
+    return p99;
+  }
+
+  // Returns the plugin metrics as a map suitable for a JSON rendering, durations in milliseconds
+  public Map<String, Object> toMap() {
+    final Map<String, Object> result = new TreeMap<>();
+
+    for (final Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+      if (entry.getKey().startsWith(PREFIX)) {
+        result.put(entry.getKey(), entry.getValue().getCount());
+      }
+    }
+    for (final Map.Entry<String, Gauge<?>> entry : registry.getGauges().entrySet()) {
+      if (entry.getKey().startsWith(PREFIX)) {
+        result.put(entry.getKey(), entry.getValue().getValue());
+      }
+    }
+    for (final Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+      if (entry.getKey().startsWith(PREFIX)) {
+        result.put(
+            entry.getKey(),
+            summarize(entry.getValue().getCount(), entry.getValue().getSnapshot(), 1000000.0));
+      }
+    }
+    for (final Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+      if (entry.getKey().startsWith(PREFIX)) {
+        result.put(
+            entry.getKey(),
+            summarize(entry.getValue().getCount(), entry.getValue().getSnapshot(), 1.0));
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, Object> summarize(
+      final long count, final Snapshot snapshot, final double divisor) {
+    final Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("count", count);
+    summary.put("min", snapshot.getMin() / divisor);
+    summary.put("mean", snapshot.getMean() / divisor);
+    summary.put("p50", snapshot.getMedian() / divisor);
+    summary.put("p95", snapshot.get95thPercentile() / divisor);
+    summary.put("p99", snapshot.get99thPercentile() / divisor);
+    summary.put("max", snapshot.getMax() / divisor);
+    return summary;
+  }
+}
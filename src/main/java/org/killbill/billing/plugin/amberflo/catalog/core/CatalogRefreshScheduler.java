@@ -0,0 +1,335 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.joda.time.DateTime;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Refreshes the catalog of every known tenant once per interval, in the background. Each tenant
+ * is refreshed at its own offset in the interval, derived from its id, so the tenants are spread
+ * evenly over the interval, and a tenant is refreshed at the same time on every node. At most
+ * `concurrency` refreshes run at once, and a tenant never runs twice at once: a tenant with a
+ * slow build holds a single slot while the others keep being refreshed.
+ *
+ * Due tenants are started in this order: tenants whose last refresh failed, which are retried
+ * within a quarter of the interval, then tenants read since their last refresh, then the others,
+ * each group by due time. A tenant waiting for a slot keeps its due time, so it is not starved by
+ * the tenants that became due after it. A refresh that joined a build already running, for an
+ * older version, did not refresh the tenant, which is started again on the next tick.
+ *
+ * The known tenants are listed again every tenth of the interval, at most every minute, outside
+ * the lock: listing them reads the snapshot and journal directories.
+ */
+public class CatalogRefreshScheduler {
+
+  private static final Logger logger = LoggerFactory.getLogger(CatalogRefreshScheduler.class);
+
+  private static final long MIN_TICK_MILLIS = 10;
+  private static final long MAX_TICK_MILLIS = 1000;
+  private static final long MAX_SCAN_MILLIS = 60000;
+
+  private final RefreshTarget target;
+  private final long intervalMillis;
+  private final int concurrency;
+  private final LongSupplier clock;
+  private final long tickMillis;
+  private final long scanMillis;
+
+  private final Map<UUID, TenantState> tenants = new ConcurrentHashMap<>();
+
+  private int running;
+  private long nextScanMillis = Long.MIN_VALUE;
+  private ScheduledExecutorService scheduler;
+
+  public CatalogRefreshScheduler(
+      final CatalogPluginApiImpl catalogPluginApi,
+      final CatalogMetrics metrics,
+      final long intervalMillis,
+      final int concurrency) {
+    this(
+        new CatalogTarget(catalogPluginApi),
+        intervalMillis,
+        concurrency,
+        System::currentTimeMillis);
+    metrics.gauge("refresh.running", (Gauge<Integer>) this::getRunning);
+    metrics.gauge("refresh.due", (Gauge<Integer>) this::getDue);
+  }
+
+  public CatalogRefreshScheduler(
+      final RefreshTarget target,
+      final long intervalMillis,
+      final int concurrency,
+      final LongSupplier clock) {
+    this.target = target;
+    this.intervalMillis = intervalMillis;
+    this.concurrency = concurrency;
+    this.clock = clock;
+    this.tickMillis = Math.max(MIN_TICK_MILLIS, Math.min(MAX_TICK_MILLIS, intervalMillis / 100));
+    this.scanMillis = Math.max(tickMillis, Math.min(MAX_SCAN_MILLIS, intervalMillis / 10));
+  }
+
+  // Starts refreshing in the background; an interval of 0 disables the refreshes
+  public synchronized void start() {
+    if (scheduler != null || intervalMillis <= 0 || concurrency <= 0) {
+      return;
+    }
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              final Thread thread = new Thread(runnable, "amberflo-catalog-refresh");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::tickSafely, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Stops the refreshes, called when the plugin is stopped; running builds are not waited for
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /*
+   * Runs one round of the scheduler: picks up the new tenants, and drops the tenants no longer
+   * known, when they are due to be listed, then starts the refreshes of the due tenants while
+   * slots are free. Called by the scheduler thread.
+   */
+  public void tick() {
+    final Collection<UUID> known = scanDue(clock.getAsLong()) ? target.getTenants() : null;
+    startDue(known);
+  }
+
+  private synchronized boolean scanDue(final long now) {
+    if (now < nextScanMillis) {
+      return false;
+    }
+    nextScanMillis = now + scanMillis;
+    return true;
+  }
+
+  private synchronized void startDue(final Collection<UUID> known) {
+    final long now = clock.getAsLong();
+    if (known != null) {
+      final Set<UUID> listed = new HashSet<>(known);
+      // A tenant no longer known is dropped once its running refresh, if any, is over
+      tenants.entrySet().removeIf(
+          entry -> !entry.getValue().running && !listed.contains(entry.getKey()));
+      for (final UUID tenantId : listed) {
+        tenants.computeIfAbsent(tenantId, id -> new TenantState(nextSlot(id, now)));
+      }
+    }
+    if (running >= concurrency) {
+      return;
+    }
+
+    final List<Map.Entry<UUID, TenantState>> due = new ArrayList<>();
+    for (final Map.Entry<UUID, TenantState> entry : tenants.entrySet()) {
+      final TenantState state = entry.getValue();
+      if (!state.running && state.dueMillis <= now) {
+        due.add(entry);
+      }
+    }
+    due.sort(
+        Comparator.comparingInt((Map.Entry<UUID, TenantState> entry) -> priority(entry))
+            .thenComparingLong(entry -> entry.getValue().dueMillis)
+            .thenComparing(Map.Entry::getKey));
+
+    for (final Map.Entry<UUID, TenantState> entry : due) {
+      if (running >= concurrency) {
+        break;
+      }
+      launch(entry.getKey(), entry.getValue(), now);
+    }
+  }
+
+  // Returns the offset of the tenant in the interval, the same on every node and every run
+  public long getOffsetMillis(final UUID tenantId) {
+    return Math.floorMod(
+        mix(tenantId.getMostSignificantBits() ^ mix(tenantId.getLeastSignificantBits())),
+        intervalMillis);
+  }
+
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  public synchronized int getDue() {
+    final long now = clock.getAsLong();
+    int due = 0;
+    for (final TenantState state : tenants.values()) {
+      if (!state.running && state.dueMillis <= now) {
+        due++;
+      }
+    }
+    return due;
+  }
+
+  private void tickSafely() {
+    try {
+      tick();
+    } catch (RuntimeException e) {
+      logger.warn("Unable to schedule the catalog refreshes", e);
+    }
+  }
+
+  // 0 for a failed tenant, 1 for a tenant read since its last refresh, 2 for the others
+  private int priority(final Map.Entry<UUID, TenantState> entry) {
+    final TenantState state = entry.getValue();
+    if (state.failures > 0) {
+      return 0;
+    }
+    return target.getLastReadMillis(entry.getKey()) > state.refreshedAtMillis ? 1 : 2;
+  }
+
+  private void launch(final UUID tenantId, final TenantState state, final long now) {
+    state.running = true;
+    running++;
+
+    CompletableFuture<Boolean> refresh;
+    try {
+      refresh = target.refresh(tenantId);
+    } catch (RuntimeException e) {
+      refresh = new CompletableFuture<>();
+      refresh.completeExceptionally(e);
+    }
+    refresh.whenComplete(
+        (refreshed, error) -> {
+          final boolean joined = error == null && !Boolean.TRUE.equals(refreshed);
+          completed(tenantId, state, now, joined, error);
+        });
+  }
+
+  private synchronized void completed(
+      final UUID tenantId,
+      final TenantState state,
+      final long startedAt,
+      final boolean joined,
+      final Throwable error) {
+    final long now = clock.getAsLong();
+    running--;
+    state.running = false;
+    if (joined) {
+      // The tenant keeps its priority, and is started again once the joined build is over
+      state.dueMillis = now + tickMillis;
+      return;
+    }
+    state.refreshedAtMillis = startedAt;
+    if (error == null) {
+      state.failures = 0;
+      state.dueMillis = nextSlot(tenantId, Math.max(now, state.dueMillis));
+      return;
+    }
+    state.failures++;
+    state.dueMillis = now + Math.max(MIN_TICK_MILLIS, intervalMillis / 4);
+    logger.warn(
+        "Unable to refresh the amberflo catalog of tenant {} ({} failures in a row)",
+        tenantId,
+        state.failures,
+        error);
+  }
+
+  // Returns the first time after the given time when the slot of the tenant comes up
+  private long nextSlot(final UUID tenantId, final long after) {
+    final long offset = getOffsetMillis(tenantId);
+    final long period = Math.floorDiv(after - offset, intervalMillis);
+    return ((period + 1) * intervalMillis) + offset;
+  }
+
+  // Finalizer of SplitMix64, so close tenant ids get unrelated offsets
+  private static long mix(final long value) {
+    long z = value;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // Tenants refreshed by the scheduler
+  public interface RefreshTarget {
+
+    Collection<UUID> getTenants();
+
+    long getLastReadMillis(UUID tenantId);
+
+    // Completes with false when the refresh joined a build already running for an older version
+    CompletableFuture<Boolean> refresh(UUID tenantId);
+  }
+
+  private static class TenantState {
+
+    private long dueMillis;
+    private long refreshedAtMillis;
+    private int failures;
+    private boolean running;
+
+    TenantState(final long dueMillis) {
+      this.dueMillis = dueMillis;
+    }
+  }
+
+  private static class CatalogTarget implements RefreshTarget {
+
+    private final CatalogPluginApiImpl catalogPluginApi;
+
+    CatalogTarget(final CatalogPluginApiImpl catalogPluginApi) {
+      this.catalogPluginApi = catalogPluginApi;
+    }
+
+    @Override
+    public Collection<UUID> getTenants() {
+      return catalogPluginApi.getKnownTenants();
+    }
+
+    @Override
+    public long getLastReadMillis(final UUID tenantId) {
+      return catalogPluginApi.getLastReadMillis(tenantId);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> refresh(final UUID tenantId) {
+      // A refresh builds a version later than the latest one, a joined build never does
+      final DateTime latest = catalogPluginApi.getLatestVersion(tenantId);
+      // A catalog built from the journal is retried like a failed refresh
+      return catalogPluginApi
+          .refresh(tenantId)
+          .thenApply(
+              snapshot -> {
+                if (snapshot.isDegraded()) {
+                  throw new IllegalStateException("Amberflo failed, built from the journal");
+                }
+                return snapshot.getVersion().isAfter(latest);
+              });
+    }
+  }
+}
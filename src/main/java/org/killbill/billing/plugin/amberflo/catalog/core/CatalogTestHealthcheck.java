@@ -14,16 +14,112 @@
  */
 package org.killbill.billing.plugin.amberflo.catalog.core;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import javax.annotation.Nullable;
+import org.joda.time.DateTime;
 import org.killbill.billing.osgi.api.Healthcheck;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
 import org.killbill.billing.tenant.api.Tenant;
 
+/*
+ * Reports the freshness of the tenant catalog and the latency of amberflo. The plugin is
+ * unhealthy when a catalog behind the latest version is older than the configured age, when
+ * too many builds failed in a row, or when the amberflo p99 latency is over the threshold. It
+ * is not ready until the catalogs of the known tenants were warmed up.
+ *
+ * The latency is measured over the requests of every tenant, as the metrics have no tenant
+ * dimension: a tenant whose amberflo account is slow makes the plugin unhealthy for all.
+ */
 public class CatalogTestHealthcheck implements Healthcheck {
 
+  private final CatalogPluginApiImpl catalogPluginApi;
+  private final CatalogConfigurationHandler configHandler;
+  private final CatalogMetrics metrics;
+  private final CatalogWarmUp warmUp;
+
+  public CatalogTestHealthcheck(
+      final CatalogPluginApiImpl catalogPluginApi,
+      final CatalogConfigurationHandler configHandler,
+      final CatalogMetrics metrics,
+      final CatalogWarmUp warmUp) {
+    this.catalogPluginApi = catalogPluginApi;
+    this.configHandler = configHandler;
+    this.metrics = metrics;
+    this.warmUp = warmUp;
+  }
+
   @Override
   public HealthStatus getHealthStatus(
       @Nullable final Tenant tenant, @Nullable final Map properties) {
-    return HealthStatus.healthy("Catalog Test OK");
+    final UUID tenantId = tenant != null ? tenant.getId() : null;
+    final CatalogConfigurationProperties config = configHandler.getConfigurable(tenantId);
+
+    final Map<String, Object> details = new LinkedHashMap<>();
+    final List<String> problems = new ArrayList<>();
+
+    details.put("warmUp", warmUp.getStatus());
+    if (!warmUp.isReady()) {
+      problems.add("catalogs are warming up");
+    }
+
+    if (tenantId != null) {
+      checkSnapshot(tenantId, config, details, problems);
+    }
+
+    final double p99 = metrics.getRequestLatencyP99Millis();
+    details.put("globalAmberfloLatencyP99Millis", p99);
+    if (config.getHealthMaxLatencyMillis() > 0 && p99 > config.getHealthMaxLatencyMillis()) {
+      problems.add(
+          "amberflo p99 latency of all tenants of "
+              + Math.round(p99)
+              + " ms is over "
+              + config.getHealthMaxLatencyMillis()
+              + " ms");
+    }
+
+    final boolean healthy = problems.isEmpty();
+    details.put("message", healthy ? "Catalog Test OK" : String.join("; ", problems));
+    return new HealthStatus(healthy, details);
+  }
+
+  private void checkSnapshot(
+      final UUID tenantId,
+      final CatalogConfigurationProperties config,
+      final Map<String, Object> details,
+      final List<String> problems) {
+    final CatalogSnapshot snapshot = catalogPluginApi.getSnapshot(tenantId);
+    if (snapshot != null) {
+      final long age = System.currentTimeMillis() - snapshot.getBuiltAtMillis();
+      final boolean current = snapshot.isCurrent(catalogPluginApi.getLatestVersion(tenantId));
+
+      details.put("snapshotAgeMillis", age);
+      details.put("snapshotCurrent", current);
+      details.put("lastSuccessfulBuild", new DateTime(snapshot.getBuiltAtMillis()).toString());
+      details.put("lastBuildDurationMillis", snapshot.getBuildDurationMillis());
+
+      // A catalog built for the latest version stays fresh however old it is
+      if (!current
+          && config.getHealthMaxSnapshotAgeMillis() > 0
+          && age > config.getHealthMaxSnapshotAgeMillis()) {
+        problems.add(
+            "stale catalog built "
+                + age
+                + " ms ago is over "
+                + config.getHealthMaxSnapshotAgeMillis()
+                + " ms");
+      }
+    }
+
+    final int failures = catalogPluginApi.getConsecutiveFailures(tenantId);
+    details.put("consecutiveFailures", failures);
+    if (config.getHealthMaxConsecutiveFailures() > 0
+        && failures >= config.getHealthMaxConsecutiveFailures()) {
+      problems.add(failures + " catalog builds failed in a row");
+    }
   }
 }
@@ -0,0 +1,138 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Builds the catalogs of the known tenants when the plugin starts, a few tenants at a time, so
+ * the first billing calls after a deploy find them in the cache. The plugin is ready once every
+ * tenant was warmed up, or once the timeout passed; builds still running then keep going.
+ */
+public class CatalogWarmUp {
+
+  private static final Logger logger = LoggerFactory.getLogger(CatalogWarmUp.class);
+
+  private final CatalogPluginApiImpl catalogPluginApi;
+
+  private final AtomicInteger warmed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+
+  private volatile List<UUID> tenants = new ArrayList<>();
+  private volatile CountDownLatch remaining = new CountDownLatch(0);
+  private volatile long startedAtMillis;
+  private volatile long deadlineMillis;
+  private volatile ExecutorService executor;
+
+  public CatalogWarmUp(final CatalogPluginApiImpl catalogPluginApi) {
+    this.catalogPluginApi = catalogPluginApi;
+  }
+
+  // Starts warming up the tenants without waiting for them; a timeout of 0 skips the warm-up
+  public synchronized void start(
+      final Collection<UUID> tenantIds, final int concurrency, final long timeoutMillis) {
+    if (executor != null || tenantIds.isEmpty() || concurrency <= 0 || timeoutMillis <= 0) {
+      return;
+    }
+    tenants = new ArrayList<>(tenantIds);
+    remaining = new CountDownLatch(tenants.size());
+    startedAtMillis = System.currentTimeMillis();
+    deadlineMillis = startedAtMillis + timeoutMillis;
+
+    final AtomicInteger threads = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            Math.min(concurrency, tenants.size()),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "amberflo-catalog-warmup-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    for (final UUID tenantId : tenants) {
+      executor.execute(() -> warmUp(tenantId));
+    }
+    executor.shutdown();
+    logger.info("Warming up the amberflo catalogs of {} tenants", tenants.size());
+  }
+
+  // True once every tenant was warmed up, or the timeout passed
+  public boolean isReady() {
+    return remaining.getCount() == 0 || System.currentTimeMillis() >= deadlineMillis;
+  }
+
+  // Waits for every tenant to be warmed up, returns false if some were still running
+  public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+    return remaining.await(timeout, unit);
+  }
+
+  public Map<String, Object> getStatus() {
+    final Map<String, Object> status = new LinkedHashMap<>();
+    status.put("ready", isReady());
+    status.put("tenants", tenants.size());
+    status.put("warmed", warmed.get());
+    status.put("failed", failed.get());
+    status.put("pending", remaining.getCount());
+    if (startedAtMillis > 0) {
+      status.put("elapsedMillis", System.currentTimeMillis() - startedAtMillis);
+    }
+    return status;
+  }
+
+  // Stops the warm-up, called when the plugin is stopped
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void warmUp(final UUID tenantId) {
+    try {
+      if (catalogPluginApi.warmUp(tenantId)) {
+        warmed.incrementAndGet();
+      } else {
+        failed.incrementAndGet();
+      }
+    } catch (InterruptedException e) {
+      failed.incrementAndGet();
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      logger.warn("Unable to warm up the amberflo catalog of tenant {}", tenantId, e);
+    } finally {
+      remaining.countDown();
+      if (remaining.getCount() == 0) {
+        logger.info(
+            "Warmed up the amberflo catalogs of {} tenants in {} ms, {} failed",
+            warmed.get(),
+            System.currentTimeMillis() - startedAtMillis,
+            failed.get());
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+
+public class CatalogDiagnosticsService {
+
+  private CatalogPluginApiImpl catalogPluginApi;
+
+  public CatalogDiagnosticsService(CatalogPluginApiImpl catalogPluginApi) {
+    this.catalogPluginApi = catalogPluginApi;
+  }
+
+  // Returns the last build traces of the tenant, oldest first
+  public List<Map<String, Object>> getTraces(UUID tenantId) {
+    List<Map<String, Object>> result = new ArrayList<>();
+    for (CatalogBuildTrace trace : catalogPluginApi.getTraces(tenantId)) {
+      result.add(trace.toMap());
+    }
+    return result;
+  }
+}
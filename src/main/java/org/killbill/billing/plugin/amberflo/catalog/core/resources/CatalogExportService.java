@@ -0,0 +1,68 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+import javax.xml.stream.XMLStreamException;
+import org.joda.time.DateTime;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogFilter;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogJsonDiff;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogJsonExport;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogXmlExport;
+
+public class CatalogExportService {
+
+  private CatalogPluginApiImpl catalogPluginApi;
+
+  public CatalogExportService(CatalogPluginApiImpl catalogPluginApi) {
+    this.catalogPluginApi = catalogPluginApi;
+  }
+
+  // Returns the last catalog built for the tenant, exports never start a build
+  public CatalogSnapshot getSnapshot(UUID tenantId) {
+    return catalogPluginApi.getSnapshot(tenantId);
+  }
+
+  // Returns the kept catalog of the tenant built for the version, or null if it is not kept
+  public CatalogSnapshot getRetainedSnapshot(UUID tenantId, DateTime version) {
+    return catalogPluginApi.getRetainedSnapshot(tenantId, version);
+  }
+
+  public List<CatalogSnapshot> getRetainedSnapshots(UUID tenantId) {
+    return catalogPluginApi.getRetainedSnapshots(tenantId);
+  }
+
+  // Returns the Kill Bill catalog XML of the snapshot, written as the stream is read
+  public InputStream exportXml(CatalogSnapshot snapshot) throws XMLStreamException {
+    return new CatalogXmlExport(snapshot.getCatalog());
+  }
+
+  // Returns the JSON of the plans of the snapshot selected by the filter
+  public InputStream exportJson(CatalogSnapshot snapshot, CatalogFilter filter)
+      throws IOException {
+    return new CatalogJsonExport(snapshot, filter);
+  }
+
+  // Returns the JSON of the plans added, changed and removed between two snapshots
+  public InputStream exportDiff(CatalogSnapshot from, CatalogSnapshot to, CatalogFilter filter)
+      throws IOException {
+    return new CatalogJsonDiff(from, to, filter);
+  }
+}
@@ -0,0 +1,158 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.core.resources;
+
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.xml.stream.XMLStreamException;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.Results;
+import org.jooby.Status;
+import org.jooby.mvc.GET;
+import org.jooby.mvc.Local;
+import org.jooby.mvc.Path;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogFilter;
+import org.killbill.billing.tenant.api.Tenant;
+
+@Singleton
+@Path("/catalog")
+public class CatalogExportServlet {
+
+  private final CatalogExportService service;
+
+  @Inject
+  public CatalogExportServlet(CatalogExportService service) {
+    this.service = service;
+  }
+
+  // Streams the catalog of the tenant of the request as Kill Bill catalog XML
+  @GET
+  @Path("/xml")
+  public Result getXml(@Local @Named("killbill_tenant") final Optional<Tenant> tenant)
+      throws XMLStreamException {
+    if (!tenant.isPresent()) {
+      return Results.with("The catalog export requires a tenant", Status.BAD_REQUEST);
+    }
+    final CatalogSnapshot snapshot = service.getSnapshot(tenant.get().getId());
+    if (snapshot == null) {
+      return Results.with("No catalog was built for the tenant yet", Status.NOT_FOUND);
+    }
+    return Results.ok(service.exportXml(snapshot))
+        .type(MediaType.xml)
+        .header("X-Catalog-Version", String.valueOf(snapshot.getVersion()));
+  }
+
+  // Streams the plans of the catalog of the tenant selected by the query parameters as JSON
+  @GET
+  @Path("/json")
+  public Result getJson(
+      @Local @Named("killbill_tenant") final Optional<Tenant> tenant,
+      @Named("product") final Optional<String> product,
+      @Named("billingPeriod") final Optional<String> billingPeriod,
+      @Named("planPrefix") final Optional<String> planPrefix)
+      throws IOException {
+    if (!tenant.isPresent()) {
+      return Results.with("The catalog export requires a tenant", Status.BAD_REQUEST);
+    }
+    final CatalogFilter filter;
+    try {
+      filter = filter(product, billingPeriod, planPrefix);
+    } catch (IllegalArgumentException e) {
+      return Results.with(e.getMessage(), Status.BAD_REQUEST);
+    }
+    final CatalogSnapshot snapshot = service.getSnapshot(tenant.get().getId());
+    if (snapshot == null) {
+      return Results.with("No catalog was built for the tenant yet", Status.NOT_FOUND);
+    }
+    return Results.ok(service.exportJson(snapshot, filter))
+        .type(MediaType.json)
+        .header("X-Catalog-Version", String.valueOf(snapshot.getVersion()));
+  }
+
+  // Streams the plans added, changed and removed between two kept versions of the tenant catalog
+  @GET
+  @Path("/diff")
+  public Result getDiff(
+      @Local @Named("killbill_tenant") final Optional<Tenant> tenant,
+      @Named("from") final Optional<String> from,
+      @Named("to") final Optional<String> to,
+      @Named("product") final Optional<String> product,
+      @Named("billingPeriod") final Optional<String> billingPeriod,
+      @Named("planPrefix") final Optional<String> planPrefix)
+      throws IOException {
+    if (!tenant.isPresent()) {
+      return Results.with("The catalog export requires a tenant", Status.BAD_REQUEST);
+    }
+    if (!from.isPresent()) {
+      return Results.with("The catalog diff requires a from version", Status.BAD_REQUEST);
+    }
+    final DateTime fromVersion;
+    final DateTime toVersion;
+    final CatalogFilter filter;
+    try {
+      fromVersion = DateTime.parse(from.get());
+      toVersion = to.isPresent() ? DateTime.parse(to.get()) : null;
+      filter = filter(product, billingPeriod, planPrefix);
+    } catch (IllegalArgumentException e) {
+      return Results.with(e.getMessage(), Status.BAD_REQUEST);
+    }
+
+    final CatalogSnapshot fromSnapshot =
+        service.getRetainedSnapshot(tenant.get().getId(), fromVersion);
+    final CatalogSnapshot toSnapshot =
+        toVersion == null
+            ? service.getSnapshot(tenant.get().getId())
+            : service.getRetainedSnapshot(tenant.get().getId(), toVersion);
+    if (fromSnapshot == null || toSnapshot == null) {
+      return Results.with(
+          "Catalog version not kept, the kept versions are "
+              + service.getRetainedSnapshots(tenant.get().getId()).stream()
+                  .map(snapshot -> String.valueOf(snapshot.getVersion()))
+                  .collect(Collectors.joining(", ", "[", "]")),
+          Status.NOT_FOUND);
+    }
+    return Results.ok(service.exportDiff(fromSnapshot, toSnapshot, filter))
+        .type(MediaType.json)
+        .header("X-Catalog-Version", String.valueOf(toSnapshot.getVersion()));
+  }
+
+  private static CatalogFilter filter(
+      final Optional<String> product,
+      final Optional<String> billingPeriod,
+      final Optional<String> planPrefix) {
+    final CatalogFilter.Builder builder =
+        new CatalogFilter.Builder()
+            .withProductName(product.orElse(null))
+            .withPlanNamePrefix(planPrefix.orElse(null));
+    if (billingPeriod.isPresent()) {
+      try {
+        builder.withBillingPeriod(
+            BillingPeriod.valueOf(billingPeriod.get().toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown billing period " + billingPeriod.get(), e);
+      }
+    }
+    return builder.build();
+  }
+}
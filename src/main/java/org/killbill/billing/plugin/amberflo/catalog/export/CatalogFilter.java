@@ -0,0 +1,90 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import java.util.function.Predicate;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.Product;
+
+// Plans selected by an export: every criteria left null selects all the plans
+public class CatalogFilter implements Predicate<Plan> {
+
+  private static final CatalogFilter ALL = new Builder().build();
+
+  private final String productName;
+  private final BillingPeriod billingPeriod;
+  private final String planNamePrefix;
+
+  private CatalogFilter(final Builder builder) {
+    this.productName = builder.productName;
+    this.billingPeriod = builder.billingPeriod;
+    this.planNamePrefix = builder.planNamePrefix;
+  }
+
+  public static CatalogFilter all() {
+    return ALL;
+  }
+
+  @Override
+  public boolean test(final Plan plan) {
+    return (planNamePrefix == null
+            || (plan.getName() != null && plan.getName().startsWith(planNamePrefix)))
+        && (billingPeriod == null || billingPeriod == plan.getRecurringBillingPeriod())
+        && includes(plan.getProduct());
+  }
+
+  public boolean includes(final Product product) {
+    return productName == null || (product != null && productName.equals(product.getName()));
+  }
+
+  public String getProductName() {
+    return productName;
+  }
+
+  public BillingPeriod getBillingPeriod() {
+    return billingPeriod;
+  }
+
+  public String getPlanNamePrefix() {
+    return planNamePrefix;
+  }
+
+  public static class Builder {
+
+    private String productName;
+    private BillingPeriod billingPeriod;
+    private String planNamePrefix;
+
+    public Builder withProductName(final String productName) {
+      this.productName = productName;
+      return this;
+    }
+
+    public Builder withBillingPeriod(final BillingPeriod billingPeriod) {
+      this.billingPeriod = billingPeriod;
+      return this;
+    }
+
+    public Builder withPlanNamePrefix(final String planNamePrefix) {
+      this.planNamePrefix = planNamePrefix;
+      return this;
+    }
+
+    public CatalogFilter build() {
+      return new CatalogFilter(this);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.MappedStandalonePluginCatalog;
+
+/*
+ * JSON diff of the plans of two versions of a catalog, produced as it is read: the plans added
+ * and changed in the newer version are written in full, the plans removed by name. Plans are
+ * matched by name and compared by value. The usages of lazily loaded phases are not fetched: a
+ * phase whose usages were not fetched yet is compared by its price id, so a change of the tiers
+ * behind the same price id is only seen once both usages were fetched. The filter applies to each
+ * plan in the version it is written from.
+ */
+public class CatalogJsonDiff extends StreamedExport {
+
+  private final JsonGenerator json;
+  private final CatalogJsonWriter writer;
+
+  public CatalogJsonDiff(
+      final CatalogSnapshot from, final CatalogSnapshot to, final CatalogFilter filter)
+      throws IOException {
+    this.json = CatalogJsonExport.FACTORY.createGenerator(output(), JsonEncoding.UTF8);
+    this.writer = new CatalogJsonWriter(json);
+    start(document(from, to, filter));
+  }
+
+  @Override
+  protected void flushWriter() throws IOException {
+    json.flush();
+  }
+
+  private Iterator<Step> document(
+      final CatalogSnapshot from, final CatalogSnapshot to, final CatalogFilter filter) {
+    final StandalonePluginCatalog fromCatalog = latest(from.getCatalog());
+    final StandalonePluginCatalog toCatalog = latest(to.getCatalog());
+    final Index fromPlans = new Index(fromCatalog);
+    final Index toPlans = new Index(toCatalog);
+    return concat(
+        once(
+            () -> {
+              json.writeStartObject();
+              writer.field("catalogName", to.getCatalog().getCatalogName());
+              writer.field("from", from.getVersion());
+              writer.field("to", to.getVersion());
+              json.writeArrayFieldStart("added");
+            }),
+        each(
+            filter(toCatalog.getPlans(), plan -> filter.test(plan) && !fromPlans.has(plan)),
+            writer::writePlan),
+        once(
+            () -> {
+              json.writeEndArray();
+              json.writeArrayFieldStart("changed");
+            }),
+        each(
+            filter(toCatalog.getPlans(), plan -> filter.test(plan) && fromPlans.changed(plan)),
+            writer::writePlan),
+        once(
+            () -> {
+              json.writeEndArray();
+              json.writeArrayFieldStart("removed");
+            }),
+        each(
+            filter(fromCatalog.getPlans(), plan -> filter.test(plan) && !toPlans.has(plan)),
+            plan -> json.writeString(plan.getName())),
+        once(
+            () -> {
+              json.writeEndArray();
+              json.writeEndObject();
+            }));
+  }
+
+  /*
+   * Plans of a version by name. Built and mapped catalogs are searched through their own index;
+   * the plans of any other catalog are indexed the first time they are looked up.
+   */
+  // Plan equality, without fetching the usages of the phases that were not fetched yet
+  private static boolean samePlan(final Plan previous, final Plan plan) {
+    if (!isLazy(previous) && !isLazy(plan)) {
+      return previous.equals(plan);
+    }
+    return Objects.equals(previous.getName(), plan.getName())
+        && Objects.equals(previous.getPrettyName(), plan.getPrettyName())
+        && Objects.equals(previous.getProduct(), plan.getProduct())
+        && Objects.equals(previous.getPriceList(), plan.getPriceList())
+        && Objects.equals(previous.getRecurringBillingPeriod(), plan.getRecurringBillingPeriod())
+        && Objects.equals(previous.getRecurringBillingMode(), plan.getRecurringBillingMode())
+        && previous.getPlansAllowedInBundle() == plan.getPlansAllowedInBundle()
+        && Objects.equals(
+            previous.getEffectiveDateForExistingSubscriptions(),
+            plan.getEffectiveDateForExistingSubscriptions())
+        && samePhases(previous.getInitialPhases(), plan.getInitialPhases())
+        && samePhase(previous.getFinalPhase(), plan.getFinalPhase());
+  }
+
+  private static boolean samePhases(final PlanPhase[] previous, final PlanPhase[] phases) {
+    if (previous == null || phases == null || previous.length != phases.length) {
+      return previous == phases;
+    }
+    for (int i = 0; i < phases.length; i++) {
+      if (!samePhase(previous[i], phases[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean samePhase(final PlanPhase previous, final PlanPhase phase) {
+    if (!isUnfetched(previous) && !isUnfetched(phase)) {
+      return Objects.equals(previous, phase);
+    }
+    return previous instanceof LazyUsagePlanPhase
+        && phase instanceof LazyUsagePlanPhase
+        && ((LazyUsagePlanPhase) previous).hasSameSource((LazyUsagePlanPhase) phase);
+  }
+
+  private static boolean isLazy(final Plan plan) {
+    if (isUnfetched(plan.getFinalPhase())) {
+      return true;
+    }
+    final PlanPhase[] phases = plan.getInitialPhases();
+    if (phases != null) {
+      for (final PlanPhase phase : phases) {
+        if (isUnfetched(phase)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isUnfetched(final PlanPhase phase) {
+    return phase instanceof LazyUsagePlanPhase && !((LazyUsagePlanPhase) phase).isMaterialized();
+  }
+
+  private static class Index {
+
+    private final StandalonePluginCatalog catalog;
+    private Function<String, Plan> lookup;
+
+    Index(final StandalonePluginCatalog catalog) {
+      this.catalog = catalog;
+    }
+
+    boolean has(final Plan plan) {
+      return find(plan.getName()) != null;
+    }
+
+    boolean changed(final Plan plan) {
+      final Plan previous = find(plan.getName());
+      return previous != null && !samePlan(previous, plan);
+    }
+
+    private Plan find(final String name) {
+      if (lookup == null) {
+        lookup = index(catalog);
+      }
+      return lookup.apply(name);
+    }
+
+    private static Function<String, Plan> index(final StandalonePluginCatalog catalog) {
+      if (catalog instanceof ImmutableStandalonePluginCatalog) {
+        return ((ImmutableStandalonePluginCatalog) catalog)::findPlan;
+      }
+      if (catalog instanceof MappedStandalonePluginCatalog) {
+        return ((MappedStandalonePluginCatalog) catalog)::findPlan;
+      }
+      final Map<String, Plan> plans = new HashMap<>();
+      for (final Plan plan : iterable(catalog.getPlans())) {
+        plans.put(plan.getName(), plan);
+      }
+      return plans::get;
+    }
+  }
+}
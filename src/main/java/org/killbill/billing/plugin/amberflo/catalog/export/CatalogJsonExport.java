@@ -0,0 +1,86 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.util.Iterator;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+
+/*
+ * JSON view of the latest version of a catalog, restricted to the plans selected by a filter and
+ * to their products, produced as it is read. Each plan is written by its own step through a
+ * Jackson generator, so filtering a large catalog does not hold the selected plans either.
+ */
+public class CatalogJsonExport extends StreamedExport {
+
+  static final JsonFactory FACTORY = new JsonFactory();
+
+  private final JsonGenerator json;
+  private final CatalogJsonWriter writer;
+
+  public CatalogJsonExport(final CatalogSnapshot snapshot, final CatalogFilter filter)
+      throws IOException {
+    this.json = FACTORY.createGenerator(output(), JsonEncoding.UTF8);
+    this.writer = new CatalogJsonWriter(json);
+    start(document(snapshot, latest(snapshot.getCatalog()), filter));
+  }
+
+  @Override
+  protected void flushWriter() throws IOException {
+    json.flush();
+  }
+
+  private Iterator<Step> document(
+      final CatalogSnapshot snapshot,
+      final StandalonePluginCatalog catalog,
+      final CatalogFilter filter) {
+    return concat(
+        once(
+            () -> {
+              json.writeStartObject();
+              writer.field("catalogName", snapshot.getCatalog().getCatalogName());
+              writer.field("version", snapshot.getVersion());
+              writer.field("effectiveDate", catalog.getEffectiveDate());
+              json.writeArrayFieldStart("currencies");
+              for (final Object currency : iterable(catalog.getCurrencies())) {
+                json.writeString(currency.toString());
+              }
+              json.writeEndArray();
+              json.writeArrayFieldStart("units");
+              for (final Unit unit : iterable(catalog.getUnits())) {
+                writer.writeUnit(unit);
+              }
+              json.writeEndArray();
+              json.writeArrayFieldStart("products");
+              for (final Product product : filter(catalog.getProducts(), filter::includes)) {
+                writer.writeProduct(product);
+              }
+              json.writeEndArray();
+              json.writeArrayFieldStart("plans");
+            }),
+        each(filter(catalog.getPlans(), filter), writer::writePlan),
+        once(
+            () -> {
+              json.writeEndArray();
+              json.writeEndObject();
+            }));
+  }
+}
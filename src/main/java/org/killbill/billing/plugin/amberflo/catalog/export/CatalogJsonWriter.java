@@ -0,0 +1,199 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.CurrencyValueNull;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.InternationalPrice;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Price;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Recurring;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.TieredBlock;
+import org.killbill.billing.catalog.api.TimeUnit;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+
+/*
+ * JSON rendering of the catalog objects shared by the JSON exports. Amounts are written as plain
+ * decimal numbers and enums by name; properties without a value are left out.
+ */
+class CatalogJsonWriter {
+
+  private final JsonGenerator json;
+
+  CatalogJsonWriter(final JsonGenerator json) {
+    this.json = json;
+  }
+
+  void writeUnit(final Unit unit) throws IOException {
+    json.writeStartObject();
+    field("name", unit.getName());
+    field("prettyName", unit.getPrettyName());
+    json.writeEndObject();
+  }
+
+  void writeProduct(final Product product) throws IOException {
+    json.writeStartObject();
+    field("name", product.getName());
+    field("prettyName", product.getPrettyName());
+    field("category", product.getCategory());
+    json.writeEndObject();
+  }
+
+  void writePlan(final Plan plan) throws IOException {
+    json.writeStartObject();
+    field("name", plan.getName());
+    field("prettyName", plan.getPrettyName());
+    field("product", plan.getProduct() == null ? null : plan.getProduct().getName());
+    field("billingPeriod", plan.getRecurringBillingPeriod());
+    field("recurringBillingMode", plan.getRecurringBillingMode());
+    final Date effectiveDate = plan.getEffectiveDateForExistingSubscriptions();
+    if (effectiveDate != null) {
+      field(
+          "effectiveDateForExistingSubscriptions", new DateTime(effectiveDate, DateTimeZone.UTC));
+    }
+    json.writeArrayFieldStart("phases");
+    if (plan.getInitialPhases() != null) {
+      for (final PlanPhase phase : plan.getInitialPhases()) {
+        writePhase(phase);
+      }
+    }
+    if (plan.getFinalPhase() != null) {
+      writePhase(plan.getFinalPhase());
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+  }
+
+  // Usages of lazily loaded phases not fetched yet are flagged rather than fetched
+  private void writePhase(final PlanPhase phase) throws IOException {
+    json.writeStartObject();
+    field("name", phase.getName());
+    field("type", phase.getPhaseType());
+
+    final Duration duration = phase.getDuration();
+    if (duration != null) {
+      json.writeObjectFieldStart("duration");
+      field("unit", duration.getUnit());
+      if (duration.getUnit() != TimeUnit.UNLIMITED) {
+        json.writeNumberField("number", duration.getNumber());
+      }
+      json.writeEndObject();
+    }
+
+    final Recurring recurring = phase.getRecurring();
+    if (recurring != null) {
+      json.writeObjectFieldStart("recurring");
+      field("billingPeriod", recurring.getBillingPeriod());
+      writePrices(recurring.getRecurringPrice());
+      json.writeEndObject();
+    }
+
+    if (phase instanceof LazyUsagePlanPhase && !((LazyUsagePlanPhase) phase).isMaterialized()) {
+      json.writeBooleanField("usagesFetched", false);
+    } else if (phase.getUsages() != null) {
+      json.writeArrayFieldStart("usages");
+      for (final Usage usage : phase.getUsages()) {
+        writeUsage(usage);
+      }
+      json.writeEndArray();
+    }
+    json.writeEndObject();
+  }
+
+  private void writeUsage(final Usage usage) throws IOException {
+    json.writeStartObject();
+    field("name", usage.getName());
+    field("prettyName", usage.getPrettyName());
+    field("billingMode", usage.getBillingMode());
+    field("usageType", usage.getUsageType());
+    field("tierBlockPolicy", usage.getTierBlockPolicy());
+    field("billingPeriod", usage.getBillingPeriod());
+    json.writeArrayFieldStart("tiers");
+    if (usage.getTiers() != null) {
+      for (final Tier tier : usage.getTiers()) {
+        json.writeStartObject();
+        json.writeArrayFieldStart("blocks");
+        if (tier.getTieredBlocks() != null) {
+          for (final TieredBlock block : tier.getTieredBlocks()) {
+            writeBlock(block);
+          }
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+    }
+    json.writeEndArray();
+    json.writeEndObject();
+  }
+
+  private void writeBlock(final TieredBlock block) throws IOException {
+    json.writeStartObject();
+    field("type", block.getType());
+    field("unit", block.getUnit() == null ? null : block.getUnit().getName());
+    field("size", block.getSize());
+    field("max", block.getMax());
+    try {
+      field("minTopUpCredit", block.getMinTopUpCredit());
+    } catch (final CatalogApiException e) {
+      // Only defined for top-up blocks
+    }
+    writePrices(block.getPrice());
+    json.writeEndObject();
+  }
+
+  private void writePrices(final InternationalPrice price) throws IOException {
+    if (price == null || price.getPrices() == null) {
+      return;
+    }
+    json.writeArrayFieldStart("prices");
+    for (final Price value : price.getPrices()) {
+      json.writeStartObject();
+      field("currency", value.getCurrency());
+      try {
+        field("value", value.getValue());
+      } catch (final CurrencyValueNull e) {
+        // A price without a value has no value field
+      }
+      json.writeEndObject();
+    }
+    json.writeEndArray();
+  }
+
+  void field(final String name, final Object value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    json.writeFieldName(name);
+    if (value instanceof BigDecimal) {
+      json.writeNumber(((BigDecimal) value).toPlainString());
+    } else if (value instanceof Enum) {
+      json.writeString(((Enum<?>) value).name());
+    } else {
+      json.writeString(value.toString());
+    }
+  }
+}
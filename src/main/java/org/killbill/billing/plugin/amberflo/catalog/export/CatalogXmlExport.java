@@ -0,0 +1,406 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.CurrencyValueNull;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.InternationalPrice;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Price;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Recurring;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.TieredBlock;
+import org.killbill.billing.catalog.api.TimeUnit;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.api.rules.Case;
+import org.killbill.billing.catalog.api.rules.CaseBillingAlignment;
+import org.killbill.billing.catalog.api.rules.CaseCancelPolicy;
+import org.killbill.billing.catalog.api.rules.CaseChange;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanAlignment;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanPolicy;
+import org.killbill.billing.catalog.api.rules.CaseCreateAlignment;
+import org.killbill.billing.catalog.api.rules.CasePriceList;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+
+/*
+ * Kill Bill catalog XML of the latest version of a catalog, produced as it is read. Each step
+ * writes one element (the catalog header, a product, a plan, a price list entry...) through StAX.
+ *
+ * The catalog is exported as it is: usages of lazily loaded phases that were not fetched yet are
+ * left out, with a comment, rather than fetched from amberflo.
+ */
+public class CatalogXmlExport extends StreamedExport {
+
+  private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+  private final XMLStreamWriter xml;
+
+  public CatalogXmlExport(final VersionedPluginCatalog catalog) throws XMLStreamException {
+    this.xml = FACTORY.createXMLStreamWriter(output(), "UTF-8");
+    start(document(catalog.getCatalogName(), latest(catalog)));
+  }
+
+  @Override
+  protected void flushWriter() throws XMLStreamException {
+    xml.flush();
+  }
+
+  private Iterator<Step> document(final String catalogName, final StandalonePluginCatalog catalog) {
+    return concat(
+        once(
+            () -> {
+              xml.writeStartDocument("UTF-8", "1.0");
+              xml.writeStartElement("catalog");
+              element("effectiveDate", catalog.getEffectiveDate());
+              element("catalogName", catalogName);
+              xml.writeStartElement("currencies");
+              for (final Object currency : iterable(catalog.getCurrencies())) {
+                element("currency", currency);
+              }
+              xml.writeEndElement();
+              xml.writeStartElement("units");
+              for (final Unit unit : iterable(catalog.getUnits())) {
+                xml.writeEmptyElement("unit");
+                attribute("name", unit.getName());
+                attribute("prettyName", unit.getPrettyName());
+              }
+              xml.writeEndElement();
+              xml.writeStartElement("products");
+            }),
+        each(catalog.getProducts(), this::writeProduct),
+        once(
+            () -> {
+              xml.writeEndElement();
+              writeRules(catalog.getPlanRules());
+              xml.writeStartElement("plans");
+            }),
+        each(catalog.getPlans(), this::writePlan),
+        once(
+            () -> {
+              xml.writeEndElement();
+              xml.writeStartElement("priceLists");
+            }),
+        priceList("defaultPriceList", catalog.getDefaultPriceList()),
+        flatten(
+            map(
+                iterable(catalog.getChildrenPriceList()).iterator(),
+                child -> priceList("childPriceList", child))),
+        once(
+            () -> {
+              xml.writeEndElement();
+              xml.writeEndElement();
+              xml.writeEndDocument();
+            }));
+  }
+
+  // The plans of a price list are written one name at a time, a price list may hold every plan
+  private Iterator<Step> priceList(final String tag, final PriceList priceList) {
+    if (priceList == null) {
+      return Collections.emptyIterator();
+    }
+    return concat(
+        once(
+            () -> {
+              xml.writeStartElement(tag);
+              attribute("name", priceList.getName());
+              attribute("prettyName", priceList.getPrettyName());
+              xml.writeStartElement("plans");
+            }),
+        each(priceList.getPlans(), plan -> element("plan", plan.getName())),
+        once(
+            () -> {
+              xml.writeEndElement();
+              xml.writeEndElement();
+            }));
+  }
+
+  private void writeProduct(final Product product) throws XMLStreamException {
+    xml.writeStartElement("product");
+    attribute("name", product.getName());
+    attribute("prettyName", product.getPrettyName());
+    element("category", product.getCategory());
+    xml.writeEndElement();
+  }
+
+  private void writeRules(final PlanRules rules) throws XMLStreamException {
+    if (rules == null) {
+      return;
+    }
+    xml.writeStartElement("rules");
+    writeCases(
+        "changePolicy",
+        "changePolicyCase",
+        rules.getCaseChangePlanPolicy(),
+        (CaseChangePlanPolicy c) -> {
+          writeCaseChange(c);
+          element("policy", c.getBillingActionPolicy());
+        });
+    writeCases(
+        "changeAlignment",
+        "changeAlignmentCase",
+        rules.getCaseChangePlanAlignment(),
+        (CaseChangePlanAlignment c) -> {
+          writeCaseChange(c);
+          element("alignment", c.getAlignment());
+        });
+    writeCases(
+        "cancelPolicy",
+        "cancelPolicyCase",
+        rules.getCaseCancelPolicy(),
+        (CaseCancelPolicy c) -> {
+          writeCase(c, "priceList");
+          element("phaseType", c.getPhaseType());
+          element("policy", c.getBillingActionPolicy());
+        });
+    writeCases(
+        "createAlignment",
+        "createAlignmentCase",
+        rules.getCaseCreateAlignment(),
+        (CaseCreateAlignment c) -> {
+          writeCase(c, "priceList");
+          element("alignment", c.getPlanAlignmentCreate());
+        });
+    writeCases(
+        "billingAlignment",
+        "billingAlignmentCase",
+        rules.getCaseBillingAlignment(),
+        (CaseBillingAlignment c) -> {
+          writeCase(c, "priceList");
+          element("phaseType", c.getPhaseType());
+          element("alignment", c.getBillingAlignment());
+        });
+    writeCases(
+        "priceList",
+        "priceListCase",
+        rules.getCasePriceList(),
+        (CasePriceList c) -> {
+          writeCase(c, "fromPriceList");
+          element("toPriceList", name(c.getDestinationPriceList()));
+        });
+    xml.writeEndElement();
+  }
+
+  private <T> void writeCases(
+      final String tag, final String caseTag, final Iterable<T> cases, final CaseWriter<T> writer)
+      throws XMLStreamException {
+    if (cases == null) {
+      return;
+    }
+    xml.writeStartElement(tag);
+    for (final T c : cases) {
+      xml.writeStartElement(caseTag);
+      writer.write(c);
+      xml.writeEndElement();
+    }
+    xml.writeEndElement();
+  }
+
+  private void writeCase(final Case c, final String priceListTag) throws XMLStreamException {
+    element("product", name(c.getProduct()));
+    element("productCategory", c.getProductCategory());
+    element("billingPeriod", c.getBillingPeriod());
+    element(priceListTag, name(c.getPriceList()));
+  }
+
+  private void writeCaseChange(final CaseChange c) throws XMLStreamException {
+    element("phaseType", c.getPhaseType());
+    element("fromProduct", name(c.getFromProduct()));
+    element("fromProductCategory", c.getFromProductCategory());
+    element("fromBillingPeriod", c.getFromBillingPeriod());
+    element("fromPriceList", name(c.getFromPriceList()));
+    element("toProduct", name(c.getToProduct()));
+    element("toProductCategory", c.getToProductCategory());
+    element("toBillingPeriod", c.getToBillingPeriod());
+    element("toPriceList", name(c.getToPriceList()));
+  }
+
+  private void writePlan(final Plan plan) throws XMLStreamException {
+    xml.writeStartElement("plan");
+    attribute("name", plan.getName());
+    attribute("prettyName", plan.getPrettyName());
+    final Date effectiveDate = plan.getEffectiveDateForExistingSubscriptions();
+    if (effectiveDate != null) {
+      element(
+          "effectiveDateForExistingSubscriptions", new DateTime(effectiveDate, DateTimeZone.UTC));
+    }
+    element("product", name(plan.getProduct()));
+    element("recurringBillingMode", plan.getRecurringBillingMode());
+    final PlanPhase[] initialPhases = plan.getInitialPhases();
+    if (initialPhases != null && initialPhases.length > 0) {
+      xml.writeStartElement("initialPhases");
+      for (final PlanPhase phase : initialPhases) {
+        writePhase("phase", phase);
+      }
+      xml.writeEndElement();
+    }
+    if (plan.getFinalPhase() != null) {
+      writePhase("finalPhase", plan.getFinalPhase());
+    }
+    element("plansAllowedInBundle", plan.getPlansAllowedInBundle());
+    xml.writeEndElement();
+  }
+
+  private void writePhase(final String tag, final PlanPhase phase) throws XMLStreamException {
+    xml.writeStartElement(tag);
+    attribute("type", phase.getPhaseType());
+
+    final Duration duration = phase.getDuration();
+    if (duration != null) {
+      xml.writeStartElement("duration");
+      element("unit", duration.getUnit());
+      if (duration.getUnit() != TimeUnit.UNLIMITED) {
+        element("number", duration.getNumber());
+      }
+      xml.writeEndElement();
+    }
+
+    final Recurring recurring = phase.getRecurring();
+    if (recurring != null) {
+      xml.writeStartElement("recurring");
+      element("billingPeriod", recurring.getBillingPeriod());
+      writePrices("recurringPrice", recurring.getRecurringPrice());
+      xml.writeEndElement();
+    }
+
+    if (phase instanceof LazyUsagePlanPhase && !((LazyUsagePlanPhase) phase).isMaterialized()) {
+      xml.writeComment(" usages not fetched from amberflo yet ");
+    } else if (phase.getUsages() != null && phase.getUsages().length > 0) {
+      xml.writeStartElement("usages");
+      for (final Usage usage : phase.getUsages()) {
+        writeUsage(usage);
+      }
+      xml.writeEndElement();
+    }
+    xml.writeEndElement();
+  }
+
+  private void writeUsage(final Usage usage) throws XMLStreamException {
+    xml.writeStartElement("usage");
+    attribute("name", usage.getName());
+    attribute("prettyName", usage.getPrettyName());
+    attribute("billingMode", usage.getBillingMode());
+    attribute("usageType", usage.getUsageType());
+    attribute("tierBlockPolicy", usage.getTierBlockPolicy());
+    element("billingPeriod", usage.getBillingPeriod());
+    if (usage.getTiers() != null && usage.getTiers().length > 0) {
+      xml.writeStartElement("tiers");
+      for (final Tier tier : usage.getTiers()) {
+        xml.writeStartElement("tier");
+        xml.writeStartElement("blocks");
+        for (final TieredBlock block : blocks(tier)) {
+          writeBlock(block);
+        }
+        xml.writeEndElement();
+        xml.writeEndElement();
+      }
+      xml.writeEndElement();
+    }
+    xml.writeEndElement();
+  }
+
+  private void writeBlock(final TieredBlock block) throws XMLStreamException {
+    xml.writeStartElement("tieredBlock");
+    attribute("type", block.getType());
+    element("unit", block.getUnit() == null ? null : block.getUnit().getName());
+    element("size", block.getSize());
+    writePrices("prices", block.getPrice());
+    try {
+      element("minTopUpCredit", block.getMinTopUpCredit());
+    } catch (final CatalogApiException e) {
+      // Only defined for top-up blocks
+    }
+    element("max", block.getMax());
+    xml.writeEndElement();
+  }
+
+  private void writePrices(final String tag, final InternationalPrice price)
+      throws XMLStreamException {
+    if (price == null) {
+      return;
+    }
+    xml.writeStartElement(tag);
+    if (price.getPrices() != null) {
+      for (final Price value : price.getPrices()) {
+        xml.writeStartElement("price");
+        element("currency", value.getCurrency());
+        try {
+          element("value", value.getValue());
+        } catch (final CurrencyValueNull e) {
+          // A price without a value has no value element
+        }
+        xml.writeEndElement();
+      }
+    }
+    xml.writeEndElement();
+  }
+
+  private void element(final String tag, final Object value) throws XMLStreamException {
+    if (value == null) {
+      return;
+    }
+    xml.writeStartElement(tag);
+    xml.writeCharacters(text(value));
+    xml.writeEndElement();
+  }
+
+  private void attribute(final String name, final Object value) throws XMLStreamException {
+    if (value != null) {
+      xml.writeAttribute(name, text(value));
+    }
+  }
+
+  private static String text(final Object value) {
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).toPlainString();
+    }
+    if (value instanceof Enum) {
+      return ((Enum<?>) value).name();
+    }
+    return value.toString();
+  }
+
+  private static String name(final Product product) {
+    return product == null ? null : product.getName();
+  }
+
+  private static String name(final PriceList priceList) {
+    return priceList == null ? null : priceList.getName();
+  }
+
+  private static TieredBlock[] blocks(final Tier tier) {
+    return tier.getTieredBlocks() == null ? new TieredBlock[0] : tier.getTieredBlocks();
+  }
+
+  private interface CaseWriter<T> {
+    void write(T item) throws XMLStreamException;
+  }
+}
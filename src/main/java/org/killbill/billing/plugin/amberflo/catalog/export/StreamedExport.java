@@ -0,0 +1,235 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+
+/*
+ * Document produced as it is read. The document is a sequence of steps, each writing a small part
+ * of it (a header, a product, a plan...) into a buffer refilled once the reader drained it, so it
+ * is never held in memory and exporting takes the same memory whatever the size of the catalog.
+ * Nothing is written before the first read, and no thread is needed to feed the reader.
+ */
+abstract class StreamedExport extends InputStream {
+
+  private final Chunk chunk = new Chunk();
+  private Iterator<Step> steps = Collections.emptyIterator();
+  private int position;
+
+  // Buffer the writer of the subclass writes into
+  protected OutputStream output() {
+    return chunk;
+  }
+
+  // Sets the steps of the document, called once by the constructor of the subclass
+  protected void start(final Iterator<Step> steps) {
+    this.steps = steps;
+  }
+
+  // Flushes the writer of the subclass into the buffer after each step
+  protected abstract void flushWriter() throws Exception;
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return chunk.byteAt(position++);
+  }
+
+  @Override
+  public int read(final byte[] target, final int offset, final int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    final int count = Math.min(length, chunk.size() - position);
+    chunk.copyTo(position, target, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return chunk.size() - position;
+  }
+
+  // Writes the next steps once the buffer was drained, returns false at the end of document
+  private boolean fill() throws IOException {
+    while (position == chunk.size()) {
+      if (!steps.hasNext()) {
+        return false;
+      }
+      chunk.reset();
+      position = 0;
+      try {
+        steps.next().write();
+        flushWriter();
+      } catch (final Exception e) {
+        throw new IOException("Unable to export the catalog", e);
+      }
+    }
+    return true;
+  }
+
+  // The last standalone catalog is the one in effect for the latest version
+  static StandalonePluginCatalog latest(final VersionedPluginCatalog catalog) {
+    StandalonePluginCatalog latest = null;
+    for (final StandalonePluginCatalog version : iterable(catalog.getStandalonePluginCatalogs())) {
+      latest = version;
+    }
+    if (latest == null) {
+      throw new IllegalArgumentException("Catalog " + catalog.getCatalogName() + " is empty");
+    }
+    return latest;
+  }
+
+  static Iterator<Step> once(final Step step) {
+    return Collections.singletonList(step).iterator();
+  }
+
+  static <T> Iterator<Step> each(final Iterable<T> items, final Writer<T> writer) {
+    return map(iterable(items).iterator(), item -> () -> writer.write(item));
+  }
+
+  // The parts are copied, handing the varargs array on would be a possible heap pollution
+  @SafeVarargs
+  static Iterator<Step> concat(final Iterator<Step>... parts) {
+    final List<Iterator<Step>> list = new ArrayList<>(parts.length);
+    for (final Iterator<Step> part : parts) {
+      list.add(part);
+    }
+    return new Steps(list.iterator());
+  }
+
+  static Iterator<Step> flatten(final Iterator<Iterator<Step>> parts) {
+    return new Steps(parts);
+  }
+
+  // Iterators are mapped lazily, an element is only read once the previous ones were written
+  static <T, R> Iterator<R> map(final Iterator<T> source, final Function<T, R> mapper) {
+    return new Iterator<R>() {
+      @Override
+      public boolean hasNext() {
+        return source.hasNext();
+      }
+
+      @Override
+      public R next() {
+        return mapper.apply(source.next());
+      }
+    };
+  }
+
+  static <T> Iterable<T> filter(final Iterable<T> source, final Predicate<T> predicate) {
+    return () ->
+        new Iterator<T>() {
+          private final Iterator<T> iterator = iterable(source).iterator();
+          private T next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && iterator.hasNext()) {
+              final T candidate = iterator.next();
+              if (predicate.test(candidate)) {
+                next = candidate;
+              }
+            }
+            return next != null;
+          }
+
+          @Override
+          public T next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final T result = next;
+            next = null;
+            return result;
+          }
+        };
+  }
+
+  static <T> Iterable<T> iterable(final Iterable<T> iterable) {
+    return iterable == null ? Collections.emptyList() : iterable;
+  }
+
+  interface Step {
+    void write() throws Exception;
+  }
+
+  interface Writer<T> {
+    void write(T item) throws Exception;
+  }
+
+  private static class Steps implements Iterator<Step> {
+
+    private final Iterator<Iterator<Step>> parts;
+    private Iterator<Step> current = Collections.emptyIterator();
+
+    Steps(final Iterator<Iterator<Step>> parts) {
+      this.parts = parts;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (!parts.hasNext()) {
+          return false;
+        }
+        current = parts.next();
+      }
+      return true;
+    }
+
+    @Override
+    public Step next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+  }
+
+  // Output buffer of the writer, drained by the readers of the stream
+  private static class Chunk extends ByteArrayOutputStream {
+
+    Chunk() {
+      super(8192);
+    }
+
+    int byteAt(final int index) {
+      return buf[index] & 0xFF;
+    }
+
+    void copyTo(final int index, final byte[] target, final int offset, final int length) {
+      System.arraycopy(buf, index, target, offset, length);
+    }
+  }
+}
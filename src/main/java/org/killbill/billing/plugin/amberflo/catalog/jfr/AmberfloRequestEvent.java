@@ -0,0 +1,48 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// A request to the amberflo API, including reading the response body
+@Name("org.killbill.amberflo.AmberfloRequest")
+@Label("Amberflo Request")
+@Category({"Kill Bill", "Amberflo Catalog"})
+@Description("HTTP request to the amberflo API")
+@StackTrace(false)
+class AmberfloRequestEvent extends jdk.jfr.Event {
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Tenant")
+  String tenantId;
+
+  @Label("Status")
+  @Description("HTTP status of the response, 0 when no response was received")
+  int status;
+
+  @Label("Response Size")
+  @DataAmount
+  long bytes;
+
+  @Label("Error")
+  String error;
+}
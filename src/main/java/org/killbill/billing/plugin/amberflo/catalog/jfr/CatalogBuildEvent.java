@@ -0,0 +1,63 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// A catalog build, from the moment it started until the catalog was assembled or failed
+@Name("org.killbill.amberflo.CatalogBuild")
+@Label("Catalog Build")
+@Category({"Kill Bill", "Amberflo Catalog"})
+@Description("Build of a tenant catalog from amberflo")
+@StackTrace(false)
+class CatalogBuildEvent extends jdk.jfr.Event {
+
+  @Label("Tenant")
+  String tenantId;
+
+  @Label("Catalog Version")
+  String version;
+
+  @Label("Successful")
+  boolean successful;
+
+  @Label("Error")
+  String error;
+
+  @Label("HTTP Calls")
+  int httpCalls;
+
+  @Label("Bytes Read")
+  @DataAmount
+  long bytesRead;
+
+  @Label("Plans")
+  int plans;
+
+  @Label("Usages")
+  int usages;
+
+  @Label("Tiers")
+  int tiers;
+
+  @Label("Interned Objects")
+  @Description("Catalog objects retained by the shared interner once the build completed")
+  int internedObjects;
+}
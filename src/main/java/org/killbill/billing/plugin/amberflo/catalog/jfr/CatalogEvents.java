@@ -0,0 +1,104 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.jfr;
+
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+
+// Creates and commits the events, only loaded when the JVM provides jdk.jfr
+class CatalogEvents {
+
+  private CatalogEvents() {}
+
+  static Object beginBuild() {
+    CatalogBuildEvent event = new CatalogBuildEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endBuild(
+      Object handle,
+      DateTime version,
+      CatalogBuildTrace trace,
+      int internedObjects,
+      Throwable error) {
+    CatalogBuildEvent event = (CatalogBuildEvent) handle;
+    event.end();
+    if (!event.shouldCommit()) {
+      return;
+    }
+    event.tenantId = toString(trace.getTenantId());
+    event.version = toString(version);
+    event.successful = error == null;
+    event.error = error != null ? error.toString() : null;
+    event.httpCalls = trace.getHttpCalls();
+    event.bytesRead = trace.getBytesRead();
+    event.plans = trace.getPlans();
+    event.usages = trace.getUsages();
+    event.tiers = trace.getTiers();
+    event.internedObjects = internedObjects;
+    event.commit();
+  }
+
+  static Object beginRequest() {
+    AmberfloRequestEvent event = new AmberfloRequestEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endRequest(
+      Object handle, String endpoint, UUID tenantId, int status, long bytes, Throwable error) {
+    AmberfloRequestEvent event = (AmberfloRequestEvent) handle;
+    event.end();
+    if (!event.shouldCommit()) {
+      return;
+    }
+    event.endpoint = endpoint;
+    event.tenantId = toString(tenantId);
+    event.status = status;
+    event.bytes = bytes;
+    event.error = error != null ? error.toString() : null;
+    event.commit();
+  }
+
+  static void swap(
+      UUID tenantId,
+      DateTime previousVersion,
+      DateTime version,
+      long previousAgeMillis,
+      long buildDurationMillis) {
+    CatalogSwapEvent event = new CatalogSwapEvent();
+    if (!event.shouldCommit()) {
+      return;
+    }
+    event.tenantId = toString(tenantId);
+    event.previousVersion = toString(previousVersion);
+    event.version = toString(version);
+    event.previousAgeMillis = previousAgeMillis;
+    event.buildDurationMillis = buildDurationMillis;
+    event.commit();
+  }
+
+  private static String toString(Object value) {
+    return value != null ? value.toString() : null;
+  }
+}
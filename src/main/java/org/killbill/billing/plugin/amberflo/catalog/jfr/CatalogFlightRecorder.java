@@ -0,0 +1,81 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.jfr;
+
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+
+/*
+ * Emits JDK Flight Recorder events for catalog builds, amberflo requests and catalog swaps,
+ * so the plugin activity shows up in continuous recordings. The events are only touched when
+ * jdk.jfr can be loaded by the bundle; otherwise, and when the events are disabled in the
+ * recording settings, every method is a no-op. Durations are measured between the begin and
+ * end calls, using the handle returned by begin.
+ */
+public final class CatalogFlightRecorder {
+
+  private static final boolean AVAILABLE = isJfrAvailable();
+
+  private CatalogFlightRecorder() {}
+
+  public static Object beginBuild() {
+    return AVAILABLE ? CatalogEvents.beginBuild() : null;
+  }
+
+  public static void endBuild(
+      Object handle,
+      DateTime version,
+      CatalogBuildTrace trace,
+      int internedObjects,
+      Throwable error) {
+    if (handle != null) {
+      CatalogEvents.endBuild(handle, version, trace, internedObjects, error);
+    }
+  }
+
+  public static Object beginRequest() {
+    return AVAILABLE ? CatalogEvents.beginRequest() : null;
+  }
+
+  public static void endRequest(
+      Object handle, String endpoint, UUID tenantId, int status, long bytes, Throwable error) {
+    if (handle != null) {
+      CatalogEvents.endRequest(handle, endpoint, tenantId, status, bytes, error);
+    }
+  }
+
+  public static void swap(UUID tenantId, CatalogSnapshot previous, CatalogSnapshot snapshot) {
+    if (AVAILABLE) {
+      CatalogEvents.swap(
+          tenantId,
+          previous != null ? previous.getVersion() : null,
+          snapshot.getVersion(),
+          previous != null ? snapshot.getBuiltAtMillis() - previous.getBuiltAtMillis() : -1,
+          snapshot.getBuildDurationMillis());
+    }
+  }
+
+  // The jdk.jfr package may not be visible to the bundle, depending on the OSGi framework setup
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, CatalogFlightRecorder.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
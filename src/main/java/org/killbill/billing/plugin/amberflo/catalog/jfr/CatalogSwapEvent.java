@@ -0,0 +1,49 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// The catalog served to a tenant was replaced by a newly built one
+@Name("org.killbill.amberflo.CatalogSwap")
+@Label("Catalog Swap")
+@Category({"Kill Bill", "Amberflo Catalog"})
+@Description("Replacement of the cached catalog of a tenant")
+@StackTrace(false)
+class CatalogSwapEvent extends jdk.jfr.Event {
+
+  @Label("Tenant")
+  String tenantId;
+
+  @Label("Previous Version")
+  String previousVersion;
+
+  @Label("Version")
+  String version;
+
+  @Label("Previous Catalog Age")
+  @Description("Time the replaced catalog was served, -1 when there was none")
+  @Timespan(Timespan.MILLISECONDS)
+  long previousAgeMillis;
+
+  @Label("Build Duration")
+  @Timespan(Timespan.MILLISECONDS)
+  long buildDurationMillis;
+}
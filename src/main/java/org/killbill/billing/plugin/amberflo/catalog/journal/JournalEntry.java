@@ -0,0 +1,48 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.journal;
+
+// A payload read back from the journal, its body inflated
+public class JournalEntry {
+
+  private final long timestampMillis;
+  private final String endpoint;
+  private final String key;
+  private final byte[] body;
+
+  public JournalEntry(
+      final long timestampMillis, final String endpoint, final String key, final byte[] body) {
+    this.timestampMillis = timestampMillis;
+    this.endpoint = endpoint;
+    this.key = key;
+    this.body = body;
+  }
+
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+}
@@ -0,0 +1,142 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Reads the entries of a journal directory in the order they were appended. An entry whose
+ * checksum does not match, or that cannot be inflated, is skipped and counted as corrupt; a
+ * segment ends at its first incomplete entry, the tail of a segment torn by a crash.
+ */
+public class JournalReader {
+
+  private final Path directory;
+
+  private int entries;
+  private int corruptEntries;
+  private int segments;
+
+  public JournalReader(final Path directory) {
+    this.directory = directory;
+  }
+
+  public void forEach(final EntryConsumer consumer) throws IOException {
+    final Inflater inflater = new Inflater();
+    try {
+      for (final Path segment : PayloadJournal.segments(directory)) {
+        readSegment(ByteBuffer.wrap(Files.readAllBytes(segment)), inflater, consumer);
+        segments++;
+      }
+    } finally {
+      inflater.end();
+    }
+  }
+
+  public int getEntries() {
+    return entries;
+  }
+
+  public int getCorruptEntries() {
+    return corruptEntries;
+  }
+
+  public int getSegments() {
+    return segments;
+  }
+
+  private void readSegment(
+      final ByteBuffer segment, final Inflater inflater, final EntryConsumer consumer)
+      throws IOException {
+    final byte[] magic = new byte[PayloadJournal.MAGIC.length];
+    if (segment.remaining() < magic.length) {
+      return;
+    }
+    segment.get(magic);
+    if (!Arrays.equals(magic, PayloadJournal.MAGIC)) {
+      corruptEntries++;
+      return;
+    }
+
+    while (segment.remaining() >= PayloadJournal.ENTRY_HEADER_BYTES) {
+      final int length = segment.getInt();
+      final int expected = segment.getInt();
+      if (length < 0 || length > segment.remaining()) {
+        return;
+      }
+      final byte[] payload = new byte[length];
+      segment.get(payload);
+
+      final CRC32C checksum = new CRC32C();
+      checksum.update(payload);
+      final JournalEntry entry;
+      try {
+        entry = (int) checksum.getValue() == expected ? decode(payload, inflater) : null;
+      } catch (DataFormatException | IOException e) {
+        corruptEntries++;
+        continue;
+      }
+      if (entry == null) {
+        corruptEntries++;
+        continue;
+      }
+      entries++;
+      consumer.accept(entry);
+    }
+  }
+
+  private static JournalEntry decode(final byte[] payload, final Inflater inflater)
+      throws IOException, DataFormatException {
+    final ByteArrayInputStream bytes = new ByteArrayInputStream(payload);
+    final DataInputStream in = new DataInputStream(bytes);
+    final long timestamp = in.readLong();
+    final String endpoint = in.readUTF();
+    final String key = in.readUTF();
+    final int rawLength = in.readInt();
+    if (rawLength < 0) {
+      throw new DataFormatException("Negative body length " + rawLength);
+    }
+
+    final int offset = payload.length - bytes.available();
+    final byte[] body = new byte[rawLength];
+    inflater.reset();
+    inflater.setInput(payload, offset, payload.length - offset);
+    int read = 0;
+    while (read < rawLength && !inflater.finished()) {
+      final int count = inflater.inflate(body, read, rawLength - read);
+      if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+        break;
+      }
+      read += count;
+    }
+    if (read != rawLength) {
+      throw new DataFormatException("Body of " + read + " bytes, expected " + rawLength);
+    }
+    return new JournalEntry(timestamp, endpoint, key, body);
+  }
+
+  public interface EntryConsumer {
+    void accept(JournalEntry entry) throws IOException;
+  }
+}
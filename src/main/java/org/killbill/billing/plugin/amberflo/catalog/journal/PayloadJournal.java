@@ -0,0 +1,190 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/*
+ * Append-only journal of the raw payloads returned by amberflo, to rebuild a catalog exactly as
+ * it was built without reaching amberflo (see RecordedPayloads). The journal is a directory of
+ * segment files, read in the order of their sequence number:
+ *
+ *   segment   := MAGIC ("AFJ1") entry*
+ *   entry     := length (int) checksum (int) payload
+ *   payload   := timestamp (long, epoch millis) endpoint (UTF) key (UTF) rawLength (int)
+ *                deflated body
+ *
+ * The checksum is the CRC32C of the payload and length its size in bytes, big-endian. The key
+ * identifies the request within its endpoint, the price id of a pricing request.
+ *
+ * Each journal opened starts a new segment, so an entry torn by a crash is only ever at the end
+ * of a segment that is not written anymore. A segment is closed once it holds segmentBytes and
+ * the oldest segments are deleted past maxSegments: the journal must be large enough to hold the
+ * payloads of a whole catalog build for a replay to find all of them.
+ */
+public class PayloadJournal implements Closeable {
+
+  static final byte[] MAGIC = "AFJ1".getBytes(StandardCharsets.US_ASCII);
+  static final String PREFIX = "segment-";
+  static final String SUFFIX = ".journal";
+  static final int ENTRY_HEADER_BYTES = 8;
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final int maxSegments;
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final byte[] deflateBuffer = new byte[8192];
+
+  private FileChannel segment;
+  private long segmentSize;
+  private long sequence;
+  private boolean closed;
+
+  public PayloadJournal(final Path directory, final long segmentBytes, final int maxSegments) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = Math.max(1, maxSegments);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  // Appends the body returned by an endpoint, the segment is opened on the first append
+  public synchronized void append(final String endpoint, final String key, final byte[] body)
+      throws IOException {
+    if (closed) {
+      throw new IOException("The journal " + directory + " is closed");
+    }
+    final byte[] payload = payload(System.currentTimeMillis(), endpoint, key, body);
+    final CRC32C checksum = new CRC32C();
+    checksum.update(payload);
+
+    final ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_BYTES + payload.length);
+    entry.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+
+    if (segment == null || segmentSize >= segmentBytes) {
+      roll();
+    }
+    while (entry.hasRemaining()) {
+      segmentSize += segment.write(entry);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    deflater.end();
+    closeSegment();
+  }
+
+  // Returns the segment files of a journal directory, oldest first
+  public static List<Path> segments(final Path directory) throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return segments;
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      files
+          .filter(path -> sequence(path) >= 0)
+          .sorted((a, b) -> Long.compare(sequence(a), sequence(b)))
+          .forEach(segments::add);
+    }
+    return segments;
+  }
+
+  private void roll() throws IOException {
+    closeSegment();
+    Files.createDirectories(directory);
+    final List<Path> existing = segments(directory);
+    if (sequence == 0 && !existing.isEmpty()) {
+      sequence = sequence(existing.get(existing.size() - 1));
+    }
+    sequence++;
+
+    final Path path = directory.resolve(String.format("%s%016d%s", PREFIX, sequence, SUFFIX));
+    segment =
+        FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    final ByteBuffer magic = ByteBuffer.wrap(MAGIC);
+    while (magic.hasRemaining()) {
+      segment.write(magic);
+    }
+    segmentSize = MAGIC.length;
+
+    existing.add(path);
+    for (int i = 0; i < existing.size() - maxSegments; i++) {
+      Files.deleteIfExists(existing.get(i));
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    if (segment != null) {
+      try {
+        segment.force(false);
+      } finally {
+        segment.close();
+        segment = null;
+      }
+    }
+  }
+
+  private byte[] payload(
+      final long timestamp, final String endpoint, final String key, final byte[] body)
+      throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (body.length / 4));
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(timestamp);
+    out.writeUTF(endpoint);
+    out.writeUTF(key);
+    out.writeInt(body.length);
+
+    deflater.reset();
+    deflater.setInput(body);
+    deflater.finish();
+    while (!deflater.finished()) {
+      final int count = deflater.deflate(deflateBuffer);
+      out.write(deflateBuffer, 0, count);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  // Returns the sequence number of a segment file, or -1 for any other file
+  static long sequence(final Path path) {
+    final String name = path.getFileName().toString();
+    if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.journal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+
+/*
+ * The last payload recorded for each request: the state of amberflo as last seen by the plugin,
+ * from which a catalog is rebuilt without network (see AmberfloHttpClientImpl).
+ */
+public class RecordedPayloads {
+
+  private final Map<String, JournalEntry> payloads = new HashMap<>();
+
+  private int corruptEntries;
+
+  // Returns the last payloads recorded in a journal directory
+  public static RecordedPayloads read(final Path directory) throws IOException {
+    final RecordedPayloads recorded = new RecordedPayloads();
+    final JournalReader reader = new JournalReader(directory);
+    reader.forEach(recorded::add);
+    recorded.corruptEntries = reader.getCorruptEntries();
+    return recorded;
+  }
+
+  // Records a payload, replacing the payload of the same request recorded before it
+  public void add(final JournalEntry entry) {
+    payloads.put(key(entry.getEndpoint(), entry.getKey()), entry);
+  }
+
+  public void add(final String endpoint, final String key, final byte[] body) {
+    add(new JournalEntry(System.currentTimeMillis(), endpoint, key, body));
+  }
+
+  // Returns the body recorded for the request, or null if none was recorded
+  public byte[] get(final String endpoint, final String key) {
+    final JournalEntry entry = getEntry(endpoint, key);
+    return entry == null ? null : entry.getBody();
+  }
+
+  public JournalEntry getEntry(final String endpoint, final String key) {
+    return payloads.get(key(endpoint, key));
+  }
+
+  public boolean hasCatalog() {
+    return get(CatalogMetrics.ENDPOINT_PLANS, "") != null
+        && get(CatalogMetrics.ENDPOINT_PRODUCTS, "") != null;
+  }
+
+  public int size() {
+    return payloads.size();
+  }
+
+  public int getCorruptEntries() {
+    return corruptEntries;
+  }
+
+  private static String key(final String endpoint, final String key) {
+    return endpoint + '\n' + key;
+  }
+}
@@ -0,0 +1,275 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+
+/*
+ * Encodes catalog snapshots to the compact binary format described in SnapshotFormat, and
+ * decodes them back. Decoded catalogs are equal to the encoded ones, with lazily loaded usages
+ * materialized, and are built from ImmutableStandalonePluginCatalog.
+ */
+public final class CatalogSnapshotCodec {
+
+  private CatalogSnapshotCodec() {}
+
+  public static byte[] encode(final CatalogSnapshot snapshot) {
+    final SnapshotWriter writer = new SnapshotWriter();
+    final SnapshotOutput body = new SnapshotOutput(1 << 16);
+
+    body.writeNullableLong(
+        snapshot.getVersion() == null ? null : snapshot.getVersion().getMillis());
+    body.writeSignedVarLong(snapshot.getBuiltAtMillis());
+    body.writeSignedVarLong(snapshot.getBuildDurationMillis());
+
+    final VersionedPluginCatalog catalog = snapshot.getCatalog();
+    writer.writeString(body, catalog.getCatalogName());
+    final List<StandalonePluginCatalog> versions = toList(catalog.getStandalonePluginCatalogs());
+    body.writeVarInt(versions.size());
+    for (final StandalonePluginCatalog version : versions) {
+      writeStandalone(writer, body, version);
+    }
+
+    final SnapshotOutput out = new SnapshotOutput(body.size() + (1 << 16));
+    writeHeader(out, SnapshotFormat.MAGIC);
+    writer.writeSections(out);
+    body.writeTo(out);
+    return out.toByteArray();
+  }
+
+  public static CatalogSnapshot decode(final byte[] bytes) throws IOException {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  // Decodes from the current position of the buffer, which may be memory-mapped
+  public static CatalogSnapshot decode(final ByteBuffer buffer) throws IOException {
+    final SnapshotInput in = new SnapshotInput(buffer);
+    readHeader(in, SnapshotFormat.MAGIC);
+
+    final SnapshotReader reader = new SnapshotReader();
+    reader.readSections(in);
+
+    final Long version = in.readNullableLong();
+    final long builtAtMillis = in.readSignedVarLong();
+    final long buildDurationMillis = in.readSignedVarLong();
+
+    final String catalogName = reader.readString(in);
+    final int count = in.readCount();
+    final List<StandalonePluginCatalog> versions = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      versions.add(readStandalone(reader, in));
+    }
+
+    final VersionedPluginCatalog catalog =
+        new VersionedPluginCatalogImp(
+            new VersionedPluginCatalogImp.Builder<>()
+                .withCatalogName(catalogName)
+                .withStandalonePluginCatalogs(versions)
+                .build());
+    return new CatalogSnapshot(
+        catalog,
+        version == null ? null : new DateTime(version),
+        builtAtMillis,
+        buildDurationMillis);
+  }
+
+  static void writeHeader(final SnapshotOutput out, final byte[] magic) {
+    out.writeRaw(magic, 0, magic.length);
+    out.writeByte(SnapshotFormat.VERSION);
+  }
+
+  static void readHeader(final SnapshotInput in, final byte[] expectedMagic) throws IOException {
+    final byte[] magic = new byte[expectedMagic.length];
+    in.readRaw(magic);
+    if (!Arrays.equals(magic, expectedMagic)) {
+      throw new IOException("Not a catalog snapshot");
+    }
+    final int version = in.readByte();
+    if (version != SnapshotFormat.VERSION) {
+      throw new IOException("Unsupported catalog snapshot format version " + version);
+    }
+  }
+
+  private static void writeStandalone(
+      final SnapshotWriter writer,
+      final SnapshotOutput out,
+      final StandalonePluginCatalog catalog) {
+    out.writeNullableLong(
+        catalog.getEffectiveDate() == null ? null : catalog.getEffectiveDate().getMillis());
+
+    final List<Currency> currencies = toList(catalog.getCurrencies());
+    out.writeVarInt(currencies.size());
+    for (final Currency currency : currencies) {
+      writer.writeEnum(out, currency);
+    }
+
+    final List<Unit> units = toList(catalog.getUnits());
+    out.writeVarInt(units.size());
+    for (final Unit unit : units) {
+      writer.writeUnit(out, unit);
+    }
+
+    final List<Product> products = toList(catalog.getProducts());
+    out.writeVarInt(products.size());
+    for (final Product product : products) {
+      writer.writeProduct(out, product);
+    }
+
+    final List<Plan> plans = toList(catalog.getPlans());
+    final Map<Plan, Integer> planPositions = new IdentityHashMap<>(plans.size());
+    out.writeVarInt(plans.size());
+    for (final Plan plan : plans) {
+      planPositions.putIfAbsent(plan, planPositions.size());
+      writer.writePlan(out, plan);
+    }
+
+    writePriceList(writer, out, catalog.getDefaultPriceList(), planPositions);
+    final List<PriceList> children = toList(catalog.getChildrenPriceList());
+    out.writeVarInt(children.size());
+    for (final PriceList child : children) {
+      writePriceList(writer, out, child, planPositions);
+    }
+
+    writer.writeCaseRules(out, catalog.getPlanRules());
+  }
+
+  private static StandalonePluginCatalog readStandalone(
+      final SnapshotReader reader, final SnapshotInput in) throws IOException {
+    final ImmutableStandalonePluginCatalog.Builder builder =
+        new ImmutableStandalonePluginCatalog.Builder();
+
+    final Long effectiveDate = in.readNullableLong();
+    builder.withEffectiveDate(effectiveDate == null ? null : new DateTime(effectiveDate));
+
+    final int currencyCount = in.readCount();
+    final List<Currency> currencies = new ArrayList<>(currencyCount);
+    for (int i = 0; i < currencyCount; i++) {
+      currencies.add(reader.readEnum(in, Currency.class));
+    }
+
+    final int unitCount = in.readCount();
+    final List<Unit> units = new ArrayList<>(unitCount);
+    for (int i = 0; i < unitCount; i++) {
+      units.add(reader.readUnit(in));
+    }
+
+    final int productCount = in.readCount();
+    final List<Product> products = new ArrayList<>(productCount);
+    for (int i = 0; i < productCount; i++) {
+      products.add(reader.readProduct(in));
+    }
+
+    final int planCount = in.readCount();
+    final List<Plan> plans = new ArrayList<>(planCount);
+    for (int i = 0; i < planCount; i++) {
+      plans.add(reader.readPlan(in));
+    }
+
+    final PriceList defaultPriceList = readPriceList(reader, in, plans);
+    final int childCount = in.readCount();
+    final List<PriceList> children = new ArrayList<>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      children.add(readPriceList(reader, in, plans));
+    }
+
+    return builder
+        .withCurrencies(currencies)
+        .withUnits(units)
+        .withProducts(products)
+        .withPlans(plans)
+        .withDefaultPriceList(defaultPriceList)
+        .withChildrenPriceList(children)
+        .withPlanRules(reader.readCaseRules(in))
+        .build();
+  }
+
+  // Price lists of the catalog, their plans are stored as positions in the plan list
+  private static void writePriceList(
+      final SnapshotWriter writer,
+      final SnapshotOutput out,
+      final PriceList priceList,
+      final Map<Plan, Integer> planPositions) {
+    out.writeBoolean(priceList != null);
+    if (priceList == null) {
+      return;
+    }
+    writer.writeString(out, priceList.getName());
+    writer.writeString(out, priceList.getPrettyName());
+    if (priceList.getPlans() == null) {
+      out.writeNullableVarInt(null);
+      return;
+    }
+    out.writeNullableVarInt(priceList.getPlans().size());
+    for (final Plan plan : priceList.getPlans()) {
+      final Integer position = planPositions.get(plan);
+      if (position == null) {
+        throw new IllegalArgumentException(
+            "Price list " + priceList.getName() + " refers to a plan missing from the catalog");
+      }
+      out.writeVarInt(position);
+    }
+  }
+
+  private static PriceList readPriceList(
+      final SnapshotReader reader, final SnapshotInput in, final List<Plan> plans)
+      throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final PriceListImp.Builder<?> builder =
+        new PriceListImp.Builder<>()
+            .withName(reader.readString(in))
+            .withPrettyName(reader.readString(in));
+    final int count = in.readNullableCount();
+    if (count >= 0) {
+      final List<Plan> priceListPlans = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        final int position = in.readVarInt();
+        if (position < 0 || position >= plans.size()) {
+          throw new IOException("Plan " + position + " out of range in catalog snapshot");
+        }
+        priceListPlans.add(plans.get(position));
+      }
+      builder.withPlans(priceListPlans);
+    }
+    return builder.build();
+  }
+
+  static <T> List<T> toList(final Iterable<? extends T> iterable) {
+    final List<T> list = new ArrayList<>();
+    if (iterable != null) {
+      iterable.forEach(list::add);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,116 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+
+/*
+ * Keeps the last catalog snapshot of each tenant in a single file of a directory, in the indexed
+ * layout of SnapshotFormat. Files are memory-mapped when loaded and their records are decoded on
+ * access (see MappedStandalonePluginCatalog), so plugin instances of the same host, and restarted
+ * ones, share the OS page cache instead of each holding the whole catalog in its heap.
+ *
+ * Files are written aside and moved in place atomically: a catalog mapped from the previous file
+ * stays readable while a new snapshot of the tenant is saved.
+ */
+public class CatalogSnapshotStore {
+
+  private static final String SUFFIX = ".catalog";
+
+  private final Path directory;
+
+  public CatalogSnapshotStore(final Path directory) {
+    this.directory = directory;
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public Path getPath(final UUID tenantId) {
+    return directory.resolve(tenantId + SUFFIX);
+  }
+
+  // Lazily loaded usages are fetched, the stored catalog holds every usage
+  public void save(final UUID tenantId, final CatalogSnapshot snapshot) throws IOException {
+    final byte[] bytes = IndexedSnapshotCodec.encode(snapshot);
+
+    Files.createDirectories(directory);
+    final Path temporary = Files.createTempFile(directory, tenantId.toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(temporary, getPath(tenantId), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  // Returns the snapshot of the tenant mapped from its file, or null if none was saved
+  public CatalogSnapshot load(final UUID tenantId) throws IOException {
+    final MappedByteBuffer mapping;
+    try (FileChannel channel = FileChannel.open(getPath(tenantId), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Catalog snapshot of tenant " + tenantId + " is too large to map");
+      }
+      // The mapping stays valid once the channel is closed
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    return IndexedSnapshotCodec.decode(mapping);
+  }
+
+  // Returns the tenants with a snapshot in the directory
+  public List<UUID> getTenants() throws IOException {
+    final List<UUID> tenants = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return tenants;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (final Path file : files) {
+        final String name = file.getFileName().toString();
+        try {
+          tenants.add(UUID.fromString(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (IllegalArgumentException e) {
+          // Not a snapshot of this store
+        }
+      }
+    }
+    return tenants;
+  }
+
+  public boolean delete(final UUID tenantId) throws IOException {
+    return Files.deleteIfExists(getPath(tenantId));
+  }
+}
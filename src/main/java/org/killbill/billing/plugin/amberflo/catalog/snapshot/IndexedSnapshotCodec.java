@@ -0,0 +1,258 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+
+/*
+ * Encodes catalog snapshots to the indexed layout of SnapshotFormat used by the snapshot store,
+ * and maps them back to MappedStandalonePluginCatalog instances reading the buffer in place.
+ * Positions are absolute in the buffer, which must be positioned at 0.
+ */
+final class IndexedSnapshotCodec {
+
+  private IndexedSnapshotCodec() {}
+
+  static byte[] encode(final CatalogSnapshot snapshot) {
+    final SnapshotWriter writer = new SnapshotWriter();
+    final SnapshotOutput out = new SnapshotOutput(1 << 16);
+    CatalogSnapshotCodec.writeHeader(out, SnapshotFormat.INDEXED_MAGIC);
+    final int indexSlot = out.size();
+    out.writeFixedInt(0);
+
+    // Catalog records go first, so that their positions are known while the index is written
+    final SnapshotOutput index = new SnapshotOutput(1 << 12);
+    index.writeNullableLong(
+        snapshot.getVersion() == null ? null : snapshot.getVersion().getMillis());
+    index.writeSignedVarLong(snapshot.getBuiltAtMillis());
+    index.writeSignedVarLong(snapshot.getBuildDurationMillis());
+
+    final VersionedPluginCatalog catalog = snapshot.getCatalog();
+    writer.writeString(index, catalog.getCatalogName());
+    final List<StandalonePluginCatalog> versions =
+        CatalogSnapshotCodec.toList(catalog.getStandalonePluginCatalogs());
+    index.writeVarInt(versions.size());
+    for (final StandalonePluginCatalog version : versions) {
+      writeStandalone(writer, out, index, version);
+    }
+
+    writer.writeSectionRecords(out);
+    out.setFixedInt(indexSlot, out.size());
+    writer.writeSectionIndex(out);
+    index.writeTo(out);
+    return out.toByteArray();
+  }
+
+  static CatalogSnapshot decode(final ByteBuffer mapping) throws IOException {
+    final SnapshotInput in = new SnapshotInput(mapping.duplicate());
+    CatalogSnapshotCodec.readHeader(in, SnapshotFormat.INDEXED_MAGIC);
+    final SnapshotInput index = SnapshotInput.at(mapping, in.readFixedInt());
+
+    final SnapshotReader reader = new SnapshotReader();
+    reader.mapSections(mapping, index);
+
+    final Long version = index.readNullableLong();
+    final long builtAtMillis = index.readSignedVarLong();
+    final long buildDurationMillis = index.readSignedVarLong();
+
+    final String catalogName = reader.readString(index);
+    final int count = index.readCount();
+    final List<StandalonePluginCatalog> versions = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      versions.add(readStandalone(mapping, reader, index));
+    }
+
+    final VersionedPluginCatalog catalog =
+        new VersionedPluginCatalogImp(
+            new VersionedPluginCatalogImp.Builder<>()
+                .withCatalogName(catalogName)
+                .withStandalonePluginCatalogs(versions)
+                .build());
+    return new CatalogSnapshot(
+        catalog,
+        version == null ? null : new DateTime(version),
+        builtAtMillis,
+        buildDurationMillis);
+  }
+
+  private static void writeStandalone(
+      final SnapshotWriter writer,
+      final SnapshotOutput out,
+      final SnapshotOutput index,
+      final StandalonePluginCatalog catalog) {
+    index.writeNullableLong(
+        catalog.getEffectiveDate() == null ? null : catalog.getEffectiveDate().getMillis());
+
+    final List<Currency> currencies = CatalogSnapshotCodec.toList(catalog.getCurrencies());
+    index.writeVarInt(currencies.size());
+    for (final Currency currency : currencies) {
+      writer.writeEnum(index, currency);
+    }
+
+    final List<Unit> units = CatalogSnapshotCodec.toList(catalog.getUnits());
+    index.writeFixedInt(units.size());
+    for (final Unit unit : units) {
+      index.writeFixedInt(writer.unitRef(unit));
+    }
+
+    final List<Product> products = CatalogSnapshotCodec.toList(catalog.getProducts());
+    index.writeFixedInt(products.size());
+    for (final Product product : products) {
+      index.writeFixedInt(writer.productRef(product));
+    }
+
+    final List<Plan> plans = CatalogSnapshotCodec.toList(catalog.getPlans());
+    final Map<Plan, Integer> planNumbers = new IdentityHashMap<>(plans.size());
+    index.writeFixedInt(plans.size());
+    for (int i = 0; i < plans.size(); i++) {
+      planNumbers.putIfAbsent(plans.get(i), i);
+      index.writeFixedInt(out.size());
+      writer.writePlan(out, plans.get(i));
+    }
+
+    final List<Integer> byName = new ArrayList<>(plans.size());
+    for (int i = 0; i < plans.size(); i++) {
+      byName.add(i);
+    }
+    byName.sort(
+        Comparator.comparing(
+            number -> plans.get(number).getName(), MappedStandalonePluginCatalog::compare));
+    index.writeFixedInt(byName.size());
+    for (final Integer number : byName) {
+      index.writeFixedInt(number);
+    }
+
+    writePriceList(writer, index, catalog.getDefaultPriceList(), planNumbers);
+    final List<PriceList> children = CatalogSnapshotCodec.toList(catalog.getChildrenPriceList());
+    index.writeVarInt(children.size());
+    for (final PriceList child : children) {
+      writePriceList(writer, index, child, planNumbers);
+    }
+
+    index.writeFixedInt(out.size());
+    writer.writeCaseRules(out, catalog.getPlanRules());
+  }
+
+  private static StandalonePluginCatalog readStandalone(
+      final ByteBuffer mapping, final SnapshotReader reader, final SnapshotInput index)
+      throws IOException {
+    final Long effectiveDate = index.readNullableLong();
+
+    final int currencyCount = index.readCount();
+    final List<Currency> currencies = new ArrayList<>(currencyCount);
+    for (int i = 0; i < currencyCount; i++) {
+      currencies.add(reader.readEnum(index, Currency.class));
+    }
+
+    final MappedList<Unit> units = MappedList.read(mapping, index, reader::getUnit);
+    final MappedList<Product> products = MappedList.read(mapping, index, reader::getProduct);
+    final MappedList<Plan> plans =
+        MappedList.read(
+            mapping, index, position -> reader.readPlan(SnapshotInput.at(mapping, position)));
+    final MappedList.Element<Plan> planNumber = number -> planAt(plans, number);
+    final MappedList<Plan> plansByName = MappedList.read(mapping, index, planNumber);
+
+    final PriceList defaultPriceList = readPriceList(mapping, reader, index, planNumber);
+    final int childCount = index.readCount();
+    final List<PriceList> children = new ArrayList<>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      children.add(readPriceList(mapping, reader, index, planNumber));
+    }
+
+    return new MappedStandalonePluginCatalog(
+        mapping,
+        reader,
+        effectiveDate == null ? null : new DateTime(effectiveDate),
+        currencies,
+        units,
+        products,
+        plans,
+        plansByName,
+        defaultPriceList,
+        children,
+        index.readFixedInt());
+  }
+
+  // Price lists of the catalog, their plans are stored as plan numbers
+  private static void writePriceList(
+      final SnapshotWriter writer,
+      final SnapshotOutput index,
+      final PriceList priceList,
+      final Map<Plan, Integer> planNumbers) {
+    index.writeBoolean(priceList != null);
+    if (priceList == null) {
+      return;
+    }
+    writer.writeString(index, priceList.getName());
+    writer.writeString(index, priceList.getPrettyName());
+    index.writeBoolean(priceList.getPlans() != null);
+    if (priceList.getPlans() == null) {
+      return;
+    }
+    index.writeFixedInt(priceList.getPlans().size());
+    for (final Plan plan : priceList.getPlans()) {
+      final Integer number = planNumbers.get(plan);
+      if (number == null) {
+        throw new IllegalArgumentException(
+            "Price list " + priceList.getName() + " refers to a plan missing from the catalog");
+      }
+      index.writeFixedInt(number);
+    }
+  }
+
+  // The plans of the price list are read from the mapping on access
+  private static PriceList readPriceList(
+      final ByteBuffer mapping,
+      final SnapshotReader reader,
+      final SnapshotInput index,
+      final MappedList.Element<Plan> planNumber)
+      throws IOException {
+    if (!index.readBoolean()) {
+      return null;
+    }
+    final PriceListImp.Builder<?> builder =
+        new PriceListImp.Builder<>()
+            .withName(reader.readString(index))
+            .withPrettyName(reader.readString(index));
+    if (index.readBoolean()) {
+      builder.withPlans(MappedList.read(mapping, index, planNumber));
+    }
+    return builder.build();
+  }
+
+  private static Plan planAt(final MappedList<Plan> plans, final int number) throws IOException {
+    if (number < 0 || number >= plans.size()) {
+      throw new IOException("Plan " + number + " out of range in catalog snapshot");
+    }
+    return plans.get(number);
+  }
+}
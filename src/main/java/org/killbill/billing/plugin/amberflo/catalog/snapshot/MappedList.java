@@ -0,0 +1,80 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/*
+ * Read-only list over a fixed-width int array of a mapping, such as plan positions or product
+ * references. Elements are read from the mapping each time they are accessed; a corrupted
+ * snapshot surfaces as an UncheckedIOException, since lists cannot throw checked exceptions.
+ */
+final class MappedList<T> extends AbstractList<T> implements RandomAccess {
+
+  private final ByteBuffer mapping;
+  private final int position;
+  private final int size;
+  private final Element<T> element;
+
+  private MappedList(ByteBuffer mapping, int position, int size, Element<T> element) {
+    this.mapping = mapping;
+    this.position = position;
+    this.size = size;
+    this.element = element;
+  }
+
+  // Reads the count of the array at the position of the index, and skips the array
+  static <T> MappedList<T> read(ByteBuffer mapping, SnapshotInput index, Element<T> element)
+      throws IOException {
+    int count = index.readFixedInt();
+    if (count < 0 || count > index.remaining() / 4) {
+      throw new IOException("Malformed catalog snapshot index");
+    }
+    int position = index.position();
+    index.skip(count * 4);
+    return new MappedList<>(mapping, position, count, element);
+  }
+
+  // Value stored at an index, without reading the element
+  int valueAt(int index) {
+    return mapping.getInt(position + index * 4);
+  }
+
+  @Override
+  public T get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of range for size " + size);
+    }
+    try {
+      return element.read(valueAt(index));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the catalog snapshot", e);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  // Maps a value of the array to its element
+  interface Element<T> {
+    T read(int value) throws IOException;
+  }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+
+/*
+ * StandalonePluginCatalog read in place from a file of the snapshot store. Plans are decoded
+ * from the mapping each time they are read and are not kept, so the heap only holds the plans in
+ * use; the products, prices and tiers they share are decoded once, on first access, and the
+ * plan rules the first time they are read. Lookups by plan name binary search the name index of
+ * the file. Catalogs are compared by identity, comparing their content would decode every plan.
+ */
+public final class MappedStandalonePluginCatalog implements StandalonePluginCatalog {
+
+  private final ByteBuffer mapping;
+  private final SnapshotReader reader;
+
+  private final DateTime effectiveDate;
+  private final List<Currency> currencies;
+  private final List<Unit> units;
+  private final List<Product> products;
+  private final MappedList<Plan> plans;
+  private final MappedList<Plan> plansByName;
+  private final PriceList defaultPriceList;
+  private final List<PriceList> childrenPriceList;
+  private final int planRulesPosition;
+
+  private volatile boolean planRulesRead;
+  private volatile PlanRules planRules;
+
+  MappedStandalonePluginCatalog(
+      ByteBuffer mapping,
+      SnapshotReader reader,
+      DateTime effectiveDate,
+      List<Currency> currencies,
+      List<Unit> units,
+      List<Product> products,
+      MappedList<Plan> plans,
+      MappedList<Plan> plansByName,
+      PriceList defaultPriceList,
+      List<PriceList> childrenPriceList,
+      int planRulesPosition) {
+    this.mapping = mapping;
+    this.reader = reader;
+    this.effectiveDate = effectiveDate;
+    this.currencies = currencies;
+    this.units = units;
+    this.products = products;
+    this.plans = plans;
+    this.plansByName = plansByName;
+    this.defaultPriceList = defaultPriceList;
+    this.childrenPriceList = childrenPriceList;
+    this.planRulesPosition = planRulesPosition;
+  }
+
+  @Override
+  public DateTime getEffectiveDate() {
+    return effectiveDate;
+  }
+
+  @Override
+  public Iterable<Currency> getCurrencies() {
+    return currencies;
+  }
+
+  @Override
+  public Iterable<Unit> getUnits() {
+    return units;
+  }
+
+  @Override
+  public Iterable<Product> getProducts() {
+    return products;
+  }
+
+  @Override
+  public Iterable<Plan> getPlans() {
+    return plans;
+  }
+
+  @Override
+  public PriceList getDefaultPriceList() {
+    return defaultPriceList;
+  }
+
+  @Override
+  public Iterable<PriceList> getChildrenPriceList() {
+    return childrenPriceList;
+  }
+
+  @Override
+  public PlanRules getPlanRules() {
+    if (!planRulesRead) {
+      synchronized (this) {
+        if (!planRulesRead) {
+          try {
+            planRules = reader.readCaseRules(SnapshotInput.at(mapping, planRulesPosition));
+          } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the catalog snapshot", e);
+          }
+          planRulesRead = true;
+        }
+      }
+    }
+    return planRules;
+  }
+
+  // Returns the plan with the given name, or null; only the names on the search path are read
+  public Plan findPlan(final String name) {
+    int low = 0;
+    int high = plansByName.size() - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int comparison = compare(planName(plansByName.valueAt(middle)), name);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return plansByName.get(middle);
+      }
+    }
+    return null;
+  }
+
+  public int getPlanCount() {
+    return plans.size();
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder(this.getClass().getSimpleName());
+    sb.append("{");
+    sb.append("effectiveDate=").append(effectiveDate);
+    sb.append(", ");
+    sb.append("plans=").append(plans.size());
+    sb.append(", ");
+    sb.append("products=").append(products.size());
+    sb.append("}");
+    return sb.toString();
+  }
+
+  // Names sort with nulls first, as in the index written by the store
+  static int compare(final String first, final String second) {
+    if (first == null || second == null) {
+      return first == null ? (second == null ? 0 : -1) : 1;
+    }
+    return first.compareTo(second);
+  }
+
+  // The name is the first field of a plan record
+  private String planName(final int number) {
+    if (number < 0 || number >= plans.size()) {
+      throw new UncheckedIOException(
+          new IOException("Plan " + number + " out of range in catalog snapshot"));
+    }
+    try {
+      return reader.readString(SnapshotInput.at(mapping, plans.valueAt(number)));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the catalog snapshot", e);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+/*
+ * Binary format of catalog snapshots, replacing Java serialization of the catalog classes.
+ *
+ *   magic "AFCS", format version (1 byte)
+ *   sections, each a varint count followed by its records, in this order:
+ *     strings       UTF-8, referenced by every other record by position (0 stands for null)
+ *     units         name, pretty name
+ *     durations     time unit, number
+ *     prices        zero flag, (currency, value) per price
+ *     products      name, pretty name, category, catalog name
+ *     price lists   name, pretty name, referenced by plans and rules (their plans are not kept)
+ *     tiers         tiered blocks: type, unit, size, max, price, minimum top-up credit
+ *   snapshot: version, build time and duration, catalog name, standalone catalogs
+ *
+ * Numbers are unsigned or zig-zag LEB128 varints, enums are stored by name in the string
+ * dictionary, and decimals as a scale and an unscaled varint (or bytes past 63 bits). Records
+ * refer to the records of an earlier section by position, so products, prices or tiers shared
+ * between plans (see CatalogInterner) are stored once and are shared again once decoded. Back
+ * references to the StaticCatalog are not kept, and the parts of the Kill Bill model the plugin
+ * never builds (limits, blocks, fixed prices, bundled products) are rejected by the encoder
+ * rather than silently dropped.
+ *
+ * The snapshot store maps its files instead of reading them, and uses an indexed layout of the
+ * same records so that they can be decoded in place, one at a time, on first access:
+ *
+ *   magic "AFCX", format version (1 byte), position of the index (fixed-width int)
+ *   plan and plan rules records of the standalone catalogs
+ *   section records, in the order above, without their counts
+ *   index:
+ *     for each section, its record count and the position of each record
+ *     snapshot: version, build time and duration, catalog name, standalone catalog count
+ *     per standalone catalog: effective date, currencies, unit and product references, plan
+ *       positions, plan numbers sorted by plan name, price lists with their plan numbers, and
+ *       the position of the plan rules
+ *
+ * Positions, counts and references of the index are big-endian fixed-width ints, read in place
+ * from the mapping; everything else uses the encodings above.
+ *
+ * Any incompatible change to either layout must increase VERSION; the decoder refuses versions
+ * it does not know.
+ */
+final class SnapshotFormat {
+
+  static final byte[] MAGIC = {'A', 'F', 'C', 'S'};
+  static final byte[] INDEXED_MAGIC = {'A', 'F', 'C', 'X'};
+
+  static final int VERSION = 1;
+
+  static final int DECIMAL_NULL = 0;
+  static final int DECIMAL_SMALL = 1;
+  static final int DECIMAL_BIG = 2;
+
+  private SnapshotFormat() {}
+}
@@ -0,0 +1,182 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// Reads the primitive encodings of SnapshotOutput from a buffer, heap or memory-mapped
+class SnapshotInput {
+
+  private final ByteBuffer buffer;
+
+  SnapshotInput(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  // Input reading a mapping from a position found in its index, independently of other readers
+  static SnapshotInput at(ByteBuffer mapping, int position) throws IOException {
+    if (position < 0 || position >= mapping.limit()) {
+      throw new IOException("Position " + position + " out of range in catalog snapshot");
+    }
+    SnapshotInput in = new SnapshotInput(mapping.duplicate());
+    in.position(position);
+    return in;
+  }
+
+  int position() {
+    return buffer.position();
+  }
+
+  void position(int position) {
+    buffer.position(position);
+  }
+
+  boolean hasRemaining() {
+    return buffer.hasRemaining();
+  }
+
+  int remaining() {
+    return buffer.remaining();
+  }
+
+  // Skips bytes that are read in place, such as the fixed-width arrays of an index
+  void skip(int length) throws IOException {
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Truncated catalog snapshot");
+    }
+    buffer.position(buffer.position() + length);
+  }
+
+  int readByte() throws IOException {
+    try {
+      return buffer.get() & 0xFF;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated catalog snapshot", e);
+    }
+  }
+
+  boolean readBoolean() throws IOException {
+    return readByte() != 0;
+  }
+
+  void readRaw(byte[] target) throws IOException {
+    try {
+      buffer.get(target);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated catalog snapshot", e);
+    }
+  }
+
+  int readFixedInt() throws IOException {
+    try {
+      return buffer.getInt();
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated catalog snapshot", e);
+    }
+  }
+
+  int readVarInt() throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = readByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint in catalog snapshot");
+  }
+
+  long readVarLong() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint in catalog snapshot");
+  }
+
+  int readSignedVarInt() throws IOException {
+    int value = readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  long readSignedVarLong() throws IOException {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  // Returns -1 for null
+  int readNullableVarInt() throws IOException {
+    return readVarInt() - 1;
+  }
+
+  /*
+   * Reads the number of elements, or bytes, that follow. Each of them takes at least a byte, so a
+   * count past the end of the input is rejected as truncated before anything is allocated for it.
+   */
+  int readCount() throws IOException {
+    return checkCount(readVarInt());
+  }
+
+  // Returns -1 for null
+  int readNullableCount() throws IOException {
+    int count = readNullableVarInt();
+    return count == -1 ? count : checkCount(count);
+  }
+
+  private int checkCount(int count) throws IOException {
+    if (count < 0) {
+      throw new IOException("Malformed count " + count + " in catalog snapshot");
+    }
+    if (count > buffer.remaining()) {
+      throw new IOException("Truncated catalog snapshot");
+    }
+    return count;
+  }
+
+  Long readNullableLong() throws IOException {
+    return readByte() == 0 ? null : readSignedVarLong();
+  }
+
+  BigDecimal readDecimal() throws IOException {
+    int tag = readByte();
+    switch (tag) {
+      case SnapshotFormat.DECIMAL_NULL:
+        return null;
+      case SnapshotFormat.DECIMAL_SMALL:
+        {
+          int scale = readSignedVarInt();
+          return BigDecimal.valueOf(readSignedVarLong(), scale);
+        }
+      case SnapshotFormat.DECIMAL_BIG:
+        {
+          int scale = readSignedVarInt();
+          byte[] magnitude = new byte[readCount()];
+          readRaw(magnitude);
+          return new BigDecimal(new BigInteger(magnitude), scale);
+        }
+      default:
+        throw new IOException("Unknown decimal tag " + tag + " in catalog snapshot");
+    }
+  }
+}
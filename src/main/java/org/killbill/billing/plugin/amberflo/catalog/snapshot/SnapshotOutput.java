@@ -0,0 +1,139 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+// Growable byte buffer with the primitive encodings of the snapshot format
+class SnapshotOutput {
+
+  private byte[] bytes;
+  private int size;
+
+  SnapshotOutput(int capacity) {
+    this.bytes = new byte[Math.max(16, capacity)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, size);
+  }
+
+  void writeTo(SnapshotOutput out) {
+    out.writeRaw(bytes, 0, size);
+  }
+
+  void writeByte(int value) {
+    ensureCapacity(1);
+    bytes[size++] = (byte) value;
+  }
+
+  void writeBoolean(boolean value) {
+    writeByte(value ? 1 : 0);
+  }
+
+  void writeRaw(byte[] source, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(source, offset, bytes, size, length);
+    size += length;
+  }
+
+  // Big-endian, fixed width, for positions read in place from a mapping
+  void writeFixedInt(int value) {
+    ensureCapacity(4);
+    setFixedInt(size, value);
+    size += 4;
+  }
+
+  // Overwrites a fixed-width integer written earlier
+  void setFixedInt(int position, int value) {
+    bytes[position] = (byte) (value >>> 24);
+    bytes[position + 1] = (byte) (value >>> 16);
+    bytes[position + 2] = (byte) (value >>> 8);
+    bytes[position + 3] = (byte) value;
+  }
+
+  // Unsigned LEB128, 7 bits per byte
+  void writeVarInt(int value) {
+    ensureCapacity(5);
+    while ((value & ~0x7F) != 0) {
+      bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[size++] = (byte) value;
+  }
+
+  void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[size++] = (byte) value;
+  }
+
+  // Zig-zag encoding, so that small negative numbers stay short
+  void writeSignedVarInt(int value) {
+    writeVarInt((value << 1) ^ (value >> 31));
+  }
+
+  void writeSignedVarLong(long value) {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  // Writes 0 for null, or 1 + the value, for counts, references and timestamps that may be absent
+  void writeNullableVarInt(Integer value) {
+    writeVarInt(value == null ? 0 : value + 1);
+  }
+
+  void writeNullableLong(Long value) {
+    if (value == null) {
+      writeByte(0);
+    } else {
+      writeByte(1);
+      writeSignedVarLong(value);
+    }
+  }
+
+  void writeDecimal(BigDecimal value) {
+    if (value == null) {
+      writeByte(SnapshotFormat.DECIMAL_NULL);
+      return;
+    }
+    BigInteger unscaled = value.unscaledValue();
+    if (unscaled.bitLength() < 64) {
+      writeByte(SnapshotFormat.DECIMAL_SMALL);
+      writeSignedVarInt(value.scale());
+      writeSignedVarLong(unscaled.longValue());
+    } else {
+      byte[] magnitude = unscaled.toByteArray();
+      writeByte(SnapshotFormat.DECIMAL_BIG);
+      writeSignedVarInt(value.scale());
+      writeVarInt(magnitude.length);
+      writeRaw(magnitude, 0, magnitude.length);
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+    }
+  }
+}
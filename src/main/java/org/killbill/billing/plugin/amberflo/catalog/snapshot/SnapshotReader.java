@@ -0,0 +1,528 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.killbill.billing.catalog.api.BillingActionPolicy;
+import org.killbill.billing.catalog.api.BillingAlignment;
+import org.killbill.billing.catalog.api.BillingMode;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Block;
+import org.killbill.billing.catalog.api.BlockType;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.InternationalPrice;
+import org.killbill.billing.catalog.api.Limit;
+import org.killbill.billing.catalog.api.PhaseType;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanAlignmentChange;
+import org.killbill.billing.catalog.api.PlanAlignmentCreate;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Price;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.ProductCategory;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.TierBlockPolicy;
+import org.killbill.billing.catalog.api.TieredBlock;
+import org.killbill.billing.catalog.api.TimeUnit;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.api.UsageType;
+import org.killbill.billing.catalog.api.boilerplate.DurationImp;
+import org.killbill.billing.catalog.api.boilerplate.InternationalPriceImp;
+import org.killbill.billing.catalog.api.boilerplate.PlanImp;
+import org.killbill.billing.catalog.api.boilerplate.PlanPhaseImp;
+import org.killbill.billing.catalog.api.boilerplate.PriceImp;
+import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
+import org.killbill.billing.catalog.api.boilerplate.ProductImp;
+import org.killbill.billing.catalog.api.boilerplate.RecurringImp;
+import org.killbill.billing.catalog.api.boilerplate.TierImp;
+import org.killbill.billing.catalog.api.boilerplate.TieredBlockImp;
+import org.killbill.billing.catalog.api.boilerplate.UnitImp;
+import org.killbill.billing.catalog.api.boilerplate.UsageImp;
+import org.killbill.billing.catalog.api.rules.CaseBillingAlignment;
+import org.killbill.billing.catalog.api.rules.CaseCancelPolicy;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanAlignment;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanPolicy;
+import org.killbill.billing.catalog.api.rules.CaseCreateAlignment;
+import org.killbill.billing.catalog.api.rules.CasePriceList;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+import org.killbill.billing.catalog.api.rules.boilerplate.CaseBillingAlignmentImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.CaseCancelPolicyImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.CaseChangePlanAlignmentImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.CaseChangePlanPolicyImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.CaseCreateAlignmentImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.CasePriceListImp;
+import org.killbill.billing.catalog.api.rules.boilerplate.PlanRulesImp;
+
+/*
+ * Decoding side of SnapshotWriter: the sections are read first, then records are decoded with
+ * references resolved to the shared objects of the sections. Sections are either decoded up
+ * front (readSections), or decoded record by record on first access from a mapping through the
+ * index of the store layout (mapSections).
+ */
+class SnapshotReader {
+
+  private static final Limit[] NO_LIMITS = new Limit[0];
+  private static final Block[] NO_BLOCKS = new Block[0];
+
+  private Section<String> strings;
+  private Section<Unit> units;
+  private Section<Duration> durations;
+  private Section<InternationalPrice> prices;
+  private Section<Product> products;
+  private Section<PriceList> priceLists;
+  private Section<Tier> tiers;
+
+  void readSections(SnapshotInput in) throws IOException {
+    // In the order of SnapshotFormat, each section only refers to the ones before it
+    strings = readSection(in, this::readStringRecord);
+    units = readSection(in, this::readUnitRecord);
+    durations = readSection(in, this::readDurationRecord);
+    prices = readSection(in, this::readPriceRecord);
+    products = readSection(in, this::readProductRecord);
+    priceLists = readSection(in, this::readPriceListRecord);
+    tiers = readSection(in, this::readTierRecord);
+  }
+
+  // Reads the section index at the position of the input, records are read from the mapping
+  void mapSections(ByteBuffer mapping, SnapshotInput index) throws IOException {
+    strings = mapSection(mapping, index, this::readStringRecord);
+    units = mapSection(mapping, index, this::readUnitRecord);
+    durations = mapSection(mapping, index, this::readDurationRecord);
+    prices = mapSection(mapping, index, this::readPriceRecord);
+    products = mapSection(mapping, index, this::readProductRecord);
+    priceLists = mapSection(mapping, index, this::readPriceListRecord);
+    tiers = mapSection(mapping, index, this::readTierRecord);
+  }
+
+  String readString(SnapshotInput in) throws IOException {
+    return readRef(in, strings);
+  }
+
+  <E extends Enum<E>> E readEnum(SnapshotInput in, Class<E> type) throws IOException {
+    String name = readString(in);
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(
+          "Unknown " + type.getSimpleName() + " " + name + " in catalog snapshot");
+    }
+  }
+
+  Product readProduct(SnapshotInput in) throws IOException {
+    return readRef(in, products);
+  }
+
+  Unit readUnit(SnapshotInput in) throws IOException {
+    return readRef(in, units);
+  }
+
+  PriceList readPriceListRef(SnapshotInput in) throws IOException {
+    return readRef(in, priceLists);
+  }
+
+  Unit getUnit(int ref) throws IOException {
+    return resolve(ref, units);
+  }
+
+  Product getProduct(int ref) throws IOException {
+    return resolve(ref, products);
+  }
+
+  Plan readPlan(SnapshotInput in) throws IOException {
+    PlanImp.Builder<?> builder =
+        new PlanImp.Builder<>()
+            .withName(readString(in))
+            .withPrettyName(readString(in))
+            .withRecurringBillingMode(readEnum(in, BillingMode.class))
+            .withRecurringBillingPeriod(readEnum(in, BillingPeriod.class))
+            .withPlansAllowedInBundle(in.readSignedVarInt());
+    Long effectiveDate = in.readNullableLong();
+    if (effectiveDate != null) {
+      builder.withEffectiveDateForExistingSubscriptions(new Date(effectiveDate));
+    }
+    builder.withProduct(readProduct(in)).withPriceList(readPriceListRef(in));
+
+    int initialCount = in.readNullableCount();
+    if (initialCount >= 0) {
+      PlanPhase[] initialPhases = new PlanPhase[initialCount];
+      for (int i = 0; i < initialCount; i++) {
+        initialPhases[i] = readPhase(in);
+      }
+      builder.withInitialPhases(initialPhases);
+    }
+    if (in.readBoolean()) {
+      builder.withFinalPhase(readPhase(in));
+    }
+    return builder.build();
+  }
+
+  PlanRules readCaseRules(SnapshotInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    PlanRulesImp.Builder<?> builder = new PlanRulesImp.Builder<>();
+
+    int count = in.readNullableCount();
+    if (count >= 0) {
+      List<CaseChangePlanPolicy> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        CaseChangePlanPolicyImp.Builder<?> c = new CaseChangePlanPolicyImp.Builder<>();
+        c.withPhaseType(readEnum(in, PhaseType.class))
+            .withFromProduct(readProduct(in))
+            .withFromProductCategory(readEnum(in, ProductCategory.class))
+            .withFromBillingPeriod(readEnum(in, BillingPeriod.class))
+            .withFromPriceList(readPriceListRef(in))
+            .withToProduct(readProduct(in))
+            .withToProductCategory(readEnum(in, ProductCategory.class))
+            .withToBillingPeriod(readEnum(in, BillingPeriod.class))
+            .withToPriceList(readPriceListRef(in));
+        cases.add(c.withBillingActionPolicy(readEnum(in, BillingActionPolicy.class)).build());
+      }
+      builder.withCaseChangePlanPolicy(cases);
+    }
+
+    count = in.readNullableCount();
+    if (count >= 0) {
+      List<CaseChangePlanAlignment> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        CaseChangePlanAlignmentImp.Builder<?> c = new CaseChangePlanAlignmentImp.Builder<>();
+        c.withPhaseType(readEnum(in, PhaseType.class))
+            .withFromProduct(readProduct(in))
+            .withFromProductCategory(readEnum(in, ProductCategory.class))
+            .withFromBillingPeriod(readEnum(in, BillingPeriod.class))
+            .withFromPriceList(readPriceListRef(in))
+            .withToProduct(readProduct(in))
+            .withToProductCategory(readEnum(in, ProductCategory.class))
+            .withToBillingPeriod(readEnum(in, BillingPeriod.class))
+            .withToPriceList(readPriceListRef(in));
+        cases.add(c.withAlignment(readEnum(in, PlanAlignmentChange.class)).build());
+      }
+      builder.withCaseChangePlanAlignment(cases);
+    }
+
+    count = in.readNullableCount();
+    if (count >= 0) {
+      List<CaseCancelPolicy> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        cases.add(
+            new CaseCancelPolicyImp.Builder<>()
+                .withProduct(readProduct(in))
+                .withProductCategory(readEnum(in, ProductCategory.class))
+                .withBillingPeriod(readEnum(in, BillingPeriod.class))
+                .withPriceList(readPriceListRef(in))
+                .withPhaseType(readEnum(in, PhaseType.class))
+                .withBillingActionPolicy(readEnum(in, BillingActionPolicy.class))
+                .build());
+      }
+      builder.withCaseCancelPolicy(cases);
+    }
+
+    count = in.readNullableCount();
+    if (count >= 0) {
+      List<CaseCreateAlignment> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        cases.add(
+            new CaseCreateAlignmentImp.Builder<>()
+                .withProduct(readProduct(in))
+                .withProductCategory(readEnum(in, ProductCategory.class))
+                .withBillingPeriod(readEnum(in, BillingPeriod.class))
+                .withPriceList(readPriceListRef(in))
+                .withPlanAlignmentCreate(readEnum(in, PlanAlignmentCreate.class))
+                .build());
+      }
+      builder.withCaseCreateAlignment(cases);
+    }
+
+    count = in.readNullableCount();
+    if (count >= 0) {
+      List<CaseBillingAlignment> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        cases.add(
+            new CaseBillingAlignmentImp.Builder<>()
+                .withProduct(readProduct(in))
+                .withProductCategory(readEnum(in, ProductCategory.class))
+                .withBillingPeriod(readEnum(in, BillingPeriod.class))
+                .withPriceList(readPriceListRef(in))
+                .withPhaseType(readEnum(in, PhaseType.class))
+                .withBillingAlignment(readEnum(in, BillingAlignment.class))
+                .build());
+      }
+      builder.withCaseBillingAlignment(cases);
+    }
+
+    count = in.readNullableCount();
+    if (count >= 0) {
+      List<CasePriceList> cases = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        cases.add(
+            new CasePriceListImp.Builder<>()
+                .withProduct(readProduct(in))
+                .withProductCategory(readEnum(in, ProductCategory.class))
+                .withBillingPeriod(readEnum(in, BillingPeriod.class))
+                .withPriceList(readPriceListRef(in))
+                .withDestinationPriceList(readPriceListRef(in))
+                .build());
+      }
+      builder.withCasePriceList(cases);
+    }
+
+    return builder.build();
+  }
+
+  private PlanPhase readPhase(SnapshotInput in) throws IOException {
+    PlanPhaseImp.Builder<?> builder =
+        new PlanPhaseImp.Builder<>()
+            .withName(readString(in))
+            .withPrettyName(readString(in))
+            .withPhaseType(readEnum(in, PhaseType.class))
+            .withDuration(readRef(in, durations));
+
+    if (in.readBoolean()) {
+      builder.withRecurring(
+          new RecurringImp.Builder<>()
+              .withBillingPeriod(readEnum(in, BillingPeriod.class))
+              .withRecurringPrice(readRef(in, prices))
+              .build());
+    }
+
+    int count = in.readNullableCount();
+    if (count >= 0) {
+      Usage[] usages = new Usage[count];
+      for (int i = 0; i < count; i++) {
+        usages[i] = readUsage(in);
+      }
+      builder.withUsages(usages);
+    }
+    return builder.build();
+  }
+
+  private Usage readUsage(SnapshotInput in) throws IOException {
+    UsageImp.Builder<?> builder =
+        new UsageImp.Builder<>()
+            .withName(readString(in))
+            .withPrettyName(readString(in))
+            .withBillingMode(readEnum(in, BillingMode.class))
+            .withUsageType(readEnum(in, UsageType.class))
+            .withTierBlockPolicy(readEnum(in, TierBlockPolicy.class))
+            .withBillingPeriod(readEnum(in, BillingPeriod.class));
+    int nulls = in.readByte();
+    if ((nulls & 1) == 0) {
+      builder.withLimits(NO_LIMITS);
+    }
+    if ((nulls & 2) == 0) {
+      builder.withBlocks(NO_BLOCKS);
+    }
+
+    int count = in.readNullableCount();
+    if (count >= 0) {
+      Tier[] usageTiers = new Tier[count];
+      for (int i = 0; i < count; i++) {
+        usageTiers[i] = readRef(in, tiers);
+      }
+      builder.withTiers(usageTiers);
+    }
+    return builder.build();
+  }
+
+  private String readStringRecord(SnapshotInput in) throws IOException {
+    byte[] utf8 = new byte[in.readCount()];
+    in.readRaw(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
+  private Unit readUnitRecord(SnapshotInput in) throws IOException {
+    return new UnitImp.Builder<>().withName(readString(in)).withPrettyName(readString(in)).build();
+  }
+
+  private Duration readDurationRecord(SnapshotInput in) throws IOException {
+    return new DurationImp.Builder<>()
+        .withUnit(readEnum(in, TimeUnit.class))
+        .withNumber(in.readSignedVarInt())
+        .build();
+  }
+
+  private InternationalPrice readPriceRecord(SnapshotInput in) throws IOException {
+    boolean isZero = in.readBoolean();
+    int count = in.readNullableCount();
+    Price[] values = count < 0 ? null : new Price[count];
+    for (int i = 0; i < count; i++) {
+      values[i] =
+          new PriceImp.Builder<>()
+              .withCurrency(readEnum(in, Currency.class))
+              .withValue(in.readDecimal())
+              .build();
+    }
+    return new InternationalPriceImp.Builder<>().withPrices(values).withIsZero(isZero).build();
+  }
+
+  private Product readProductRecord(SnapshotInput in) throws IOException {
+    ProductImp.Builder<?> builder =
+        new ProductImp.Builder<>()
+            .withName(readString(in))
+            .withPrettyName(readString(in))
+            .withCategory(readEnum(in, ProductCategory.class))
+            .withCatalogName(readString(in));
+    int nulls = in.readByte();
+    return builder
+        .withLimits((nulls & 1) != 0 ? null : NO_LIMITS)
+        .withAvailable((nulls & 2) != 0 ? null : Collections.emptyList())
+        .withIncluded((nulls & 4) != 0 ? null : Collections.emptyList())
+        .build();
+  }
+
+  private PriceList readPriceListRecord(SnapshotInput in) throws IOException {
+    PriceListImp.Builder<?> builder =
+        new PriceListImp.Builder<>().withName(readString(in)).withPrettyName(readString(in));
+    if (in.readBoolean()) {
+      builder.withPlans(Collections.emptyList());
+    }
+    return builder.build();
+  }
+
+  private Tier readTierRecord(SnapshotInput in) throws IOException {
+    int nulls = in.readByte();
+    int count = in.readNullableCount();
+    TieredBlock[] blocks = count < 0 ? null : new TieredBlock[count];
+    for (int i = 0; i < count; i++) {
+      blocks[i] =
+          new TieredBlockImp.Builder<>()
+              .withType(readEnum(in, BlockType.class))
+              .withUnit(readRef(in, units))
+              .withSize(in.readDecimal())
+              .withMax(in.readDecimal())
+              .withPrice(readRef(in, prices))
+              .withMinTopUpCredit(in.readDecimal())
+              .build();
+    }
+    return new TierImp.Builder<>()
+        .withLimits((nulls & 1) != 0 ? null : NO_LIMITS)
+        .withTieredBlocks(blocks)
+        .build();
+  }
+
+  private static <T> Section<T> readSection(SnapshotInput in, RecordReader<T> reader)
+      throws IOException {
+    Object[] records = new Object[in.readCount()];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = reader.read(in);
+    }
+    return new ArraySection<>(records);
+  }
+
+  private static <T> Section<T> mapSection(
+      ByteBuffer mapping, SnapshotInput index, RecordReader<T> reader) throws IOException {
+    int count = index.readFixedInt();
+    if (count < 0 || count > index.remaining() / 4) {
+      throw new IOException("Malformed catalog snapshot index");
+    }
+    int position = index.position();
+    index.skip(count * 4);
+    return new MappedSection<>(mapping, position, count, reader);
+  }
+
+  private static <T> T readRef(SnapshotInput in, Section<T> section) throws IOException {
+    return resolve(in.readVarInt(), section);
+  }
+
+  private static <T> T resolve(int ref, Section<T> section) throws IOException {
+    if (ref == 0) {
+      return null;
+    }
+    if (ref < 0 || ref > section.size()) {
+      throw new IOException("Reference " + ref + " out of range in catalog snapshot");
+    }
+    return section.get(ref - 1);
+  }
+
+  private interface RecordReader<T> {
+    T read(SnapshotInput in) throws IOException;
+  }
+
+  // Shared objects of a section, by position
+  private interface Section<T> {
+    int size();
+
+    T get(int index) throws IOException;
+  }
+
+  private static class ArraySection<T> implements Section<T> {
+
+    private final Object[] records;
+
+    ArraySection(Object[] records) {
+      this.records = records;
+    }
+
+    @Override
+    public int size() {
+      return records.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      return (T) records[index];
+    }
+  }
+
+  /*
+   * Section read in place from a mapping: the index holds the position of each record, which is
+   * decoded the first time it is referred to. Decoded records are kept, so plans decoded at
+   * different times still share them; two threads racing on a record keep the first one.
+   */
+  private static class MappedSection<T> implements Section<T> {
+
+    private final ByteBuffer mapping;
+    private final int indexPosition;
+    private final RecordReader<T> reader;
+    private final AtomicReferenceArray<T> records;
+
+    MappedSection(ByteBuffer mapping, int indexPosition, int count, RecordReader<T> reader) {
+      this.mapping = mapping;
+      this.indexPosition = indexPosition;
+      this.reader = reader;
+      this.records = new AtomicReferenceArray<>(count);
+    }
+
+    @Override
+    public int size() {
+      return records.length();
+    }
+
+    @Override
+    public T get(int index) throws IOException {
+      T record = records.get(index);
+      if (record != null) {
+        return record;
+      }
+      record = reader.read(SnapshotInput.at(mapping, mapping.getInt(indexPosition + index * 4)));
+      return records.compareAndSet(index, null, record) ? record : records.get(index);
+    }
+  }
+}
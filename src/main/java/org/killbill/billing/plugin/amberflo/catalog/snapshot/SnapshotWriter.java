@@ -0,0 +1,479 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.amberflo.catalog.snapshot;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.CurrencyValueNull;
+import org.killbill.billing.catalog.api.Duration;
+import org.killbill.billing.catalog.api.InternationalPrice;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Price;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Recurring;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.TieredBlock;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.api.rules.Case;
+import org.killbill.billing.catalog.api.rules.CaseBillingAlignment;
+import org.killbill.billing.catalog.api.rules.CaseCancelPolicy;
+import org.killbill.billing.catalog.api.rules.CaseChange;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanAlignment;
+import org.killbill.billing.catalog.api.rules.CaseChangePlanPolicy;
+import org.killbill.billing.catalog.api.rules.CaseCreateAlignment;
+import org.killbill.billing.catalog.api.rules.CasePriceList;
+import org.killbill.billing.catalog.api.rules.PlanRules;
+
+/*
+ * Encoding session of SnapshotFormat: strings and shared objects are added to their section the
+ * first time a record refers to them. Records are written to the output given by the caller, and
+ * the sections are written once every record is, through writeSections, or through
+ * writeSectionRecords and writeSectionIndex for the indexed layout of the snapshot store.
+ */
+class SnapshotWriter {
+
+  private final Table<String> strings = new Table<>(new HashMap<>());
+  private final Table<Unit> units = new Table<>(new IdentityHashMap<>());
+  private final Table<Duration> durations = new Table<>(new IdentityHashMap<>());
+  private final Table<InternationalPrice> prices = new Table<>(new IdentityHashMap<>());
+  private final Table<Product> products = new Table<>(new IdentityHashMap<>());
+  private final Table<PriceList> priceLists = new Table<>(new IdentityHashMap<>());
+  private final Table<Tier> tiers = new Table<>(new IdentityHashMap<>());
+
+  void writeSections(SnapshotOutput out) {
+    for (Table<?> table : tables()) {
+      table.writeTo(out);
+    }
+  }
+
+  // Writes the records of the sections, without their counts
+  void writeSectionRecords(SnapshotOutput out) {
+    for (Table<?> table : tables()) {
+      table.writeRecordsTo(out);
+    }
+  }
+
+  // Writes the count and the position of each record of the sections, as fixed-width integers
+  void writeSectionIndex(SnapshotOutput out) {
+    for (Table<?> table : tables()) {
+      table.writeIndexTo(out);
+    }
+  }
+
+  void writeString(SnapshotOutput out, String value) {
+    out.writeVarInt(stringRef(value));
+  }
+
+  int stringRef(String value) {
+    return strings.ref(
+        value,
+        record -> {
+          byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+          record.writeVarInt(utf8.length);
+          record.writeRaw(utf8, 0, utf8.length);
+        });
+  }
+
+  void writeEnum(SnapshotOutput out, Enum<?> value) {
+    writeString(out, value == null ? null : value.name());
+  }
+
+  // Writes a plan; phases, usages and their tiers are written inline
+  void writePlan(SnapshotOutput out, Plan plan) {
+    require(plan.getAllPhases() == null, "plans with explicit phase lists");
+    require(plan.getInitialPhaseIterator() == null, "plans with initial phase iterators");
+
+    writeString(out, plan.getName());
+    writeString(out, plan.getPrettyName());
+    writeEnum(out, plan.getRecurringBillingMode());
+    writeEnum(out, plan.getRecurringBillingPeriod());
+    out.writeSignedVarInt(plan.getPlansAllowedInBundle());
+    out.writeNullableLong(
+        plan.getEffectiveDateForExistingSubscriptions() == null
+            ? null
+            : plan.getEffectiveDateForExistingSubscriptions().getTime());
+    writeProduct(out, plan.getProduct());
+    writePriceListRef(out, plan.getPriceList());
+
+    PlanPhase[] initialPhases = plan.getInitialPhases();
+    out.writeNullableVarInt(initialPhases == null ? null : initialPhases.length);
+    if (initialPhases != null) {
+      for (PlanPhase phase : initialPhases) {
+        writePhase(out, phase);
+      }
+    }
+    out.writeBoolean(plan.getFinalPhase() != null);
+    if (plan.getFinalPhase() != null) {
+      writePhase(out, plan.getFinalPhase());
+    }
+  }
+
+  void writeProduct(SnapshotOutput out, Product product) {
+    out.writeVarInt(productRef(product));
+  }
+
+  int productRef(Product product) {
+    return products.ref(
+        product,
+        record -> {
+          require(isEmpty(product.getLimits()), "product limits");
+          require(isEmpty(product.getAvailable()), "available add-on products");
+          require(isEmpty(product.getIncluded()), "included add-on products");
+          writeString(record, product.getName());
+          writeString(record, product.getPrettyName());
+          writeEnum(record, product.getCategory());
+          writeString(record, product.getCatalogName());
+          record.writeByte(
+              flags(product.getLimits(), product.getAvailable(), product.getIncluded()));
+        });
+  }
+
+  void writeUnit(SnapshotOutput out, Unit unit) {
+    out.writeVarInt(unitRef(unit));
+  }
+
+  int unitRef(Unit unit) {
+    return units.ref(
+        unit,
+        record -> {
+          writeString(record, unit.getName());
+          writeString(record, unit.getPrettyName());
+        });
+  }
+
+  // Price lists referenced by plans and rules, their plans are not kept
+  void writePriceListRef(SnapshotOutput out, PriceList priceList) {
+    priceLists.writeRef(
+        out,
+        priceList,
+        record -> {
+          require(isEmpty(priceList.getPlans()), "plans in price lists referenced by plans");
+          writeString(record, priceList.getName());
+          writeString(record, priceList.getPrettyName());
+          record.writeBoolean(priceList.getPlans() != null);
+        });
+  }
+
+  void writePrice(SnapshotOutput out, InternationalPrice price) {
+    prices.writeRef(
+        out,
+        price,
+        record -> {
+          record.writeBoolean(price.isZero());
+          Price[] values = price.getPrices();
+          record.writeNullableVarInt(values == null ? null : values.length);
+          if (values != null) {
+            for (Price value : values) {
+              writeEnum(record, value.getCurrency());
+              try {
+                record.writeDecimal(value.getValue());
+              } catch (CurrencyValueNull e) {
+                record.writeDecimal(null);
+              }
+            }
+          }
+        });
+  }
+
+  void writeCaseRules(SnapshotOutput out, PlanRules rules) {
+    out.writeBoolean(rules != null);
+    if (rules == null) {
+      return;
+    }
+
+    writeCases(
+        out,
+        rules.getCaseChangePlanPolicy(),
+        (record, c) -> {
+          writeCaseChange(record, c);
+          writeEnum(record, c.getBillingActionPolicy());
+        });
+    writeCases(
+        out,
+        rules.getCaseChangePlanAlignment(),
+        (record, c) -> {
+          writeCaseChange(record, c);
+          writeEnum(record, c.getAlignment());
+        });
+    writeCases(
+        out,
+        rules.getCaseCancelPolicy(),
+        (record, c) -> {
+          writeCase(record, c);
+          writeEnum(record, c.getPhaseType());
+          writeEnum(record, c.getBillingActionPolicy());
+        });
+    writeCases(
+        out,
+        rules.getCaseCreateAlignment(),
+        (record, c) -> {
+          writeCase(record, c);
+          writeEnum(record, c.getPlanAlignmentCreate());
+        });
+    writeCases(
+        out,
+        rules.getCaseBillingAlignment(),
+        (record, c) -> {
+          writeCase(record, c);
+          writeEnum(record, c.getPhaseType());
+          writeEnum(record, c.getBillingAlignment());
+        });
+    writeCases(
+        out,
+        rules.getCasePriceList(),
+        (record, c) -> {
+          writeCase(record, c);
+          writePriceListRef(record, c.getDestinationPriceList());
+        });
+  }
+
+  // Number of strings and shared objects added so far
+  int sharedCount() {
+    int count = 0;
+    for (Table<?> table : tables()) {
+      count += table.size();
+    }
+    return count;
+  }
+
+  // Sections in the order of SnapshotFormat
+  private List<Table<?>> tables() {
+    return Arrays.asList(strings, units, durations, prices, products, priceLists, tiers);
+  }
+
+  private void writePhase(SnapshotOutput out, PlanPhase phase) {
+    require(phase.getFixed() == null, "fixed prices");
+
+    writeString(out, phase.getName());
+    writeString(out, phase.getPrettyName());
+    writeEnum(out, phase.getPhaseType());
+    durations.writeRef(
+        out,
+        phase.getDuration(),
+        record -> {
+          writeEnum(record, phase.getDuration().getUnit());
+          record.writeSignedVarInt(phase.getDuration().getNumber());
+        });
+
+    Recurring recurring = phase.getRecurring();
+    out.writeBoolean(recurring != null);
+    if (recurring != null) {
+      writeEnum(out, recurring.getBillingPeriod());
+      writePrice(out, recurring.getRecurringPrice());
+    }
+
+    // Lazy phases are materialized, the decoded phase holds its usages
+    Usage[] usages = phase.getUsages();
+    out.writeNullableVarInt(usages == null ? null : usages.length);
+    if (usages != null) {
+      for (Usage usage : usages) {
+        writeUsage(out, usage);
+      }
+    }
+  }
+
+  private void writeUsage(SnapshotOutput out, Usage usage) {
+    require(isEmpty(usage.getLimits()), "usage limits");
+    require(isEmpty(usage.getBlocks()), "usage blocks");
+    require(usage.getFixedPrice() == null, "usage fixed prices");
+    require(usage.getRecurringPrice() == null, "usage recurring prices");
+
+    writeString(out, usage.getName());
+    writeString(out, usage.getPrettyName());
+    writeEnum(out, usage.getBillingMode());
+    writeEnum(out, usage.getUsageType());
+    writeEnum(out, usage.getTierBlockPolicy());
+    writeEnum(out, usage.getBillingPeriod());
+    out.writeByte(flags(usage.getLimits(), usage.getBlocks(), null));
+
+    Tier[] usageTiers = usage.getTiers();
+    out.writeNullableVarInt(usageTiers == null ? null : usageTiers.length);
+    if (usageTiers != null) {
+      for (Tier tier : usageTiers) {
+        writeTier(out, tier);
+      }
+    }
+  }
+
+  private void writeTier(SnapshotOutput out, Tier tier) {
+    tiers.writeRef(
+        out,
+        tier,
+        record -> {
+          require(isEmpty(tier.getLimits()), "tier limits");
+          require(tier.getFixedPrice() == null, "tier fixed prices");
+          require(tier.getRecurringPrice() == null, "tier recurring prices");
+          record.writeByte(flags(tier.getLimits(), null, null));
+
+          TieredBlock[] blocks = tier.getTieredBlocks();
+          record.writeNullableVarInt(blocks == null ? null : blocks.length);
+          if (blocks != null) {
+            for (TieredBlock block : blocks) {
+              writeEnum(record, block.getType());
+              writeUnit(record, block.getUnit());
+              record.writeDecimal(block.getSize());
+              record.writeDecimal(block.getMax());
+              writePrice(record, block.getPrice());
+              record.writeDecimal(minTopUpCredit(block));
+            }
+          }
+        });
+  }
+
+  private void writeCase(SnapshotOutput out, Case c) {
+    writeProduct(out, c.getProduct());
+    writeEnum(out, c.getProductCategory());
+    writeEnum(out, c.getBillingPeriod());
+    writePriceListRef(out, c.getPriceList());
+  }
+
+  private void writeCaseChange(SnapshotOutput out, CaseChange c) {
+    writeEnum(out, c.getPhaseType());
+    writeProduct(out, c.getFromProduct());
+    writeEnum(out, c.getFromProductCategory());
+    writeEnum(out, c.getFromBillingPeriod());
+    writePriceListRef(out, c.getFromPriceList());
+    writeProduct(out, c.getToProduct());
+    writeEnum(out, c.getToProductCategory());
+    writeEnum(out, c.getToBillingPeriod());
+    writePriceListRef(out, c.getToPriceList());
+  }
+
+  private <T> void writeCases(SnapshotOutput out, Iterable<T> cases, RecordWriter<T> writer) {
+    if (cases == null) {
+      out.writeNullableVarInt(null);
+      return;
+    }
+    int count = 0;
+    for (T ignored : cases) {
+      count++;
+    }
+    out.writeNullableVarInt(count);
+    for (T c : cases) {
+      writer.write(out, c);
+    }
+  }
+
+  private static BigDecimal minTopUpCredit(TieredBlock block) {
+    try {
+      return block.getMinTopUpCredit();
+    } catch (CatalogApiException e) {
+      // Only defined for top-up blocks
+      return null;
+    }
+  }
+
+  // Remembers which of the (empty) arrays or collections were null, so that equality survives
+  private static int flags(Object first, Object second, Object third) {
+    return (first == null ? 1 : 0) | (second == null ? 2 : 0) | (third == null ? 4 : 0);
+  }
+
+  private static boolean isEmpty(Object[] values) {
+    return values == null || values.length == 0;
+  }
+
+  private static boolean isEmpty(Collection<?> values) {
+    return values == null || values.isEmpty();
+  }
+
+  private static void require(boolean supported, String feature) {
+    if (!supported) {
+      throw new IllegalArgumentException("Catalog snapshots do not support " + feature);
+    }
+  }
+
+  private interface RecordWriter<T> {
+    void write(SnapshotOutput out, T value);
+  }
+
+  /*
+   * Section of shared objects, written once and referenced by position. Objects are told apart
+   * by identity (strings excepted): the interner already shares equal catalog objects, and
+   * hashing the deep Kill Bill object graphs costs more than the records it would save.
+   */
+  private static class Table<T> {
+
+    private final Map<T, Integer> refs;
+    private final SnapshotOutput section = new SnapshotOutput(1 << 12);
+
+    // Position of each record in the section, then in the output once written
+    private int[] offsets = new int[16];
+    private int base;
+
+    Table(Map<T, Integer> refs) {
+      this.refs = refs;
+    }
+
+    void writeRef(SnapshotOutput out, T value, RecordBody body) {
+      out.writeVarInt(ref(value, body));
+    }
+
+    // Returns the position of the record plus one, 0 for null
+    int ref(T value, RecordBody body) {
+      if (value == null) {
+        return 0;
+      }
+      Integer ref = refs.get(value);
+      if (ref == null) {
+        // The record may add objects to other sections, never to this one
+        SnapshotOutput record = new SnapshotOutput(32);
+        body.write(record);
+        ref = refs.size() + 1;
+        refs.put(value, ref);
+        if (ref > offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[ref - 1] = section.size();
+        record.writeTo(section);
+      }
+      return ref;
+    }
+
+    int size() {
+      return refs.size();
+    }
+
+    void writeTo(SnapshotOutput out) {
+      out.writeVarInt(refs.size());
+      section.writeTo(out);
+    }
+
+    void writeRecordsTo(SnapshotOutput out) {
+      base = out.size();
+      section.writeTo(out);
+    }
+
+    void writeIndexTo(SnapshotOutput out) {
+      out.writeFixedInt(refs.size());
+      for (int i = 0; i < refs.size(); i++) {
+        out.writeFixedInt(base + offsets[i]);
+      }
+    }
+  }
+
+  private interface RecordBody {
+    void write(SnapshotOutput record);
+  }
+}
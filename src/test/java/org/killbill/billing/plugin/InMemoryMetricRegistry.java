@@ -0,0 +1,245 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.killbill.commons.metrics.api.Counter;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.Histogram;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.api.Snapshot;
+import org.killbill.commons.metrics.api.Timer;
+
+// Registry keeping every metric in memory, with exact percentiles over all recorded values
+public class InMemoryMetricRegistry implements MetricRegistry {
+
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Gauge<?>> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Samples> histograms = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Samples> meters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Samples> timers = new ConcurrentHashMap<>();
+
+  @Override
+  public Counter counter(String name) {
+    return counters.computeIfAbsent(name, n -> new Count());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> Gauge<T> gauge(String name, Gauge<T> gauge) {
+    return (Gauge<T>) gauges.computeIfAbsent(name, n -> gauge);
+  }
+
+  @Override
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Samples());
+  }
+
+  @Override
+  public Meter meter(String name) {
+    return meters.computeIfAbsent(name, n -> new Samples());
+  }
+
+  @Override
+  public Timer timer(String name) {
+    return timers.computeIfAbsent(name, n -> new Samples());
+  }
+
+  @Override
+  public boolean remove(String name) {
+    return counters.remove(name) != null
+        | gauges.remove(name) != null
+        | histograms.remove(name) != null
+        | meters.remove(name) != null
+        | timers.remove(name) != null;
+  }
+
+  @Override
+  public Map<String, ?> getMetrics() {
+    Map<String, Object> metrics = new HashMap<>();
+    metrics.putAll(counters);
+    metrics.putAll(gauges);
+    metrics.putAll(histograms);
+    metrics.putAll(meters);
+    metrics.putAll(timers);
+    return metrics;
+  }
+
+  @Override
+  public Map<String, Counter> getCounters() {
+    return new HashMap<>(counters);
+  }
+
+  @Override
+  public Map<String, Histogram> getHistograms() {
+    return new HashMap<>(histograms);
+  }
+
+  @Override
+  public Map<String, Gauge<?>> getGauges() {
+    return new HashMap<>(gauges);
+  }
+
+  @Override
+  public Map<String, Meter> getMeters() {
+    return new HashMap<>(meters);
+  }
+
+  @Override
+  public Map<String, Timer> getTimers() {
+    return new HashMap<>(timers);
+  }
+
+  private static class Count implements Counter {
+
+    private final AtomicLong count = new AtomicLong();
+
+    @Override
+    public void inc(long n) {
+      count.addAndGet(n);
+    }
+
+    @Override
+    public long getCount() {
+      return count.get();
+    }
+  }
+
+  // Values of a histogram or a meter, and durations of a timer in nanoseconds
+  private static class Samples implements Histogram, Meter, Timer {
+
+    private final List<Long> values = new ArrayList<>();
+
+    @Override
+    public synchronized void update(long value) {
+      values.add(value);
+    }
+
+    @Override
+    public void update(long duration, TimeUnit unit) {
+      update(unit.toNanos(duration));
+    }
+
+    @Override
+    public void mark(long n) {
+      update(n);
+    }
+
+    @Override
+    public synchronized long getCount() {
+      return values.size();
+    }
+
+    @Override
+    public synchronized Snapshot getSnapshot() {
+      long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+      return new SortedSnapshot(sorted);
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+      return 0;
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+      return 0;
+    }
+
+    @Override
+    public double getMeanRate() {
+      return 0;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+      return 0;
+    }
+  }
+
+  private static class SortedSnapshot implements Snapshot {
+
+    private final long[] values;
+
+    SortedSnapshot(long[] values) {
+      this.values = values;
+    }
+
+    // Nearest-rank quantile
+    @Override
+    public double getValue(double quantile) {
+      if (values.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(quantile * values.length);
+      return values[Math.min(values.length, Math.max(1, rank)) - 1];
+    }
+
+    @Override
+    public long[] getValues() {
+      return Arrays.copyOf(values, values.length);
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public long getMax() {
+      return values.length == 0 ? 0 : values[values.length - 1];
+    }
+
+    @Override
+    public double getMean() {
+      return Arrays.stream(values).average().orElse(0);
+    }
+
+    @Override
+    public long getMin() {
+      return values.length == 0 ? 0 : values[0];
+    }
+
+    @Override
+    public double getStdDev() {
+      double mean = getMean();
+      return Math.sqrt(
+          Arrays.stream(values).mapToDouble(v -> (v - mean) * (v - mean)).average().orElse(0));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+      PrintWriter writer =
+          new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+      for (long value : values) {
+        writer.println(value);
+      }
+      writer.flush();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin;
+
+import java.util.function.BooleanSupplier;
+import org.junit.Assert;
+
+// Waits of the tests for work done in the background by the plugin
+public class Polling {
+
+  private static final long POLL_MILLIS = 10;
+
+  private Polling() {}
+
+  // Polls the condition until it holds, failing the test once the timeout passed
+  public static void await(BooleanSupplier condition, long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue(
+          "Timed out after " + timeoutMillis + " ms", System.currentTimeMillis() < deadline);
+      try {
+        Thread.sleep(POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
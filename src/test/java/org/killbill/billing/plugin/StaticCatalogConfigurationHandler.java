@@ -0,0 +1,50 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogActivator;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+
+/*
+ * Configuration handler holding the tenant configurations in memory instead of Kill Bill. Setting
+ * the properties of a tenant notifies the listeners, like an upload of its configuration.
+ */
+public class StaticCatalogConfigurationHandler extends CatalogConfigurationHandler {
+
+  private final Map<UUID, CatalogConfigurationProperties> tenantConfigurations =
+      new ConcurrentHashMap<>();
+
+  public StaticCatalogConfigurationHandler(Properties defaultProperties) {
+    super(null, CatalogActivator.PLUGIN_NAME, null);
+    setDefaultConfigurable(createConfigurable(defaultProperties));
+  }
+
+  public void setTenantProperties(UUID tenantId, Properties properties) {
+    tenantConfigurations.put(tenantId, createConfigurable(properties));
+    notifyConfigurationChanged(tenantId);
+  }
+
+  @Override
+  public CatalogConfigurationProperties getConfigurable(UUID tenantId) {
+    CatalogConfigurationProperties config =
+        tenantId != null ? tenantConfigurations.get(tenantId) : null;
+    return config != null ? config : super.getConfigurable(null);
+  }
+}
@@ -0,0 +1,156 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.api;
+
+import static org.killbill.billing.plugin.Polling.await;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.synthetic.AmberfloFault;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+/*
+ * How long getVersionedPluginCatalog waits for a rebuild: a tenant with a catalog waits at most
+ * the deadline and is served its previous catalog, a tenant without one waits at most the wait
+ * limit. Concurrent callers share a single rebuild.
+ */
+public class CatalogBuildDeadlineTest {
+
+  private static final long DEADLINE_MILLIS = 200;
+  private static final long WAIT_LIMIT_MILLIS = 400;
+  private static final long SLOW_RESPONSE_MILLIS = 1500;
+  // A whole build, the first one of the test run included
+  private static final long BUILD_MILLIS = 10000;
+
+  private SyntheticAmberfloServer server;
+  private CatalogPluginApiImpl api;
+  private UUID tenantId;
+  private TenantContext tenant;
+
+  @Before
+  public void setUp() throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder().withSeed(5).withPlans(20).build();
+    server = new SyntheticAmberfloServer(catalog).start();
+
+    Properties properties = server.getConfigurationProperties("deadline");
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.catalogDeadlineMillis",
+        Long.toString(DEADLINE_MILLIS));
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.catalogWaitLimitMillis",
+        Long.toString(WAIT_LIMIT_MILLIS));
+
+    tenantId = UUID.randomUUID();
+    tenant = new PluginTenantContext(null, tenantId);
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+  }
+
+  @After
+  public void tearDown() {
+    api.close();
+    server.stop();
+  }
+
+  @Test
+  public void rebuildPastTheDeadlineServesThePreviousCatalog() throws Exception {
+    Assert.assertTrue(api.warmUp(tenantId));
+    CatalogSnapshot previous = api.getSnapshot(tenantId);
+    server.setFault(
+        SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(SLOW_RESPONSE_MILLIS));
+    DateTime version = refresh();
+
+    long start = System.currentTimeMillis();
+    Assert.assertSame(previous.getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+    long elapsed = System.currentTimeMillis() - start;
+    Assert.assertTrue("Served in " + elapsed + " ms", elapsed >= DEADLINE_MILLIS);
+    Assert.assertEquals(1, api.getDeadlineMissCount());
+    Assert.assertEquals(1, api.getStaleServeCount());
+
+    // The rebuild went on in the background and is served once published
+    await(() -> api.getSnapshot(tenantId).isVersion(version), SLOW_RESPONSE_MILLIS + BUILD_MILLIS);
+    Assert.assertSame(
+        api.getSnapshot(tenantId).getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+    Assert.assertEquals(1, api.getStaleServeCount());
+  }
+
+  @Test
+  public void firstBuildPastTheWaitLimitFailsFast() {
+    server.setFault(
+        SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(SLOW_RESPONSE_MILLIS));
+
+    long start = System.currentTimeMillis();
+    Assert.assertNull(api.getVersionedPluginCatalog(null, tenant));
+    long elapsed = System.currentTimeMillis() - start;
+    Assert.assertTrue("Failed in " + elapsed + " ms", elapsed >= WAIT_LIMIT_MILLIS);
+    Assert.assertEquals(1, api.getDeadlineMissCount());
+    Assert.assertEquals(0, api.getStaleServeCount());
+
+    // The build is not abandoned, the next caller gets its catalog
+    await(() -> api.getSnapshot(tenantId) != null, SLOW_RESPONSE_MILLIS + BUILD_MILLIS);
+    Assert.assertSame(
+        api.getSnapshot(tenantId).getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+  }
+
+  @Test
+  public void concurrentCallersShareOneRebuild() throws Exception {
+    long before = server.getRequestCount();
+    Assert.assertTrue(api.warmUp(tenantId));
+    long requestsPerBuild = server.getRequestCount() - before;
+
+    server.setFault(
+        SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(SLOW_RESPONSE_MILLIS));
+    DateTime version = refresh();
+    before = server.getRequestCount();
+
+    ExecutorService callers = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<VersionedPluginCatalog>> calls = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        calls.add(callers.submit(() -> api.getVersionedPluginCatalog(null, tenant)));
+      }
+      for (Future<VersionedPluginCatalog> call : calls) {
+        Assert.assertNotNull(call.get());
+      }
+    } finally {
+      callers.shutdownNow();
+    }
+
+    await(() -> api.getSnapshot(tenantId).isVersion(version), SLOW_RESPONSE_MILLIS + BUILD_MILLIS);
+    Assert.assertEquals(requestsPerBuild, server.getRequestCount() - before);
+  }
+
+  private DateTime refresh() {
+    DateTime version = api.getAtomic().get().plusSeconds(1);
+    api.getAtomic().set(version);
+    return version;
+  }
+}
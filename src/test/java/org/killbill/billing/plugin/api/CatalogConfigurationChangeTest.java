@@ -0,0 +1,127 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.api;
+
+import static org.killbill.billing.plugin.Polling.await;
+
+import java.util.Properties;
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+/*
+ * A configuration upload of a tenant drops the catalog of that tenant only, moves it to a new
+ * version, and rebuilds it once in the background after a burst of uploads.
+ */
+public class CatalogConfigurationChangeTest {
+
+  private static final int DEBOUNCE_MILLIS = 300;
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  private SyntheticAmberfloCatalog first;
+  private SyntheticAmberfloCatalog second;
+  private SyntheticAmberfloServer server;
+  private StaticCatalogConfigurationHandler handler;
+  private CatalogPluginApiImpl api;
+
+  @Before
+  public void setUp() throws Exception {
+    first = new SyntheticAmberfloCatalog.Builder().withSeed(3).withPlans(20).build();
+    second = new SyntheticAmberfloCatalog.Builder().withSeed(5).withPlans(30).build();
+    server = new SyntheticAmberfloServer(first).start();
+    server.addTenant("second", second);
+
+    handler = new StaticCatalogConfigurationHandler(properties("first"));
+    api = new CatalogPluginApiImpl(handler);
+  }
+
+  @After
+  public void tearDown() {
+    api.close();
+    server.stop();
+  }
+
+  @Test
+  public void uploadDropsOnlyTheCatalogOfTheTenant() {
+    UUID changedId = UUID.randomUUID();
+    UUID otherId = UUID.randomUUID();
+    TenantContext changed = new PluginTenantContext(null, changedId);
+    TenantContext other = new PluginTenantContext(null, otherId);
+    api.getVersionedPluginCatalog(null, changed);
+    VersionedPluginCatalog otherCatalog = api.getVersionedPluginCatalog(null, other);
+    DateTime version = api.getLatestCatalogVersion(null, other);
+
+    handler.setTenantProperties(changedId, properties("second"));
+
+    Assert.assertNull(api.getSnapshot(changedId));
+    Assert.assertTrue(api.getLatestCatalogVersion(null, changed).isAfter(version));
+    Assert.assertEquals(version, api.getLatestCatalogVersion(null, other));
+    Assert.assertSame(otherCatalog, api.getVersionedPluginCatalog(null, other));
+
+    Assert.assertEquals(second.getExpectedKillBillPlans(), plans(changed));
+    Assert.assertEquals(first.getExpectedKillBillPlans(), plans(other));
+  }
+
+  @Test
+  public void uploadsWithinTheDebounceWindowRebuildOnce() throws InterruptedException {
+    UUID tenantId = UUID.randomUUID();
+    api.getVersionedPluginCatalog(null, new PluginTenantContext(null, tenantId));
+
+    for (int i = 0; i < 3; i++) {
+      handler.setTenantProperties(tenantId, properties("second"));
+      Thread.sleep(DEBOUNCE_MILLIS / 3);
+    }
+    Assert.assertNull(api.getSnapshot(tenantId));
+
+    await(() -> api.getSnapshot(tenantId) != null, TIMEOUT_MILLIS);
+    Thread.sleep(DEBOUNCE_MILLIS * 2);
+
+    CatalogSnapshot snapshot = api.getSnapshot(tenantId);
+    Assert.assertTrue(snapshot.isVersion(api.getLatestVersion(tenantId)));
+    // The first build, and a single rebuild for the three uploads
+    Assert.assertEquals(2, api.getTraces(tenantId).size());
+  }
+
+  private int plans(TenantContext tenant) {
+    int count = 0;
+    for (Object plan :
+        api.getVersionedPluginCatalog(null, tenant)
+            .getStandalonePluginCatalogs()
+            .iterator()
+            .next()
+            .getPlans()) {
+      count++;
+    }
+    return count;
+  }
+
+  private Properties properties(String apiKey) {
+    Properties properties = server.getConfigurationProperties(apiKey);
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.configRebuildDebounceMillis",
+        Integer.toString(DEBOUNCE_MILLIS));
+    return properties;
+  }
+}
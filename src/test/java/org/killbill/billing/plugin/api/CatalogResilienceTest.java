@@ -0,0 +1,263 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.api;
+
+import static org.killbill.billing.plugin.Polling.await;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotStore;
+import org.killbill.billing.plugin.synthetic.AmberfloFault;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+/*
+ * Behavior of getVersionedPluginCatalog while amberflo misbehaves. A tenant with a catalog keeps
+ * being served that catalog within the deadline, and gets the new one once amberflo recovers;
+ * a tenant without a catalog gets no catalog, within the request timeout, unless a catalog of
+ * the tenant was stored by a previous run.
+ */
+public class CatalogResilienceTest {
+
+  private static final long DEADLINE_MILLIS = 300;
+  private static final long REQUEST_TIMEOUT_MILLIS = 1000;
+  private static final long STALL_MILLIS = 10000;
+  // Scheduling and connection setup on a loaded build machine
+  private static final long SLACK_MILLIS = 5000;
+
+  private SyntheticAmberfloCatalog catalog;
+  private SyntheticAmberfloServer server;
+  private Properties properties;
+  private CatalogPluginApiImpl api;
+  private UUID tenantId;
+  private TenantContext tenant;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    catalog = new SyntheticAmberfloCatalog.Builder().withSeed(11).withPlans(40).build();
+    server = new SyntheticAmberfloServer(catalog).start();
+
+    properties = server.getConfigurationProperties("resilience");
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.catalogDeadlineMillis",
+        Long.toString(DEADLINE_MILLIS));
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.requestTimeoutMillis",
+        Long.toString(REQUEST_TIMEOUT_MILLIS));
+
+    tenantId = UUID.randomUUID();
+    tenant = new PluginTenantContext(null, tenantId);
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+  }
+
+  @After
+  public void tearDown() {
+    api.close();
+    server.stop();
+  }
+
+  @Test
+  public void slowResponsesServePreviousCatalogUntilRebuilt() {
+    CatalogSnapshot previous = warmUp();
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(800));
+    DateTime version = refresh();
+
+    // The rebuild outlasts the deadline, so the previous catalog is served meanwhile
+    Assert.assertSame(previous.getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+    Assert.assertEquals(1, api.getDeadlineMissCount());
+    await(() -> isCurrent(version), REQUEST_TIMEOUT_MILLIS + SLACK_MILLIS);
+    assertServesCatalog(version);
+  }
+
+  @Test
+  public void connectionResetsServePreviousCatalog() {
+    assertServesPreviousCatalogUntilRecovery(
+        SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.connectionReset());
+  }
+
+  @Test
+  public void truncatedJsonServesPreviousCatalog() {
+    assertServesPreviousCatalogUntilRecovery(
+        SyntheticAmberfloServer.PRODUCTS_PATH, AmberfloFault.truncatedJson());
+  }
+
+  @Test
+  public void rateLimitingServesPreviousCatalog() {
+    assertServesPreviousCatalogUntilRecovery(
+        SyntheticAmberfloServer.PRICES_PATH, AmberfloFault.tooManyRequests(30));
+  }
+
+  @Test
+  public void stalledSocketsServePreviousCatalog() {
+    assertServesPreviousCatalogUntilRecovery(
+        SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.stalledSocket(STALL_MILLIS));
+  }
+
+  @Test
+  public void serverErrorBurstIsFollowedByRecovery() {
+    CatalogSnapshot previous = warmUp();
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.serverErrors(503, 3));
+    DateTime version = refresh();
+
+    // Each call finding a failed build starts another one, until the burst is over
+    for (int failures = 1; failures <= 3; failures++) {
+      Assert.assertSame(previous.getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+      int expected = failures;
+      await(() -> api.getConsecutiveFailures(tenantId) == expected, SLACK_MILLIS);
+      Assert.assertSame(previous, api.getSnapshot(tenantId));
+    }
+
+    assertServesCatalog(version);
+    Assert.assertEquals(0, api.getConsecutiveFailures(tenantId));
+  }
+
+  @Test
+  public void tenantWithoutCatalogGetsNoCatalogWhenAmberfloResets() {
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.connectionReset());
+
+    Assert.assertNull(api.getVersionedPluginCatalog(null, tenant));
+    Assert.assertNull(api.getSnapshot(tenantId));
+    Assert.assertEquals(1, api.getConsecutiveFailures(tenantId));
+  }
+
+  @Test
+  public void tenantWithoutCatalogWaitsAtMostTheRequestTimeoutOnStalledSockets() {
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.stalledSocket(STALL_MILLIS));
+
+    // Failed by the request timeout, long before the socket would have resumed
+    long start = System.currentTimeMillis();
+    Assert.assertNull(api.getVersionedPluginCatalog(null, tenant));
+    Assert.assertTrue(System.currentTimeMillis() - start < STALL_MILLIS);
+    Assert.assertEquals(1, api.getConsecutiveFailures(tenantId));
+  }
+
+  @Test
+  public void restartedPluginServesStoredCatalogWhenAmberfloResets() throws Exception {
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.snapshotDirectory",
+        folder.getRoot().getAbsolutePath());
+    api.close();
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+    warmUp();
+    Path stored = new CatalogSnapshotStore(folder.getRoot().toPath()).getPath(tenantId);
+    await(() -> Files.exists(stored), SLACK_MILLIS);
+
+    api.close();
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.connectionReset());
+
+    VersionedPluginCatalog served = api.getVersionedPluginCatalog(null, tenant);
+    Assert.assertNotNull(served);
+    List<Object> plans = new ArrayList<>();
+    served.getStandalonePluginCatalogs().iterator().next().getPlans().forEach(plans::add);
+    Assert.assertEquals(catalog.getExpectedKillBillPlans(), plans.size());
+
+    server.clearFaults();
+    assertServesCatalog(refresh());
+  }
+
+  @Test
+  public void catalogBuiltFromTheJournalIsDegraded() throws Exception {
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.journalDirectory",
+        folder.getRoot().getAbsolutePath());
+    api.close();
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+    CatalogSnapshot previous = warmUp();
+
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.truncatedJson());
+    DateTime version = refresh();
+    api.getVersionedPluginCatalog(null, tenant);
+    await(() -> isCurrent(version), REQUEST_TIMEOUT_MILLIS + SLACK_MILLIS);
+
+    // Served, but as old as the recorded payloads, and still counted as a failure
+    CatalogSnapshot degraded = api.getSnapshot(tenantId);
+    Assert.assertTrue(degraded.isDegraded());
+    Assert.assertFalse(degraded.isCurrent(version));
+    Assert.assertTrue(degraded.getBuiltAtMillis() <= previous.getBuiltAtMillis());
+    Assert.assertEquals(1, api.getConsecutiveFailures(tenantId));
+
+    server.clearFaults();
+    api.getVersionedPluginCatalog(null, tenant);
+    await(
+        () -> !api.getSnapshot(tenantId).isDegraded(), REQUEST_TIMEOUT_MILLIS + SLACK_MILLIS);
+    Assert.assertTrue(api.getSnapshot(tenantId).isCurrent(version));
+    Assert.assertEquals(0, api.getConsecutiveFailures(tenantId));
+  }
+
+  private void assertServesPreviousCatalogUntilRecovery(String path, AmberfloFault fault) {
+    CatalogSnapshot previous = warmUp();
+    server.setFault(path, fault);
+    DateTime version = refresh();
+
+    Assert.assertSame(previous.getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+    await(() -> api.getConsecutiveFailures(tenantId) == 1, REQUEST_TIMEOUT_MILLIS + SLACK_MILLIS);
+    Assert.assertSame(previous, api.getSnapshot(tenantId));
+    Assert.assertEquals(1, api.getStaleServeCount());
+
+    server.clearFaults();
+    assertServesCatalog(version);
+    Assert.assertEquals(0, api.getConsecutiveFailures(tenantId));
+  }
+
+  private CatalogSnapshot warmUp() {
+    assertServesCatalog(api.getLatestCatalogVersion(null, tenant));
+    return api.getSnapshot(tenantId);
+  }
+
+  private DateTime refresh() {
+    DateTime version = api.getAtomic().get().plusSeconds(1);
+    api.getAtomic().set(version);
+    return version;
+  }
+
+  private void assertServesCatalog(DateTime version) {
+    // Starts the rebuild if none is running; one slower than the deadline serves the previous
+    // catalog, or none at all, and the call after the rebuild gets the new one
+    api.getVersionedPluginCatalog(null, tenant);
+    await(() -> isCurrent(version), REQUEST_TIMEOUT_MILLIS + SLACK_MILLIS);
+    VersionedPluginCatalog served = api.getVersionedPluginCatalog(null, tenant);
+    Assert.assertNotNull(served);
+    Assert.assertTrue(isCurrent(version));
+    Assert.assertSame(api.getSnapshot(tenantId).getCatalog(), served);
+
+    List<Object> plans = new ArrayList<>();
+    served.getStandalonePluginCatalogs().iterator().next().getPlans().forEach(plans::add);
+    Assert.assertEquals(catalog.getExpectedKillBillPlans(), plans.size());
+  }
+
+  private boolean isCurrent(DateTime version) {
+    CatalogSnapshot snapshot = api.getSnapshot(tenantId);
+    return snapshot != null && snapshot.isVersion(version);
+  }
+}
@@ -0,0 +1,119 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogWarmUp;
+import org.killbill.billing.plugin.synthetic.AmberfloFault;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+
+public class CatalogWarmUpTest {
+
+  private SyntheticAmberfloCatalog catalog;
+  private SyntheticAmberfloServer server;
+  private Properties properties;
+  private List<CatalogPluginApiImpl> apis = new ArrayList<>();
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    catalog = new SyntheticAmberfloCatalog.Builder().withSeed(7).withPlans(20).build();
+    server = new SyntheticAmberfloServer(catalog).start();
+    properties = server.getConfigurationProperties("warmup");
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.snapshotDirectory",
+        folder.getRoot().getPath());
+  }
+
+  @After
+  public void tearDown() {
+    apis.forEach(CatalogPluginApiImpl::close);
+    server.stop();
+  }
+
+  @Test
+  public void warmsUpEveryTenantBeforeBeingReady() throws InterruptedException {
+    CatalogPluginApiImpl api = newApi();
+    List<UUID> tenants = Arrays.asList(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    server.setLatency(100, 0);
+
+    CatalogWarmUp warmUp = new CatalogWarmUp(api);
+    warmUp.start(tenants, 2, 10000);
+
+    Assert.assertFalse(warmUp.isReady());
+    Assert.assertTrue(warmUp.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(warmUp.isReady());
+    Assert.assertEquals(3, warmUp.getStatus().get("warmed"));
+    for (UUID tenantId : tenants) {
+      Assert.assertNotNull(api.getSnapshot(tenantId));
+    }
+  }
+
+  @Test
+  public void isReadyOnceTheTimeoutPassed() throws InterruptedException {
+    CatalogWarmUp warmUp = new CatalogWarmUp(newApi());
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(2000));
+
+    warmUp.start(Arrays.asList(UUID.randomUUID()), 1, 200);
+
+    Assert.assertFalse(warmUp.isReady());
+    Thread.sleep(300);
+    Assert.assertTrue(warmUp.isReady());
+    Assert.assertEquals(1L, warmUp.getStatus().get("pending"));
+  }
+
+  @Test
+  public void knowsTheTenantsStoredByAPreviousRun() throws InterruptedException {
+    UUID tenantId = UUID.randomUUID();
+    CatalogWarmUp previousRun = new CatalogWarmUp(newApi());
+    previousRun.start(Arrays.asList(tenantId), 1, 10000);
+    Assert.assertTrue(previousRun.await(10, TimeUnit.SECONDS));
+
+    // The catalog is stored once the build completed
+    CatalogPluginApiImpl api = newApi();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (api.getKnownTenants().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(Arrays.asList(tenantId), new ArrayList<>(api.getKnownTenants()));
+
+    // A failed build falls back to the stored catalog
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.serverErrors(503, 100));
+    Assert.assertTrue(api.warmUp(tenantId));
+    Assert.assertNotNull(api.getSnapshot(tenantId));
+  }
+
+  private CatalogPluginApiImpl newApi() {
+    CatalogPluginApiImpl api =
+        new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+    apis.add(api);
+    return api;
+  }
+}
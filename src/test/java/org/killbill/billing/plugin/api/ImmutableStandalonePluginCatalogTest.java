@@ -0,0 +1,136 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.api.boilerplate.PlanImp;
+import org.killbill.billing.catalog.api.boilerplate.PriceListImp;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+public class ImmutableStandalonePluginCatalogTest {
+
+  private static final SyntheticAmberfloCatalog SYNTHETIC =
+      new SyntheticAmberfloCatalog.Builder().withSeed(13).withPlans(30).build();
+
+  @Test
+  public void findsEveryEntityByName() throws Exception {
+    ImmutableStandalonePluginCatalog catalog = build(CatalogInterner.DISABLED);
+
+    for (Plan plan : catalog.getPlans()) {
+      Assert.assertSame(plan, catalog.findPlan(plan.getName()));
+    }
+    for (Product product : catalog.getProducts()) {
+      Assert.assertSame(product, catalog.findProduct(product.getName()));
+    }
+    for (Unit unit : catalog.getUnits()) {
+      Assert.assertSame(unit, catalog.findUnit(unit.getName()));
+    }
+    PriceList defaultPriceList = catalog.getDefaultPriceList();
+    Assert.assertSame(defaultPriceList, catalog.findPriceList(defaultPriceList.getName()));
+    Assert.assertEquals(toList(catalog.getPlans()).size(), catalog.getPlanCount());
+  }
+
+  @Test
+  public void findsChildrenPriceLists() throws Exception {
+    PriceList child = new PriceListImp.Builder<>().withName("Child").withPrettyName("C").build();
+    ImmutableStandalonePluginCatalog catalog =
+        new ImmutableStandalonePluginCatalog.Builder()
+            .source(build(CatalogInterner.DISABLED))
+            .withChildrenPriceList(Collections.singletonList(child))
+            .build();
+
+    Assert.assertSame(child, catalog.findPriceList("Child"));
+    Assert.assertNotNull(catalog.findPriceList(catalog.getDefaultPriceList().getName()));
+  }
+
+  @Test
+  public void returnsNullForMissingNames() throws Exception {
+    ImmutableStandalonePluginCatalog catalog = build(CatalogInterner.DISABLED);
+
+    Assert.assertNull(catalog.findPlan("missing"));
+    Assert.assertNull(catalog.findProduct("missing"));
+    Assert.assertNull(catalog.findUnit("missing"));
+    Assert.assertNull(catalog.findPriceList("missing"));
+    Assert.assertNull(catalog.findPlan(null));
+
+    ImmutableStandalonePluginCatalog empty =
+        new ImmutableStandalonePluginCatalog.Builder().build();
+    Assert.assertNull(empty.findPlan("missing"));
+    Assert.assertNull(empty.findPriceList("Default"));
+    Assert.assertEquals(0, empty.getPlanCount());
+  }
+
+  @Test
+  public void equalityIsBasedOnValues() throws Exception {
+    ImmutableStandalonePluginCatalog plain = build(CatalogInterner.DISABLED);
+    ImmutableStandalonePluginCatalog interned = build(new CatalogInterner(true));
+
+    Assert.assertEquals(plain, interned);
+    Assert.assertEquals(plain.hashCode(), interned.hashCode());
+    Assert.assertEquals(
+        plain, new ImmutableStandalonePluginCatalog.Builder().source(plain).build());
+    Assert.assertNotEquals(plain, null);
+    Assert.assertNotEquals(plain, new ImmutableStandalonePluginCatalog.Builder().build());
+
+    // A single changed plan makes the catalogs different
+    List<Plan> plans = toList(plain.getPlans());
+    plans.set(0, new PlanImp.Builder<>().source(plans.get(0)).withPrettyName("changed").build());
+    ImmutableStandalonePluginCatalog changed =
+        new ImmutableStandalonePluginCatalog.Builder().source(plain).withPlans(plans).build();
+    Assert.assertNotEquals(plain, changed);
+    Assert.assertNotEquals(plans.get(0), plain.findPlan(plans.get(0).getName()));
+    Assert.assertSame(plans.get(0), changed.findPlan(plans.get(0).getName()));
+  }
+
+  @Test
+  public void equalityIgnoresTheChronologyOfTheEffectiveDate() throws Exception {
+    ImmutableStandalonePluginCatalog catalog = build(CatalogInterner.DISABLED);
+    ImmutableStandalonePluginCatalog utc =
+        new ImmutableStandalonePluginCatalog.Builder()
+            .source(catalog)
+            .withEffectiveDate(catalog.getEffectiveDate().toDateTime(DateTimeZone.UTC))
+            .build();
+
+    Assert.assertEquals(catalog, utc);
+    Assert.assertEquals(catalog.hashCode(), utc.hashCode());
+  }
+
+  private static ImmutableStandalonePluginCatalog build(CatalogInterner interner)
+      throws Exception {
+    StandalonePluginCatalog catalog =
+        new StubAmberfloHttpClient(interner, 1, 3)
+            .buildCatalog(SYNTHETIC.getPlans(), SYNTHETIC.getProductItems());
+    return (ImmutableStandalonePluginCatalog) catalog;
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
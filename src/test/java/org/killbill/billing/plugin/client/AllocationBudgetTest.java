@@ -0,0 +1,136 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloUtils;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+/*
+ * Allocation budget of the conversion hot path. The bytes allocated by the calling thread while
+ * AmberfloUtils converts a synthetic catalog are measured with the ThreadMXBean counters, per
+ * converted plan and per usage tier, and compared to the baseline recorded in
+ * allocation-budget.properties. The conversion runs sequentially so that every allocation happens
+ * on the measured thread, and the best of several runs is kept to leave JIT and class loading out.
+ *
+ * After an intended change, run with -Dallocation.print=true and record the printed values.
+ */
+public class AllocationBudgetTest {
+
+  private static final int PLANS = 2000;
+  private static final int RUNS = 15;
+
+  private static Properties baseline;
+
+  @BeforeClass
+  public static void loadBaseline() throws Exception {
+    baseline = new Properties();
+    try (InputStream in =
+        AllocationBudgetTest.class.getResourceAsStream("/allocation-budget.properties")) {
+      baseline.load(in);
+    }
+  }
+
+  @Test
+  public void conversionStaysWithinAllocationBudget() throws Exception {
+    com.sun.management.ThreadMXBean threads = threadMXBean();
+    Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemoryEnabled());
+
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder()
+            .withSeed(7)
+            .withPlans(PLANS)
+            .withProductItems(PLANS / 10)
+            .build();
+
+    Measurement single = measure(threads, catalog, 1);
+    Measurement tiered = measure(threads, catalog, 20);
+
+    double bytesPerPlan = single.bytes / (double) single.plans;
+    double bytesPerTier = (tiered.bytes - single.bytes) / (double) (tiered.tiers - single.tiers);
+
+    if (Boolean.getBoolean("allocation.print")) {
+      System.out.printf(
+          "bytesPerPlan=%.0f%nbytesPerTier=%.0f%n", Math.ceil(bytesPerPlan), bytesPerTier);
+    }
+
+    assertWithinBudget("bytesPerPlan", bytesPerPlan);
+    assertWithinBudget("bytesPerTier", bytesPerTier);
+  }
+
+  private static Measurement measure(
+      com.sun.management.ThreadMXBean threads, SyntheticAmberfloCatalog catalog, int maxTiers)
+      throws Exception {
+    long threadId = Thread.currentThread().getId();
+    Measurement best = null;
+    for (int i = 0; i < RUNS; i++) {
+      // A fresh client and interner per run, so every run converts from the same state
+      CatalogInterner interner = new CatalogInterner(true);
+      StubAmberfloHttpClient client = new StubAmberfloHttpClient(interner, 1, maxTiers);
+      AmberfloUtils utils = new AmberfloUtils(client, interner, 1, false);
+
+      long before = threads.getThreadAllocatedBytes(threadId);
+      List<Plan> plans =
+          utils.convertToKillBillPlanModel(catalog.getPlans(), catalog.getProductItems());
+      long bytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+      if (best == null || bytes < best.bytes) {
+        best = new Measurement(bytes, plans.size(), client.getTrace().getTiers());
+      }
+    }
+    return best;
+  }
+
+  private static void assertWithinBudget(String name, double measured) {
+    double recorded = Double.parseDouble(baseline.getProperty(name));
+    double margin =
+        Double.parseDouble(System.getProperty("allocation.margin", baseline.getProperty("margin")));
+    double budget = recorded * (1 + margin);
+    Assert.assertTrue(
+        String.format(
+            "%s is %.0f bytes, over the budget of %.0f (baseline %.0f + %.0f%%)",
+            name, measured, budget, recorded, margin * 100),
+        measured <= budget);
+  }
+
+  private static com.sun.management.ThreadMXBean threadMXBean() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+    return null;
+  }
+
+  private static class Measurement {
+
+    private final long bytes;
+    private final int plans;
+    private final long tiers;
+
+    Measurement(long bytes, int plans, long tiers) {
+      this.bytes = bytes;
+      this.plans = plans;
+      this.tiers = tiers;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloClientRegistry;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+
+public class AmberfloClientRegistryTest {
+
+  private final AtomicInteger created = new AtomicInteger();
+  private final AmberfloClientRegistry registry =
+      new AmberfloClientRegistry(
+          (tenantId, config) -> {
+            created.incrementAndGet();
+            return new AmberfloHttpClientImpl(config);
+          });
+
+  @Test
+  public void reusesTheClientOfATenant() {
+    UUID tenantId = UUID.randomUUID();
+    CatalogConfigurationProperties config = new CatalogConfigurationProperties(properties(), "");
+
+    AmberfloHttpClientImpl client = registry.get(tenantId, config);
+
+    Assert.assertSame(client, registry.get(tenantId, config));
+    Assert.assertNotSame(client, registry.get(UUID.randomUUID(), config));
+    Assert.assertEquals(2, created.get());
+  }
+
+  @Test
+  public void replacesTheClientOnANewConfiguration() {
+    UUID tenantId = UUID.randomUUID();
+    AmberfloHttpClientImpl client =
+        registry.get(tenantId, new CatalogConfigurationProperties(properties(), ""));
+
+    CatalogConfigurationProperties changed = new CatalogConfigurationProperties(properties(), "");
+
+    AmberfloHttpClientImpl replaced = registry.get(tenantId, changed);
+    Assert.assertNotSame(client, replaced);
+    Assert.assertSame(replaced, registry.get(tenantId, changed));
+    Assert.assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void createsAClientAfterAnInvalidation() {
+    UUID tenantId = UUID.randomUUID();
+    CatalogConfigurationProperties config = new CatalogConfigurationProperties(properties(), "");
+    AmberfloHttpClientImpl client = registry.get(tenantId, config);
+
+    registry.invalidate(tenantId);
+
+    Assert.assertEquals(0, registry.size());
+    Assert.assertNotSame(client, registry.get(tenantId, config));
+    Assert.assertEquals(2, created.get());
+  }
+
+  private static Properties properties() {
+    Properties properties = new Properties();
+    properties.setProperty("org.killbill.billing.plugin.amberflo.catalog.apiKey", "key");
+    return properties;
+  }
+}
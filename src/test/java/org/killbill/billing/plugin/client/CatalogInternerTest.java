@@ -0,0 +1,170 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.BillingPeriod;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.Fee;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.openjdk.jol.info.GraphLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CatalogInternerTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(CatalogInternerTest.class);
+
+  private static final int PLAN_COUNT = 200;
+  private static final int TENANT_COUNT = 3;
+
+  @Test
+  public void internedObjectsAreShared() {
+    CatalogInterner interner = new CatalogInterner(true);
+
+    Assert.assertSame(interner.product("id", "Pistol"), interner.product("id", "Pistol"));
+    Assert.assertSame(interner.unit("api", "Api Calls"), interner.unit("api", "Api Calls"));
+    Assert.assertSame(interner.usdPrice(29.95), interner.usdPrice(29.95));
+    Assert.assertSame(interner.defaultPriceList(), interner.defaultPriceList());
+    Assert.assertNotSame(interner.usdPrice(29.95), interner.usdPrice(19.95));
+
+    Assert.assertNotSame(
+        CatalogInterner.DISABLED.product("id", "Pistol"),
+        CatalogInterner.DISABLED.product("id", "Pistol"));
+    Assert.assertEquals(
+        CatalogInterner.DISABLED.product("id", "Pistol"), interner.product("id", "Pistol"));
+  }
+
+  @Test
+  public void internedCatalogsAreEqualToPlainCatalogs() throws Exception {
+    Assert.assertEquals(
+        buildCatalog(CatalogInterner.DISABLED).getPlans(),
+        buildCatalog(new CatalogInterner(true)).getPlans());
+  }
+
+  @Test
+  public void unreferencedObjectsAreDropped() throws Exception {
+    CatalogInterner interner = new CatalogInterner(true);
+    Object kept = interner.usdPrice(0.5);
+    for (int i = 1; i <= 1000; i++) {
+      interner.usdPrice(i);
+    }
+    Assert.assertEquals(1001, interner.size());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (interner.size() > 1 && System.currentTimeMillis() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(1, interner.size());
+    Assert.assertSame(kept, interner.usdPrice(0.5));
+  }
+
+  @Test
+  public void closingThePluginDropsTheInternedObjects() throws Exception {
+    SyntheticAmberfloServer server =
+        new SyntheticAmberfloServer(
+                new SyntheticAmberfloCatalog.Builder().withSeed(1).withPlans(10).build())
+            .start();
+    CatalogPluginApiImpl api =
+        new CatalogPluginApiImpl(
+            new StaticCatalogConfigurationHandler(server.getConfigurationProperties("interner")));
+    try {
+      api.getVersionedPluginCatalog(null, new PluginTenantContext(null, UUID.randomUUID()));
+      Assert.assertTrue(api.getInternedObjects() > 0);
+
+      api.close();
+      Assert.assertEquals(0, api.getInternedObjects());
+    } finally {
+      api.close();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void heapPerCachedTenant() throws Exception {
+    long plain = heapPerTenant(CatalogInterner.DISABLED);
+    long interned = heapPerTenant(new CatalogInterner(true));
+
+    logger.info(
+        "Heap per cached tenant ({} plans): {} bytes without interning, {} bytes with interning",
+        PLAN_COUNT,
+        plain,
+        interned);
+
+    Assert.assertTrue(interned < plain);
+  }
+
+  private long heapPerTenant(CatalogInterner interner) throws Exception {
+    Object[] catalogs = new Object[TENANT_COUNT];
+    for (int i = 0; i < TENANT_COUNT; i++) {
+      catalogs[i] = buildCatalog(interner);
+    }
+    return GraphLayout.parseInstance(catalogs).totalSize() / TENANT_COUNT;
+  }
+
+  private StandalonePluginCatalog buildCatalog(CatalogInterner interner) throws Exception {
+    List<ProductPlans> plans = new ArrayList<>();
+    List<ProductItem> productItems = new ArrayList<>();
+
+    for (int i = 0; i < PLAN_COUNT; i++) {
+      ProductItem item = new ProductItem();
+      item.setId("item-" + i);
+      item.setMeterApiName("meter-" + (i % 10));
+      item.setProductItemName("Item " + (i % 10));
+      productItems.add(item);
+
+      Fee fee = new Fee();
+      fee.setId("fee-" + (i % 20));
+      fee.setName("Fee " + (i % 20));
+      fee.setCost(10 + (i % 5));
+      fee.setIsOneTimeFee(Boolean.toString(i % 7 == 0));
+
+      Map<String, Fee> feeMap = new HashMap<>();
+      feeMap.put(fee.getId(), fee);
+
+      Map<String, String> priceIds = new HashMap<>();
+      priceIds.put(item.getId(), "price-" + i);
+
+      BillingPeriod billingPeriod = new BillingPeriod();
+      billingPeriod.setInterval(i % 2 == 0 ? "month" : "year");
+      billingPeriod.setIntervalsCount(1);
+
+      ProductPlans plan = new ProductPlans();
+      plan.setId("plan-" + i);
+      plan.setBillingPeriod(billingPeriod);
+      plan.setFeeMap(feeMap);
+      plan.setProductItemPriceIdsMap(priceIds);
+      plan.setLockingStatus("close_to_changes");
+      plan.setLastUpdateTimeInMillis("1679937405691");
+      plans.add(plan);
+    }
+
+    return new StubAmberfloHttpClient(interner, 1, 3).buildCatalog(plans, productItems);
+  }
+}
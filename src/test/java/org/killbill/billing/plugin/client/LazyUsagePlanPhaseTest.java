@@ -0,0 +1,131 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.BillingMode;
+import org.killbill.billing.catalog.api.PhaseType;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Tier;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.api.UsageType;
+import org.killbill.billing.catalog.api.boilerplate.PlanPhaseImp;
+import org.killbill.billing.catalog.api.boilerplate.TierImp;
+import org.killbill.billing.catalog.api.boilerplate.UsageImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+
+public class LazyUsagePlanPhaseTest {
+
+  private static final PlanPhase DELEGATE =
+      new PlanPhaseImp.Builder<>().withPhaseType(PhaseType.EVERGREEN).build();
+
+  @Test
+  public void fetchesTheUsagesOnceWhenFirstRead() {
+    AtomicInteger loads = new AtomicInteger();
+    LazyUsagePlanPhase phase =
+        new LazyUsagePlanPhase(
+            DELEGATE,
+            "price-1",
+            () -> {
+              loads.incrementAndGet();
+              return usages(2);
+            });
+
+    Assert.assertEquals(PhaseType.EVERGREEN, phase.getPhaseType());
+    Assert.assertFalse(phase.isMaterialized());
+    Assert.assertEquals(0, loads.get());
+
+    Usage[] usages = phase.getUsages();
+    Assert.assertTrue(phase.isMaterialized());
+    Assert.assertSame(usages, phase.getUsages());
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void retriesAFailedFetch() {
+    AtomicInteger loads = new AtomicInteger();
+    LazyUsagePlanPhase phase =
+        new LazyUsagePlanPhase(
+            DELEGATE,
+            "price-1",
+            () -> {
+              if (loads.incrementAndGet() == 1) {
+                throw new IOException("Connection reset");
+              }
+              return usages(1);
+            });
+
+    try {
+      phase.getUsages();
+      Assert.fail("The failed fetch was not thrown");
+    } catch (UncheckedIOException e) {
+      Assert.assertTrue(e.getMessage().contains("price-1"));
+      Assert.assertEquals("Connection reset", e.getCause().getMessage());
+    }
+    Assert.assertFalse(phase.isMaterialized());
+
+    Assert.assertEquals(1, phase.getUsages()[0].getTiers().length);
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void equalityComparesTheFetchedUsages() {
+    LazyUsagePlanPhase phase = new LazyUsagePlanPhase(DELEGATE, "price-1", () -> usages(2));
+    LazyUsagePlanPhase same = new LazyUsagePlanPhase(DELEGATE, "price-1", () -> usages(2));
+    LazyUsagePlanPhase retiered = new LazyUsagePlanPhase(DELEGATE, "price-1", () -> usages(3));
+    LazyUsagePlanPhase other = new LazyUsagePlanPhase(DELEGATE, "price-2", () -> usages(2));
+
+    Assert.assertEquals(phase, same);
+    Assert.assertEquals(phase.hashCode(), same.hashCode());
+    Assert.assertNotEquals(phase, retiered);
+    Assert.assertNotEquals(phase, other);
+    Assert.assertTrue(phase.isMaterialized());
+    Assert.assertTrue(retiered.isMaterialized());
+  }
+
+  @Test
+  public void hashingDoesNotFetchTheUsages() {
+    LazyUsagePlanPhase phase =
+        new LazyUsagePlanPhase(
+            DELEGATE,
+            "price-1",
+            () -> {
+              throw new IOException("Not reachable");
+            });
+
+    Assert.assertEquals(
+        phase.hashCode(), new LazyUsagePlanPhase(DELEGATE, "price-1", () -> usages(1)).hashCode());
+    Assert.assertFalse(phase.isMaterialized());
+  }
+
+  private static Usage[] usages(int tiers) {
+    Tier[] usageTiers = new Tier[tiers];
+    for (int i = 0; i < tiers; i++) {
+      usageTiers[i] = new TierImp.Builder<>().build();
+    }
+    return new Usage[] {
+      new UsageImp.Builder<>()
+          .withName("Usage")
+          .withBillingMode(BillingMode.IN_ARREAR)
+          .withUsageType(UsageType.CONSUMABLE)
+          .withTiers(usageTiers)
+          .build()
+    };
+  }
+}
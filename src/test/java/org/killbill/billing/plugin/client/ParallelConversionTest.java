@@ -0,0 +1,148 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.BillingPeriod;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.Fee;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
+
+/*
+ * Property test: for generated catalogs of varying shape, the parallel conversion must produce
+ * exactly the same plans, products and units, in the same order, as the sequential one.
+ */
+public class ParallelConversionTest {
+
+  private static final int RUNS = 100;
+  private static final String[] INTERVALS = {"day", "week", "month", "year"};
+
+  @Test
+  public void parallelConversionMatchesSequentialConversion() throws Exception {
+    checkConversions(null);
+  }
+
+  @Test
+  public void sharedPoolConversionMatchesSequentialConversion() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      checkConversions(pool);
+      // The conversions ran on the shared pool, which is left running for the next builds
+      Assert.assertFalse(pool.isShutdown());
+      Assert.assertTrue(pool.getPoolSize() <= 3);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void checkConversions(ForkJoinPool pool) throws Exception {
+    for (int seed = 0; seed < RUNS; seed++) {
+      Random random = new Random(seed);
+      List<ProductItem> productItems = generateProductItems(random);
+      List<ProductPlans> plans = generatePlans(random, productItems);
+      int parallelism = 2 + random.nextInt(7);
+
+      StandalonePluginCatalog sequential =
+          new StubAmberfloHttpClient(CatalogInterner.DISABLED, 1, 5)
+              .buildCatalog(plans, productItems);
+      StubAmberfloHttpClient client =
+          new StubAmberfloHttpClient(CatalogInterner.DISABLED, parallelism, 5);
+      if (pool != null) {
+        client.withConversionPool(pool);
+      }
+      StandalonePluginCatalog parallel = client.buildCatalog(plans, productItems);
+
+      String message = "seed " + seed + ", parallelism " + parallelism;
+      Assert.assertEquals(message, toList(sequential.getPlans()), toList(parallel.getPlans()));
+      Assert.assertEquals(
+          message,
+          toList(sequential.getPlans()).toString(),
+          toList(parallel.getPlans()).toString());
+      Assert.assertEquals(
+          message, toList(sequential.getProducts()), toList(parallel.getProducts()));
+      Assert.assertEquals(message, toList(sequential.getUnits()), toList(parallel.getUnits()));
+      Assert.assertEquals(message, sequential, parallel);
+    }
+  }
+
+  private List<ProductItem> generateProductItems(Random random) {
+    List<ProductItem> productItems = new ArrayList<>();
+    int count = random.nextInt(30);
+    for (int i = 0; i < count; i++) {
+      ProductItem item = new ProductItem();
+      // A few repeated ids exercise items that map to several plans
+      item.setId("item-" + random.nextInt(Math.max(1, count - 2)));
+      item.setMeterApiName("meter-" + random.nextInt(5));
+      item.setProductItemName("Item " + i);
+      productItems.add(item);
+    }
+    return productItems;
+  }
+
+  private List<ProductPlans> generatePlans(Random random, List<ProductItem> productItems) {
+    List<ProductPlans> plans = new ArrayList<>();
+    // At least one plan: without plans the effective date of a catalog is the time it is built,
+    // so two conversions of the same empty catalog would not be equal
+    int count = 1 + random.nextInt(40);
+    for (int i = 0; i < count; i++) {
+      Map<String, Fee> feeMap = new LinkedHashMap<>();
+      int fees = random.nextInt(5);
+      for (int j = 0; j < fees; j++) {
+        Fee fee = new Fee();
+        fee.setId("fee-" + i + "-" + j);
+        fee.setName("Fee " + random.nextInt(10));
+        fee.setCost(random.nextInt(10000) / 100.0);
+        fee.setIsOneTimeFee(Boolean.toString(random.nextInt(4) == 0));
+        feeMap.put(fee.getId(), fee);
+      }
+
+      Map<String, String> priceIds = new LinkedHashMap<>();
+      int prices = productItems.isEmpty() ? 0 : random.nextInt(5);
+      for (int j = 0; j < prices; j++) {
+        ProductItem item = productItems.get(random.nextInt(productItems.size()));
+        priceIds.put(item.getId(), "price-" + i + "-" + j);
+      }
+
+      BillingPeriod billingPeriod = new BillingPeriod();
+      billingPeriod.setInterval(INTERVALS[random.nextInt(INTERVALS.length)]);
+      billingPeriod.setIntervalsCount(1);
+
+      ProductPlans plan = new ProductPlans();
+      plan.setId("plan-" + i);
+      plan.setBillingPeriod(billingPeriod);
+      plan.setFeeMap(random.nextInt(6) == 0 ? null : feeMap);
+      plan.setProductItemPriceIdsMap(priceIds);
+      plan.setLockingStatus("close_to_changes");
+      plan.setLastUpdateTimeInMillis(Long.toString(1679937405691L + i));
+      plans.add(plan);
+    }
+    return plans;
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
@@ -0,0 +1,77 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.client;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsagePrice;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageResponse;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageTier;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+
+// Serves deterministic tiered prices for every price id instead of calling amberflo
+public class StubAmberfloHttpClient extends AmberfloHttpClientImpl {
+
+  private final int maxTiers;
+  private final AtomicInteger pricingRequests = new AtomicInteger();
+
+  public StubAmberfloHttpClient(CatalogInterner interner, int parallelism, int maxTiers) {
+    this(interner, parallelism, maxTiers, false);
+  }
+
+  public StubAmberfloHttpClient(
+      CatalogInterner interner, int parallelism, int maxTiers, boolean lazyUsages) {
+    super(buildConfig(parallelism, lazyUsages), interner);
+    this.maxTiers = maxTiers;
+  }
+
+  // Number of prices requested, lazily loaded usages included
+  public int getPricingRequests() {
+    return pricingRequests.get();
+  }
+
+  @Override
+  public UsageResponse requestListAllPaymentPricing(String id) {
+    pricingRequests.incrementAndGet();
+    int seed = id.hashCode() & 0x7fffffff;
+    UsageTier[] tiers = new UsageTier[1 + (seed % maxTiers)];
+    for (int i = 0; i < tiers.length; i++) {
+      tiers[i] = new UsageTier();
+      tiers[i].setStartAfterUnit(i * 1000);
+      tiers[i].setBatchSize(1 + (seed % 3));
+      tiers[i].setPricePerBatch(0.5 / (i + 1));
+    }
+
+    UsagePrice price = new UsagePrice();
+    price.setTiers(tiers);
+
+    UsageResponse response = new UsageResponse();
+    response.setId(id);
+    response.setPrice(price);
+    return response;
+  }
+
+  private static CatalogConfigurationProperties buildConfig(int parallelism, boolean lazyUsages) {
+    Properties properties = new Properties();
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.conversionParallelism",
+        Integer.toString(parallelism));
+    properties.setProperty(
+        "org.killbill.billing.plugin.amberflo.catalog.lazyUsages", Boolean.toString(lazyUsages));
+    return new CatalogConfigurationProperties(properties, "");
+  }
+}
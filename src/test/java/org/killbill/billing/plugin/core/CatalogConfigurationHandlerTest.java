@@ -0,0 +1,135 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogActivator;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationHandler;
+import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
+
+// Configuration uploads go through PluginConfigurationEventHandler, keyed as in the tenant KV store
+public class CatalogConfigurationHandlerTest {
+
+  private static final String DEADLINE_PROPERTY =
+      "org.killbill.billing.plugin.amberflo.catalog.catalogDeadlineMillis";
+  private static final String PLUGIN_CONFIG_KEY = "PLUGIN_CONFIG_" + CatalogActivator.PLUGIN_NAME;
+
+  @Test
+  public void uploadOfThePluginConfigurationNotifiesTheListeners() {
+    TenantConfigurationHandler handler = new TenantConfigurationHandler();
+    List<UUID> changed = new ArrayList<>();
+    handler.addConfigurationListener(changed::add);
+    PluginConfigurationEventHandler events = new PluginConfigurationEventHandler(handler);
+    UUID tenantId = UUID.randomUUID();
+
+    // The first read loads the configuration, which is not a change
+    handler.upload(tenantId, DEADLINE_PROPERTY + "=100");
+    Assert.assertEquals(100, handler.getConfigurable(tenantId).getCatalogDeadlineMillis());
+    Assert.assertTrue(changed.isEmpty());
+
+    handler.upload(tenantId, DEADLINE_PROPERTY + "=200");
+    events.handleKillbillEvent(event(PLUGIN_CONFIG_KEY, tenantId));
+    Assert.assertEquals(200, handler.getConfigurable(tenantId).getCatalogDeadlineMillis());
+    Assert.assertEquals(Collections.singletonList(tenantId), changed);
+  }
+
+  @Test
+  public void uploadsOfOtherKeysAreIgnored() {
+    TenantConfigurationHandler handler = new TenantConfigurationHandler();
+    List<UUID> changed = new ArrayList<>();
+    handler.addConfigurationListener(changed::add);
+    PluginConfigurationEventHandler events = new PluginConfigurationEventHandler(handler);
+    UUID tenantId = UUID.randomUUID();
+
+    handler.upload(tenantId, DEADLINE_PROPERTY + "=100");
+    handler.getConfigurable(tenantId);
+    handler.upload(tenantId, DEADLINE_PROPERTY + "=200");
+    events.handleKillbillEvent(event(CatalogActivator.PLUGIN_NAME, tenantId));
+    events.handleKillbillEvent(event("PLUGIN_CONFIG_killbill-stripe", tenantId));
+    events.handleKillbillEvent(event("PER_TENANT_CONFIG", tenantId));
+
+    Assert.assertEquals(100, handler.getConfigurable(tenantId).getCatalogDeadlineMillis());
+    Assert.assertTrue(changed.isEmpty());
+  }
+
+  // The event Kill Bill posts once a value of the tenant KV store was uploaded under the key
+  private static ExtBusEvent event(final String metaData, final UUID tenantId) {
+    return new ExtBusEvent() {
+      @Override
+      public ExtBusEventType getEventType() {
+        return ExtBusEventType.TENANT_CONFIG_CHANGE;
+      }
+
+      @Override
+      public ObjectType getObjectType() {
+        return ObjectType.TENANT_KVS;
+      }
+
+      @Override
+      public UUID getObjectId() {
+        return null;
+      }
+
+      @Override
+      public String getMetaData() {
+        return metaData;
+      }
+
+      @Override
+      public UUID getAccountId() {
+        return null;
+      }
+
+      @Override
+      public UUID getTenantId() {
+        return tenantId;
+      }
+
+      @Override
+      public UUID getUserToken() {
+        return null;
+      }
+    };
+  }
+
+  // Reads the tenant configurations from memory instead of the tenant KV store of Kill Bill
+  private static class TenantConfigurationHandler extends CatalogConfigurationHandler {
+
+    private final Map<UUID, String> uploaded = new ConcurrentHashMap<>();
+
+    TenantConfigurationHandler() {
+      super(null, CatalogActivator.PLUGIN_NAME, null);
+    }
+
+    void upload(UUID tenantId, String configuration) {
+      uploaded.put(tenantId, configuration);
+    }
+
+    @Override
+    protected String getTenantConfigurationAsString(UUID tenantId) {
+      return uploaded.get(tenantId);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import org.jooby.Result;
+import org.jooby.Status;
+import org.jooby.mvc.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogDiagnosticsService;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogDiagnosticsServlet;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.tenant.api.Tenant;
+import org.killbill.billing.tenant.api.boilerplate.TenantImp;
+
+public class CatalogDiagnosticsTest {
+
+  private static final String PREFIX = "org.killbill.billing.plugin.amberflo.catalog.";
+
+  private SyntheticAmberfloCatalog catalog;
+  private SyntheticAmberfloServer server;
+  private Properties properties;
+  private CatalogPluginApiImpl api;
+  private CatalogDiagnosticsServlet servlet;
+
+  @Before
+  public void setUp() throws Exception {
+    catalog = new SyntheticAmberfloCatalog.Builder().withSeed(9).withPlans(6).build();
+    server = new SyntheticAmberfloServer(catalog).start();
+    properties = server.getConfigurationProperties("diagnostics");
+    start();
+  }
+
+  @After
+  public void tearDown() {
+    api.close();
+    server.stop();
+  }
+
+  @Test
+  public void servesTheTracesOfTheTenantOfTheRequest() {
+    UUID tenantId = UUID.randomUUID();
+    UUID otherId = UUID.randomUUID();
+    build(tenantId);
+    build(tenantId);
+    build(otherId);
+
+    List<Map<String, Object>> traces = servlet.getDiagnostics(tenant(tenantId)).get();
+
+    Assert.assertEquals(2, traces.size());
+    for (Map<String, Object> trace : traces) {
+      Assert.assertEquals(tenantId.toString(), trace.get("tenantId"));
+      Assert.assertEquals(true, trace.get("successful"));
+      Assert.assertEquals(catalog.getExpectedKillBillPlans(), trace.get("plans"));
+      Assert.assertTrue((Integer) trace.get("httpCalls") > 0);
+      Assert.assertNotNull(trace.get("durationMillis"));
+    }
+    Assert.assertTrue(servlet.getDiagnostics(tenant(UUID.randomUUID())).<List<?>>get().isEmpty());
+  }
+
+  @Test
+  public void rejectsRequestsWithoutTenant() {
+    build(UUID.randomUUID());
+
+    // The traces hold the tenant ids and errors of the builds, so they are never listed together
+    Result result = servlet.getDiagnostics(Optional.empty());
+
+    Assert.assertEquals(Status.BAD_REQUEST, result.status().get());
+    Assert.assertEquals("The diagnostics require a tenant", result.get());
+    Assert.assertEquals(
+        "/diagnostics", CatalogDiagnosticsServlet.class.getAnnotation(Path.class).value()[0]);
+  }
+
+  @Test
+  public void lazyUsagesGoToTheNewestTraceOfTheTenant() throws Exception {
+    properties.setProperty(PREFIX + "lazyUsages", "true");
+    api.close();
+    start();
+    UUID tenantId = UUID.randomUUID();
+
+    StandalonePluginCatalog first = build(tenantId);
+    build(tenantId);
+    List<CatalogBuildTrace> traces = api.getTraces(tenantId);
+    Assert.assertEquals(0, traces.get(0).getUsages() + traces.get(1).getUsages());
+
+    int usages = 0;
+    for (Plan plan : first.getPlans()) {
+      if (plan.getFinalPhase() instanceof LazyUsagePlanPhase) {
+        usages += plan.getFinalPhase().getUsages().length;
+      }
+    }
+    Assert.assertTrue(usages > 0);
+    Assert.assertEquals(0, traces.get(0).getUsages());
+    Assert.assertEquals(usages, traces.get(1).getUsages());
+  }
+
+  private void start() {
+    api = new CatalogPluginApiImpl(new StaticCatalogConfigurationHandler(properties));
+    servlet = new CatalogDiagnosticsServlet(new CatalogDiagnosticsService(api));
+  }
+
+  // Builds a new catalog version of the tenant and returns it
+  private StandalonePluginCatalog build(UUID tenantId) {
+    api.getAtomic().set(api.getAtomic().get().plusSeconds(1));
+    return api.getVersionedPluginCatalog(null, new PluginTenantContext(null, tenantId))
+        .getStandalonePluginCatalogs()
+        .iterator()
+        .next();
+  }
+
+  private static Optional<Tenant> tenant(UUID tenantId) {
+    return Optional.of(new TenantImp.Builder<>().withId(tenantId).build());
+  }
+}
@@ -0,0 +1,151 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.core;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.jooby.MediaType;
+import org.jooby.Result;
+import org.jooby.mvc.GET;
+import org.jooby.mvc.Path;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.plugin.InMemoryMetricRegistry;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.CatalogMetricsServlet;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.MetricRegistry;
+
+public class CatalogMetricsTest {
+
+  private final MetricRegistry registry = new InMemoryMetricRegistry();
+  private final CatalogMetrics metrics = new CatalogMetrics(registry);
+
+  @Test
+  public void recordsRequestsByEndpointAndStatus() {
+    metrics.recordRequest(CatalogMetrics.ENDPOINT_PLANS, 200, 1000, millis(10));
+    metrics.recordRequest(CatalogMetrics.ENDPOINT_PLANS, 503, 50, millis(30));
+    metrics.recordRequestError(CatalogMetrics.ENDPOINT_PLANS, millis(5));
+
+    Assert.assertEquals(3, registry.timer("amberflo.http.plans").getCount());
+    Assert.assertEquals(1, registry.timer("amberflo.http.plans.status.200").getCount());
+    Assert.assertEquals(1, registry.timer("amberflo.http.plans.status.503").getCount());
+    Assert.assertEquals(1, registry.counter("amberflo.http.plans.errors").getCount());
+
+    Assert.assertEquals(2, registry.histogram("amberflo.http.plans.responseBytes").getCount());
+    Assert.assertEquals(
+        1000,
+        registry.histogram("amberflo.http.plans.responseBytes").getSnapshot().getMax());
+  }
+
+  @Test
+  public void recordsBuildStages() {
+    metrics.recordStage(CatalogMetrics.STAGE_FETCH_PLANS, millis(20));
+    metrics.recordStage(CatalogMetrics.STAGE_FETCH_PLANS, millis(40));
+
+    Assert.assertEquals(2, registry.timer("amberflo.build.fetchPlans").getCount());
+    Assert.assertEquals(
+        millis(40), registry.timer("amberflo.build.fetchPlans").getSnapshot().getMax());
+  }
+
+  @Test
+  public void p99IsTheSlowestEndpoint() {
+    Assert.assertEquals(0, metrics.getRequestLatencyP99Millis(), 0);
+
+    for (int i = 1; i <= 100; i++) {
+      metrics.recordRequest(CatalogMetrics.ENDPOINT_PLANS, 200, 10, millis(i));
+      metrics.recordRequest(CatalogMetrics.ENDPOINT_PRICES, 200, 10, millis(2 * i));
+    }
+    // Failed requests are timed as well
+    metrics.recordRequestError(CatalogMetrics.ENDPOINT_PRODUCTS, millis(50));
+
+    Assert.assertEquals(198, metrics.getRequestLatencyP99Millis(), 0);
+  }
+
+  @Test
+  public void mapsMetricsInMilliseconds() {
+    metrics.recordRequest(CatalogMetrics.ENDPOINT_PRODUCTS, 200, 300, millis(12));
+    metrics.cacheMiss();
+    metrics.gauge("catalog.tenants", (Gauge<Integer>) () -> 3);
+    registry.counter("other.counter").inc(1);
+
+    Map<String, Object> map = metrics.toMap();
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> timer = (Map<String, Object>) map.get("amberflo.http.products");
+    Assert.assertEquals(1L, timer.get("count"));
+    Assert.assertEquals(12.0, timer.get("p99"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> sizes =
+        (Map<String, Object>) map.get("amberflo.http.products.responseBytes");
+    Assert.assertEquals(300.0, sizes.get("max"));
+    Assert.assertEquals(1L, map.get("amberflo.cache.misses"));
+    Assert.assertEquals(0L, map.get("amberflo.cache.hits"));
+    Assert.assertEquals(3, map.get("amberflo.catalog.tenants"));
+    // Metrics of the other plugins sharing the registry are left out
+    Assert.assertFalse(map.containsKey("other.counter"));
+  }
+
+  @Test
+  public void catalogRequestsCountCacheHitsAndMisses() throws Exception {
+    SyntheticAmberfloServer server =
+        new SyntheticAmberfloServer(
+                new SyntheticAmberfloCatalog.Builder().withSeed(3).withPlans(5).build())
+            .start();
+    CatalogPluginApiImpl api =
+        new CatalogPluginApiImpl(
+            new StaticCatalogConfigurationHandler(server.getConfigurationProperties("metrics")),
+            metrics);
+    try {
+      PluginTenantContext tenant = new PluginTenantContext(null, UUID.randomUUID());
+      Assert.assertNotNull(api.getVersionedPluginCatalog(null, tenant));
+      Assert.assertNotNull(api.getVersionedPluginCatalog(null, tenant));
+
+      Assert.assertEquals(1, registry.counter("amberflo.cache.misses").getCount());
+      Assert.assertEquals(1, registry.counter("amberflo.cache.hits").getCount());
+      Assert.assertEquals(1, registry.timer("amberflo.http.plans.status.200").getCount());
+      Assert.assertEquals(1, registry.timer("amberflo.build.total").getCount());
+      Assert.assertEquals(1, registry.getGauges().get("amberflo.cache.size").getValue());
+    } finally {
+      api.close();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void metricsRouteServesTheMetricsAsJson() throws Exception {
+    metrics.cacheHit();
+    CatalogMetricsServlet servlet = new CatalogMetricsServlet(metrics);
+
+    Assert.assertEquals(
+        "/metrics", CatalogMetricsServlet.class.getAnnotation(Path.class).value()[0]);
+    Assert.assertNotNull(
+        CatalogMetricsServlet.class.getMethod("getMetrics").getAnnotation(GET.class));
+
+    Result result = servlet.getMetrics();
+    Assert.assertEquals(MediaType.json, result.type().get());
+    Assert.assertEquals(metrics.toMap(), result.get());
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
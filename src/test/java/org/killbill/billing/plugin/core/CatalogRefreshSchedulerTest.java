@@ -0,0 +1,284 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogRefreshScheduler;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogRefreshScheduler.RefreshTarget;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+public class CatalogRefreshSchedulerTest {
+
+  private static final long INTERVAL_MILLIS = 60000;
+
+  private final AtomicLong clock = new AtomicLong(1700000000000L);
+  private final FakeTarget target = new FakeTarget();
+
+  @Test
+  public void spreadsTenantsEvenlyOverTheInterval() {
+    CatalogRefreshScheduler scheduler = newScheduler(4);
+    CatalogRefreshScheduler otherNode = newScheduler(4);
+
+    int[] buckets = new int[10];
+    for (long i = 0; i < 10000; i++) {
+      UUID tenantId = new UUID(0, i);
+      long offset = scheduler.getOffsetMillis(tenantId);
+      Assert.assertEquals(offset, otherNode.getOffsetMillis(tenantId));
+      buckets[(int) (offset * buckets.length / INTERVAL_MILLIS)]++;
+    }
+    for (int bucket : buckets) {
+      Assert.assertTrue("Bucket of " + bucket + " tenants", bucket > 800 && bucket < 1200);
+    }
+  }
+
+  @Test
+  public void capsTheRefreshesRunningAtOnce() {
+    CatalogRefreshScheduler scheduler = newScheduler(3);
+    List<UUID> tenants = target.addTenants(20);
+    scheduler.tick();
+    clock.addAndGet(INTERVAL_MILLIS);
+
+    Set<UUID> refreshed = new LinkedHashSet<>();
+    while (refreshed.size() < tenants.size()) {
+      scheduler.tick();
+      Assert.assertTrue(target.pending.size() <= 3);
+      Assert.assertEquals(target.pending.size(), scheduler.getRunning());
+      refreshed.addAll(target.pending.keySet());
+      target.completeAll();
+    }
+
+    // Every tenant waits for its next slot
+    scheduler.tick();
+    Assert.assertEquals(0, scheduler.getRunning());
+    Assert.assertEquals(tenants.size(), target.started.size());
+  }
+
+  @Test
+  public void slowTenantDoesNotStarveTheOthers() {
+    CatalogRefreshScheduler scheduler = newScheduler(2);
+    List<UUID> tenants = target.addTenants(10);
+    UUID slow = tenants.get(0);
+    scheduler.tick();
+
+    for (int period = 0; period < 3; period++) {
+      for (int step = 0; step < 60; step++) {
+        clock.addAndGet(INTERVAL_MILLIS / 60);
+        scheduler.tick();
+        target.pending.keySet().removeIf(id -> !id.equals(slow) && target.complete(id));
+      }
+    }
+
+    for (UUID tenantId : tenants.subList(1, tenants.size())) {
+      long count = target.started.stream().filter(tenantId::equals).count();
+      Assert.assertTrue(tenantId + " refreshed " + count + " times", count >= 2);
+    }
+    Assert.assertEquals(1, target.started.stream().filter(slow::equals).count());
+  }
+
+  @Test
+  public void startsFailedAndReadTenantsFirst() {
+    CatalogRefreshScheduler scheduler = newScheduler(1);
+    List<UUID> tenants = target.addTenants(3);
+    scheduler.tick();
+    clock.addAndGet(INTERVAL_MILLIS);
+
+    UUID read = tenants.get(2);
+    target.lastReads.put(read, clock.get());
+    scheduler.tick();
+    Assert.assertEquals(read, target.started.get(0));
+    target.fail(read);
+
+    // The failed tenant is retried before the tenants due since the previous period
+    clock.addAndGet(INTERVAL_MILLIS / 4);
+    scheduler.tick();
+    Assert.assertEquals(read, target.started.get(1));
+    Assert.assertEquals(1, scheduler.getRunning());
+  }
+
+  @Test
+  public void joinedRefreshIsStartedAgainOnTheNextTick() {
+    CatalogRefreshScheduler scheduler = newScheduler(1);
+    UUID tenantId = target.addTenants(1).get(0);
+    scheduler.tick();
+    clock.addAndGet(INTERVAL_MILLIS);
+    scheduler.tick();
+    target.join(tenantId);
+
+    // Not at its next slot, nor a quarter of the interval later as a failed refresh
+    clock.addAndGet(INTERVAL_MILLIS / 100);
+    scheduler.tick();
+    Assert.assertEquals(2, target.started.size());
+    target.complete(tenantId);
+    target.pending.clear();
+
+    // Refreshed this time, so it waits for its next slot
+    scheduler.tick();
+    Assert.assertEquals(2, target.started.size());
+    Assert.assertEquals(0, scheduler.getDue());
+  }
+
+  @Test
+  public void tenantsAreListedOncePerScan() {
+    CatalogRefreshScheduler scheduler = newScheduler(1);
+    scheduler.tick();
+    Assert.assertEquals(1, target.listings);
+
+    UUID tenantId = target.addTenants(1).get(0);
+    for (int step = 0; step < 9; step++) {
+      clock.addAndGet(INTERVAL_MILLIS / 100);
+      scheduler.tick();
+    }
+    Assert.assertEquals(1, target.listings);
+
+    // Picked up a tenth of the interval later, and refreshed at its slot
+    clock.addAndGet(INTERVAL_MILLIS / 100);
+    scheduler.tick();
+    Assert.assertEquals(2, target.listings);
+    clock.addAndGet(INTERVAL_MILLIS);
+    scheduler.tick();
+    Assert.assertEquals(Collections.singletonList(tenantId), target.started);
+  }
+
+  @Test
+  public void tenantsNoLongerKnownAreDropped() {
+    CatalogRefreshScheduler scheduler = newScheduler(2);
+    List<UUID> tenants = target.addTenants(2);
+    UUID running = tenants.get(0);
+    UUID idle = tenants.get(1);
+    scheduler.tick();
+    clock.addAndGet(INTERVAL_MILLIS);
+    scheduler.tick();
+    target.complete(idle);
+    target.pending.remove(idle);
+
+    target.tenants.clear();
+    clock.addAndGet(INTERVAL_MILLIS / 10);
+    scheduler.tick();
+    target.complete(running);
+    target.pending.clear();
+
+    // The running tenant is kept until its refresh is over, then dropped by the next listing
+    clock.addAndGet(INTERVAL_MILLIS / 10);
+    scheduler.tick();
+    clock.addAndGet(INTERVAL_MILLIS * 2);
+    scheduler.tick();
+    Assert.assertEquals(0, scheduler.getDue());
+    Assert.assertEquals(0, scheduler.getRunning());
+    Assert.assertEquals(2, target.started.size());
+  }
+
+  @Test
+  public void refreshPublishesTheCatalogBeforeItsVersion() throws Exception {
+    SyntheticAmberfloServer server =
+        new SyntheticAmberfloServer(
+                new SyntheticAmberfloCatalog.Builder().withSeed(9).withPlans(10).build())
+            .start();
+    CatalogPluginApiImpl api =
+        new CatalogPluginApiImpl(
+            new StaticCatalogConfigurationHandler(server.getConfigurationProperties("refresh")));
+    try {
+      UUID tenantId = UUID.randomUUID();
+      TenantContext tenant = new PluginTenantContext(null, tenantId);
+      api.getVersionedPluginCatalog(null, tenant);
+      DateTime version = api.getLatestCatalogVersion(null, tenant);
+
+      CatalogSnapshot refreshed = api.refresh(tenantId).get(10, TimeUnit.SECONDS);
+
+      Assert.assertTrue(refreshed.getVersion().isAfter(version));
+      Assert.assertEquals(refreshed.getVersion(), api.getLatestCatalogVersion(null, tenant));
+      Assert.assertSame(refreshed.getCatalog(), api.getVersionedPluginCatalog(null, tenant));
+    } finally {
+      api.close();
+      server.stop();
+    }
+  }
+
+  private CatalogRefreshScheduler newScheduler(int concurrency) {
+    return new CatalogRefreshScheduler(target, INTERVAL_MILLIS, concurrency, clock::get);
+  }
+
+  private static class FakeTarget implements RefreshTarget {
+
+    private final List<UUID> tenants = new ArrayList<>();
+    private final Map<UUID, Long> lastReads = new HashMap<>();
+    private final Map<UUID, CompletableFuture<Boolean>> pending = new HashMap<>();
+    private final List<UUID> started = new ArrayList<>();
+    private int listings;
+
+    List<UUID> addTenants(int count) {
+      for (int i = 0; i < count; i++) {
+        tenants.add(UUID.randomUUID());
+      }
+      return new ArrayList<>(tenants);
+    }
+
+    boolean complete(UUID tenantId) {
+      return pending.get(tenantId).complete(true);
+    }
+
+    void completeAll() {
+      new ArrayList<>(pending.values()).forEach(future -> future.complete(true));
+      pending.clear();
+    }
+
+    // Completes the refresh as one that joined a build already running for an older version
+    void join(UUID tenantId) {
+      pending.remove(tenantId).complete(false);
+    }
+
+    void fail(UUID tenantId) {
+      pending.remove(tenantId).completeExceptionally(new IllegalStateException("Failed"));
+    }
+
+    @Override
+    public Collection<UUID> getTenants() {
+      listings++;
+      return tenants;
+    }
+
+    @Override
+    public long getLastReadMillis(UUID tenantId) {
+      return lastReads.getOrDefault(tenantId, 0L);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> refresh(UUID tenantId) {
+      CompletableFuture<Boolean> future = new CompletableFuture<>();
+      pending.put(tenantId, future);
+      started.add(tenantId);
+      return future;
+    }
+  }
+}
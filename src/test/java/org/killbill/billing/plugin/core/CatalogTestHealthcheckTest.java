@@ -0,0 +1,198 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.killbill.billing.osgi.api.Healthcheck.HealthStatus;
+import org.killbill.billing.plugin.InMemoryMetricRegistry;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogTestHealthcheck;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogWarmUp;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.AmberfloFault;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.tenant.api.Tenant;
+import org.killbill.billing.tenant.api.boilerplate.TenantImp;
+
+public class CatalogTestHealthcheckTest {
+
+  private static final String PREFIX = "org.killbill.billing.plugin.amberflo.catalog.";
+
+  private SyntheticAmberfloServer server;
+  private Properties properties;
+  private CatalogMetrics metrics;
+  private CatalogPluginApiImpl api;
+  private CatalogWarmUp warmUp;
+  private CatalogTestHealthcheck healthcheck;
+  private UUID tenantId;
+  private Tenant tenant;
+
+  @Before
+  public void setUp() throws Exception {
+    server =
+        new SyntheticAmberfloServer(
+                new SyntheticAmberfloCatalog.Builder().withSeed(7).withPlans(5).build())
+            .start();
+    properties = server.getConfigurationProperties("health");
+    properties.setProperty(PREFIX + "healthMaxSnapshotAgeMillis", "50");
+    properties.setProperty(PREFIX + "healthMaxConsecutiveFailures", "2");
+    properties.setProperty(PREFIX + "healthMaxLatencyMillis", "1000");
+    properties.setProperty(PREFIX + "catalogDeadlineMillis", "0");
+
+    StaticCatalogConfigurationHandler configHandler =
+        new StaticCatalogConfigurationHandler(properties);
+    metrics = new CatalogMetrics(new InMemoryMetricRegistry());
+    api = new CatalogPluginApiImpl(configHandler, metrics);
+    warmUp = new CatalogWarmUp(api);
+    healthcheck = new CatalogTestHealthcheck(api, configHandler, metrics, warmUp);
+
+    tenantId = UUID.randomUUID();
+    tenant = new TenantImp.Builder<>().withId(tenantId).build();
+  }
+
+  @After
+  public void tearDown() {
+    warmUp.close();
+    api.close();
+    server.stop();
+  }
+
+  @Test
+  public void currentCatalogIsHealthyHoweverOld() throws Exception {
+    Assert.assertTrue(api.warmUp(tenantId));
+    Thread.sleep(100);
+
+    HealthStatus status = healthcheck.getHealthStatus(tenant, null);
+    Assert.assertTrue(message(status), status.isHealthy());
+    Assert.assertEquals(true, status.getDetails().get("snapshotCurrent"));
+    Assert.assertEquals(0, status.getDetails().get("consecutiveFailures"));
+  }
+
+  @Test
+  public void catalogBehindTheLatestVersionIsUnhealthyPastTheAge() throws Exception {
+    Assert.assertTrue(api.warmUp(tenantId));
+    api.getAtomic().set(api.getAtomic().get().plusSeconds(1));
+
+    // Not yet older than the age
+    Properties longerAge = new Properties();
+    longerAge.putAll(properties);
+    longerAge.setProperty(PREFIX + "healthMaxSnapshotAgeMillis", "60000");
+    Assert.assertTrue(healthcheck(longerAge).getHealthStatus(tenant, null).isHealthy());
+
+    Thread.sleep(100);
+    HealthStatus status = healthcheck.getHealthStatus(tenant, null);
+    Assert.assertFalse(status.isHealthy());
+    Assert.assertEquals(false, status.getDetails().get("snapshotCurrent"));
+    Assert.assertTrue(message(status), message(status).startsWith("stale catalog built "));
+  }
+
+  @Test
+  public void failedBuildsInARowAreUnhealthyFromTheThreshold() {
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.connectionReset());
+    PluginTenantContext context = new PluginTenantContext(null, tenantId);
+
+    Assert.assertNull(api.getVersionedPluginCatalog(null, context));
+    Assert.assertTrue(healthcheck.getHealthStatus(tenant, null).isHealthy());
+
+    Assert.assertNull(api.getVersionedPluginCatalog(null, context));
+    HealthStatus status = healthcheck.getHealthStatus(tenant, null);
+    Assert.assertFalse(status.isHealthy());
+    Assert.assertEquals(2, status.getDetails().get("consecutiveFailures"));
+    Assert.assertEquals("2 catalog builds failed in a row", message(status));
+
+    server.clearFaults();
+    Assert.assertNotNull(api.getVersionedPluginCatalog(null, context));
+    Assert.assertTrue(healthcheck.getHealthStatus(tenant, null).isHealthy());
+  }
+
+  @Test
+  public void slowAmberfloIsUnhealthyForEveryTenant() {
+    for (int i = 0; i < 100; i++) {
+      metrics.recordRequest(
+          CatalogMetrics.ENDPOINT_PRICES, 200, 10, TimeUnit.MILLISECONDS.toNanos(900));
+    }
+    Assert.assertTrue(healthcheck.getHealthStatus(tenant, null).isHealthy());
+
+    metrics.recordRequest(
+        CatalogMetrics.ENDPOINT_PRICES, 200, 10, TimeUnit.SECONDS.toNanos(5));
+    metrics.recordRequest(
+        CatalogMetrics.ENDPOINT_PRICES, 200, 10, TimeUnit.SECONDS.toNanos(5));
+
+    // The latency is measured over every tenant, another tenant and no tenant see it alike
+    Tenant other = new TenantImp.Builder<>().withId(UUID.randomUUID()).build();
+    for (Tenant checked : new Tenant[] {tenant, other, null}) {
+      HealthStatus status = healthcheck.getHealthStatus(checked, null);
+      Assert.assertFalse(status.isHealthy());
+      Assert.assertEquals(5000.0, status.getDetails().get("globalAmberfloLatencyP99Millis"));
+      Assert.assertEquals(
+          "amberflo p99 latency of all tenants of 5000 ms is over 1000 ms", message(status));
+    }
+  }
+
+  @Test
+  public void notReadyUntilTheTenantsAreWarmedUp() throws Exception {
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(500));
+    warmUp.start(Collections.singleton(tenantId), 1, 60000);
+
+    HealthStatus status = healthcheck.getHealthStatus(null, null);
+    Assert.assertFalse(status.isHealthy());
+    Assert.assertEquals("catalogs are warming up", message(status));
+    Assert.assertEquals(false, warmUpStatus(status).get("ready"));
+    Assert.assertEquals(1L, warmUpStatus(status).get("pending"));
+
+    Assert.assertTrue(warmUp.await(10, TimeUnit.SECONDS));
+    status = healthcheck.getHealthStatus(null, null);
+    Assert.assertTrue(message(status), status.isHealthy());
+    Assert.assertEquals(true, warmUpStatus(status).get("ready"));
+    Assert.assertEquals(1, warmUpStatus(status).get("warmed"));
+  }
+
+  @Test
+  public void readyOnceTheWarmUpTimedOut() throws Exception {
+    server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.slowResponse(2000));
+    warmUp.start(Collections.singleton(tenantId), 1, 100);
+
+    Assert.assertFalse(healthcheck.getHealthStatus(null, null).isHealthy());
+    Thread.sleep(200);
+    HealthStatus status = healthcheck.getHealthStatus(null, null);
+    Assert.assertTrue(message(status), status.isHealthy());
+    Assert.assertEquals(1L, warmUpStatus(status).get("pending"));
+  }
+
+  private CatalogTestHealthcheck healthcheck(Properties changed) {
+    return new CatalogTestHealthcheck(
+        api, new StaticCatalogConfigurationHandler(changed), metrics, warmUp);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> warmUpStatus(HealthStatus status) {
+    return (Map<String, Object>) status.getDetails().get("warmUp");
+  }
+
+  private static String message(HealthStatus status) {
+    return String.valueOf(status.getDetails().get("message"));
+  }
+}
@@ -0,0 +1,235 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.export;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.boilerplate.PlanImp;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogFilter;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogJsonDiff;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogJsonExport;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotStore;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+public class CatalogJsonExportTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void exportsThePlansSelectedByTheFilter() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(3).withPlans(80).build();
+    StandalonePluginCatalog catalog = build(synthetic, 0, 80);
+    Plan sample = toList(catalog.getPlans()).get(0);
+    String product = sample.getProduct().getName();
+    BillingPeriod billingPeriod = sample.getRecurringBillingPeriod();
+
+    JsonNode all = parse(new CatalogJsonExport(snapshot(catalog, 1), CatalogFilter.all()));
+    Assert.assertEquals(names(catalog, CatalogFilter.all()), names(all.get("plans")));
+    Assert.assertEquals(toList(catalog.getProducts()).size(), all.get("products").size());
+    Assert.assertEquals(version(1).toString(), all.get("version").asText());
+
+    CatalogFilter filter =
+        new CatalogFilter.Builder()
+            .withProductName(product)
+            .withBillingPeriod(billingPeriod)
+            .withPlanNamePrefix(sample.getName().substring(0, 3))
+            .build();
+    JsonNode filtered = parse(new CatalogJsonExport(snapshot(catalog, 1), filter));
+    Set<String> expected = names(catalog, filter);
+    Assert.assertTrue(expected.contains(sample.getName()));
+    Assert.assertTrue(expected.size() < names(catalog, CatalogFilter.all()).size());
+    Assert.assertEquals(expected, names(filtered.get("plans")));
+    Assert.assertEquals(1, filtered.get("products").size());
+    Assert.assertEquals(product, filtered.get("products").get(0).get("name").asText());
+
+    JsonNode phase = filtered.get("plans").get(0).get("phases").get(0);
+    Assert.assertEquals(sample.getFinalPhase().getPhaseType().name(), phase.get("type").asText());
+  }
+
+  @Test
+  public void diffsTwoVersions() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(8).withPlans(60).build();
+    StandalonePluginCatalog from = build(synthetic, 0, 40);
+    StandalonePluginCatalog to = withChangedPlan(build(synthetic, 20, 60), from);
+    assertDiff(snapshot(from, 1), snapshot(to, 2), from, to);
+  }
+
+  @Test
+  public void diffsLazyVersionsWithoutFetchingTheirUsages() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(4).withPlans(60).build();
+    StubAmberfloHttpClient client = new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5, true);
+    StandalonePluginCatalog from =
+        client.buildCatalog(synthetic.getPlans().subList(0, 40), synthetic.getProductItems());
+    StandalonePluginCatalog to =
+        withChangedPlan(
+            client.buildCatalog(synthetic.getPlans().subList(20, 60), synthetic.getProductItems()),
+            from);
+    Assert.assertTrue(
+        toList(to.getPlans()).stream()
+            .anyMatch(plan -> plan.getFinalPhase() instanceof LazyUsagePlanPhase));
+
+    assertDiff(snapshot(from, 1), snapshot(to, 2), from, to);
+    Assert.assertEquals(0, client.getPricingRequests());
+  }
+
+  @Test
+  public void diffsAStoredVersion() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(2).withPlans(50).build();
+    StandalonePluginCatalog from = build(synthetic, 0, 30);
+    StandalonePluginCatalog to = withChangedPlan(build(synthetic, 10, 50), from);
+
+    UUID tenantId = UUID.randomUUID();
+    CatalogSnapshotStore store = new CatalogSnapshotStore(folder.getRoot().toPath());
+    store.save(tenantId, snapshot(from, 1));
+    assertDiff(store.load(tenantId), snapshot(to, 2), from, to);
+  }
+
+  private static void assertDiff(
+      CatalogSnapshot fromSnapshot,
+      CatalogSnapshot toSnapshot,
+      StandalonePluginCatalog from,
+      StandalonePluginCatalog to)
+      throws Exception {
+    Set<String> fromNames = names(from, CatalogFilter.all());
+    Set<String> toNames = names(to, CatalogFilter.all());
+    Set<String> added = new LinkedHashSet<>(toNames);
+    added.removeAll(fromNames);
+    Set<String> removed = new LinkedHashSet<>(fromNames);
+    removed.removeAll(toNames);
+
+    JsonNode diff = parse(new CatalogJsonDiff(fromSnapshot, toSnapshot, CatalogFilter.all()));
+
+    Assert.assertFalse(added.isEmpty());
+    Assert.assertFalse(removed.isEmpty());
+    Assert.assertEquals(added, names(diff.get("added")));
+    Assert.assertEquals(
+        Collections.singleton("changed"), textOf(diff.get("changed"), "prettyName"));
+    Set<String> removedNames = new LinkedHashSet<>();
+    diff.get("removed").forEach(name -> removedNames.add(name.asText()));
+    Assert.assertEquals(removed, removedNames);
+
+    JsonNode same = parse(new CatalogJsonDiff(toSnapshot, toSnapshot, CatalogFilter.all()));
+    Assert.assertEquals(0, same.get("added").size());
+    Assert.assertEquals(0, same.get("changed").size());
+    Assert.assertEquals(0, same.get("removed").size());
+  }
+
+  // Renames the first plan of the catalog that is also in the previous version
+  private static StandalonePluginCatalog withChangedPlan(
+      StandalonePluginCatalog catalog, StandalonePluginCatalog previous) {
+    Set<String> previousNames = names(previous, CatalogFilter.all());
+    List<Plan> plans = toList(catalog.getPlans());
+    for (int i = 0; i < plans.size(); i++) {
+      if (previousNames.contains(plans.get(i).getName())) {
+        plans.set(
+            i, new PlanImp.Builder<>().source(plans.get(i)).withPrettyName("changed").build());
+        break;
+      }
+    }
+    return new ImmutableStandalonePluginCatalog.Builder()
+        .withEffectiveDate(catalog.getEffectiveDate())
+        .withCurrencies(catalog.getCurrencies())
+        .withUnits(catalog.getUnits())
+        .withProducts(catalog.getProducts())
+        .withPlans(plans)
+        .withPlanRules(catalog.getPlanRules())
+        .withDefaultPriceList(catalog.getDefaultPriceList())
+        .withChildrenPriceList(catalog.getChildrenPriceList())
+        .build();
+  }
+
+  private static StandalonePluginCatalog build(
+      SyntheticAmberfloCatalog synthetic, int fromPlan, int toPlan) throws Exception {
+    return new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5)
+        .buildCatalog(
+            synthetic.getPlans().subList(fromPlan, toPlan), synthetic.getProductItems());
+  }
+
+  private static CatalogSnapshot snapshot(StandalonePluginCatalog catalog, int version) {
+    return new CatalogSnapshot(
+        new VersionedPluginCatalogImp(
+            new VersionedPluginCatalogImp.Builder<>()
+                .withCatalogName("Amberflo Catalog")
+                .withStandalonePluginCatalogs(Collections.singletonList(catalog))
+                .build()),
+        version(version),
+        0,
+        0);
+  }
+
+  private static DateTime version(int version) {
+    return new DateTime(2024, 1, version, 0, 0, DateTimeZone.UTC);
+  }
+
+  private static JsonNode parse(InputStream export) throws Exception {
+    try (InputStream in = export) {
+      return MAPPER.readTree(in);
+    }
+  }
+
+  private static Set<String> names(StandalonePluginCatalog catalog, CatalogFilter filter) {
+    Set<String> names = new LinkedHashSet<>();
+    for (Plan plan : catalog.getPlans()) {
+      if (filter.test(plan)) {
+        names.add(plan.getName());
+      }
+    }
+    return names;
+  }
+
+  private static Set<String> names(JsonNode plans) {
+    return textOf(plans, "name");
+  }
+
+  private static Set<String> textOf(JsonNode plans, String field) {
+    Set<String> values = new LinkedHashSet<>();
+    plans.forEach(plan -> values.add(plan.get(field).asText()));
+    return values;
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
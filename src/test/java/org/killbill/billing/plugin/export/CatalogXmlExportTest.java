@@ -0,0 +1,175 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloUtils;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.client.LazyUsagePlanPhase;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogXmlExport;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class CatalogXmlExportTest {
+
+  @Test
+  public void exportsCatalogAsKillBillXml() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(9).withPlans(60).build();
+    StandalonePluginCatalog catalog =
+        new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5)
+            .buildCatalog(synthetic.getPlans(), synthetic.getProductItems());
+    List<Plan> plans = toList(catalog.getPlans());
+
+    Document document = parse(export(versioned(catalog), 8192));
+
+    Element root = document.getDocumentElement();
+    Assert.assertEquals("catalog", root.getTagName());
+    Assert.assertEquals("Amberflo Catalog", text(root, "catalogName"));
+    Assert.assertEquals(
+        toList(catalog.getProducts()).size(),
+        ((Element) root.getElementsByTagName("products").item(0))
+            .getElementsByTagName("product")
+            .getLength());
+
+    NodeList planElements =
+        ((Element) root.getElementsByTagName("plans").item(0)).getElementsByTagName("plan");
+    Assert.assertEquals(plans.size(), planElements.getLength());
+    for (int i = 0; i < plans.size(); i++) {
+      Plan plan = plans.get(i);
+      Element element = (Element) planElements.item(i);
+      Assert.assertEquals(plan.getName(), element.getAttribute("name"));
+      Assert.assertEquals(plan.getProduct().getName(), text(element, "product"));
+      PlanPhase phase = plan.getFinalPhase();
+      Element finalPhase = (Element) element.getElementsByTagName("finalPhase").item(0);
+      Assert.assertEquals(phase.getPhaseType().name(), finalPhase.getAttribute("type"));
+      Assert.assertEquals(tierCount(phase), finalPhase.getElementsByTagName("tier").getLength());
+    }
+
+    Element defaultPriceList = (Element) root.getElementsByTagName("defaultPriceList").item(0);
+    NodeList priceListPlans = defaultPriceList.getElementsByTagName("plan");
+    Assert.assertEquals(
+        catalog.getDefaultPriceList().getPlans().size(), priceListPlans.getLength());
+    Assert.assertEquals(
+        catalog.getDefaultPriceList().getName(), defaultPriceList.getAttribute("name"));
+  }
+
+  @Test
+  public void exportIsTheSameWhateverTheReadSize() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(4).withPlans(30).build();
+    VersionedPluginCatalog catalog =
+        versioned(
+            new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5)
+                .buildCatalog(synthetic.getPlans(), synthetic.getProductItems()));
+
+    byte[] expected = export(catalog, 65536);
+
+    ByteArrayOutputStream singleBytes = new ByteArrayOutputStream();
+    try (InputStream in = new CatalogXmlExport(catalog)) {
+      for (int b = in.read(); b >= 0; b = in.read()) {
+        singleBytes.write(b);
+      }
+    }
+    Assert.assertArrayEquals(expected, singleBytes.toByteArray());
+    Assert.assertArrayEquals(expected, export(catalog, 7));
+  }
+
+  @Test
+  public void lazyUsagesAreNotFetched() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(5).withPlans(20).build();
+    StubAmberfloHttpClient client = new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5);
+    List<Plan> plans =
+        new AmberfloUtils(client, CatalogInterner.SHARED, 1, true)
+            .convertToKillBillPlanModel(synthetic.getPlans(), synthetic.getProductItems());
+    StandalonePluginCatalog catalog =
+        new ImmutableStandalonePluginCatalog.Builder().withPlans(plans).build();
+
+    String xml = new String(export(versioned(catalog), 8192), StandardCharsets.UTF_8);
+
+    Assert.assertTrue(xml.contains("<!-- usages not fetched from amberflo yet -->"));
+    for (Plan plan : plans) {
+      PlanPhase phase = plan.getFinalPhase();
+      if (phase instanceof LazyUsagePlanPhase) {
+        Assert.assertFalse(((LazyUsagePlanPhase) phase).isMaterialized());
+      }
+    }
+  }
+
+  private static byte[] export(VersionedPluginCatalog catalog, int readSize) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new CatalogXmlExport(catalog)) {
+      byte[] buffer = new byte[readSize];
+      for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+        out.write(buffer, 0, count);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static Document parse(byte[] xml) throws Exception {
+    return DocumentBuilderFactory.newInstance()
+        .newDocumentBuilder()
+        .parse(new ByteArrayInputStream(xml));
+  }
+
+  private static String text(Element parent, String tag) {
+    return parent.getElementsByTagName(tag).item(0).getTextContent();
+  }
+
+  private static int tierCount(PlanPhase phase) {
+    int count = 0;
+    if (phase.getUsages() != null) {
+      for (Usage usage : phase.getUsages()) {
+        count += usage.getTiers() == null ? 0 : usage.getTiers().length;
+      }
+    }
+    return count;
+  }
+
+  private static VersionedPluginCatalog versioned(StandalonePluginCatalog standalone) {
+    return new VersionedPluginCatalogImp(
+        new VersionedPluginCatalogImp.Builder<>()
+            .withCatalogName("Amberflo Catalog")
+            .withStandalonePluginCatalogs(Collections.singletonList(standalone))
+            .build());
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
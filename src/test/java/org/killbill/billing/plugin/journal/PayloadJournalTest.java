@@ -0,0 +1,187 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.journal;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogBuildTrace;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.journal.JournalEntry;
+import org.killbill.billing.plugin.amberflo.catalog.journal.JournalReader;
+import org.killbill.billing.plugin.amberflo.catalog.journal.PayloadJournal;
+import org.killbill.billing.plugin.amberflo.catalog.journal.RecordedPayloads;
+import org.killbill.billing.plugin.synthetic.AmberfloFault;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+
+public class PayloadJournalTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void entriesAreReadBackAcrossRotatedSegments() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    try (PayloadJournal journal = new PayloadJournal(directory, 256, 100)) {
+      for (int i = 0; i < 50; i++) {
+        journal.append(CatalogMetrics.ENDPOINT_PRICES, "price-" + (i % 10), body(i));
+      }
+    }
+    Assert.assertTrue(PayloadJournal.segments(directory).size() > 1);
+
+    List<JournalEntry> entries = read(directory);
+    Assert.assertEquals(50, entries.size());
+    for (int i = 0; i < 50; i++) {
+      Assert.assertEquals("price-" + (i % 10), entries.get(i).getKey());
+      Assert.assertArrayEquals(body(i), entries.get(i).getBody());
+    }
+
+    RecordedPayloads recorded = RecordedPayloads.read(directory);
+    Assert.assertEquals(10, recorded.size());
+    Assert.assertArrayEquals(body(43), recorded.get(CatalogMetrics.ENDPOINT_PRICES, "price-3"));
+
+    // A journal opened again starts a new segment and deletes the oldest ones past the limit
+    try (PayloadJournal journal = new PayloadJournal(directory, 256, 3)) {
+      journal.append(CatalogMetrics.ENDPOINT_PLANS, "", body(50));
+    }
+    Assert.assertEquals(3, PayloadJournal.segments(directory).size());
+    List<JournalEntry> kept = read(directory);
+    Assert.assertArrayEquals(body(50), kept.get(kept.size() - 1).getBody());
+  }
+
+  @Test
+  public void corruptAndTornEntriesAreSkipped() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    try (PayloadJournal journal = new PayloadJournal(directory, Integer.MAX_VALUE, 1)) {
+      for (int i = 0; i < 5; i++) {
+        journal.append(CatalogMetrics.ENDPOINT_PRICES, "price-" + i, body(i));
+      }
+    }
+    Path segment = PayloadJournal.segments(directory).get(0);
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      // Flips a byte of the body of the first entry, then tears the last entry
+      file.seek(40);
+      int value = file.read();
+      file.seek(40);
+      file.write(value ^ 0xFF);
+      file.setLength(file.length() - 3);
+    }
+
+    JournalReader reader = new JournalReader(directory);
+    List<JournalEntry> entries = new ArrayList<>();
+    reader.forEach(entries::add);
+    Assert.assertEquals(1, reader.getCorruptEntries());
+    Assert.assertEquals(3, entries.size());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertArrayEquals(body(i + 1), entries.get(i).getBody());
+    }
+  }
+
+  @Test
+  public void catalogIsRebuiltFromTheJournal() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(6).withPlans(30).build();
+    SyntheticAmberfloServer server = new SyntheticAmberfloServer(synthetic).start();
+    CatalogConfigurationProperties config =
+        new CatalogConfigurationProperties(server.getConfigurationProperties("journal"), null);
+
+    StandalonePluginCatalog live;
+    try (PayloadJournal journal = new PayloadJournal(directory, 1 << 20, 4)) {
+      live = new AmberfloHttpClientImpl(config).withJournal(journal).buildCatalog();
+    } finally {
+      server.stop();
+    }
+
+    StandalonePluginCatalog replayed =
+        new AmberfloHttpClientImpl(RecordedPayloads.read(directory), CatalogInterner.SHARED, 2)
+            .buildCatalog();
+    Assert.assertEquals(live, replayed);
+
+    // Amberflo is not reachable anymore, the build falls back to the journal
+    CatalogBuildTrace trace = new CatalogBuildTrace(null);
+    try (PayloadJournal journal = new PayloadJournal(directory, 1 << 20, 4)) {
+      StandalonePluginCatalog fallback =
+          new AmberfloHttpClientImpl(config, CatalogInterner.SHARED, CatalogMetrics.noop(), trace)
+              .withJournal(journal)
+              .buildCatalog();
+      Assert.assertEquals(live, fallback);
+    }
+    Assert.assertFalse(trace.isSuccessful());
+  }
+
+  @Test
+  public void truncatedResponseIsNotRecordedAndFallsBackToTheJournal() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(7).withPlans(20).build();
+    SyntheticAmberfloServer server = new SyntheticAmberfloServer(synthetic).start();
+    try {
+      CatalogConfigurationProperties config =
+          new CatalogConfigurationProperties(server.getConfigurationProperties("truncated"), null);
+      StandalonePluginCatalog live;
+      try (PayloadJournal journal = new PayloadJournal(directory, 1 << 20, 4)) {
+        live = new AmberfloHttpClientImpl(config).withJournal(journal).buildCatalog();
+      }
+      JournalEntry recorded =
+          RecordedPayloads.read(directory).getEntry(CatalogMetrics.ENDPOINT_PLANS, "");
+
+      // Amberflo answers with a 200 whose body is cut in half
+      server.setFault(SyntheticAmberfloServer.PLANS_PATH, AmberfloFault.truncatedJson());
+      CatalogBuildTrace trace = new CatalogBuildTrace(null);
+      try (PayloadJournal journal = new PayloadJournal(directory, 1 << 20, 4)) {
+        StandalonePluginCatalog fallback =
+            new AmberfloHttpClientImpl(config, CatalogInterner.SHARED, CatalogMetrics.noop(), trace)
+                .withJournal(journal)
+                .buildCatalog();
+        Assert.assertEquals(live, fallback);
+      }
+      Assert.assertFalse(trace.isSuccessful());
+      Assert.assertEquals(1, trace.getJournalPayloads());
+      Assert.assertEquals(recorded.getTimestampMillis(), trace.getOldestJournalPayloadMillis());
+
+      JournalEntry newest =
+          RecordedPayloads.read(directory).getEntry(CatalogMetrics.ENDPOINT_PLANS, "");
+      Assert.assertArrayEquals(recorded.getBody(), newest.getBody());
+      Assert.assertEquals(recorded.getTimestampMillis(), newest.getTimestampMillis());
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static List<JournalEntry> read(Path directory) throws Exception {
+    List<JournalEntry> entries = new ArrayList<>();
+    new JournalReader(directory).forEach(entries::add);
+    return entries;
+  }
+
+  private static byte[] body(int i) {
+    StringBuilder body = new StringBuilder("{\"id\":" + i + ",\"tiers\":[");
+    for (int tier = 0; tier <= i % 7; tier++) {
+      body.append(tier == 0 ? "" : ",").append("{\"batchSize\":").append(tier * i).append('}');
+    }
+    return body.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
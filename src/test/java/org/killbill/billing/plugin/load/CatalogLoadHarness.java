@@ -0,0 +1,343 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.StaticCatalogConfigurationHandler;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogPluginApiImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.resources.AmberfloRefreshService;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloServer;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+/*
+ * Load test of the plugin: many tenants call getLatestCatalogVersion and getVersionedPluginCatalog
+ * concurrently, while the catalog is refreshed through AmberfloRefreshService, against a local
+ * stub serving a synthetic catalog per tenant. Reports latency percentiles, the requests made to
+ * the stub, the heap high-water mark and thread counts.
+ *
+ *   mvn -Pload-test test-compile exec:exec -Dload.args="tenants=300 threads=64 durationSeconds=60"
+ */
+public class CatalogLoadHarness {
+
+  private final Options options;
+
+  public CatalogLoadHarness(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Report report = new CatalogLoadHarness(Options.parse(args)).run();
+    System.out.println(report);
+  }
+
+  public Report run() throws Exception {
+    SyntheticAmberfloServer server = new SyntheticAmberfloServer(catalog(0)).start();
+    server.setLatency(options.latencyMillis, options.jitterMillis);
+
+    Properties defaults = server.getConfigurationProperties("default");
+    StaticCatalogConfigurationHandler handler = new StaticCatalogConfigurationHandler(defaults);
+    List<TenantContext> tenants = new ArrayList<>();
+    for (int i = 0; i < options.tenants; i++) {
+      UUID tenantId = new UUID(0, i + 1);
+      String apiKey = "tenant-" + i;
+      server.addTenant(apiKey, catalog(i + 1));
+
+      Properties properties = server.getConfigurationProperties(apiKey);
+      properties.setProperty(
+          "org.killbill.billing.plugin.amberflo.catalog.catalogDeadlineMillis",
+          Integer.toString(options.deadlineMillis));
+      handler.setTenantProperties(tenantId, properties);
+      tenants.add(new PluginTenantContext(null, tenantId));
+    }
+
+    CatalogPluginApiImpl api = new CatalogPluginApiImpl(handler);
+    AmberfloRefreshService refreshService = new AmberfloRefreshService(api);
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    threads.resetPeakThreadCount();
+
+    ExecutorService workers = Executors.newFixedThreadPool(options.threads + 1);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+    AtomicLong refreshes = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    try {
+      Future<?> refresher =
+          workers.submit(
+              () -> {
+                while (System.nanoTime() < deadline) {
+                  sleep(options.refreshEveryMillis);
+                  refreshService.refreshGetLatestCatalogVersion();
+                  refreshes.incrementAndGet();
+                }
+                return null;
+              });
+
+      List<Future<LatencyHistogram[]>> results = new ArrayList<>();
+      for (int i = 0; i < options.threads; i++) {
+        results.add(workers.submit(() -> callCatalog(api, tenants, deadline, errors)));
+      }
+
+      LatencyHistogram version = new LatencyHistogram();
+      LatencyHistogram catalog = new LatencyHistogram();
+      for (Future<LatencyHistogram[]> result : results) {
+        LatencyHistogram[] histograms = result.get();
+        version.merge(histograms[0]);
+        catalog.merge(histograms[1]);
+      }
+      refresher.get();
+
+      long heapPeak = 0;
+      for (MemoryPoolMXBean pool : heapPools) {
+        heapPeak += pool.getPeakUsage().getUsed();
+      }
+
+      return new Report(
+          options,
+          version,
+          catalog,
+          refreshes.get(),
+          errors.get(),
+          server.getRequestCount(),
+          api.getStaleServeCount(),
+          heapPeak,
+          threads.getPeakThreadCount(),
+          threads.getThreadCount());
+    } finally {
+      workers.shutdownNow();
+      api.close();
+      server.stop();
+    }
+  }
+
+  private LatencyHistogram[] callCatalog(
+      CatalogPluginApiImpl api, List<TenantContext> tenants, long deadline, AtomicLong errors) {
+    LatencyHistogram version = new LatencyHistogram();
+    LatencyHistogram catalog = new LatencyHistogram();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    while (System.nanoTime() < deadline) {
+      TenantContext tenant = tenants.get(random.nextInt(tenants.size()));
+
+      long start = System.nanoTime();
+      api.getLatestCatalogVersion(null, tenant);
+      long afterVersion = System.nanoTime();
+      VersionedPluginCatalog result = api.getVersionedPluginCatalog(null, tenant);
+      long end = System.nanoTime();
+
+      version.record(afterVersion - start);
+      catalog.record(end - afterVersion);
+      if (result == null) {
+        errors.incrementAndGet();
+      }
+      if (options.thinkMillis > 0) {
+        sleep(options.thinkMillis);
+      }
+    }
+    return new LatencyHistogram[] {version, catalog};
+  }
+
+  private SyntheticAmberfloCatalog catalog(int seed) {
+    return new SyntheticAmberfloCatalog.Builder()
+        .withSeed(seed)
+        .withPlans(options.plans)
+        .withMaxTiers(options.maxTiers)
+        .build();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public static class Options {
+
+    int tenants = 200;
+    int threads = 32;
+    int durationSeconds = 30;
+    int plans = 200;
+    int maxTiers = 5;
+    int refreshEveryMillis = 5000;
+    int thinkMillis = 1;
+    int latencyMillis = 20;
+    int jitterMillis = 10;
+    int deadlineMillis = 5000;
+
+    // Parses name=value arguments named after the fields, e.g. tenants=500 threads=64
+    public static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        String[] pair = arg.split("=", 2);
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        options.set(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+      }
+      return options;
+    }
+
+    public Options set(String name, int value) {
+      try {
+        Options.class.getDeclaredField(name).setInt(this, value);
+      } catch (NoSuchFieldException | IllegalAccessException e) {
+        throw new IllegalArgumentException("Unknown option " + name, e);
+      }
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "tenants="
+          + tenants
+          + " threads="
+          + threads
+          + " durationSeconds="
+          + durationSeconds
+          + " plans="
+          + plans
+          + " maxTiers="
+          + maxTiers
+          + " refreshEveryMillis="
+          + refreshEveryMillis
+          + " thinkMillis="
+          + thinkMillis
+          + " latencyMillis="
+          + latencyMillis
+          + " jitterMillis="
+          + jitterMillis
+          + " deadlineMillis="
+          + deadlineMillis;
+    }
+  }
+
+  public static class Report {
+
+    private final Options options;
+    private final LatencyHistogram version;
+    private final LatencyHistogram catalog;
+    private final long refreshes;
+    private final long errors;
+    private final long upstreamRequests;
+    private final long staleServes;
+    private final long heapPeakBytes;
+    private final int peakThreads;
+    private final int liveThreads;
+
+    Report(
+        Options options,
+        LatencyHistogram version,
+        LatencyHistogram catalog,
+        long refreshes,
+        long errors,
+        long upstreamRequests,
+        long staleServes,
+        long heapPeakBytes,
+        int peakThreads,
+        int liveThreads) {
+      this.options = options;
+      this.version = version;
+      this.catalog = catalog;
+      this.refreshes = refreshes;
+      this.errors = errors;
+      this.upstreamRequests = upstreamRequests;
+      this.staleServes = staleServes;
+      this.heapPeakBytes = heapPeakBytes;
+      this.peakThreads = peakThreads;
+      this.liveThreads = liveThreads;
+    }
+
+    public LatencyHistogram getCatalogLatency() {
+      return catalog;
+    }
+
+    public LatencyHistogram getVersionLatency() {
+      return version;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public long getRefreshes() {
+      return refreshes;
+    }
+
+    public long getUpstreamRequests() {
+      return upstreamRequests;
+    }
+
+    public long getHeapPeakBytes() {
+      return heapPeakBytes;
+    }
+
+    public int getPeakThreads() {
+      return peakThreads;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("options: ").append(options).append('\n');
+      sb.append(line("getLatestCatalogVersion", version));
+      sb.append(line("getVersionedPluginCatalog", catalog));
+      sb.append("refreshes: ").append(refreshes);
+      sb.append(", null catalogs: ").append(errors);
+      sb.append(", stale serves: ").append(staleServes).append('\n');
+      sb.append("upstream requests: ").append(upstreamRequests).append('\n');
+      sb.append("heap high-water mark: ").append(heapPeakBytes / (1024 * 1024)).append(" MB\n");
+      sb.append("threads: peak ").append(peakThreads).append(", live ").append(liveThreads);
+      return sb.toString();
+    }
+
+    private String line(String name, LatencyHistogram histogram) {
+      return String.format(
+          "%s: %d calls (%.0f/s), p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms,"
+              + " max %.3f ms%n",
+          name,
+          histogram.getCount(),
+          histogram.getCount() / (double) options.durationSeconds,
+          histogram.getPercentileNanos(50) / 1e6,
+          histogram.getPercentileNanos(90) / 1e6,
+          histogram.getPercentileNanos(99) / 1e6,
+          histogram.getPercentileNanos(99.9) / 1e6,
+          histogram.getMaxNanos() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.load;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+// Short run of the load harness, the full runs are started from the load-test profile
+public class CatalogLoadHarnessTest {
+
+  @Test
+  public void harnessReportsLoad() throws Exception {
+    CatalogLoadHarness.Options options =
+        CatalogLoadHarness.Options.parse(
+            new String[] {
+              "tenants=20", "threads=8", "durationSeconds=3", "plans=20", "refreshEveryMillis=1000"
+            });
+
+    CatalogLoadHarness.Report report = new CatalogLoadHarness(options).run();
+
+    Assert.assertEquals(0, report.getErrors());
+    Assert.assertTrue(report.getCatalogLatency().getCount() > 0);
+    Assert.assertTrue(report.getRefreshes() > 0);
+    Assert.assertTrue(report.getUpstreamRequests() > 0);
+    Assert.assertTrue(report.getHeapPeakBytes() > 0);
+    Assert.assertTrue(report.getPeakThreads() >= 8);
+  }
+}
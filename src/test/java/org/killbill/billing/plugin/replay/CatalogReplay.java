@@ -0,0 +1,301 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.replay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogFilter;
+import org.killbill.billing.plugin.amberflo.catalog.export.CatalogJsonExport;
+import org.killbill.billing.plugin.amberflo.catalog.journal.RecordedPayloads;
+
+/*
+ * Rebuilds a catalog from recorded amberflo payloads, without network nor Kill Bill, through the
+ * same conversion as the plugin, and reports the build time, the bytes allocated and a hash of
+ * the catalog built. The source is either a payload journal directory (see PayloadJournal) or a
+ * directory of JSON fixtures:
+ *
+ *   plans.json          body of the plans endpoint
+ *   products.json       body of the product items endpoint
+ *   prices/<id>.json    body of the pricing endpoint for the price id
+ *
+ * The hash is the SHA-256 of the JSON export of the catalog, which only depends on the values of
+ * the catalog: two engine options, or two versions of the conversion, building the same catalog
+ * report the same hash.
+ *
+ *   mvn -Preplay test-compile exec:exec -Dreplay.args="source=journal/<tenant> parallelism=4"
+ */
+public class CatalogReplay {
+
+  private final Options options;
+
+  public CatalogReplay(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Report report = new CatalogReplay(Options.parse(args)).run();
+    System.out.println(report);
+  }
+
+  public Report run() throws Exception {
+    if (options.source == null) {
+      throw new IllegalArgumentException("A source=<directory> option is required");
+    }
+    RecordedPayloads recorded = load(Paths.get(options.source));
+    if (!recorded.hasCatalog()) {
+      throw new IllegalArgumentException(
+          "No plans and product items payloads recorded in " + options.source);
+    }
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    for (int i = 0; i < options.warmups; i++) {
+      build(recorded);
+    }
+
+    List<Long> nanos = new ArrayList<>();
+    List<Long> bytes = new ArrayList<>();
+    StandalonePluginCatalog catalog = null;
+    for (int i = 0; i < options.iterations; i++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      catalog = build(recorded);
+      nanos.add(System.nanoTime() - start);
+      bytes.add(threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+    }
+
+    int plans = 0;
+    for (Object plan : catalog.getPlans()) {
+      plans++;
+    }
+    return new Report(options, recorded.size(), plans, nanos, bytes, hash(catalog));
+  }
+
+  // A fresh interner per build when interning is on, so every build starts from the same state
+  private StandalonePluginCatalog build(RecordedPayloads recorded) throws Exception {
+    CatalogInterner interner =
+        options.interning ? new CatalogInterner(true) : CatalogInterner.DISABLED;
+    return new AmberfloHttpClientImpl(recorded, interner, options.parallelism).buildCatalog();
+  }
+
+  // Reads a journal directory, or a directory of JSON fixtures when it holds a plans.json
+  public static RecordedPayloads load(Path source) throws IOException {
+    if (!Files.isRegularFile(source.resolve("plans.json"))) {
+      return RecordedPayloads.read(source);
+    }
+    RecordedPayloads recorded = new RecordedPayloads();
+    recorded.add(
+        CatalogMetrics.ENDPOINT_PLANS, "", Files.readAllBytes(source.resolve("plans.json")));
+    recorded.add(
+        CatalogMetrics.ENDPOINT_PRODUCTS, "", Files.readAllBytes(source.resolve("products.json")));
+    Path prices = source.resolve("prices");
+    if (Files.isDirectory(prices)) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(prices, "*.json")) {
+        for (Path file : files) {
+          String name = file.getFileName().toString();
+          recorded.add(
+              CatalogMetrics.ENDPOINT_PRICES,
+              name.substring(0, name.length() - ".json".length()),
+              Files.readAllBytes(file));
+        }
+      }
+    }
+    return recorded;
+  }
+
+  private static String hash(StandalonePluginCatalog catalog) throws Exception {
+    CatalogSnapshot snapshot =
+        new CatalogSnapshot(
+            new VersionedPluginCatalogImp(
+                new VersionedPluginCatalogImp.Builder<>()
+                    .withCatalogName("Amberflo Catalog")
+                    .withStandalonePluginCatalogs(Collections.singletonList(catalog))
+                    .build()),
+            null,
+            0,
+            0);
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (InputStream json = new CatalogJsonExport(snapshot, CatalogFilter.all())) {
+      byte[] buffer = new byte[8192];
+      for (int count = json.read(buffer); count >= 0; count = json.read(buffer)) {
+        digest.update(buffer, 0, count);
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  public static class Options {
+
+    String source;
+    int parallelism = 1;
+    boolean interning = true;
+    int warmups = 3;
+    int iterations = 10;
+
+    // Parses name=value arguments named after the fields, e.g. source=fixtures parallelism=4
+    public static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        String[] pair = arg.split("=", 2);
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("Expected name=value, got " + arg);
+        }
+        options.set(pair[0].trim(), pair[1].trim());
+      }
+      return options;
+    }
+
+    public Options set(String name, String value) {
+      switch (name) {
+        case "source":
+          source = value;
+          break;
+        case "parallelism":
+          parallelism = Integer.parseInt(value);
+          break;
+        case "interning":
+          interning = Boolean.parseBoolean(value);
+          break;
+        case "warmups":
+          warmups = Integer.parseInt(value);
+          break;
+        case "iterations":
+          iterations = Math.max(1, Integer.parseInt(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + name);
+      }
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "source="
+          + source
+          + " parallelism="
+          + parallelism
+          + " interning="
+          + interning
+          + " warmups="
+          + warmups
+          + " iterations="
+          + iterations;
+    }
+  }
+
+  public static class Report {
+
+    private final Options options;
+    private final int payloads;
+    private final int plans;
+    private final List<Long> nanos;
+    private final List<Long> bytes;
+    private final String hash;
+
+    Report(
+        Options options,
+        int payloads,
+        int plans,
+        List<Long> nanos,
+        List<Long> bytes,
+        String hash) {
+      this.options = options;
+      this.payloads = payloads;
+      this.plans = plans;
+      this.nanos = nanos;
+      this.bytes = bytes;
+      this.hash = hash;
+    }
+
+    public int getPayloads() {
+      return payloads;
+    }
+
+    public int getPlans() {
+      return plans;
+    }
+
+    public List<Long> getNanos() {
+      return nanos;
+    }
+
+    // Bytes allocated by the thread running the build, conversion workers are not counted
+    public List<Long> getAllocatedBytes() {
+      return bytes;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      List<Long> sortedNanos = sorted(nanos);
+      List<Long> sortedBytes = sorted(bytes);
+      StringBuilder report = new StringBuilder();
+      report.append(options).append('\n');
+      report.append(String.format("payloads      %d%n", payloads));
+      report.append(String.format("plans         %d%n", plans));
+      report.append(
+          String.format(
+              "build ms      min %.2f  median %.2f  max %.2f%n",
+              sortedNanos.get(0) / 1e6,
+              median(sortedNanos) / 1e6,
+              sortedNanos.get(sortedNanos.size() - 1) / 1e6));
+      report.append(
+          String.format(
+              "allocated KB  min %.1f  median %.1f%s%n",
+              sortedBytes.get(0) / 1024.0,
+              median(sortedBytes) / 1024.0,
+              options.parallelism > 1 ? "  (calling thread only)" : ""));
+      report.append(String.format("hash          %s", hash));
+      return report.toString();
+    }
+
+    private static List<Long> sorted(List<Long> values) {
+      List<Long> sorted = new ArrayList<>(values);
+      Collections.sort(sorted);
+      return sorted;
+    }
+
+    private static double median(List<Long> sorted) {
+      int middle = sorted.size() / 2;
+      return sorted.size() % 2 == 1
+          ? sorted.get(middle)
+          : (sorted.get(middle - 1) + sorted.get(middle)) / 2.0;
+    }
+  }
+}
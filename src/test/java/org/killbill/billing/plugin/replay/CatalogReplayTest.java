@@ -0,0 +1,84 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.replay;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogMetrics;
+import org.killbill.billing.plugin.amberflo.catalog.journal.PayloadJournal;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+// Short replays of recorded payloads, the full runs are started from the replay profile
+public class CatalogReplayTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void enginesBuildTheSameCatalogFromFixturesAndJournals() throws Exception {
+    SyntheticAmberfloCatalog synthetic =
+        new SyntheticAmberfloCatalog.Builder().withSeed(12).withPlans(40).build();
+    Path fixtures = folder.newFolder("fixtures").toPath();
+    Path journalDirectory = folder.newFolder("journal").toPath();
+    Files.createDirectories(fixtures.resolve("prices"));
+    try (PayloadJournal journal = new PayloadJournal(journalDirectory, 1 << 20, 4)) {
+      write(fixtures.resolve("plans.json"), synthetic.getPlansJson());
+      write(fixtures.resolve("products.json"), synthetic.getProductItemsJson());
+      journal.append(CatalogMetrics.ENDPOINT_PLANS, "", bytes(synthetic.getPlansJson()));
+      journal.append(
+          CatalogMetrics.ENDPOINT_PRODUCTS, "", bytes(synthetic.getProductItemsJson()));
+      for (String priceId : synthetic.getPriceIds()) {
+        String usage = synthetic.getUsageJson(priceId);
+        if (usage != null) {
+          write(fixtures.resolve("prices").resolve(priceId + ".json"), usage);
+          journal.append(CatalogMetrics.ENDPOINT_PRICES, priceId, bytes(usage));
+        }
+      }
+    }
+
+    CatalogReplay.Report sequential =
+        replay("source=" + fixtures, "parallelism=1", "interning=true");
+    CatalogReplay.Report parallel =
+        replay("source=" + fixtures, "parallelism=2", "interning=false");
+    CatalogReplay.Report journaled = replay("source=" + journalDirectory, "parallelism=2");
+
+    Assert.assertEquals(synthetic.getExpectedKillBillPlans(), sequential.getPlans());
+    Assert.assertEquals(2, sequential.getNanos().size());
+    Assert.assertTrue(sequential.getAllocatedBytes().get(0) > 0);
+    Assert.assertEquals(sequential.getHash(), parallel.getHash());
+    Assert.assertEquals(sequential.getHash(), journaled.getHash());
+    Assert.assertEquals(sequential.getPayloads(), journaled.getPayloads());
+  }
+
+  private static CatalogReplay.Report replay(String... args) throws Exception {
+    String[] options = new String[args.length + 2];
+    System.arraycopy(args, 0, options, 0, args.length);
+    options[args.length] = "warmups=0";
+    options[args.length + 1] = "iterations=2";
+    return new CatalogReplay(CatalogReplay.Options.parse(options)).run();
+  }
+
+  private static void write(Path path, String json) throws Exception {
+    Files.write(path, bytes(json));
+  }
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+}
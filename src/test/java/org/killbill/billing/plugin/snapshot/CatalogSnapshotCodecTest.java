@@ -0,0 +1,180 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.snapshot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.ImmutableStandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloUtils;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotCodec;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+public class CatalogSnapshotCodecTest {
+
+  @Test
+  public void roundTripPreservesCatalog() throws Exception {
+    for (int seed = 0; seed < 20; seed++) {
+      CatalogInterner interner = seed % 2 == 0 ? CatalogInterner.SHARED : CatalogInterner.DISABLED;
+      CatalogSnapshot snapshot = snapshot(build(seed, 50 + seed * 10, interner));
+
+      CatalogSnapshot decoded = CatalogSnapshotCodec.decode(CatalogSnapshotCodec.encode(snapshot));
+
+      String message = "seed " + seed;
+      Assert.assertTrue(message, snapshot.getVersion().isEqual(decoded.getVersion()));
+      Assert.assertEquals(message, snapshot.getBuiltAtMillis(), decoded.getBuiltAtMillis());
+      Assert.assertEquals(
+          message, snapshot.getBuildDurationMillis(), decoded.getBuildDurationMillis());
+      Assert.assertEquals(
+          message, snapshot.getCatalog().getCatalogName(), decoded.getCatalog().getCatalogName());
+      Assert.assertEquals(message, standalone(snapshot), standalone(decoded));
+      Assert.assertEquals(
+          message,
+          standalone(snapshot).getDefaultPriceList(),
+          standalone(decoded).getDefaultPriceList());
+      Assert.assertEquals(
+          message, standalone(snapshot).getPlanRules(), standalone(decoded).getPlanRules());
+    }
+  }
+
+  @Test
+  public void decodedCatalogKeepsSharedObjects() throws Exception {
+    CatalogSnapshot snapshot = snapshot(build(3, 200, CatalogInterner.SHARED));
+
+    CatalogSnapshot decoded = CatalogSnapshotCodec.decode(CatalogSnapshotCodec.encode(snapshot));
+
+    List<Plan> originalPlans = toList(standalone(snapshot).getPlans());
+    List<Plan> decodedPlans = toList(standalone(decoded).getPlans());
+    for (int i = 1; i < originalPlans.size(); i++) {
+      Plan original = originalPlans.get(i);
+      Plan previous = originalPlans.get(i - 1);
+      Assert.assertEquals(
+          original.getProduct() == previous.getProduct(),
+          decodedPlans.get(i).getProduct() == decodedPlans.get(i - 1).getProduct());
+      Assert.assertEquals(
+          original.getPriceList() == previous.getPriceList(),
+          decodedPlans.get(i).getPriceList() == decodedPlans.get(i - 1).getPriceList());
+    }
+  }
+
+  @Test
+  public void lazyUsagesAreMaterialized() throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder().withSeed(5).withPlans(30).build();
+    StubAmberfloHttpClient client = new StubAmberfloHttpClient(CatalogInterner.SHARED, 1, 5);
+    AmberfloUtils lazy = new AmberfloUtils(client, CatalogInterner.SHARED, 1, true);
+    AmberfloUtils eager = new AmberfloUtils(client, CatalogInterner.SHARED, 1, false);
+
+    List<Plan> lazyPlans =
+        lazy.convertToKillBillPlanModel(catalog.getPlans(), catalog.getProductItems());
+    List<Plan> eagerPlans =
+        eager.convertToKillBillPlanModel(catalog.getPlans(), catalog.getProductItems());
+    StandalonePluginCatalog lazyCatalog =
+        new ImmutableStandalonePluginCatalog.Builder().withPlans(lazyPlans).build();
+
+    CatalogSnapshot decoded =
+        CatalogSnapshotCodec.decode(CatalogSnapshotCodec.encode(snapshot(lazyCatalog)));
+
+    Assert.assertEquals(eagerPlans, toList(standalone(decoded).getPlans()));
+  }
+
+  @Test
+  public void rejectsOtherFormats() throws Exception {
+    byte[] encoded = CatalogSnapshotCodec.encode(snapshot(build(1, 20, CatalogInterner.SHARED)));
+
+    byte[] otherVersion = encoded.clone();
+    otherVersion[4] = 99;
+    assertRejected(otherVersion, "Unsupported catalog snapshot format version 99");
+
+    byte[] otherMagic = encoded.clone();
+    otherMagic[0] = 'X';
+    assertRejected(otherMagic, "Not a catalog snapshot");
+
+    assertRejected(Arrays.copyOf(encoded, encoded.length / 2), "Truncated catalog snapshot");
+
+    // Counts past the end of the snapshot are rejected before anything is allocated for them
+    assertRejected(
+        withFirstCount(encoded, 0xFF, 0xFF, 0xFF, 0xFF, 0x07), "Truncated catalog snapshot");
+    assertRejected(
+        withFirstCount(encoded, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F),
+        "Malformed count -1 in catalog snapshot");
+  }
+
+  // Replaces the count of the first section, right after the header, by the given varint
+  private static byte[] withFirstCount(byte[] encoded, int... varint) {
+    int header = 5;
+    int end = header;
+    while ((encoded[end] & 0x80) != 0) {
+      end++;
+    }
+    byte[] corrupted = new byte[encoded.length - (end + 1 - header) + varint.length];
+    System.arraycopy(encoded, 0, corrupted, 0, header);
+    for (int i = 0; i < varint.length; i++) {
+      corrupted[header + i] = (byte) varint[i];
+    }
+    System.arraycopy(
+        encoded, end + 1, corrupted, header + varint.length, encoded.length - end - 1);
+    return corrupted;
+  }
+
+  private static void assertRejected(byte[] bytes, String message) {
+    try {
+      CatalogSnapshotCodec.decode(bytes);
+      Assert.fail("Expected " + message);
+    } catch (IOException e) {
+      Assert.assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static StandalonePluginCatalog build(int seed, int plans, CatalogInterner interner)
+      throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder().withSeed(seed).withPlans(plans).build();
+    return new StubAmberfloHttpClient(interner, 1, 8)
+        .buildCatalog(catalog.getPlans(), catalog.getProductItems());
+  }
+
+  private static CatalogSnapshot snapshot(StandalonePluginCatalog standalone) {
+    VersionedPluginCatalog catalog =
+        new VersionedPluginCatalogImp(
+            new VersionedPluginCatalogImp.Builder<>()
+                .withCatalogName("Amberflo Catalog")
+                .withStandalonePluginCatalogs(Collections.singletonList(standalone))
+                .build());
+    return new CatalogSnapshot(catalog, new DateTime(1700000000000L), 1700000001234L, 321L);
+  }
+
+  private static StandalonePluginCatalog standalone(CatalogSnapshot snapshot) {
+    return snapshot.getCatalog().getStandalonePluginCatalogs().iterator().next();
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
@@ -0,0 +1,156 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.api.CatalogSnapshot;
+import org.killbill.billing.plugin.amberflo.catalog.api.boilerplate.VersionedPluginCatalogImp;
+import org.killbill.billing.plugin.amberflo.catalog.client.CatalogInterner;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotCodec;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.CatalogSnapshotStore;
+import org.killbill.billing.plugin.amberflo.catalog.snapshot.MappedStandalonePluginCatalog;
+import org.killbill.billing.plugin.client.StubAmberfloHttpClient;
+import org.killbill.billing.plugin.synthetic.SyntheticAmberfloCatalog;
+
+public class CatalogSnapshotStoreTest {
+
+  private static final UUID TENANT = new UUID(0, 1);
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void loadedCatalogMatchesSavedCatalog() throws Exception {
+    CatalogSnapshotStore store = new CatalogSnapshotStore(folder.getRoot().toPath());
+    for (int seed = 0; seed < 10; seed++) {
+      CatalogInterner interner = seed % 2 == 0 ? CatalogInterner.SHARED : CatalogInterner.DISABLED;
+      CatalogSnapshot snapshot = snapshot(build(seed, 50 + seed * 20, interner));
+
+      store.save(TENANT, snapshot);
+      CatalogSnapshot loaded = store.load(TENANT);
+
+      String message = "seed " + seed;
+      StandalonePluginCatalog expected = standalone(snapshot);
+      MappedStandalonePluginCatalog actual = (MappedStandalonePluginCatalog) standalone(loaded);
+      Assert.assertTrue(message, snapshot.getVersion().isEqual(loaded.getVersion()));
+      Assert.assertEquals(message, snapshot.getBuiltAtMillis(), loaded.getBuiltAtMillis());
+      Assert.assertEquals(
+          message, snapshot.getCatalog().getCatalogName(), loaded.getCatalog().getCatalogName());
+      Assert.assertTrue(message, expected.getEffectiveDate().isEqual(actual.getEffectiveDate()));
+      Assert.assertEquals(message, toList(expected.getCurrencies()), actual.getCurrencies());
+      Assert.assertEquals(message, toList(expected.getUnits()), actual.getUnits());
+      Assert.assertEquals(message, toList(expected.getProducts()), actual.getProducts());
+      Assert.assertEquals(message, toList(expected.getPlans()), actual.getPlans());
+      Assert.assertEquals(message, expected.getDefaultPriceList(), actual.getDefaultPriceList());
+      Assert.assertEquals(
+          message, toList(expected.getChildrenPriceList()), actual.getChildrenPriceList());
+      Assert.assertEquals(message, expected.getPlanRules(), actual.getPlanRules());
+
+      for (Plan plan : expected.getPlans()) {
+        Assert.assertEquals(message, plan, actual.findPlan(plan.getName()));
+      }
+      Assert.assertNull(message, actual.findPlan("missing"));
+    }
+  }
+
+  @Test
+  public void plansAreDecodedOnAccess() throws Exception {
+    CatalogSnapshotStore store = new CatalogSnapshotStore(folder.getRoot().toPath());
+    store.save(TENANT, snapshot(build(3, 200, CatalogInterner.SHARED)));
+
+    Iterable<Plan> plans = standalone(store.load(TENANT)).getPlans();
+
+    Plan first = plans.iterator().next();
+    Plan again = plans.iterator().next();
+    Assert.assertNotSame(first, again);
+    Assert.assertEquals(first, again);
+    // Shared records are decoded once
+    Assert.assertSame(first.getProduct(), again.getProduct());
+    Assert.assertSame(first.getPriceList(), again.getPriceList());
+  }
+
+  @Test
+  public void mappedCatalogSurvivesReplacement() throws Exception {
+    CatalogSnapshotStore store = new CatalogSnapshotStore(folder.getRoot().toPath());
+    StandalonePluginCatalog first = build(1, 80, CatalogInterner.SHARED);
+    StandalonePluginCatalog second = build(2, 120, CatalogInterner.SHARED);
+
+    store.save(TENANT, snapshot(first));
+    CatalogSnapshot loaded = store.load(TENANT);
+    store.save(TENANT, snapshot(second));
+
+    Assert.assertEquals(toList(first.getPlans()), standalone(loaded).getPlans());
+    Assert.assertEquals(toList(second.getPlans()), standalone(store.load(TENANT)).getPlans());
+    Assert.assertEquals(1, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws Exception {
+    CatalogSnapshotStore store = new CatalogSnapshotStore(folder.getRoot().toPath());
+    Assert.assertNull(store.load(TENANT));
+
+    CatalogSnapshot snapshot = snapshot(build(4, 20, CatalogInterner.SHARED));
+    Files.write(store.getPath(TENANT), CatalogSnapshotCodec.encode(snapshot));
+    try {
+      store.load(TENANT);
+      Assert.fail("Expected the codec layout to be rejected");
+    } catch (IOException e) {
+      Assert.assertEquals("Not a catalog snapshot", e.getMessage());
+    }
+
+    Assert.assertTrue(store.delete(TENANT));
+    Assert.assertNull(store.load(TENANT));
+  }
+
+  private static StandalonePluginCatalog build(int seed, int plans, CatalogInterner interner)
+      throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder().withSeed(seed).withPlans(plans).build();
+    return new StubAmberfloHttpClient(interner, 1, 8)
+        .buildCatalog(catalog.getPlans(), catalog.getProductItems());
+  }
+
+  private static CatalogSnapshot snapshot(StandalonePluginCatalog standalone) {
+    VersionedPluginCatalog catalog =
+        new VersionedPluginCatalogImp(
+            new VersionedPluginCatalogImp.Builder<>()
+                .withCatalogName("Amberflo Catalog")
+                .withStandalonePluginCatalogs(Collections.singletonList(standalone))
+                .build());
+    return new CatalogSnapshot(catalog, new DateTime(1700000000000L), 1700000001234L, 321L);
+  }
+
+  private static StandalonePluginCatalog standalone(CatalogSnapshot snapshot) {
+    return snapshot.getCatalog().getStandalonePluginCatalogs().iterator().next();
+  }
+
+  private static <T> List<T> toList(Iterable<T> iterable) {
+    List<T> list = new ArrayList<>();
+    iterable.forEach(list::add);
+    return list;
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.synthetic;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Fault injected by SyntheticAmberfloServer in the responses of a path. A fault either answers
+ * the request itself and returns true, or returns false to let the server send the response.
+ */
+public interface AmberfloFault {
+
+  boolean apply(HttpExchange exchange, int status, byte[] body) throws IOException;
+
+  // Delays the response by the given time
+  static AmberfloFault slowResponse(long millis) {
+    return (exchange, status, body) -> {
+      sleep(millis);
+      return false;
+    };
+  }
+
+  // Closes the connection before sending anything, as a peer resetting the connection would
+  static AmberfloFault connectionReset() {
+    return (exchange, status, body) -> {
+      exchange.close();
+      return true;
+    };
+  }
+
+  // Sends a successful response whose JSON body is cut in half
+  static AmberfloFault truncatedJson() {
+    return (exchange, status, body) -> {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body, 0, body.length / 2);
+      }
+      return true;
+    };
+  }
+
+  // Rejects the request with a 429 asking to retry after the given number of seconds
+  static AmberfloFault tooManyRequests(int retryAfterSeconds) {
+    return (exchange, status, body) -> {
+      exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+      return error(exchange, 429, "Too Many Requests");
+    };
+  }
+
+  // Fails the next requests with the given server error, then lets the following ones through
+  static AmberfloFault serverErrors(int status, int count) {
+    AtomicInteger remaining = new AtomicInteger(count);
+    return (exchange, code, body) ->
+        remaining.getAndDecrement() > 0 && error(exchange, status, "Server Error");
+  }
+
+  // Sends the headers and the first bytes of the body, then stops writing for the given time
+  static AmberfloFault stalledSocket(long millis) {
+    return (exchange, status, body) -> {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, 0);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body, 0, Math.min(body.length, 16));
+      out.flush();
+      sleep(millis);
+      exchange.close();
+      return true;
+    };
+  }
+
+  private static boolean error(HttpExchange exchange, int status, String message)
+      throws IOException {
+    byte[] body = ("{\"message\":\"" + message + "\"}").getBytes();
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+    return true;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
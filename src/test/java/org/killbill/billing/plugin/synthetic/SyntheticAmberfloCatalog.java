@@ -0,0 +1,283 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.synthetic;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.BillingPeriod;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.Fee;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductItem;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.ProductPlans;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsagePrice;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageResponse;
+import org.killbill.billing.plugin.amberflo.catalog.client.model.UsageTier;
+
+/*
+ * Deterministic amberflo catalog generated from a seed: the same builder settings always produce
+ * the same plans, product items and prices, byte for byte once serialized. Prices are generated
+ * on demand from the seed and the price id, so catalogs of thousands of plans stay cheap to hold.
+ */
+public class SyntheticAmberfloCatalog {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final long LAST_UPDATE_TIME_MILLIS = 1679937405691L;
+  private static final double[] BATCH_SIZES = {1, 10, 100, 1000};
+
+  private final long seed;
+  private final int maxTiers;
+  private final List<ProductPlans> plans;
+  private final List<ProductItem> productItems;
+  private final Map<String, String> priceIdToProductItemId = new LinkedHashMap<>();
+
+  private SyntheticAmberfloCatalog(Builder builder) {
+    this.seed = builder.seed;
+    this.maxTiers = builder.maxTiers;
+
+    Random random = new Random(builder.seed);
+    this.productItems =
+        Collections.unmodifiableList(
+            generateProductItems(
+                random,
+                builder.productItems > 0 ? builder.productItems : Math.max(1, builder.plans / 5)));
+    this.plans = Collections.unmodifiableList(generatePlans(random, builder));
+  }
+
+  public List<ProductPlans> getPlans() {
+    return plans;
+  }
+
+  public List<ProductItem> getProductItems() {
+    return productItems;
+  }
+
+  // Every price id referenced by the plans, in generation order
+  public List<String> getPriceIds() {
+    return new ArrayList<>(priceIdToProductItemId.keySet());
+  }
+
+  // Number of Kill Bill plans the plugin builds: one per fee and one per price id of each plan
+  public int getExpectedKillBillPlans() {
+    int count = 0;
+    for (ProductPlans plan : plans) {
+      if (!"close_to_changes".equals(plan.getLockingStatus())) {
+        continue;
+      }
+      count += plan.getFeeMap() != null ? plan.getFeeMap().size() : 0;
+      count += plan.getProductItemPriceIdsMap().size();
+    }
+    return count;
+  }
+
+  // Returns the pricing of a price id, or null if the catalog does not reference it
+  public UsageResponse getUsage(String priceId) {
+    String productItemId = priceIdToProductItemId.get(priceId);
+    if (productItemId == null) {
+      return null;
+    }
+
+    Random random = new Random(seed ^ priceId.hashCode());
+    UsageTier[] tiers = new UsageTier[1 + random.nextInt(maxTiers)];
+    double startAfterUnit = 0;
+    for (int i = 0; i < tiers.length; i++) {
+      tiers[i] = new UsageTier();
+      tiers[i].setStartAfterUnit(startAfterUnit);
+      tiers[i].setBatchSize(BATCH_SIZES[random.nextInt(BATCH_SIZES.length)]);
+      tiers[i].setPricePerBatch(random.nextInt(10000) / 100.0);
+      startAfterUnit += 1000 * (1 + random.nextInt(100));
+    }
+
+    UsagePrice price = new UsagePrice();
+    price.setType("LeafNode");
+    price.setTiers(tiers);
+    price.setAllowPartialBatch(random.nextBoolean());
+
+    UsageResponse response = new UsageResponse();
+    response.setId(priceId);
+    response.setProductItemId(productItemId);
+    response.setPrice(price);
+    response.setProductItemPriceName(priceId);
+    response.setLockingStatus("close_to_changes");
+    response.setLastUpdateTimeInMillis(Long.toString(LAST_UPDATE_TIME_MILLIS));
+    return response;
+  }
+
+  public String getPlansJson() throws JsonProcessingException {
+    return mapper.writeValueAsString(plans);
+  }
+
+  public String getProductItemsJson() throws JsonProcessingException {
+    return mapper.writeValueAsString(productItems);
+  }
+
+  public String getUsageJson(String priceId) throws JsonProcessingException {
+    UsageResponse usage = getUsage(priceId);
+    return usage != null ? mapper.writeValueAsString(usage) : null;
+  }
+
+  private List<ProductItem> generateProductItems(Random random, int count) {
+    List<ProductItem> items = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      ProductItem item = new ProductItem();
+      item.setId(uuid(random));
+      item.setProductId("1");
+      item.setMeterApiName("meter-" + i + "-api");
+      item.setProductItemName("Item " + i);
+      item.setDescription("");
+      item.setLockingStatus("close_to_changes");
+      item.setLastUpdateTimeInMillis(Long.toString(LAST_UPDATE_TIME_MILLIS + i));
+      items.add(item);
+    }
+    return items;
+  }
+
+  private List<ProductPlans> generatePlans(Random random, Builder builder) {
+    List<String> intervals = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : builder.billingPeriodMix.entrySet()) {
+      for (int i = 0; i < entry.getValue(); i++) {
+        intervals.add(entry.getKey());
+      }
+    }
+
+    List<ProductPlans> result = new ArrayList<>(builder.plans);
+    for (int i = 0; i < builder.plans; i++) {
+      Map<String, Fee> feeMap = new LinkedHashMap<>();
+      int fees = random.nextInt(builder.maxFees + 1);
+      for (int j = 0; j < fees; j++) {
+        Fee fee = new Fee();
+        fee.setId(uuid(random));
+        fee.setName("Fee " + i + "-" + j);
+        fee.setDescription(random.nextInt(10) == 0 ? "One Time fee" : "Recurring fee");
+        fee.setCost(random.nextInt(100000) / 100.0);
+        fee.setIsOneTimeFee(Boolean.toString(fee.getDescription().startsWith("One")));
+        fee.setPrepayable(true);
+        feeMap.put(fee.getId(), fee);
+      }
+
+      // Keyed by product item id, as in amberflo, so repeated items collapse into one entry
+      Map<String, String> priceIds = new LinkedHashMap<>();
+      int prices = random.nextInt(builder.maxPriceIds + 1);
+      for (int j = 0; j < prices; j++) {
+        String productItemId = productItems.get(random.nextInt(productItems.size())).getId();
+        String priceId = uuid(random);
+        if (!priceIds.containsKey(productItemId)) {
+          priceIds.put(productItemId, priceId);
+          priceIdToProductItemId.put(priceId, productItemId);
+        }
+      }
+
+      BillingPeriod billingPeriod = new BillingPeriod();
+      billingPeriod.setInterval(intervals.get(random.nextInt(intervals.size())));
+      billingPeriod.setIntervalsCount(1);
+
+      ProductPlans plan = new ProductPlans();
+      plan.setId(uuid(random));
+      plan.setProductId("1");
+      plan.setProductItemPriceIdsMap(priceIds);
+      plan.setBillingPeriod(billingPeriod);
+      plan.setProductPlanName("plan-" + i + "-" + billingPeriod.getInterval());
+      plan.setDescription("");
+      plan.setLastUpdateTimeInMillis(Long.toString(LAST_UPDATE_TIME_MILLIS + i));
+      plan.setFeeMap(feeMap);
+      plan.setLockingStatus(
+          random.nextInt(100) < builder.openPlanPercent ? "open" : "close_to_changes");
+      plan.setIsDefault(i == 0);
+      result.add(plan);
+    }
+    return result;
+  }
+
+  private static String uuid(Random random) {
+    return new UUID(random.nextLong(), random.nextLong()).toString();
+  }
+
+  public static class Builder {
+
+    private long seed = 42;
+    private int plans = 100;
+    private int productItems;
+    private int maxFees = 4;
+    private int maxPriceIds = 3;
+    private int maxTiers = 5;
+    private int openPlanPercent;
+    private Map<String, Integer> billingPeriodMix = defaultBillingPeriodMix();
+
+    public Builder withSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Builder withPlans(int plans) {
+      this.plans = plans;
+      return this;
+    }
+
+    // Number of product items the price ids point to, a fifth of the plans by default
+    public Builder withProductItems(int productItems) {
+      this.productItems = productItems;
+      return this;
+    }
+
+    // Each plan gets between 0 and maxFees fees
+    public Builder withMaxFees(int maxFees) {
+      this.maxFees = maxFees;
+      return this;
+    }
+
+    // Each plan gets between 0 and maxPriceIds price ids
+    public Builder withMaxPriceIds(int maxPriceIds) {
+      this.maxPriceIds = maxPriceIds;
+      return this;
+    }
+
+    // Each price gets between 1 and maxTiers tiers
+    public Builder withMaxTiers(int maxTiers) {
+      this.maxTiers = maxTiers;
+      return this;
+    }
+
+    // Share of plans left open to changes, which the plugin ignores
+    public Builder withOpenPlanPercent(int openPlanPercent) {
+      this.openPlanPercent = openPlanPercent;
+      return this;
+    }
+
+    // Relative weight of each billing interval (day, week, month or year)
+    public Builder withBillingPeriodMix(Map<String, Integer> billingPeriodMix) {
+      this.billingPeriodMix = new LinkedHashMap<>(billingPeriodMix);
+      return this;
+    }
+
+    public SyntheticAmberfloCatalog build() {
+      return new SyntheticAmberfloCatalog(this);
+    }
+
+    private static Map<String, Integer> defaultBillingPeriodMix() {
+      Map<String, Integer> mix = new LinkedHashMap<>();
+      mix.put("day", 1);
+      mix.put("week", 1);
+      mix.put("month", 6);
+      mix.put("year", 2);
+      return mix;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.synthetic;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.killbill.billing.catalog.plugin.api.StandalonePluginCatalog;
+import org.killbill.billing.plugin.amberflo.catalog.client.AmberfloHttpClientImpl;
+import org.killbill.billing.plugin.amberflo.catalog.core.CatalogConfigurationProperties;
+
+public class SyntheticAmberfloCatalogTest {
+
+  @Test
+  public void sameSeedGeneratesSameCatalog() throws Exception {
+    SyntheticAmberfloCatalog first = new SyntheticAmberfloCatalog.Builder().withSeed(7).build();
+    SyntheticAmberfloCatalog second = new SyntheticAmberfloCatalog.Builder().withSeed(7).build();
+    SyntheticAmberfloCatalog other = new SyntheticAmberfloCatalog.Builder().withSeed(8).build();
+
+    Assert.assertEquals(first.getPlansJson(), second.getPlansJson());
+    Assert.assertEquals(first.getProductItemsJson(), second.getProductItemsJson());
+    Assert.assertEquals(first.getPriceIds(), second.getPriceIds());
+    for (String priceId : first.getPriceIds()) {
+      Assert.assertEquals(first.getUsageJson(priceId), second.getUsageJson(priceId));
+    }
+    Assert.assertNotEquals(first.getPlansJson(), other.getPlansJson());
+  }
+
+  @Test
+  public void pluginBuildsServedCatalog() throws Exception {
+    SyntheticAmberfloCatalog catalog =
+        new SyntheticAmberfloCatalog.Builder()
+            .withSeed(3)
+            .withPlans(300)
+            .withMaxTiers(8)
+            .withOpenPlanPercent(10)
+            .build();
+    SyntheticAmberfloServer server = new SyntheticAmberfloServer(catalog).start();
+    try {
+      CatalogConfigurationProperties config =
+          new CatalogConfigurationProperties(server.getConfigurationProperties("synthetic"), "");
+      StandalonePluginCatalog built = new AmberfloHttpClientImpl(config).buildCatalog();
+
+      List<Object> plans = new ArrayList<>();
+      built.getPlans().forEach(plans::add);
+      Assert.assertEquals(catalog.getExpectedKillBillPlans(), plans.size());
+    } finally {
+      server.stop();
+    }
+  }
+}
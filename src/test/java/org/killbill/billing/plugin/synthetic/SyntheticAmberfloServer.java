@@ -0,0 +1,209 @@
+/* Copyright 2023 Wovenware, Inc
+ *
+ * Wovenware licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.synthetic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Local HTTP stub of the amberflo endpoints serving synthetic catalogs. Each tenant is told apart
+ * by the X-API-KEY header of its requests; requests with an unknown key get the default catalog.
+ * A latency and jitter can be added to every response, and faults can be injected per path.
+ */
+public class SyntheticAmberfloServer {
+
+  public static final String PLANS_PATH = "/plans";
+  public static final String PRICES_PATH = "/prices";
+  public static final String PRODUCTS_PATH = "/products";
+
+  private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.amberflo.catalog.";
+
+  private final Map<String, SyntheticAmberfloCatalog> catalogs = new ConcurrentHashMap<>();
+  private final Map<SyntheticAmberfloCatalog, byte[]> plansJson = new ConcurrentHashMap<>();
+  private final Map<SyntheticAmberfloCatalog, byte[]> productsJson = new ConcurrentHashMap<>();
+  private final Map<String, AmberfloFault> faults = new ConcurrentHashMap<>();
+  private final AtomicLong requests = new AtomicLong();
+
+  private volatile SyntheticAmberfloCatalog defaultCatalog;
+  private volatile int latencyMillis;
+  private volatile int jitterMillis;
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public SyntheticAmberfloServer(SyntheticAmberfloCatalog defaultCatalog) {
+    this.defaultCatalog = defaultCatalog;
+  }
+
+  public SyntheticAmberfloServer start() throws IOException {
+    // Without TCP_NODELAY small responses wait for delayed acknowledgements, about 40 ms each
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(32);
+    server.setExecutor(executor);
+    server.createContext(PLANS_PATH, this::handlePlans);
+    server.createContext(PRICES_PATH, this::handlePrices);
+    server.createContext(PRODUCTS_PATH, this::handleProducts);
+    server.start();
+    return this;
+  }
+
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public String getUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + getPort();
+  }
+
+  // Serves the catalog to the requests made with the given api key
+  public void addTenant(String apiKey, SyntheticAmberfloCatalog catalog) {
+    catalogs.put(apiKey, catalog);
+  }
+
+  public void setDefaultCatalog(SyntheticAmberfloCatalog catalog) {
+    this.defaultCatalog = catalog;
+  }
+
+  // Every response is delayed by latency +/- jitter milliseconds
+  public void setLatency(int latencyMillis, int jitterMillis) {
+    this.latencyMillis = latencyMillis;
+    this.jitterMillis = jitterMillis;
+  }
+
+  // Injects the fault in every response of the path, until it is cleared
+  public void setFault(String path, AmberfloFault fault) {
+    faults.put(path, fault);
+  }
+
+  public void clearFaults() {
+    faults.clear();
+  }
+
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  // Plugin configuration pointing at this server, for the tenant using the api key
+  public Properties getConfigurationProperties(String apiKey) {
+    Properties properties = new Properties();
+    properties.setProperty(PROPERTY_PREFIX + "url", getUrl());
+    properties.setProperty(PROPERTY_PREFIX + "apiKey", apiKey);
+    properties.setProperty(PROPERTY_PREFIX + "getPlans", PLANS_PATH);
+    properties.setProperty(PROPERTY_PREFIX + "getPrices", PRICES_PATH);
+    properties.setProperty(PROPERTY_PREFIX + "getProducts", PRODUCTS_PATH);
+    return properties;
+  }
+
+  private void handlePlans(HttpExchange exchange) throws IOException {
+    SyntheticAmberfloCatalog catalog = catalogFor(exchange);
+    respond(exchange, 200, plansJson.computeIfAbsent(catalog, c -> toBytes(c::getPlansJson)));
+  }
+
+  private void handleProducts(HttpExchange exchange) throws IOException {
+    SyntheticAmberfloCatalog catalog = catalogFor(exchange);
+    respond(
+        exchange, 200, productsJson.computeIfAbsent(catalog, c -> toBytes(c::getProductItemsJson)));
+  }
+
+  private void handlePrices(HttpExchange exchange) throws IOException {
+    String id = queryParameter(exchange.getRequestURI().getRawQuery(), "id");
+    String usage = id != null ? catalogFor(exchange).getUsageJson(id) : null;
+    if (usage == null) {
+      respond(exchange, 404, "{\"message\":\"price not found\"}".getBytes(StandardCharsets.UTF_8));
+    } else {
+      respond(exchange, 200, usage.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private SyntheticAmberfloCatalog catalogFor(HttpExchange exchange) {
+    String apiKey = exchange.getRequestHeaders().getFirst("X-API-KEY");
+    SyntheticAmberfloCatalog catalog = apiKey != null ? catalogs.get(apiKey) : null;
+    return catalog != null ? catalog : defaultCatalog;
+  }
+
+  private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    requests.incrementAndGet();
+    delay();
+    AmberfloFault fault = faults.get(exchange.getHttpContext().getPath());
+    if (fault != null && fault.apply(exchange, status, body)) {
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private void delay() {
+    int latency = latencyMillis;
+    int jitter = jitterMillis;
+    if (latency <= 0 && jitter <= 0) {
+      return;
+    }
+    int offset = jitter > 0 ? ThreadLocalRandom.current().nextInt(-jitter, jitter + 1) : 0;
+    try {
+      Thread.sleep(Math.max(0, latency + offset));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String queryParameter(String query, String name) {
+    if (query == null) {
+      return null;
+    }
+    for (String pair : query.split("&")) {
+      int separator = pair.indexOf('=');
+      if (separator > 0 && pair.substring(0, separator).equals(name)) {
+        return URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  private static byte[] toBytes(JsonSupplier supplier) {
+    try {
+      return supplier.get().getBytes(StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private interface JsonSupplier {
+    String get() throws IOException;
+  }
+}